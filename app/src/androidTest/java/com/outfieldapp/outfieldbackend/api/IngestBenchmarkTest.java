@@ -0,0 +1,144 @@
+package com.outfieldapp.outfieldbackend.api;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.outfieldapp.outfieldbackend.OutfieldApp;
+import com.outfieldapp.outfieldbackend.api.response.SyncResponseReader;
+import com.outfieldapp.outfieldbackend.database.OutfieldContract;
+import com.outfieldapp.outfieldbackend.models.Contact;
+import com.outfieldapp.outfieldbackend.models.Interaction;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares writing a parsed sync page of contacts, each with addresses, emails and phones, one
+ * contact and commit at a time, as models were saved before {@link SyncIngester}, with writing
+ * it through a {@link SyncIngester} committed every {@link SyncPager#BATCH_SIZE} contacts, as
+ * {@link SyncPager} does. The same page is then applied again, when every contact should be
+ * skipped as unchanged. Rows per second for each are logged.
+ */
+public class IngestBenchmarkTest extends AndroidTestCase {
+
+    public static final String TAG = IngestBenchmarkTest.class.getSimpleName();
+
+    private static final int CONTACTS = 500;
+    /** Addresses, emails and phones each contact has. */
+    private static final int CHILDREN = 2;
+    private static final int ROWS_PER_CONTACT = 1 + 3 * CHILDREN;
+    private static final long FIRST_CONTACT_ID = 20001;
+
+    @Override
+    protected void tearDown() throws Exception {
+        // Child rows go with their contacts
+        OutfieldApp.getDatabase().getWritableDatabase().delete(OutfieldContract.Contact.TABLE_NAME,
+                OutfieldContract.Contact.CONTACT_ID + " BETWEEN " + FIRST_CONTACT_ID + " AND "
+                        + (FIRST_CONTACT_ID + 2 * CONTACTS - 1), null);
+        super.tearDown();
+    }
+
+    public void testBatchedIngestIsFaster() throws IOException {
+        List<Contact> alone = parse(FIRST_CONTACT_ID);
+        long start = SystemClock.elapsedRealtime();
+        for (Contact contact : alone) {
+            assertTrue(contact.save());
+        }
+        long aloneMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+        List<Contact> batched = parse(FIRST_CONTACT_ID + CONTACTS);
+        start = SystemClock.elapsedRealtime();
+        SyncIngester ingester = ingest(batched);
+        long batchedMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+        assertEquals(0, ingester.getFailureCount());
+
+        start = SystemClock.elapsedRealtime();
+        SyncIngester again = ingest(parse(FIRST_CONTACT_ID + CONTACTS));
+        long againMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+        int rows = CONTACTS * ROWS_PER_CONTACT;
+        Log.i(TAG, CONTACTS + " contacts, " + rows + " rows: "
+                + (rows * 1000 / aloneMillis) + " rows/sec one commit per contact, "
+                + (rows * 1000 / batchedMillis) + " rows/sec through SyncIngester, "
+                + againMillis + "ms to skip the same page again");
+        assertEquals(CONTACTS, again.getSkippedCount());
+        assertTrue(batchedMillis < aloneMillis);
+    }
+
+    /**
+     * Writes contacts as {@link SyncPager} does, committing after each batch.
+     */
+    private static SyncIngester ingest(List<Contact> contacts) {
+        SyncIngester ingester = new SyncIngester();
+        for (int i = 0; i < contacts.size(); i++) {
+            ingester.addContact(contacts.get(i));
+            if ((i + 1) % SyncPager.BATCH_SIZE == 0) ingester.commit();
+        }
+        ingester.commit();
+        return ingester;
+    }
+
+    /**
+     * @return A page of {@link #CONTACTS} new contacts, parsed as a sync response is.
+     */
+    private static List<Contact> parse(long firstId) throws IOException {
+        StringBuilder body = new StringBuilder(
+                "{\"token\":\"benchmark\",\"contacts\":{\"create\":[");
+        for (long id = firstId; id < firstId + CONTACTS; id++) {
+            if (id > firstId) body.append(',');
+            body.append("{\"id\":").append(id).append(",\"contact_type\":\"person\",")
+                    .append("\"name\":\"Contact ").append(id).append("\",")
+                    .append("\"company\":\"Outfield\",\"title\":\"Buyer\",");
+            body.append("\"addresses\":[");
+            for (int i = 0; i < CHILDREN; i++) {
+                if (i > 0) body.append(',');
+                body.append("{\"id\":").append(id * 10 + i)
+                        .append(",\"label\":\"work\",\"street1\":\"").append(i + 1)
+                        .append(" Main St\",\"city\":\"Springfield\",\"latitude\":39.8,")
+                        .append("\"longitude\":-89.6}");
+            }
+            body.append("],\"emails\":[");
+            for (int i = 0; i < CHILDREN; i++) {
+                if (i > 0) body.append(',');
+                body.append("{\"id\":").append(id * 10 + i).append(",\"label\":\"work\",")
+                        .append("\"value\":\"contact").append(id).append('.').append(i)
+                        .append("@example.com\"}");
+            }
+            body.append("],\"phones\":[");
+            for (int i = 0; i < CHILDREN; i++) {
+                if (i > 0) body.append(',');
+                body.append("{\"id\":").append(id * 10 + i).append(",\"label\":\"work\",")
+                        .append("\"value\":\"555-").append(id).append(i).append("\"}");
+            }
+            body.append("]}");
+        }
+        body.append("]}}");
+
+        final List<Contact> contacts = new ArrayList<>();
+        new SyncResponseReader(new Gson()).read(new StringReader(body.toString()),
+                new SyncResponseReader.Listener() {
+            @Override
+            public void onContact(Contact contact) {
+                contacts.add(contact);
+            }
+
+            @Override
+            public void onInteraction(Interaction interaction) {
+            }
+
+            @Override
+            public void onContactDeleted(long contactId) {
+            }
+
+            @Override
+            public void onInteractionDeleted(long interactionId) {
+            }
+        });
+        assertEquals(CONTACTS, contacts.size());
+        return contacts;
+    }
+}
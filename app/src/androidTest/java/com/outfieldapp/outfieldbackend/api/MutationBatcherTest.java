@@ -0,0 +1,158 @@
+package com.outfieldapp.outfieldbackend.api;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Uploads the same mutations one request each and in batches against a local server that adds
+ * a fixed delay to every response, like a slow mobile link, and compares round trips and time.
+ */
+public class MutationBatcherTest extends AndroidTestCase {
+
+    public static final String TAG = MutationBatcherTest.class.getSimpleName();
+
+    private static final int MUTATIONS = 100;
+    private static final long LATENCY_MILLIS = 100;
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    private final Gson gson = new Gson();
+    private final OkHttpClient client = new OkHttpClient();
+    private MockWebServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                MockResponse response = new MockResponse()
+                        .setBodyDelay(LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+                if (!request.getPath().endsWith("/" + Constants.Endpoints.BATCH)) {
+                    return response.setBody("{}");
+                }
+
+                // One successful result per operation, in order
+                int operations = gson.fromJson(request.getBody().readUtf8(), BatchRequest.class)
+                        .getOperations().size();
+                StringBuilder body = new StringBuilder("{\"results\":[");
+                for (int i = 0; i < operations; i++) {
+                    if (i > 0) body.append(',');
+                    body.append("{\"status\":200,\"body\":{}}");
+                }
+                return response.setBody(body.append("]}").toString());
+            }
+        });
+        server.start();
+        OutfieldAPI.setBaseUrl(server.url("/api/v2/").toString());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.shutdown();
+        OutfieldAPI.setBaseUrl(Constants.BASE_URL);
+        super.tearDown();
+    }
+
+    public void testBatchingSavesRoundTrips() throws Exception {
+        long aloneMillis = upload(1);
+        int aloneRequests = server.getRequestCount();
+        long batchedMillis = upload(MutationBatcher.DEFAULT_BATCH_SIZE);
+        int batchedRequests = server.getRequestCount() - aloneRequests;
+
+        Log.i(TAG, MUTATIONS + " mutations: " + aloneRequests + " requests in " + aloneMillis
+                + "ms alone, " + batchedRequests + " requests in " + batchedMillis
+                + "ms batched");
+        assertEquals(MUTATIONS, aloneRequests);
+        assertEquals(MUTATIONS / MutationBatcher.DEFAULT_BATCH_SIZE, batchedRequests);
+        assertTrue(batchedMillis < aloneMillis);
+    }
+
+    /**
+     * Uploads {@link #MUTATIONS} updates and waits for all of them to finish.
+     * @return The time taken, in milliseconds.
+     */
+    private long upload(int batchSize) throws InterruptedException {
+        MutationBatcher batcher = new MutationBatcher(new UploadScheduler(), batchSize);
+        CountDownLatch finished = new CountDownLatch(MUTATIONS);
+        AtomicInteger succeeded = new AtomicInteger();
+        for (int i = 0; i < MUTATIONS; i++) {
+            batcher.add(new UpdateMutation(i, finished, succeeded));
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        batcher.flush();
+        assertTrue(finished.await(60, TimeUnit.SECONDS));
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        assertEquals(MUTATIONS, succeeded.get());
+        assertEquals(MUTATIONS - batcher.getRequestsSent(), batcher.getRoundTripsSaved());
+        return elapsed;
+    }
+
+    private class UpdateMutation extends MutationBatcher.Mutation<JsonElement> {
+        private final String path;
+        private final CountDownLatch finished;
+        private final AtomicInteger succeeded;
+
+        UpdateMutation(int id, CountDownLatch finished, AtomicInteger succeeded) {
+            super(UploadScheduler.PRIORITY_UPDATE, "update contact " + id, "PUT",
+                    "contacts/" + id, null);
+            this.path = "contacts/" + id;
+            this.finished = finished;
+            this.succeeded = succeeded;
+        }
+
+        @Override
+        protected void send(final OutfieldAPI.ResponseCallback<JsonElement> callback) {
+            Request request = new Request.Builder()
+                    .url(server.url("/api/v2/" + path))
+                    .put(RequestBody.create(JSON, "{}"))
+                    .build();
+            client.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    callback.onResponse(false, null);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    response.body().close();
+                    callback.onResponse(response.isSuccessful(), null);
+                }
+            });
+        }
+
+        @Override
+        protected JsonElement read(Gson gson, JsonElement body) {
+            return body;
+        }
+
+        @Override
+        protected void onFinished(boolean success, JsonElement object) {
+            if (success) succeeded.incrementAndGet();
+            finished.countDown();
+        }
+    }
+}
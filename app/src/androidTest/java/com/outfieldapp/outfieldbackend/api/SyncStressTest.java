@@ -0,0 +1,198 @@
+package com.outfieldapp.outfieldbackend.api;
+
+import android.database.DatabaseUtils;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.outfieldapp.outfieldbackend.OutfieldApp;
+import com.outfieldapp.outfieldbackend.database.OutfieldContract;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Calls {@link SyncController#doSync()} from many threads at once against a local server that
+ * answers the user, forms and sync requests after a delay, so calls overlap running syncs and
+ * their callbacks. Checks that only one sync runs at a time, that every page is written and that
+ * the last page's token is saved.
+ */
+public class SyncStressTest extends AndroidTestCase {
+
+    public static final String TAG = SyncStressTest.class.getSimpleName();
+
+    private static final int THREADS = 8;
+    private static final int CALLS_PER_THREAD = 25;
+    private static final long LATENCY_MILLIS = 50;
+    private static final int CONTACTS_PER_PAGE = 20;
+    private static final long FIRST_CONTACT_ID = 9001;
+
+    private final RequestCounter meRequests = new RequestCounter();
+    private final RequestCounter syncRequests = new RequestCounter();
+    private MockWebServer server;
+    private String savedToken;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                String path = request.getPath();
+                if (path.startsWith("/api/v2/" + Constants.Endpoints.ME)) {
+                    return meRequests.respond(new MockResponse().setBody("{\"user\":{\"id\":1,"
+                            + "\"name\":\"Stress Test\",\"email\":\"stress@example.com\","
+                            + "\"is_active\":true}}"));
+                }
+                if (path.startsWith("/api/v2/" + Constants.Endpoints.SYNC)) {
+                    return syncRequests.respond(syncPage(path));
+                }
+                if (path.startsWith("/api/v2/" + Constants.Endpoints.FORMS)) {
+                    return new MockResponse().setBody("{\"forms\":[]}");
+                }
+                return new MockResponse().setBody("{}");
+            }
+        });
+        server.start();
+        OutfieldAPI.setBaseUrl(server.url("/api/v2/").toString());
+
+        savedToken = OutfieldApp.getSharedPrefs().getString(Constants.Headers.SYNC_TOKEN, null);
+        OutfieldApp.getSharedPrefs().edit().remove(Constants.Headers.SYNC_TOKEN).commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.shutdown();
+        OutfieldAPI.setBaseUrl(Constants.BASE_URL);
+        OutfieldApp.getSharedPrefs().edit()
+                .putString(Constants.Headers.SYNC_TOKEN, savedToken).commit();
+        OutfieldApp.getDatabase().getWritableDatabase().delete(
+                OutfieldContract.Contact.TABLE_NAME, contactRange(), null);
+        super.tearDown();
+    }
+
+    public void testOverlappingSyncs() throws Exception {
+        final SyncController controller = SyncController.getInstance();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final Random random = new Random(i);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int call = 0; call < CALLS_PER_THREAD; call++) {
+                            controller.doSync();
+                            SystemClock.sleep(random.nextInt(20));
+                        }
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Wait for the last sync, which may restart itself once the user details arrive
+        long deadline = SystemClock.elapsedRealtime() + 60000;
+        while (!isSettled(controller)) {
+            assertTrue("Sync did not finish", SystemClock.elapsedRealtime() < deadline);
+            SystemClock.sleep(100);
+        }
+
+        Log.i(TAG, THREADS * CALLS_PER_THREAD + " doSync calls: " + meRequests.total.get()
+                + " user requests, " + syncRequests.total.get() + " sync requests");
+        assertNull(error.get());
+        assertEquals(1, meRequests.maxInFlight.get());
+        assertEquals(1, syncRequests.maxInFlight.get());
+        assertEquals("page2", OutfieldApp.getSharedPrefs()
+                .getString(Constants.Headers.SYNC_TOKEN, null));
+        assertEquals(2 * CONTACTS_PER_PAGE, DatabaseUtils.queryNumEntries(
+                OutfieldApp.getDatabase().getReadableDatabase(),
+                OutfieldContract.Contact.TABLE_NAME, contactRange()));
+    }
+
+    /**
+     * @return True if no sync is running, checked twice so a sync restarting itself after
+     * fetching the user's details is not mistaken for a finished one.
+     */
+    private static boolean isSettled(SyncController controller) {
+        if (controller.isSyncing()) return false;
+        SystemClock.sleep(4 * LATENCY_MILLIS);
+        return !controller.isSyncing();
+    }
+
+    /**
+     * @return Two pages of new contacts for a sync from the beginning, then empty pages.
+     */
+    private static MockResponse syncPage(String path) {
+        int page;
+        if (path.contains("token=page2")) {
+            return new MockResponse()
+                    .setHeader(Constants.Headers.SYNC_STATUS, SyncPager.STATUS_DONE)
+                    .setBody("{\"token\":\"page2\"}");
+        } else if (path.contains("token=page1")) {
+            page = 2;
+        } else {
+            page = 1;
+        }
+
+        StringBuilder body = new StringBuilder("{\"token\":\"page" + page + "\","
+                + "\"contacts\":{\"create\":[");
+        long firstId = FIRST_CONTACT_ID + (page - 1) * CONTACTS_PER_PAGE;
+        for (long id = firstId; id < firstId + CONTACTS_PER_PAGE; id++) {
+            if (id > firstId) body.append(',');
+            body.append("{\"id\":").append(id)
+                    .append(",\"contact_type\":\"person\",\"name\":\"Contact ").append(id)
+                    .append("\"}");
+        }
+        body.append("]}}");
+        return new MockResponse()
+                .setHeader(Constants.Headers.SYNC_STATUS,
+                        page == 1 ? SyncPager.STATUS_MORE : SyncPager.STATUS_DONE)
+                .setBody(body.toString());
+    }
+
+    private static String contactRange() {
+        return OutfieldContract.Contact.CONTACT_ID + " BETWEEN " + FIRST_CONTACT_ID + " AND "
+                + (FIRST_CONTACT_ID + 2 * CONTACTS_PER_PAGE - 1);
+    }
+
+    /**
+     * Counts requests to one endpoint and the most that were being answered at once.
+     */
+    private static class RequestCounter {
+        final AtomicInteger total = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        MockResponse respond(MockResponse response) throws InterruptedException {
+            total.incrementAndGet();
+            int current = inFlight.incrementAndGet();
+            int max;
+            do {
+                max = maxInFlight.get();
+            } while (current > max && !maxInFlight.compareAndSet(max, current));
+            try {
+                // Held here rather than with a body delay, so overlapping requests are counted
+                Thread.sleep(LATENCY_MILLIS);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            return response;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.outfieldapp.outfieldbackend.api;
+
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks which failed uploads {@link UploadScheduler} sends again.
+ */
+public class UploadSchedulerTest extends AndroidTestCase {
+
+    private static final int MAX_ATTEMPTS = 2;
+
+    public void testServerErrorIsRetried() throws Exception {
+        assertEquals(MAX_ATTEMPTS, attempts(true, 503));
+    }
+
+    public void testTimeoutIsRetried() throws Exception {
+        assertEquals(MAX_ATTEMPTS, attempts(true, OutfieldAPI.NO_RESPONSE));
+    }
+
+    public void testClientErrorIsNotRetried() throws Exception {
+        assertEquals(1, attempts(true, 422));
+    }
+
+    public void testCreateIsNotRetried() throws Exception {
+        assertEquals(1, attempts(false, OutfieldAPI.NO_RESPONSE));
+    }
+
+    /**
+     * Sends an upload that always fails with a status and waits for the scheduler to give up.
+     * @return The number of times the upload was sent.
+     */
+    private int attempts(boolean idempotent, final int status) throws InterruptedException {
+        UploadScheduler scheduler = new UploadScheduler(1, MAX_ATTEMPTS);
+        final CountDownLatch finished = new CountDownLatch(1);
+        UploadScheduler.Upload<Void> upload = new UploadScheduler.Upload<Void>(
+                UploadScheduler.PRIORITY_UPDATE, "failing upload", idempotent) {
+            @Override
+            protected void send(OutfieldAPI.ResponseCallback<Void> callback) {
+                ((OutfieldAPI.StatusCallback<Void>) callback).onFailureStatus(status);
+                callback.onResponse(false, null);
+            }
+
+            @Override
+            protected void onFinished(boolean success, Void object) {
+                assertFalse(success);
+                finished.countDown();
+            }
+        };
+        scheduler.submit(upload);
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        return upload.getAttempts();
+    }
+}
@@ -0,0 +1,84 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Checks that {@link BlobStore#removeUnreferenced(SQLiteDatabase)} removes only old files that no
+ * image row refers to, so a blob whose row is still being inserted survives a sweep.
+ */
+public class BlobStoreTest extends AndroidTestCase {
+
+    private static final long OLD = System.currentTimeMillis() - 2 * BlobStore.GRACE_MILLIS;
+
+    private SQLiteDatabase db;
+    private File directory;
+    private BlobStore store;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        db = TestDatabase.create(getContext());
+        directory = new File(getContext().getCacheDir(), "blob-store-test");
+        store = new BlobStore(directory);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    public void testNewBlobIsKept() {
+        String hash = store.put(new byte[]{1, 2, 3});
+        assertEquals(0, store.removeUnreferenced(db));
+        assertTrue(store.contains(hash));
+    }
+
+    public void testOldUnreferencedBlobIsRemoved() {
+        String hash = store.put(new byte[]{1, 2, 3});
+        assertTrue(store.getFile(hash).setLastModified(OLD));
+        assertEquals(1, store.removeUnreferenced(db));
+        assertFalse(store.contains(hash));
+    }
+
+    public void testOldReferencedBlobIsKept() {
+        String hash = store.put(new byte[]{1, 2, 3});
+        assertTrue(store.getFile(hash).setLastModified(OLD));
+        ContentValues values = new ContentValues();
+        values.put(OutfieldContract.Image.IMAGE_HASH, hash);
+        db.insertOrThrow(OutfieldContract.Image.TABLE_NAME, null, values);
+
+        assertEquals(0, store.removeUnreferenced(db));
+        assertTrue(store.contains(hash));
+    }
+
+    public void testOnlyOldTemporaryFilesAreRemoved() throws IOException {
+        store.put(new byte[]{1});
+        File writing = new File(directory, "a.tmp");
+        File abandoned = new File(directory, "b.tmp");
+        assertTrue(writing.createNewFile());
+        assertTrue(abandoned.createNewFile());
+        assertTrue(abandoned.setLastModified(OLD));
+
+        assertEquals(1, store.removeUnreferenced(db));
+        assertTrue(writing.exists());
+        assertFalse(abandoned.exists());
+    }
+
+    public void testPutRestartsGracePeriod() {
+        String hash = store.put(new byte[]{1, 2, 3});
+        assertTrue(store.getFile(hash).setLastModified(OLD));
+        assertEquals(hash, store.put(new byte[]{1, 2, 3}));
+        assertEquals(0, store.removeUnreferenced(db));
+    }
+}
@@ -0,0 +1,85 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+/**
+ * Checks that a row that fails to write is counted without rolling back the rest of the caller's
+ * transaction, and that updates by row id write every column in place.
+ */
+public class DatabaseWriterTest extends AndroidTestCase {
+
+    private SQLiteDatabase db;
+    private DatabaseWriter writer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        db = TestDatabase.create(getContext());
+        writer = new DatabaseWriter(db);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        writer.close();
+        db.close();
+        super.tearDown();
+    }
+
+    public void testFailedRowIsCounted() {
+        db.beginTransaction();
+        try {
+            String table = OutfieldContract.Contact.TABLE_NAME;
+            assertTrue(writer.insert(table, contact(1, "person")) > 0);
+            // contact_type is NOT NULL
+            assertEquals(-1, writer.insert(table, contact(2, null)));
+            assertTrue(writer.insert(table, contact(3, "place")) > 0);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        assertEquals(1, writer.getFailures());
+        assertEquals(2, DatabaseUtils.queryNumEntries(db, OutfieldContract.Contact.TABLE_NAME));
+    }
+
+    public void testUpdateChangesApiIdInPlace() {
+        String table = OutfieldContract.Contact.TABLE_NAME;
+        writer.insert(table, contact(1, "person"));
+        long rowId = writer.upsert(OutfieldContract.Phone.TABLE_NAME,
+                OutfieldContract.Phone.COLUMNS, phone(-3, "555-0100"));
+        assertTrue(rowId > 0);
+
+        assertEquals(1, writer.update(OutfieldContract.Phone.TABLE_NAME,
+                OutfieldContract.Phone.COLUMNS, rowId, phone(3, "555-0100")));
+        assertEquals("3", DatabaseUtils.stringForQuery(db,
+                "SELECT phone_id FROM phone WHERE _id=" + rowId, null));
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, OutfieldContract.Phone.TABLE_NAME));
+
+        // Writing the same values again changes nothing
+        assertEquals(0, writer.update(OutfieldContract.Phone.TABLE_NAME,
+                OutfieldContract.Phone.COLUMNS, rowId, phone(3, "555-0100")));
+    }
+
+    private static UpsertStatement.Binder phone(final long phoneId, final String value) {
+        return new UpsertStatement.Binder() {
+            @Override
+            public void bindValues(UpsertStatement statement) {
+                statement.bindId(phoneId);
+                statement.bindId(1);
+                statement.bindString("work");
+                statement.bindString(value);
+                statement.bindBoolean(false);
+            }
+        };
+    }
+
+    private static ContentValues contact(long contactId, String type) {
+        ContentValues values = new ContentValues();
+        values.put(OutfieldContract.Contact.CONTACT_ID, contactId);
+        values.put(OutfieldContract.Contact.CONTACT_TYPE, type);
+        return values;
+    }
+}
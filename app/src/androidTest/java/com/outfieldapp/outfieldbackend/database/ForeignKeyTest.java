@@ -0,0 +1,77 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+/**
+ * Checks that child rows follow their parent when its local id is replaced by a server id, and
+ * are removed when the parent is deleted.
+ */
+public class ForeignKeyTest extends AndroidTestCase {
+
+    private SQLiteDatabase db;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        db = TestDatabase.create(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.close();
+        super.tearDown();
+    }
+
+    public void testFormIdsFollowInteractionId() {
+        insertInteraction(-1);
+        insertInteractionForm(-1, 5);
+
+        db.execSQL("UPDATE interaction SET interaction_id=7 WHERE interaction_id=-1");
+        assertEquals(1, count("interaction_form", "interaction_id=7"));
+        assertEquals(0, count("interaction_form", "interaction_id=-1"));
+    }
+
+    public void testFormIdsGoWithDeletedInteraction() {
+        insertInteraction(7);
+        insertInteractionForm(7, 5);
+
+        db.execSQL("DELETE FROM interaction WHERE interaction_id=7");
+        assertEquals(0, count("interaction_form", null));
+    }
+
+    public void testChoicesGoWithDeletedField() {
+        ContentValues field = new ContentValues();
+        field.put(OutfieldContract.FormField.FORM_FIELD_ID, 3);
+        db.insertOrThrow(OutfieldContract.FormField.TABLE_NAME, null, field);
+        ContentValues choice = new ContentValues();
+        choice.put(OutfieldContract.FormFieldChoice.FORM_FIELD_ID, 3);
+        choice.put(OutfieldContract.FormFieldChoice.POSITION, 0);
+        choice.put(OutfieldContract.FormFieldChoice.VALUE, "Yes");
+        db.insertOrThrow(OutfieldContract.FormFieldChoice.TABLE_NAME, null, choice);
+
+        db.delete(OutfieldContract.FormField.TABLE_NAME, null, null);
+        assertEquals(0, count("form_field_choice", null));
+    }
+
+    private void insertInteraction(long interactionId) {
+        ContentValues values = new ContentValues();
+        values.put(OutfieldContract.Interaction.INTERACTION_ID, interactionId);
+        values.put(OutfieldContract.Interaction.INTERACTION_TYPE, "check_in");
+        db.insertOrThrow(OutfieldContract.Interaction.TABLE_NAME, null, values);
+    }
+
+    private void insertInteractionForm(long interactionId, long formId) {
+        ContentValues values = new ContentValues();
+        values.put(OutfieldContract.InteractionForm.INTERACTION_ID, interactionId);
+        values.put(OutfieldContract.InteractionForm.FORM_ID, formId);
+        values.put(OutfieldContract.InteractionForm.POSITION, 0);
+        db.insertOrThrow(OutfieldContract.InteractionForm.TABLE_NAME, null, values);
+    }
+
+    private long count(String table, String selection) {
+        return DatabaseUtils.queryNumEntries(db, table, selection);
+    }
+}
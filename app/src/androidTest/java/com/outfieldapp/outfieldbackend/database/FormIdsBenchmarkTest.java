@@ -0,0 +1,116 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.outfieldapp.outfieldbackend.models.Interaction;
+import com.outfieldapp.outfieldbackend.models.InteractionLoader;
+import com.outfieldapp.outfieldbackend.models.LoadOptions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares reading interactions' form ids from the comma-separated form_ids column, as
+ * interactions were loaded before the interaction_form table, with loading them through
+ * {@link InteractionLoader}, over 20,000 interactions with one to three forms each. Timings are
+ * logged.
+ */
+public class FormIdsBenchmarkTest extends AndroidTestCase {
+
+    public static final String TAG = FormIdsBenchmarkTest.class.getSimpleName();
+
+    private static final int INTERACTIONS = 20000;
+
+    private SQLiteDatabase db;
+    private long formIdCount;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        db = TestDatabase.create(getContext());
+
+        // Each interaction keeps its ids in both places, so both paths read the same forms
+        Random random = new Random(1);
+        db.beginTransaction();
+        try {
+            SQLiteStatement interaction = db.compileStatement("INSERT INTO interaction"
+                    + " (interaction_id, interaction_type, form_ids) VALUES (?, 'check_in', ?)");
+            SQLiteStatement form = db.compileStatement("INSERT INTO interaction_form"
+                    + " (interaction_id, form_id, position) VALUES (?, ?, ?)");
+            for (int i = 1; i <= INTERACTIONS; i++) {
+                int forms = 1 + random.nextInt(3);
+                long[] formIds = new long[forms];
+                StringBuilder csv = new StringBuilder();
+                for (int position = 0; position < forms; position++) {
+                    formIds[position] = 1000 * (position + 1) + random.nextInt(1000);
+                    if (position > 0) csv.append(',');
+                    csv.append(formIds[position]);
+                }
+                interaction.bindLong(1, i);
+                interaction.bindString(2, csv.toString());
+                interaction.executeInsert();
+                for (int position = 0; position < forms; position++) {
+                    form.bindLong(1, i);
+                    form.bindLong(2, formIds[position]);
+                    form.bindLong(3, position);
+                    form.executeInsert();
+                }
+                formIdCount += forms;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.close();
+        super.tearDown();
+    }
+
+    public void testLoadFormIds() {
+        long start = SystemClock.elapsedRealtime();
+        long csvCount = 0;
+        Cursor cursor = db.rawQuery("SELECT interaction_id, form_ids FROM interaction", null);
+        try {
+            while (cursor.moveToNext()) {
+                List<Long> formIds = new ArrayList<>();
+                for (String formId : TextUtils.split(cursor.getString(1), ",")) {
+                    formIds.add(Long.parseLong(formId.trim()));
+                }
+                csvCount += formIds.size();
+            }
+        } finally {
+            cursor.close();
+        }
+        long csvMillis = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        InteractionLoader loader = new InteractionLoader(db);
+        long joinCount = 0;
+        cursor = db.rawQuery("SELECT interaction_id FROM interaction", null);
+        try {
+            for (Interaction interaction
+                    : loader.load(cursor, LoadOptions.with(LoadOptions.Relation.FORMS))) {
+                joinCount += interaction.getFormIds().size();
+            }
+        } finally {
+            cursor.close();
+        }
+        long joinMillis = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, INTERACTIONS + " interactions, " + formIdCount + " form ids: CSV "
+                + csvMillis + "ms; InteractionLoader " + joinMillis + "ms in "
+                + loader.getQueryCount() + " queries");
+        assertEquals(formIdCount, csvCount);
+        assertEquals(formIdCount, joinCount);
+    }
+}
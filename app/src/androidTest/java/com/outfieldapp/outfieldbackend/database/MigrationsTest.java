@@ -0,0 +1,92 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+/**
+ * Checks that rebuilding the tables without <code>ON CONFLICT REPLACE</code> keeps their rows,
+ * row ids, children, sequences, indexes and triggers.
+ */
+public class MigrationsTest extends AndroidTestCase {
+
+    private SQLiteDatabase db;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        db = TestDatabase.create(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.close();
+        super.tearDown();
+    }
+
+    public void testNoReplaceConstraintsRemain() {
+        assertEquals(0, DatabaseUtils.longForQuery(db, "SELECT count(*) FROM sqlite_master"
+                + " WHERE sql LIKE '%ON CONFLICT REPLACE%'", null));
+    }
+
+    public void testRebuildKeepsRowsAndSchema() {
+        ContentValues contact = new ContentValues();
+        contact.put(OutfieldContract.Contact.CONTACT_ID, 7);
+        contact.put(OutfieldContract.Contact.CONTACT_TYPE, "person");
+        contact.put(OutfieldContract.Contact.NAME, "Alice");
+        long contactRowId = db.insertOrThrow(OutfieldContract.Contact.TABLE_NAME, null, contact);
+        ContentValues phone = new ContentValues();
+        phone.put(OutfieldContract.Phone.PHONE_ID, 3);
+        phone.put(OutfieldContract.Phone.CONTACT_ID, 7);
+        db.insertOrThrow(OutfieldContract.Phone.TABLE_NAME, null, phone);
+        ContentValues interaction = new ContentValues();
+        interaction.put(OutfieldContract.Interaction.INTERACTION_ID, 9);
+        interaction.put(OutfieldContract.Interaction.CONTACT_ID, 7);
+        interaction.put(OutfieldContract.Interaction.INTERACTION_TYPE, "check_in");
+        db.insertOrThrow(OutfieldContract.Interaction.TABLE_NAME, null, interaction);
+        ContentValues form = new ContentValues();
+        form.put(OutfieldContract.InteractionForm.INTERACTION_ID, 9);
+        form.put(OutfieldContract.InteractionForm.FORM_ID, 5);
+        form.put(OutfieldContract.InteractionForm.POSITION, 0);
+        db.insertOrThrow(OutfieldContract.InteractionForm.TABLE_NAME, null, form);
+
+        // A deleted row leaves the contact sequence ahead of its largest row id
+        contact.put(OutfieldContract.Contact.CONTACT_ID, 8);
+        db.insertOrThrow(OutfieldContract.Contact.TABLE_NAME, null, contact);
+        db.delete(OutfieldContract.Contact.TABLE_NAME, "contact_id=8", null);
+        long sequence = sequence(OutfieldContract.Contact.TABLE_NAME);
+        long schemaCount = DatabaseUtils.longForQuery(db, "SELECT count(*) FROM sqlite_master",
+                null);
+
+        db.beginTransaction();
+        try {
+            Migrations.ALL.get(Migrations.ALL.size() - 1).migrate(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        assertEquals(contactRowId, DatabaseUtils.longForQuery(db,
+                "SELECT _id FROM contact WHERE contact_id=7", null));
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, "phone", "contact_id=7"));
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, "interaction_form", "interaction_id=9"));
+        assertEquals(sequence, sequence(OutfieldContract.Contact.TABLE_NAME));
+        assertEquals(schemaCount, DatabaseUtils.longForQuery(db,
+                "SELECT count(*) FROM sqlite_master", null));
+
+        // Foreign keys point at the new tables, and the search triggers were recreated
+        db.execSQL("UPDATE contact SET contact_id=17, name='Bob' WHERE contact_id=7");
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, "phone", "contact_id=17"));
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, "interaction", "contact_id=17"));
+        assertEquals(1, DatabaseUtils.longForQuery(db,
+                "SELECT count(*) FROM contact_search WHERE contact_search MATCH 'bob'", null));
+        db.execSQL("DELETE FROM interaction WHERE interaction_id=9");
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, "interaction_form", null));
+    }
+
+    private long sequence(String table) {
+        return DatabaseUtils.longForQuery(db, "SELECT seq FROM sqlite_sequence WHERE name=?",
+                new String[]{table});
+    }
+}
@@ -0,0 +1,75 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import java.util.List;
+
+public class OutboxTest extends AndroidTestCase {
+
+    private SQLiteDatabase db;
+    private Outbox outbox;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        db = TestDatabase.create(getContext());
+        outbox = new Outbox(db, new DatabaseWriter(db));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.close();
+        super.tearDown();
+    }
+
+    public void testUpdatesAfterCreateStayCreate() {
+        outbox.record(Outbox.CONTACT, -1, Outbox.Operation.CREATE);
+        outbox.record(Outbox.CONTACT, -1, Outbox.Operation.UPDATE);
+
+        List<Outbox.Entry> entries = outbox.peek(Outbox.CONTACT, 10);
+        assertEquals(1, entries.size());
+        assertEquals(Outbox.Operation.CREATE, entries.get(0).getOperation());
+        assertEquals(2, entries.get(0).getVersion());
+    }
+
+    public void testDeleteAfterCreateRemovesEntry() {
+        outbox.record(Outbox.CONTACT, -1, Outbox.Operation.CREATE);
+        outbox.record(Outbox.CONTACT, -1, Outbox.Operation.DELETE);
+
+        assertEquals(0, outbox.size());
+    }
+
+    public void testDeleteDuringCreateUploadIsQueued() {
+        outbox.record(Outbox.CONTACT, -1, Outbox.Operation.CREATE);
+        Outbox.Entry create = outbox.peek(Outbox.CONTACT, 10).get(0);
+        outbox.begin(create);
+
+        outbox.record(Outbox.CONTACT, -1, Outbox.Operation.DELETE);
+        assertEquals(Outbox.Operation.DELETE, outbox.complete(create, 500));
+
+        List<Outbox.Entry> entries = outbox.peek(Outbox.CONTACT, 10);
+        assertEquals(1, entries.size());
+        assertEquals(500, entries.get(0).getEntityId());
+        assertEquals(Outbox.Operation.DELETE, entries.get(0).getOperation());
+    }
+
+    public void testUpdateDuringCreateUploadBecomesUpdate() {
+        outbox.record(Outbox.CONTACT, -1, Outbox.Operation.CREATE);
+        Outbox.Entry create = outbox.peek(Outbox.CONTACT, 10).get(0);
+        outbox.begin(create);
+
+        outbox.record(Outbox.CONTACT, -1, Outbox.Operation.UPDATE);
+        assertEquals(Outbox.Operation.UPDATE, outbox.complete(create, 500));
+        assertEquals(500, outbox.peek(Outbox.CONTACT, 10).get(0).getEntityId());
+    }
+
+    public void testCompleteRemovesUnchangedEntry() {
+        outbox.record(Outbox.INTERACTION, 7, Outbox.Operation.UPDATE);
+        Outbox.Entry update = outbox.peek(Outbox.INTERACTION, 10).get(0);
+        outbox.begin(update);
+
+        assertNull(outbox.complete(update, 7));
+        assertEquals(0, outbox.size());
+    }
+}
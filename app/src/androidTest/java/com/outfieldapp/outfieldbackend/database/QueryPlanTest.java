@@ -0,0 +1,76 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import java.util.List;
+
+/**
+ * Checks that sync scans and child loads search the indexes added by the migrations instead of
+ * scanning whole tables.
+ */
+public class QueryPlanTest extends AndroidTestCase {
+
+    private SQLiteDatabase db;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        db = TestDatabase.create(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.close();
+        super.tearDown();
+    }
+
+    public void testDirtyScans() {
+        assertUsesIndex("contact_dirty_idx", "SELECT * FROM contact WHERE dirty = 1");
+        assertUsesIndex("interaction_dirty_idx", "SELECT * FROM interaction WHERE dirty = 1");
+    }
+
+    public void testContactChildLoads() {
+        assertUsesIndex("address_contact_id_idx", "SELECT * FROM address WHERE contact_id=?", "1");
+        assertUsesIndex("email_contact_id_idx", "SELECT * FROM email WHERE contact_id=?", "1");
+        assertUsesIndex("phone_contact_id_idx", "SELECT * FROM phone WHERE contact_id=?", "1");
+        assertUsesIndex("image_contact_id_idx", "SELECT * FROM image WHERE contact_id=?", "1");
+        assertUsesIndex("interaction_contact_id_idx",
+                "SELECT * FROM interaction WHERE contact_id=? ORDER BY created_at", "1");
+    }
+
+    public void testInteractionChildLoads() {
+        assertUsesIndex("comment_interaction_id_idx",
+                "SELECT * FROM comment WHERE interaction_id IN (?,?) ORDER BY created_at",
+                "1", "2");
+        assertUsesIndex("image_interaction_id_idx",
+                "SELECT * FROM image WHERE interaction_id IN (?,?)", "1", "2");
+        assertUsesIndex("interaction_form_form_id_idx",
+                "SELECT interaction_id FROM interaction_form WHERE form_id=?", "1");
+    }
+
+    public void testFormFieldLoad() {
+        assertUsesIndex("form_field_form_id_idx",
+                "SELECT * FROM form_field WHERE form_id=? ORDER BY position", "1");
+    }
+
+    public void testTimelinePages() {
+        assertUsesIndex("interaction_created_at_idx", "SELECT * FROM interaction"
+                + " WHERE created_at>=? AND created_at<? AND destroy=0"
+                + " ORDER BY created_at DESC, _id DESC LIMIT 50", "0", "1000");
+        assertUsesIndex("comment_created_at_idx", "SELECT * FROM comment"
+                + " WHERE created_at>=? AND created_at<? AND destroy=0"
+                + " ORDER BY created_at DESC, _id DESC LIMIT 50", "0", "1000");
+    }
+
+    private void assertUsesIndex(String index, String sql, String... args) {
+        List<String> plan = TestDatabase.explainQueryPlan(db, sql, args);
+        for (String step : plan) {
+            if (step.contains("USING INDEX " + index)
+                    || step.contains("USING COVERING INDEX " + index)) {
+                return;
+            }
+        }
+        fail("Expected " + index + " in plan of " + sql + ": " + plan);
+    }
+}
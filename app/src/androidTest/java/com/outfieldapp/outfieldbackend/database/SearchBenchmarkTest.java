@@ -0,0 +1,144 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares {@link SearchIndex} with the <code>LIKE '%x%'</code> scans it replaced, over 50,000
+ * contacts, 200,000 interactions and 50,000 comments of random words. Timings are logged.
+ */
+public class SearchBenchmarkTest extends AndroidTestCase {
+
+    public static final String TAG = SearchBenchmarkTest.class.getSimpleName();
+
+    private static final int CONTACTS = 50000;
+    private static final int INTERACTIONS = 200000;
+    private static final int COMMENTS = 50000;
+    private static final int LIMIT = 50;
+
+    private final Random random = new Random(1);
+    private final String[] words = new String[5000];
+    private SQLiteDatabase db;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        for (int i = 0; i < words.length; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int j = 3 + random.nextInt(7); j > 0; j--) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            words[i] = word.toString();
+        }
+        db = TestDatabase.create(getContext());
+
+        // The search triggers index every row as it is inserted
+        long start = SystemClock.elapsedRealtime();
+        db.beginTransaction();
+        try {
+            SQLiteStatement contact = db.compileStatement("INSERT INTO contact (contact_id,"
+                    + " contact_type, name, company, title, email, phone)"
+                    + " VALUES (?, 'person', ?, ?, ?, ?, ?)");
+            for (int i = 1; i <= CONTACTS; i++) {
+                contact.bindLong(1, i);
+                contact.bindString(2, words(2));
+                contact.bindString(3, words(2));
+                contact.bindString(4, words(1));
+                contact.bindString(5, words(1) + "@example.com");
+                contact.bindString(6, String.format("555-%05d", i));
+                contact.executeInsert();
+            }
+            SQLiteStatement interaction = db.compileStatement("INSERT INTO interaction"
+                    + " (interaction_id, interaction_type, notes) VALUES (?, 'check_in', ?)");
+            for (int i = 1; i <= INTERACTIONS; i++) {
+                interaction.bindLong(1, i);
+                interaction.bindString(2, words(20));
+                interaction.executeInsert();
+            }
+            SQLiteStatement comment = db.compileStatement("INSERT INTO comment (comment_id,"
+                    + " interaction_id, comment_text) VALUES (?, ?, ?)");
+            for (int i = 1; i <= COMMENTS; i++) {
+                comment.bindLong(1, i);
+                comment.bindLong(2, 1 + random.nextInt(INTERACTIONS));
+                comment.bindString(3, words(8));
+                comment.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        Log.i(TAG, "Loaded and indexed in " + (SystemClock.elapsedRealtime() - start) + "ms");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.close();
+        super.tearDown();
+    }
+
+    public void testSearchIsFasterThanLike() {
+        SearchIndex index = new SearchIndex(db);
+        String prefix = words[0].substring(0, 2);
+        String word = words[1];
+
+        for (String query : new String[]{prefix, word}) {
+            long start = SystemClock.elapsedRealtime();
+            List<Long> contacts = index.searchContacts(query, LIMIT);
+            long contactMillis = SystemClock.elapsedRealtime() - start;
+
+            start = SystemClock.elapsedRealtime();
+            List<Long> interactions = index.searchInteractions(query, LIMIT);
+            long interactionMillis = SystemClock.elapsedRealtime() - start;
+
+            long likeContactMillis = time("SELECT contact_id FROM contact WHERE name LIKE ?1"
+                    + " OR company LIKE ?1 OR title LIKE ?1 OR email LIKE ?1 OR phone LIKE ?1",
+                    query);
+            long likeInteractionMillis = time("SELECT interaction_id FROM interaction"
+                    + " WHERE notes LIKE ?1 UNION SELECT interaction_id FROM comment"
+                    + " WHERE comment_text LIKE ?1", query);
+
+            Log.i(TAG, "\"" + query + "\": contacts " + contactMillis + "ms, LIKE "
+                    + likeContactMillis + "ms; interactions " + interactionMillis + "ms, LIKE "
+                    + likeInteractionMillis + "ms");
+            assertFalse(contacts.isEmpty());
+            assertFalse(interactions.isEmpty());
+            if (query.equals(word)) {
+                assertTrue(contactMillis < likeContactMillis);
+                assertTrue(interactionMillis < likeInteractionMillis);
+            }
+        }
+    }
+
+    /**
+     * @return The time taken to read every row of a <code>LIKE</code> query for text anywhere in
+     * a column, in milliseconds.
+     */
+    private long time(String sql, String text) {
+        long start = SystemClock.elapsedRealtime();
+        Cursor cursor = db.rawQuery(sql, new String[]{"%" + text + "%"});
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    private String words(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) text.append(' ');
+            text.append(words[random.nextInt(words.length)]);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,69 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+/**
+ * Checks that the search index's triggers keep it in step with its content table.
+ */
+public class SearchIndexTest extends AndroidTestCase {
+
+    private SQLiteDatabase db;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        db = TestDatabase.create(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.close();
+        super.tearDown();
+    }
+
+    public void testUpdatedContactIsReindexed() {
+        insertContact(7, "Alice");
+        db.execSQL("UPDATE contact SET name='Bob' WHERE contact_id=7");
+
+        assertEquals(0, matches("alice"));
+        assertEquals(1, matches("bob"));
+    }
+
+    public void testDeletedContactIsRemovedFromIndex() {
+        insertContact(7, "Alice");
+        db.execSQL("DELETE FROM contact WHERE contact_id=7");
+
+        assertEquals(0, matches("alice"));
+    }
+
+    public void testDuplicateContactIsRejected() {
+        insertContact(7, "Alice");
+        try {
+            insertContact(7, "Bob");
+            fail("Inserted a second contact with the same id");
+        } catch (SQLiteConstraintException e) {
+            // The unique contact_id no longer replaces the existing row
+        }
+
+        assertEquals(1, matches("alice"));
+        assertEquals(0, matches("bob"));
+    }
+
+    private void insertContact(long contactId, String name) {
+        ContentValues values = new ContentValues();
+        values.put(OutfieldContract.Contact.CONTACT_ID, contactId);
+        values.put(OutfieldContract.Contact.CONTACT_TYPE, "person");
+        values.put(OutfieldContract.Contact.NAME, name);
+        db.insertOrThrow(OutfieldContract.Contact.TABLE_NAME, null, values);
+    }
+
+    private long matches(String query) {
+        return DatabaseUtils.longForQuery(db, "SELECT count(*) FROM "
+                + OutfieldContract.ContactSearch.TABLE_NAME + " WHERE "
+                + OutfieldContract.ContactSearch.TABLE_NAME + " MATCH ?", new String[]{query});
+    }
+}
@@ -0,0 +1,111 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares {@link SpatialIndex#nearbyContacts} with a scan of every contact in the same latitude
+ * range, over 50,000 contacts spread across the US and 10,000 around one city. Timings are logged,
+ * and the index's results are checked against distances computed for every contact.
+ */
+public class SpatialBenchmarkTest extends AndroidTestCase {
+
+    public static final String TAG = SpatialBenchmarkTest.class.getSimpleName();
+
+    private static final int SPREAD_CONTACTS = 50000;
+    private static final int CITY_CONTACTS = 10000;
+    private static final double CITY_LATITUDE = 30.2672;
+    private static final double CITY_LONGITUDE = -97.7431;
+    private static final int LIMIT = 50;
+
+    private static final double METERS_PER_DEGREE = Math.PI * 6371000 / 180;
+
+    private SQLiteDatabase db;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        db = TestDatabase.create(getContext());
+
+        Random random = new Random(1);
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement("INSERT INTO contact (contact_id,"
+                    + " contact_type, latitude, longitude) VALUES (?, 'place', ?, ?)");
+            for (int i = 1; i <= SPREAD_CONTACTS + CITY_CONTACTS; i++) {
+                insert.bindLong(1, i);
+                if (i <= SPREAD_CONTACTS) {
+                    insert.bindDouble(2, 25 + random.nextDouble() * 24);
+                    insert.bindDouble(3, -125 + random.nextDouble() * 58);
+                } else {
+                    insert.bindDouble(2, CITY_LATITUDE + random.nextGaussian() * 0.2);
+                    insert.bindDouble(3, CITY_LONGITUDE + random.nextGaussian() * 0.2);
+                }
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.close();
+        super.tearDown();
+    }
+
+    public void testNearbyMatchesScan() {
+        SpatialIndex index = new SpatialIndex(db);
+        for (double radius : new double[]{500, 5000, 50000}) {
+            long start = SystemClock.elapsedRealtime();
+            List<SpatialIndex.Result> results = index.nearbyContacts(CITY_LATITUDE,
+                    CITY_LONGITUDE, radius, LIMIT);
+            long indexMillis = SystemClock.elapsedRealtime() - start;
+
+            start = SystemClock.elapsedRealtime();
+            List<Double> expected = scan(radius);
+            long scanMillis = SystemClock.elapsedRealtime() - start;
+
+            Log.i(TAG, "Within " + radius + "m: index " + indexMillis + "ms, scan " + scanMillis
+                    + "ms, " + results.size() + " results");
+            assertEquals(expected.size(), results.size());
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(expected.get(i), results.get(i).getDistanceMeters(), 1);
+            }
+        }
+    }
+
+    /**
+     * Reads every contact in the radius's latitude range without the index.
+     * @return Distances of the {@link #LIMIT} nearest contacts in the radius, nearest first.
+     */
+    private List<Double> scan(double radius) {
+        double latitudeDelta = radius / METERS_PER_DEGREE;
+        List<Double> distances = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT latitude, longitude FROM contact"
+                        + " WHERE latitude BETWEEN ? AND ? AND destroy=0",
+                new String[]{String.valueOf(CITY_LATITUDE - latitudeDelta),
+                        String.valueOf(CITY_LATITUDE + latitudeDelta)});
+        try {
+            while (cursor.moveToNext()) {
+                double distance = SpatialIndex.distance(CITY_LATITUDE, CITY_LONGITUDE,
+                        cursor.getDouble(0), cursor.getDouble(1));
+                if (distance <= radius) distances.add(distance);
+            }
+        } finally {
+            cursor.close();
+        }
+        Collections.sort(distances);
+        return distances.subList(0, Math.min(LIMIT, distances.size()));
+    }
+}
@@ -0,0 +1,64 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory databases built the way {@link OutfieldDatabase} builds the app's database, through
+ * every migration, so tests never touch the app's data.
+ */
+class TestDatabase {
+
+    private TestDatabase() {}
+
+    /**
+     * @return A new empty database at {@link OutfieldDatabase#DATABASE_VERSION}. Close it after
+     * the test.
+     */
+    static SQLiteDatabase create(Context context) {
+        return build(context, SQLiteDatabase.create(null));
+    }
+
+    /**
+     * @return A new empty database in a file, for tests that need real commits to disk or
+     * write-ahead logging. Delete it with {@link SQLiteDatabase#deleteDatabase(File)} after the
+     * test.
+     */
+    static SQLiteDatabase create(Context context, String name) {
+        File file = context.getDatabasePath(name);
+        SQLiteDatabase.deleteDatabase(file);
+        return build(context, SQLiteDatabase.openOrCreateDatabase(file, null));
+    }
+
+    private static SQLiteDatabase build(Context context, SQLiteDatabase db) {
+        OutfieldDatabase helper = OutfieldDatabase.getInstance(context);
+        helper.onConfigure(db);
+        helper.onCreate(db);
+        return db;
+    }
+
+    /**
+     * Returns SQLite's plan for a query, one line per step. Steps that use an index read
+     * <code>SEARCH ... USING INDEX</code>.
+     * @param args Arguments bound to the query.
+     * @return The plan's detail column for each step.
+     */
+    static List<String> explainQueryPlan(SQLiteDatabase db, String sql, String... args) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+}
@@ -0,0 +1,94 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures how long reads wait while the writer thread holds a long transaction, as it does
+ * while applying a sync page, with a rollback journal and with write-ahead logging. With the
+ * journal a read waits for the transaction to end. With the log it reads the last committed
+ * state at once.
+ */
+public class WalBenchmarkTest extends AndroidTestCase {
+
+    public static final String TAG = WalBenchmarkTest.class.getSimpleName();
+
+    private static final String NAME = "wal-benchmark.db";
+    /** How long the writer keeps its transaction open. */
+    private static final long WRITE_MILLIS = 1000;
+
+    private SQLiteDatabase db;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (db != null) db.close();
+        SQLiteDatabase.deleteDatabase(getContext().getDatabasePath(NAME));
+        super.tearDown();
+    }
+
+    public void testReadsDoNotWaitForWriterWithWal() throws Exception {
+        long journalMillis = maxReadMillis(false);
+        long walMillis = maxReadMillis(true);
+
+        Log.i(TAG, "Longest read during a " + WRITE_MILLIS + "ms write: " + journalMillis
+                + "ms with a rollback journal, " + walMillis + "ms with WAL");
+        assertTrue(walMillis < WRITE_MILLIS / 4);
+        assertTrue(walMillis < journalMillis);
+    }
+
+    /**
+     * Reads repeatedly on this thread while another thread writes in one long transaction.
+     * @return The longest time a read took, in milliseconds.
+     */
+    private long maxReadMillis(boolean wal) throws InterruptedException {
+        if (db != null) db.close();
+        db = TestDatabase.create(getContext(), NAME);
+        if (wal) assertTrue(db.enableWriteAheadLogging());
+
+        final CountDownLatch started = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                db.beginTransaction();
+                try {
+                    started.countDown();
+                    long end = SystemClock.elapsedRealtime() + WRITE_MILLIS;
+                    for (int i = 1; SystemClock.elapsedRealtime() < end; i++) {
+                        ContentValues values = new ContentValues();
+                        values.put(OutfieldContract.Contact.CONTACT_ID, i);
+                        values.put(OutfieldContract.Contact.CONTACT_TYPE, "person");
+                        values.put(OutfieldContract.Contact.NAME, "Contact " + i);
+                        db.insert(OutfieldContract.Contact.TABLE_NAME, null, values);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        });
+        writer.start();
+        started.await();
+
+        long maxMillis = 0;
+        while (writer.isAlive()) {
+            long start = SystemClock.elapsedRealtime();
+            Cursor cursor = db.rawQuery("SELECT count(*) FROM "
+                    + OutfieldContract.Contact.TABLE_NAME, null);
+            try {
+                assertTrue(cursor.moveToFirst());
+            } finally {
+                cursor.close();
+            }
+            maxMillis = Math.max(maxMillis, SystemClock.elapsedRealtime() - start);
+            SystemClock.sleep(10);
+        }
+        writer.join();
+        return maxMillis;
+    }
+}
@@ -0,0 +1,98 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that {@link WriteExecutor#execute(Runnable)} never blocks while the writer is busy, and
+ * that {@link WriteExecutor#executeBounded(Runnable)} waits once its capacity is in use.
+ */
+public class WriteExecutorTest extends AndroidTestCase {
+
+    private static final int CAPACITY = 4;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger ran = new AtomicInteger();
+    private WriteExecutor executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor = new WriteExecutor(CAPACITY);
+        // Hold the writer thread until the test releases it
+        final CountDownLatch started = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        release.countDown();
+        super.tearDown();
+    }
+
+    public void testExecuteDoesNotBlock() throws Exception {
+        for (int i = 0; i < CAPACITY * 100; i++) {
+            executor.execute(counter());
+        }
+        assertEquals(CAPACITY * 100, executor.getQueueDepth());
+
+        release.countDown();
+        awaitRan(CAPACITY * 100);
+    }
+
+    public void testExecuteBoundedWaitsAtCapacity() throws Exception {
+        for (int i = 0; i < CAPACITY; i++) {
+            executor.executeBounded(counter());
+        }
+
+        final CountDownLatch queued = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    executor.executeBounded(counter());
+                    queued.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        producer.start();
+        assertFalse(queued.await(200, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+        awaitRan(CAPACITY + 1);
+    }
+
+    private Runnable counter() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.incrementAndGet();
+            }
+        };
+    }
+
+    private void awaitRan(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ran.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, ran.get());
+    }
+}
@@ -3,6 +3,7 @@ package com.outfieldapp.outfieldbackend.api;
 import com.outfieldapp.outfieldbackend.api.Constants.Endpoints;
 import com.outfieldapp.outfieldbackend.api.Constants.Headers;
 import com.outfieldapp.outfieldbackend.api.Constants.Params;
+import com.outfieldapp.outfieldbackend.api.response.BatchResponse;
 import com.outfieldapp.outfieldbackend.api.response.ContactsResponse;
 import com.outfieldapp.outfieldbackend.api.response.InteractionsResponse;
 import com.outfieldapp.outfieldbackend.api.response.SyncResponse;
@@ -20,6 +21,7 @@ import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 import okhttp3.logging.HttpLoggingInterceptor;
 import retrofit2.Call;
 import retrofit2.Retrofit;
@@ -31,6 +33,7 @@ import retrofit2.http.POST;
 import retrofit2.http.PUT;
 import retrofit2.http.Path;
 import retrofit2.http.Query;
+import retrofit2.http.Streaming;
 
 /**
  * Provides type-safe interface for building HTTP requests.
@@ -56,6 +59,14 @@ public interface ApiService {
         }
 
         public static ApiService createService(final String email, final String token) {
+            return createService(Constants.BASE_URL, email, token);
+        }
+
+        /**
+         * @param baseUrl The API root, such as {@link Constants#BASE_URL} or a test server.
+         */
+        public static ApiService createService(String baseUrl, final String email,
+                                               final String token) {
             OkHttpClient.Builder httpClient =
                     new OkHttpClient.Builder()
                     .readTimeout(30, TimeUnit.SECONDS)
@@ -88,7 +99,7 @@ public interface ApiService {
 
             Retrofit.Builder builder =
                     new Retrofit.Builder()
-                            .baseUrl(Constants.BASE_URL)
+                            .baseUrl(baseUrl)
                             .addConverterFactory(GsonConverterFactory.create());
             Retrofit retrofit = builder.client(client).build();
             return retrofit.create(ApiService.class);
@@ -285,4 +296,21 @@ public interface ApiService {
             @Query(Params.Sync.PER_SYNC) Integer perSync,
             @Query(Params.Sync.SYNC_TOKEN) String syncToken
     );
+
+    @Streaming
+    @GET(Endpoints.SYNC)
+    Call<ResponseBody> streamSync(
+            @Query(Params.Sync.ONLY_ME) Boolean onlyMe,
+            @Query(Params.Sync.PER_SYNC) Integer perSync,
+            @Query(Params.Sync.SYNC_TOKEN) String syncToken
+    );
+
+    //#############################################################################################
+    //                                      BATCH REQUESTS
+    //#############################################################################################
+
+    @POST(Endpoints.BATCH)
+    Call<BatchResponse> batch(
+            @Body BatchRequest request
+    );
 }
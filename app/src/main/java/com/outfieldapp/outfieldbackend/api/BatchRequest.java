@@ -0,0 +1,48 @@
+package com.outfieldapp.outfieldbackend.api;
+
+import com.google.gson.annotations.SerializedName;
+import com.outfieldapp.outfieldbackend.api.Constants.Keys;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Body of <code>POST /api/v2/batch</code>. Each {@link Operation} names the method and path of
+ * the single-item endpoint it stands in for and carries the same body that endpoint takes.
+ */
+public class BatchRequest {
+    @SerializedName(Keys.Batch.OPERATIONS)
+    private List<Operation> operations = new ArrayList<>();
+
+    public BatchRequest(List<Operation> operations) {
+        this.operations = operations;
+    }
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    public static class Operation {
+        @SerializedName(Keys.Batch.METHOD)
+        private String method;
+        @SerializedName(Keys.Batch.PATH)
+        private String path;
+        @SerializedName(Keys.Batch.BODY)
+        private Object body;
+
+        /**
+         * @param method The HTTP method, such as "PUT".
+         * @param path The endpoint path relative to the API root, such as "contacts/12".
+         * @param body The request body, or null if the endpoint takes none.
+         */
+        public Operation(String method, String path, Object body) {
+            this.method = method;
+            this.path = path;
+            this.body = body;
+        }
+
+        public String getMethod() { return method; }
+        public String getPath() { return path; }
+        public Object getBody() { return body; }
+    }
+}
@@ -0,0 +1,123 @@
+package com.outfieldapp.outfieldbackend.api;
+
+/**
+ * Set of primitive longs that can be shared between threads. Values are kept in an open-addressed
+ * table with linear probing, so checks and updates take constant time and never box. Every
+ * operation holds the set's lock only for that one probe, which is short enough that callers on
+ * different threads do not noticeably contend.
+ * <p>
+ * {@link #add(long)} reports whether the value was already present, so a thread can claim an id
+ * and skip it if another thread already claimed it, without a separate check that could race.
+ */
+public class ConcurrentLongSet {
+
+    private static final int MIN_CAPACITY = 16;
+
+    // 0 marks an empty slot, so it is tracked separately
+    private long[] table = new long[MIN_CAPACITY];
+    private int size;
+    private boolean hasZero;
+
+    /**
+     * Adds a value if it is not already in the set.
+     * @return True if the value was added, false if it was already present.
+     */
+    public synchronized boolean add(long value) {
+        if (value == 0) {
+            if (hasZero) return false;
+            hasZero = true;
+            return true;
+        }
+
+        int mask = table.length - 1;
+        int i = slot(value, mask);
+        while (table[i] != 0) {
+            if (table[i] == value) return false;
+            i = (i + 1) & mask;
+        }
+        table[i] = value;
+        size++;
+        if (size * 4 >= table.length * 3) resize(table.length * 2);
+        return true;
+    }
+
+    /**
+     * @return True if the value was in the set and has been removed.
+     */
+    public synchronized boolean remove(long value) {
+        if (value == 0) {
+            boolean removed = hasZero;
+            hasZero = false;
+            return removed;
+        }
+
+        int mask = table.length - 1;
+        int i = slot(value, mask);
+        while (table[i] != value) {
+            if (table[i] == 0) return false;
+            i = (i + 1) & mask;
+        }
+
+        // Shift later entries of the probe run back so lookups never stop at the new gap
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (table[j] == 0) break;
+            int k = slot(table[j], mask);
+            boolean stays = i <= j ? (i < k && k <= j) : (i < k || k <= j);
+            if (!stays) {
+                table[i] = table[j];
+                i = j;
+            }
+        }
+        table[i] = 0;
+        size--;
+        return true;
+    }
+
+    public synchronized boolean contains(long value) {
+        if (value == 0) return hasZero;
+
+        int mask = table.length - 1;
+        int i = slot(value, mask);
+        while (table[i] != 0) {
+            if (table[i] == value) return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public synchronized int size() {
+        return hasZero ? size + 1 : size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Removes every value and releases the table's memory.
+     */
+    public synchronized void clear() {
+        table = new long[MIN_CAPACITY];
+        size = 0;
+        hasZero = false;
+    }
+
+    private void resize(int capacity) {
+        long[] old = table;
+        table = new long[capacity];
+        int mask = capacity - 1;
+        for (long value : old) {
+            if (value == 0) continue;
+            int i = slot(value, mask);
+            while (table[i] != 0) i = (i + 1) & mask;
+            table[i] = value;
+        }
+    }
+
+    private static int slot(long value, int mask) {
+        int hash = (int) (value ^ (value >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
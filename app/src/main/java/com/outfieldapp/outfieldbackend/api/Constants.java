@@ -43,6 +43,7 @@ public class Constants {
         public static final String ACCOUNT_EXISTS = "me/new";
         public static final String PASSWORD_RESET = "password_reset";
         public static final String PUSH_CREDENTIALS = "push_notification_credentials";
+        public static final String BATCH = "batch";
     }
 
     /* URL Parameters */
@@ -373,6 +374,15 @@ public class Constants {
             public static final String NOTE_COUNT = "note_count";
         }
 
+        public static class Batch {
+            public static final String OPERATIONS = "operations";
+            public static final String METHOD = "method";
+            public static final String PATH = "path";
+            public static final String BODY = "body";
+            public static final String RESULTS = "results";
+            public static final String STATUS = "status";
+        }
+
         public static class Response {
             public static class Contacts {
                 public static final String PER_PAGE = "per_page";
@@ -0,0 +1,19 @@
+package com.outfieldapp.outfieldbackend.api;
+
+/**
+ * Reports a response whose HTTP status code was not successful, keeping the code so callers can
+ * tell client errors, which will fail again, from server errors, which may not.
+ */
+public class HttpStatusException extends Exception {
+
+    private final int code;
+
+    public HttpStatusException(int code) {
+        super("Status code: " + code);
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+}
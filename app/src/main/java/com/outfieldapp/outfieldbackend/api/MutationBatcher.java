@@ -0,0 +1,275 @@
+package com.outfieldapp.outfieldbackend.api;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.outfieldapp.outfieldbackend.api.response.BatchResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Packs queued uploads into {@link OutfieldAPI#batch} requests of up to {@link #getBatchSize()}
+ * operations, so a sync after a long time offline costs a few round trips instead of one per
+ * edited row. Batches are sent through an {@link UploadScheduler}, which limits how many run at
+ * once and retries failed batches whose operations are all idempotent. A batch with a create in
+ * it is not retried, since sending it again could apply every create in it twice. Mutations are
+ * only batched with others of the same priority, in the order they were added, so deletes still
+ * go out before creates and creates before updates.
+ * <p>
+ * Each operation's result is passed back to its own {@link Mutation}. If the server does not
+ * support batching, every mutation is sent through its single-item endpoint instead.
+ */
+public class MutationBatcher {
+
+    public static final String TAG = MutationBatcher.class.getSimpleName();
+    public static final int DEFAULT_BATCH_SIZE = 20;
+
+    private static final Gson gson = new Gson();
+
+    /**
+     * One create, update or delete to send, alone or as part of a batch.
+     * @param <T> The type of object returned for the mutation.
+     */
+    public static abstract class Mutation<T> {
+        private final int priority;
+        private final String name;
+        private final BatchRequest.Operation operation;
+
+        /**
+         * @param priority One of the {@link UploadScheduler} <code>PRIORITY_</code> constants.
+         * @param name Describes the mutation in logs, such as "update contact 12".
+         * @param method The HTTP method of the single-item endpoint.
+         * @param path The path of the single-item endpoint, relative to the API root.
+         * @param body The single-item endpoint's request body, or null if it takes none.
+         */
+        protected Mutation(int priority, String name, String method, String path, Object body) {
+            this.priority = priority;
+            this.name = name;
+            this.operation = new BatchRequest.Operation(method, path, body);
+        }
+
+        public int getPriority() { return priority; }
+        public String getName() { return name; }
+
+        /**
+         * @return True unless the mutation is a POST, which may be applied twice if sent twice.
+         */
+        public boolean isIdempotent() {
+            return !"POST".equalsIgnoreCase(operation.getMethod());
+        }
+
+        /**
+         * Sends this mutation through its single-item endpoint.
+         * @param callback Callback that must receive the response exactly once.
+         */
+        protected abstract void send(OutfieldAPI.ResponseCallback<T> callback);
+
+        /**
+         * Reads this mutation's returned object from its result in a batch response.
+         * @param gson The Gson instance to parse with.
+         * @param body The result's body, as the single-item endpoint would have returned it.
+         */
+        protected abstract T read(Gson gson, JsonElement body);
+
+        /**
+         * Receives the final result, whether the mutation was sent alone or in a batch.
+         */
+        protected abstract void onFinished(boolean success, T object);
+    }
+
+    private static final Comparator<Mutation<?>> BY_PRIORITY = new Comparator<Mutation<?>>() {
+        @Override
+        public int compare(Mutation<?> a, Mutation<?> b) {
+            return a.priority < b.priority ? -1 : (a.priority == b.priority ? 0 : 1);
+        }
+    };
+
+    private final UploadScheduler scheduler;
+    private final int batchSize;
+    private final List<Mutation<?>> queued = new ArrayList<>();
+
+    private long mutationsSent;
+    private long requestsSent;
+
+    public MutationBatcher(UploadScheduler scheduler) {
+        this(scheduler, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param scheduler The scheduler to send requests through.
+     * @param batchSize The most operations to put in one request.
+     */
+    public MutationBatcher(UploadScheduler scheduler, int batchSize) {
+        if (batchSize <= 0) throw new IllegalArgumentException("Invalid batch size");
+        this.scheduler = scheduler;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Queues a mutation to be sent by the next {@link #flush()}.
+     */
+    public synchronized void add(Mutation<?> mutation) {
+        queued.add(mutation);
+    }
+
+    /**
+     * Packs every queued mutation into batches and submits them to the scheduler.
+     */
+    public void flush() {
+        List<Mutation<?>> mutations;
+        synchronized (this) {
+            if (queued.isEmpty()) return;
+            mutations = new ArrayList<>(queued);
+            queued.clear();
+        }
+
+        // Stable sort, so mutations keep the order they were added in within a priority
+        Collections.sort(mutations, BY_PRIORITY);
+
+        int start = 0;
+        while (start < mutations.size()) {
+            int priority = mutations.get(start).priority;
+            int end = start + 1;
+            while (end < mutations.size() && end - start < batchSize
+                    && mutations.get(end).priority == priority) {
+                end++;
+            }
+
+            List<Mutation<?>> batch = mutations.subList(start, end);
+            if (batch.size() == 1 || !OutfieldAPI.isBatchSupported()) {
+                for (Mutation<?> mutation : batch) {
+                    submitAlone(mutation);
+                }
+            } else {
+                submitBatch(new ArrayList<>(batch));
+            }
+            start = end;
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return Mutations sent so far, alone or in batches.
+     */
+    public synchronized long getMutationsSent() {
+        return mutationsSent;
+    }
+
+    /**
+     * @return Requests sent so far, not counting retries.
+     */
+    public synchronized long getRequestsSent() {
+        return requestsSent;
+    }
+
+    /**
+     * @return The number of requests saved by batching, compared to one request per mutation.
+     */
+    public synchronized long getRoundTripsSaved() {
+        return mutationsSent - requestsSent;
+    }
+
+    private <T> void submitAlone(final Mutation<T> mutation) {
+        count(1, 1);
+        scheduler.submit(new UploadScheduler.Upload<T>(mutation.priority, mutation.name,
+                mutation.isIdempotent()) {
+            @Override
+            protected void send(OutfieldAPI.ResponseCallback<T> callback) {
+                mutation.send(callback);
+            }
+
+            @Override
+            protected void onFinished(boolean success, T object) {
+                mutation.onFinished(success, object);
+            }
+        });
+    }
+
+    private void submitBatch(final List<Mutation<?>> batch) {
+        final List<BatchRequest.Operation> operations = new ArrayList<>(batch.size());
+        boolean idempotent = true;
+        for (Mutation<?> mutation : batch) {
+            operations.add(mutation.operation);
+            idempotent &= mutation.isIdempotent();
+        }
+
+        count(batch.size(), 1);
+        int priority = batch.get(0).priority;
+        String name = "batch of " + batch.size() + " starting with " + batch.get(0).name;
+        scheduler.submit(new UploadScheduler.Upload<BatchResponse>(priority, name, idempotent) {
+            @Override
+            protected void send(final OutfieldAPI.ResponseCallback<BatchResponse> callback) {
+                OutfieldAPI.batch(new BatchRequest(operations),
+                        new OutfieldAPI.StatusCallback<BatchResponse>() {
+                    @Override
+                    public void onFailureStatus(int status) {
+                        if (callback instanceof OutfieldAPI.StatusCallback) {
+                            ((OutfieldAPI.StatusCallback<BatchResponse>) callback)
+                                    .onFailureStatus(status);
+                        }
+                    }
+
+                    @Override
+                    public void onResponse(boolean success, BatchResponse object) {
+                        // A missing endpoint will not appear on retry, so finish and fall back
+                        callback.onResponse(success || !OutfieldAPI.isBatchSupported(), object);
+                    }
+                });
+            }
+
+            @Override
+            protected void onFinished(boolean success, BatchResponse object) {
+                if (object == null && !OutfieldAPI.isBatchSupported()) {
+                    Log.d(TAG, "Sending " + batch.size() + " mutations one at a time");
+                    synchronized (MutationBatcher.this) {
+                        mutationsSent -= batch.size();
+                        requestsSent--;
+                    }
+                    for (Mutation<?> mutation : batch) {
+                        submitAlone(mutation);
+                    }
+                    return;
+                }
+
+                List<BatchResponse.Result> results = success && object != null
+                        ? object.getResults()
+                        : Collections.<BatchResponse.Result>emptyList();
+                for (int i = 0; i < batch.size(); i++) {
+                    finish(batch.get(i), i < results.size() ? results.get(i) : null);
+                }
+            }
+        });
+    }
+
+    private static <T> void finish(Mutation<T> mutation, BatchResponse.Result result) {
+        if (result == null || !result.isSuccessful()) {
+            if (result != null) {
+                Log.e(TAG, "Error during " + mutation.name + ": status " + result.getStatus());
+            }
+            mutation.onFinished(false, null);
+            return;
+        }
+
+        T object;
+        try {
+            object = result.getBody() != null ? mutation.read(gson, result.getBody()) : null;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error during finish() for " + mutation.name, e);
+            mutation.onFinished(false, null);
+            return;
+        }
+        mutation.onFinished(true, object);
+    }
+
+    private synchronized void count(int mutations, int requests) {
+        mutationsSent += mutations;
+        requestsSent += requests;
+    }
+}
@@ -2,9 +2,12 @@ package com.outfieldapp.outfieldbackend.api;
 
 import android.util.Log;
 
+import com.google.gson.Gson;
+import com.outfieldapp.outfieldbackend.api.response.BatchResponse;
 import com.outfieldapp.outfieldbackend.api.response.ContactsResponse;
 import com.outfieldapp.outfieldbackend.api.response.InteractionsResponse;
 import com.outfieldapp.outfieldbackend.api.response.SyncResponse;
+import com.outfieldapp.outfieldbackend.api.response.SyncResponseReader;
 import com.outfieldapp.outfieldbackend.models.Comment;
 import com.outfieldapp.outfieldbackend.models.Contact;
 import com.outfieldapp.outfieldbackend.models.Form;
@@ -12,8 +15,12 @@ import com.outfieldapp.outfieldbackend.models.Interaction;
 import com.outfieldapp.outfieldbackend.models.Notification;
 import com.outfieldapp.outfieldbackend.models.User;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.Response;
@@ -29,7 +36,11 @@ public final class OutfieldAPI {
 
     public static final String TAG = OutfieldAPI.class.getSimpleName();
 
+    private static String baseUrl = Constants.BASE_URL;
     private static ApiService apiService = ApiService.Builder.createService();
+    private static final ExecutorService syncExecutor = Executors.newSingleThreadExecutor();
+    private static final Gson gson = new Gson();
+    private static volatile boolean batchSupported = true;
     private OutfieldAPI() {}
 
     /**
@@ -38,7 +49,16 @@ public final class OutfieldAPI {
      * @param token The user's auth token.
      */
     public static void setAuthHeaders(String email, String token) {
-        apiService = ApiService.Builder.createService(email, token);
+        apiService = ApiService.Builder.createService(baseUrl, email, token);
+    }
+
+    /**
+     * Points requests at another API root, such as a local test server, without auth headers.
+     * @param url The API root, ending with a slash.
+     */
+    static void setBaseUrl(String url) {
+        baseUrl = url;
+        apiService = ApiService.Builder.createService(url, null, null);
     }
 
     //#############################################################################################
@@ -56,6 +76,24 @@ public final class OutfieldAPI {
         public void onResponse(boolean success, T object);
     }
 
+    /** Status passed to {@link StatusCallback#onFailureStatus(int)} if no response arrived. */
+    public static final int NO_RESPONSE = 0;
+
+    /**
+     * A {@link ResponseCallback} that is also told why a request failed, so it can decide
+     * whether sending it again could succeed. Only upload requests report a status.
+     * @param <T> The type of object to be returned from the API response.
+     */
+    public interface StatusCallback<T> extends ResponseCallback<T> {
+        /**
+         * Called just before {@link #onResponse} reports a failed request. Not called if the
+         * request was rejected before it was sent.
+         * @param status The response's HTTP status code, or {@link #NO_RESPONSE} if the request
+         *               failed without one, such as on a timeout.
+         */
+        public void onFailureStatus(int status);
+    }
+
     /**
      * <code>POST /api/v2/sign_in</code>
      * <p>
@@ -442,14 +480,14 @@ public final class OutfieldAPI {
                 if (response.isSuccessful()) {
                     callback.onResponse(true, response.body().getContact());
                 } else {
-                    onFailure(call, new Exception("Status code: " + response.code()));
+                    onFailure(call, new HttpStatusException(response.code()));
                 }
             }
 
             @Override
             public void onFailure(Call<Contact.Wrapper> call, Throwable t) {
                 Log.e(TAG, "Error during updateAndFavorContact", t);
-                callback.onResponse(false, null);
+                fail(callback, t);
             }
         });
     }
@@ -500,7 +538,7 @@ public final class OutfieldAPI {
      */
     public static void createContact(Contact contact, final ResponseCallback<Contact> callback) {
 
-        if (contact.getId() >= 0) {
+        if (contact.getId() > 0) {
             Log.e(TAG, "Contact already exists on server.");
             callback.onResponse(false, null);
             return;
@@ -519,14 +557,14 @@ public final class OutfieldAPI {
                 if (response.isSuccessful()) {
                     callback.onResponse(true, response.body().getContact());
                 } else {
-                    onFailure(call, new Exception("Status code: " + response.code()));
+                    onFailure(call, new HttpStatusException(response.code()));
                 }
             }
 
             @Override
             public void onFailure(Call<Contact.Wrapper> call, Throwable t) {
                 Log.e(TAG, "Error during createContact", t);
-                callback.onResponse(false, null);
+                fail(callback, t);
             }
         });
     }
@@ -563,14 +601,14 @@ public final class OutfieldAPI {
                 if (response.isSuccessful()) {
                     callback.onResponse(true, response.body().getContact());
                 } else {
-                    onFailure(call, new Exception("Status code: " + response.code()));
+                    onFailure(call, new HttpStatusException(response.code()));
                 }
             }
 
             @Override
             public void onFailure(Call<Contact.Wrapper> call, Throwable t) {
                 Log.e(TAG, "Error during updateContact", t);
-                callback.onResponse(false, null);
+                fail(callback, t);
             }
         });
     }
@@ -599,14 +637,14 @@ public final class OutfieldAPI {
                 if (response.isSuccessful() || response.code() == 404) {
                     callback.onResponse(true, null);
                 } else {
-                    onFailure(call, new Exception("Status code: " + response.code()));
+                    onFailure(call, new HttpStatusException(response.code()));
                 }
             }
 
             @Override
             public void onFailure(Call<Void> call, Throwable t) {
                 Log.e(TAG, "Error during deleteContact", t);
-                callback.onResponse(false, null);
+                fail(callback, t);
             }
         });
     }
@@ -721,14 +759,14 @@ public final class OutfieldAPI {
                 if (response.isSuccessful()) {
                     callback.onResponse(true, response.body().getInteraction());
                 } else {
-                    onFailure(call, new Exception("Status code: " + response.code()));
+                    onFailure(call, new HttpStatusException(response.code()));
                 }
             }
 
             @Override
             public void onFailure(Call<Interaction.Wrapper> call, Throwable t) {
                 Log.e(TAG, "Error during createInteraction", t);
-                callback.onResponse(false, null);
+                fail(callback, t);
             }
         });
     }
@@ -765,14 +803,14 @@ public final class OutfieldAPI {
                 if (response.isSuccessful()) {
                     callback.onResponse(true, response.body().getInteraction());
                 } else {
-                    onFailure(call, new Exception("Status code: " + response.code()));
+                    onFailure(call, new HttpStatusException(response.code()));
                 }
             }
 
             @Override
             public void onFailure(Call<Interaction.Wrapper> call, Throwable t) {
                 Log.e(TAG, "Error during updateInteraction", t);
-                callback.onResponse(false, null);
+                fail(callback, t);
             }
         });
     }
@@ -801,14 +839,14 @@ public final class OutfieldAPI {
                 if (response.isSuccessful() || response.code() == 404) {
                     callback.onResponse(true, null);
                 } else {
-                    onFailure(call, new Exception("Status code: " + response.code()));
+                    onFailure(call, new HttpStatusException(response.code()));
                 }
             }
 
             @Override
             public void onFailure(Call<Void> call, Throwable t) {
                 Log.e(TAG, "Error during deleteInteraction", t);
-                callback.onResponse(false, null);
+                fail(callback, t);
             }
         });
     }
@@ -1057,6 +1095,7 @@ public final class OutfieldAPI {
                     String status = response.headers().get(Constants.Headers.SYNC_STATUS);
                     SyncResponse syncResponse = response.body();
                     syncResponse.setStatus(status);
+                    syncResponse.setContentLength(response.raw().body().contentLength());
                     callback.onResponse(true, syncResponse);
                 } else {
                     onFailure(call, new Exception("Status code: " + response.code()));
@@ -1070,4 +1109,121 @@ public final class OutfieldAPI {
             }
         });
     }
+
+    /**
+     * <code>GET /api/v2/sync</code>
+     * <p>
+     * Streams contact and interaction changes for favored contacts from server. Unlike
+     * {@link #sync}, changes are parsed one at a time and passed to the listener as they arrive,
+     * without holding the whole page in memory. The request, parsing, listener and callback all
+     * run on a background thread.
+     * @param onlyMe When false, gets interactions by all team members. Defaults to false if null.
+     * @param perSync The number of items to retrieve per page. Defaults to 50 if null.
+     * @param syncToken Where to begin syncing. If null, will sync from beginning of time.
+     * @param listener Listener to receive each change as it is parsed.
+     * @param callback Callback to receive boolean success value and {@link SyncResponse} holding
+     *                 the page's token and counts. Changes already passed to the listener before
+     *                 a failure are not rolled back.
+     */
+    public static void streamSync(Boolean onlyMe, Integer perSync, String syncToken,
+                                  final SyncResponseReader.Listener listener,
+                                  final ResponseCallback<SyncResponse> callback) {
+
+        // Set default params
+        if (onlyMe == null) onlyMe = false;
+        if (perSync == null) perSync = 50;
+
+        final Call<ResponseBody> call = apiService.streamSync(onlyMe, perSync, syncToken);
+        syncExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                SyncResponse syncResponse = null;
+                try {
+                    Response<ResponseBody> response = call.execute();
+                    if (response.isSuccessful()) {
+                        ResponseBody body = response.body();
+                        try {
+                            syncResponse = new SyncResponseReader(gson)
+                                    .read(body.charStream(), listener);
+                            syncResponse.setStatus(response.headers().get(Constants.Headers.SYNC_STATUS));
+                            syncResponse.setContentLength(body.contentLength());
+                        } finally {
+                            body.close();
+                        }
+                    } else {
+                        response.errorBody().close();
+                        Log.e(TAG, "Error during streamSync",
+                                new Exception("Status code: " + response.code()));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Error during streamSync", e);
+                    syncResponse = null;
+                }
+                callback.onResponse(syncResponse != null, syncResponse);
+            }
+        });
+    }
+
+    //#############################################################################################
+    //                                      BATCH REQUESTS
+    //#############################################################################################
+
+    /**
+     * <code>POST /api/v2/batch</code>
+     * <p>
+     * Sends several create, update and delete requests in one round trip. The server applies the
+     * operations in order and returns one result per operation, in the same order. If the server
+     * does not have this endpoint, {@link #isBatchSupported()} becomes false and later calls fail
+     * without sending a request.
+     * @param request The operations to send.
+     * @param callback Callback to receive boolean success value and each operation's result.
+     */
+    public static void batch(BatchRequest request, final ResponseCallback<BatchResponse> callback) {
+
+        if (!batchSupported) {
+            callback.onResponse(false, null);
+            return;
+        }
+
+        Call<BatchResponse> call = apiService.batch(request);
+        call.enqueue(new Callback<BatchResponse>() {
+            @Override
+            public void onResponse(Call<BatchResponse> call, Response<BatchResponse> response) {
+                if (response.isSuccessful() && response.body() != null) {
+                    callback.onResponse(true, response.body());
+                } else {
+                    int code = response.code();
+                    if (code == 404 || code == 405 || code == 501) {
+                        Log.w(TAG, "Server does not support batch requests");
+                        batchSupported = false;
+                    }
+                    onFailure(call, new HttpStatusException(code));
+                }
+            }
+
+            @Override
+            public void onFailure(Call<BatchResponse> call, Throwable t) {
+                Log.e(TAG, "Error during batch", t);
+                fail(callback, t);
+            }
+        });
+    }
+
+    /**
+     * @return False once the server has responded to {@link #batch} without supporting it.
+     */
+    public static boolean isBatchSupported() {
+        return batchSupported;
+    }
+
+    /**
+     * Reports a failed upload, first telling a {@link StatusCallback} the response's status.
+     */
+    private static <T> void fail(ResponseCallback<T> callback, Throwable t) {
+        if (callback instanceof StatusCallback) {
+            ((StatusCallback<T>) callback).onFailureStatus(t instanceof HttpStatusException
+                    ? ((HttpStatusException) t).getCode() : NO_RESPONSE);
+        }
+        callback.onResponse(false, null);
+    }
 }
@@ -1,21 +1,31 @@
 package com.outfieldapp.outfieldbackend.api;
 
+import android.content.ContentValues;
 import android.content.SharedPreferences;
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
 import com.outfieldapp.outfieldbackend.OutfieldApp;
-import com.outfieldapp.outfieldbackend.api.response.SyncResponse;
+import com.outfieldapp.outfieldbackend.database.BlobStore;
+import com.outfieldapp.outfieldbackend.database.Outbox;
 import com.outfieldapp.outfieldbackend.database.OutfieldContract;
+import com.outfieldapp.outfieldbackend.database.WriteExecutor;
 import com.outfieldapp.outfieldbackend.models.Contact;
+import com.outfieldapp.outfieldbackend.models.ContactLoader;
 import com.outfieldapp.outfieldbackend.models.Form;
 import com.outfieldapp.outfieldbackend.models.Image;
 import com.outfieldapp.outfieldbackend.models.Interaction;
+import com.outfieldapp.outfieldbackend.models.InteractionLoader;
 import com.outfieldapp.outfieldbackend.models.User;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // TODO: Implement Counter class or RxJava
 
@@ -27,22 +37,44 @@ public class SyncController {
     }
     private SyncController() {}
 
-    private boolean isSyncing;
-    private int progress;
-    private int syncTotal;
-    private boolean hasTeamActivity;
-    private boolean userInfoCurrent;
-    private String syncToken = "";
+    // State is read and changed from the caller, API callback and write threads
+    private final AtomicBoolean syncing = new AtomicBoolean();
+    private final AtomicInteger progress = new AtomicInteger();
+    private final AtomicInteger syncTotal = new AtomicInteger();
+    private volatile boolean hasTeamActivity;
+    private final AtomicBoolean userInfoCurrent = new AtomicBoolean();
 
-    private List<Long> pendingContacts = new ArrayList<>();
-    private List<Long> pendingInteractions = new ArrayList<>();
-    private List<Long> pendingComments = new ArrayList<>();
-    private List<Long> pendingImages = new ArrayList<>();
+    // Ids of local changes being uploaded, so overlapping syncs do not upload them twice
+    private final ConcurrentLongSet pendingContacts = new ConcurrentLongSet();
+    private final ConcurrentLongSet pendingInteractions = new ConcurrentLongSet();
+    private final ConcurrentLongSet pendingComments = new ConcurrentLongSet();
+    private final ConcurrentLongSet pendingImages = new ConcurrentLongSet();
 
+    private static final String PHASE_USER = "user";
+    private static final String PHASE_FORMS = "forms";
+    private static final String PHASE_CONTACTS = "contacts";
+    private static final String PHASE_INTERACTIONS = "interactions";
+    private static final String PHASE_CONTACT_IMAGES = "contactImages";
+    private static final String PHASE_INTERACTION_IMAGES = "interactionImages";
+    private static final String PHASE_COMMENTS = "comments";
+    private static final String PHASE_PULL = "pull";
 
+    /** Most queued changes of each type read per sync. The rest are sent by later syncs. */
+    private static final int MAX_OUTBOX_ENTRIES = 500;
+
+    private final SyncPageSizer pageSizer = new SyncPageSizer();
+    private final UploadScheduler uploads = new UploadScheduler();
+    private final MutationBatcher batcher = new MutationBatcher(uploads);
+
+
+    /**
+     * Starts a sync unless one is already running. Safe to call from any thread.
+     */
     public void doSync() {
-        if (isSyncing) return;
-        if (!userInfoCurrent) {
+        if (!syncing.compareAndSet(false, true)) return;
+
+        // User info is fetched again before every sync, and the sync restarts once it arrives
+        if (!userInfoCurrent.getAndSet(false)) {
             getUserDetails();
             return;
         }
@@ -51,37 +83,93 @@ public class SyncController {
         // TODO: Send broadcast intent
 
         SharedPreferences prefs = OutfieldApp.getSharedPrefs();
-        String syncToken = prefs.getString(Constants.Headers.SYNC_TOKEN, null);
-
-        isSyncing = true;
-        progress = 0;
-        syncTotal = 0;
-        userInfoCurrent = false;
-
-        syncCurrentUser();
-        syncForms();
-        syncContacts();
-        syncInteractions();
-        syncContactImages();
-        syncInteractionImages();
-        syncComments();
-        sync(false, syncToken);
+        final String syncToken = prefs.getString(Constants.Headers.SYNC_TOKEN, null);
+
+        progress.set(0);
+        syncTotal.set(0);
+
+        SyncPhaseScheduler phases = new SyncPhaseScheduler(new SyncPhaseScheduler.Listener() {
+            @Override
+            public void onPhasesFinished(boolean success) {
+                onSyncFinished(success);
+            }
+        });
+        phases.add(PHASE_USER, new SyncPhaseScheduler.Phase() {
+            @Override
+            public void run(SyncPhaseScheduler.Callback callback) {
+                syncCurrentUser(callback);
+            }
+        });
+        phases.add(PHASE_FORMS, new SyncPhaseScheduler.Phase() {
+            @Override
+            public void run(SyncPhaseScheduler.Callback callback) {
+                syncForms(callback);
+            }
+        });
+        phases.add(PHASE_CONTACTS, new SyncPhaseScheduler.Phase() {
+            @Override
+            public void run(SyncPhaseScheduler.Callback callback) {
+                syncContacts(callback);
+            }
+        });
+        // Interactions refer to contacts, so they need the server ids of created contacts
+        phases.add(PHASE_INTERACTIONS, new SyncPhaseScheduler.Phase() {
+            @Override
+            public void run(SyncPhaseScheduler.Callback callback) {
+                syncInteractions(callback);
+            }
+        }).requires(PHASE_CONTACTS);
+        phases.add(PHASE_CONTACT_IMAGES, new SyncPhaseScheduler.Phase() {
+            @Override
+            public void run(SyncPhaseScheduler.Callback callback) {
+                syncContactImages(callback);
+            }
+        }).requires(PHASE_CONTACTS);
+        phases.add(PHASE_INTERACTION_IMAGES, new SyncPhaseScheduler.Phase() {
+            @Override
+            public void run(SyncPhaseScheduler.Callback callback) {
+                syncInteractionImages(callback);
+            }
+        }).requires(PHASE_INTERACTIONS);
+        phases.add(PHASE_COMMENTS, new SyncPhaseScheduler.Phase() {
+            @Override
+            public void run(SyncPhaseScheduler.Callback callback) {
+                syncComments(callback);
+            }
+        }).requires(PHASE_INTERACTIONS);
+        // Pull after uploading so the response includes local changes, even if some failed
+        phases.add(PHASE_PULL, new SyncPhaseScheduler.Phase() {
+            @Override
+            public void run(SyncPhaseScheduler.Callback callback) {
+                sync(false, syncToken, callback);
+            }
+        }).after(PHASE_USER, PHASE_FORMS, PHASE_CONTACTS, PHASE_INTERACTIONS,
+                PHASE_CONTACT_IMAGES, PHASE_INTERACTION_IMAGES, PHASE_COMMENTS);
+        phases.start();
     }
 
     /**
      * Gets up-to-date info about the current user and ensures that the user's account is active.
+     * Called while holding the syncing flag, which is released before the sync is restarted.
      */
     private void getUserDetails() {
         OutfieldAPI.getUserDetails(new OutfieldAPI.ResponseCallback<User>() {
             @Override
-            public void onResponse(boolean success, User object) {
-                if (success && object != null) {
-                    object.save();
-                    hasTeamActivity = object.hasTeamActivity();
-                    if (!object.isActive()) return;
-                    userInfoCurrent = true;
-                    doSync();
+            public void onResponse(boolean success, final User object) {
+                if (!success || object == null) {
+                    syncing.set(false);
+                    return;
                 }
+                runWrite(new Runnable() {
+                    @Override
+                    public void run() {
+                        object.save();
+                        hasTeamActivity = object.hasTeamActivity();
+                        userInfoCurrent.set(object.isActive());
+                        syncing.set(false);
+                        if (object.isActive()) doSync();
+                    }
+                });
             }
         });
     }
@@ -89,19 +177,30 @@ public class SyncController {
     /**
      * Updates user's data on the server.
      */
-    private void syncCurrentUser() {
+    private void syncCurrentUser(final SyncPhaseScheduler.Callback callback) {
         final User currentUser = User.getCurrentUser();
-        if (currentUser == null || !currentUser.isDirty()) return;
+        if (currentUser == null || !currentUser.isDirty()) {
+            callback.onFinished(true);
+            return;
+        }
         OutfieldAPI.updateUser(currentUser, new OutfieldAPI.ResponseCallback<User>() {
             @Override
-            public void onResponse(boolean success, User object) {
-                if (success && object != null) {
-                    object.setDirty(false);
-                    object.setImage(currentUser.getImage());
-                    object.save();
-                    Log.d(TAG, "Updated user on server.");
-                    syncUserImage();
+            public void onResponse(boolean success, final User object) {
+                if (!success || object == null) {
+                    callback.onFinished(false);
+                    return;
                 }
+                runWrite(new Runnable() {
+                    @Override
+                    public void run() {
+                        object.setDirty(false);
+                        object.setImage(currentUser.getImage());
+                        object.save();
+                        Log.d(TAG, "Updated user on server.");
+                        syncUserImage();
+                        callback.onFinished(true);
+                    }
+                });
             }
         });
     }
@@ -115,34 +214,36 @@ public class SyncController {
 
     /**
      * Sends local contact changes to server and updates local contacts with response data.
+     * @param callback Called once every upload has been written back.
      */
-    private void syncContacts() {
-        List<Contact> deletedContacts = new ArrayList<>();
+    private void syncContacts(SyncPhaseScheduler.Callback callback) {
+        final UploadTracker tracker = new UploadTracker(callback);
+        List<Long> deletedIds = new ArrayList<>();
         List<Contact> createdContacts = new ArrayList<>();
         List<Contact> updatedContacts = new ArrayList<>();
         List<Contact> favoredContacts = new ArrayList<>();
 
-        // Get dirty contacts
-        SQLiteDatabase db = OutfieldApp.getDatabase().getReadableDatabase();
-        Cursor cursor = db.query(
-                OutfieldContract.Contact.TABLE_NAME,
-                null,
-                OutfieldContract.Contact.DIRTY + "=?",
-                new String[]{"1"},
-                null, null, null
-        );
-
-        // Sort dirty contacts
-        while (cursor != null && cursor.moveToNext()) {
-            Contact contact = new Contact(cursor);
-            long id = contact.getId();
-            if (pendingContacts.contains(id)) {
-                continue;
+        // Read queued changes, skipping contacts that are already being uploaded
+        final Outbox outbox = OutfieldApp.getDatabase().getOutbox();
+        final Map<Long, Outbox.Entry> entries = new HashMap<>();
+        List<Long> uploadIds = new ArrayList<>();
+        for (Outbox.Entry entry : outbox.peek(Outbox.CONTACT, MAX_OUTBOX_ENTRIES)) {
+            long id = entry.getEntityId();
+            if (!pendingContacts.add(id)) continue;
+            outbox.begin(entry);
+            entries.put(id, entry);
+            if (entry.getOperation() == Outbox.Operation.DELETE) {
+                deletedIds.add(id);
+            } else {
+                uploadIds.add(id);
             }
-            pendingContacts.add(id);
-            if (contact.isDestroy()) {
-                deletedContacts.add(contact);
-            } else if (id > 0 && contact.isFavored()) {
+        }
+
+        // Load contacts that will be uploaded, with their submodels in batches
+        for (Contact contact : ContactLoader.getContactsWithIds(toArray(uploadIds))) {
+            long id = contact.getId();
+            uploadIds.remove(id);
+            if (id > 0 && contact.isFavored()) {
                 favoredContacts.add(contact);
             } else if (id > 0) {
                 updatedContacts.add(contact);
@@ -150,127 +251,276 @@ public class SyncController {
                 createdContacts.add(contact);
             }
         }
-        if (cursor != null) cursor.close();
+        discardMissing(uploadIds, entries, pendingContacts);
 
         // Sync deleted contacts
-        for (final Contact contact : deletedContacts) {
-            OutfieldAPI.deleteContact(contact.getId(), new OutfieldAPI.ResponseCallback<Void>() {
+        for (final long id : deletedIds) {
+            final Outbox.Entry entry = entries.get(id);
+            tracker.add();
+            batcher.add(new MutationBatcher.Mutation<Void>(UploadScheduler.PRIORITY_DELETE,
+                    "delete contact " + id, "DELETE",
+                    Constants.Endpoints.CONTACTS + "/" + id, null) {
                 @Override
-                public void onResponse(boolean success, Void object) {
-                    if (success) {
-                        Log.d(TAG, "Deleted contact on server.");
-                        contact.delete();
-                    }
-                    pendingContacts.remove(contact.getId());
+                protected void send(OutfieldAPI.ResponseCallback<Void> callback) {
+                    OutfieldAPI.deleteContact(id, callback);
+                }
+
+                @Override
+                protected Void read(Gson gson, JsonElement body) {
+                    return null;
+                }
+
+                @Override
+                protected void onFinished(final boolean success, Void object) {
+                    runWrite(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (success) {
+                                Log.d(TAG, "Deleted contact on server.");
+                                OutfieldApp.getDatabase().getWriter().delete(
+                                        OutfieldContract.Contact.TABLE_NAME,
+                                        OutfieldContract.Contact.CONTACT_ID, id);
+                                Contact.getCache().invalidate(id);
+                                outbox.complete(entry, id);
+                            } else {
+                                outbox.release(entry);
+                            }
+                            pendingContacts.remove(id);
+                            tracker.done(true);
+                        }
+                    });
+                }
+            });
+        }
+
+        // Sync created contacts
+        for (final Contact contact : createdContacts) {
+            final long originalId = contact.getId();
+            final Outbox.Entry entry = entries.get(originalId);
+            contact.setId(0);
+            tracker.add();
+            batcher.add(new MutationBatcher.Mutation<Contact>(UploadScheduler.PRIORITY_CREATE,
+                    "create contact " + originalId, "POST",
+                    Constants.Endpoints.CONTACTS, contact.wrap()) {
+                @Override
+                protected void send(OutfieldAPI.ResponseCallback<Contact> callback) {
+                    OutfieldAPI.createContact(contact, callback);
+                }
+
+                @Override
+                protected Contact read(Gson gson, JsonElement body) {
+                    return gson.fromJson(body, Contact.Wrapper.class).getContact();
+                }
+
+                @Override
+                protected void onFinished(final boolean success, final Contact object) {
+                    runWrite(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (success && object != null) {
+                                Log.d(TAG, "Created contact on server.");
+                                SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
+                                db.beginTransaction();
+                                try {
+                                    if (outbox.complete(entry, object.getId()) != null) {
+                                        // Changed or deleted while in flight. Keep the local
+                                        // row, under its server id, until that change is sent.
+                                        moveId(OutfieldContract.Contact.TABLE_NAME,
+                                                OutfieldContract.Contact.CONTACT_ID,
+                                                contact.getRowId(), object.getId());
+                                        Contact.getCache().invalidate(originalId);
+                                    } else {
+                                        // The contact's foreign keys cascade the new id to its
+                                        // interactions and planned interactions
+                                        contact.setId(object.getId());
+                                        contact.update();
+
+                                        object.setImages(contact.getImages());
+                                        object.setDirty(false);
+                                        object.save();
+                                    }
+                                    db.setTransactionSuccessful();
+                                } finally {
+                                    db.endTransaction();
+                                }
+                            } else {
+                                outbox.release(entry);
+                            }
+                            pendingContacts.remove(originalId);
+                            tracker.done(success && object != null);
+                        }
+                    });
                 }
             });
         }
 
         // Favor and update contacts
         for (final Contact contact : favoredContacts) {
+            final Outbox.Entry entry = entries.get(contact.getId());
             if (contact.getContactType() == Contact.Type.PLACE) {
                 contact.setImages(new ArrayList<Image>());
             }
-            OutfieldAPI.updateAndFavorContact(contact, new OutfieldAPI.ResponseCallback<Contact>() {
+            tracker.add();
+            batcher.add(new MutationBatcher.Mutation<Contact>(UploadScheduler.PRIORITY_UPDATE,
+                    "favor contact " + contact.getId(), "POST",
+                    Constants.Endpoints.MY_CONTACTS, contact.wrap()) {
                 @Override
-                public void onResponse(boolean success, Contact object) {
-                    if (success && object != null) {
-                        Log.d(TAG, "Favored and updated contact on server.");
-                        object.setDirty(false);
-                        object.save();
-                    }
-                    pendingContacts.remove(contact.getId());
+                protected void send(OutfieldAPI.ResponseCallback<Contact> callback) {
+                    OutfieldAPI.updateAndFavorContact(contact, callback);
                 }
-            });
-        }
 
-        // Sync created contacts
-        for (final Contact contact : favoredContacts) {
-            final long originalId = contact.getId();
-            contact.setId(0);
-            OutfieldAPI.createContact(contact, new OutfieldAPI.ResponseCallback<Contact>() {
                 @Override
-                public void onResponse(boolean success, Contact object) {
-                    if (success && object != null) {
-                        Log.d(TAG, "Created contact on server.");
-                        contact.setId(object.getId());
-                        contact.update();
-
-                        object.setImages(contact.getImages());
-                        object.setDirty(false);
-                        object.save();
+                protected Contact read(Gson gson, JsonElement body) {
+                    return gson.fromJson(body, Contact.Wrapper.class).getContact();
+                }
 
-                    }
-                    pendingContacts.remove(originalId);
+                @Override
+                protected void onFinished(final boolean success, final Contact object) {
+                    runWrite(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (success && object != null) {
+                                Log.d(TAG, "Favored and updated contact on server.");
+                                writeBack(entry, contact.getId(), new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        object.setDirty(false);
+                                        object.save();
+                                    }
+                                });
+                            } else {
+                                outbox.release(entry);
+                            }
+                            pendingContacts.remove(contact.getId());
+                            tracker.done(true);
+                        }
+                    });
                 }
             });
         }
 
         // Sync updated contacts
         for (final Contact contact : updatedContacts) {
+            final Outbox.Entry entry = entries.get(contact.getId());
             if (contact.getContactType() == Contact.Type.PLACE) {
                 contact.setImages(new ArrayList<Image>());
             }
-            OutfieldAPI.updateContact(contact, new OutfieldAPI.ResponseCallback<Contact>() {
+            tracker.add();
+            batcher.add(new MutationBatcher.Mutation<Contact>(UploadScheduler.PRIORITY_UPDATE,
+                    "update contact " + contact.getId(), "PUT",
+                    Constants.Endpoints.CONTACTS + "/" + contact.getId(), contact.wrap()) {
                 @Override
-                public void onResponse(boolean success, Contact object) {
-                    if (success && object != null) {
-                        Log.d(TAG, "Updated contact on server.");
-                        object.setDirty(false);
-                        object.save();
-                    }
-                    pendingContacts.remove(contact.getId());
+                protected void send(OutfieldAPI.ResponseCallback<Contact> callback) {
+                    OutfieldAPI.updateContact(contact, callback);
+                }
+
+                @Override
+                protected Contact read(Gson gson, JsonElement body) {
+                    return gson.fromJson(body, Contact.Wrapper.class).getContact();
+                }
+
+                @Override
+                protected void onFinished(final boolean success, final Contact object) {
+                    runWrite(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (success && object != null) {
+                                Log.d(TAG, "Updated contact on server.");
+                                writeBack(entry, contact.getId(), new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        object.setDirty(false);
+                                        object.save();
+                                    }
+                                });
+                            } else {
+                                outbox.release(entry);
+                            }
+                            pendingContacts.remove(contact.getId());
+                            tracker.done(true);
+                        }
+                    });
                 }
             });
         }
+
+        batcher.flush();
+        tracker.done(true);
     }
 
     /**
      * Sends local interaction changes to server and updates local interactions with response data.
+     * @param callback Called once every upload has been written back.
      */
-    private void syncInteractions() {
-        List<Interaction> deletedInteractions = new ArrayList<>();
+    private void syncInteractions(SyncPhaseScheduler.Callback callback) {
+        final UploadTracker tracker = new UploadTracker(callback);
+        List<Long> deletedIds = new ArrayList<>();
         List<Interaction> createdInteractions = new ArrayList<>();
         List<Interaction> updatedInteractions = new ArrayList<>();
 
-        // Get dirty interactions
-        SQLiteDatabase db = OutfieldApp.getDatabase().getReadableDatabase();
-        Cursor cursor = db.query(
-                OutfieldContract.Interaction.TABLE_NAME,
-                null,
-                OutfieldContract.Interaction.DIRTY + "=?",
-                new String[]{"1"},
-                null, null, null
-        );
-
-        while (cursor != null && cursor.moveToNext()) {
-            Interaction interaction = new Interaction(cursor);
-            long id = interaction.getId();
-            if (pendingInteractions.contains(id)) continue;
-            pendingInteractions.add(id);
-
-            // Sort dirty interactions
-            if (interaction.isDestroy()) {
-                deletedInteractions.add(interaction);
-            } else if (interaction.getId() > 0) {
+        // Read queued changes, skipping interactions that are already being uploaded
+        final Outbox outbox = OutfieldApp.getDatabase().getOutbox();
+        final Map<Long, Outbox.Entry> entries = new HashMap<>();
+        List<Long> uploadIds = new ArrayList<>();
+        for (Outbox.Entry entry : outbox.peek(Outbox.INTERACTION, MAX_OUTBOX_ENTRIES)) {
+            long id = entry.getEntityId();
+            if (!pendingInteractions.add(id)) continue;
+            outbox.begin(entry);
+            entries.put(id, entry);
+            if (entry.getOperation() == Outbox.Operation.DELETE) {
+                deletedIds.add(id);
+            } else {
+                uploadIds.add(id);
+            }
+        }
+
+        // Load interactions that will be uploaded, with their relations in batches
+        InteractionLoader loader = new InteractionLoader();
+        for (Interaction interaction : loader.getInteractionsWithIds(toArray(uploadIds))) {
+            uploadIds.remove(interaction.getId());
+            if (interaction.getId() > 0) {
                 updatedInteractions.add(interaction);
-            } else if (interaction.getId() <= 0) {
+            } else {
                 createdInteractions.add(interaction);
             }
         }
-
-        if (cursor != null) cursor.close();
+        discardMissing(uploadIds, entries, pendingInteractions);
 
         // Sync deleted interactions
-        for (final Interaction interaction : deletedInteractions) {
-            OutfieldAPI.deleteInteraction(interaction.getId(), new OutfieldAPI.ResponseCallback<Void>() {
+        for (final long id : deletedIds) {
+            final Outbox.Entry entry = entries.get(id);
+            tracker.add();
+            batcher.add(new MutationBatcher.Mutation<Void>(UploadScheduler.PRIORITY_DELETE,
+                    "delete interaction " + id, "DELETE",
+                    Constants.Endpoints.INTERACTIONS + "/" + id, null) {
                 @Override
-                public void onResponse(boolean success, Void object) {
-                    if (success) {
-                        Log.d(TAG, "Deleted interaction on server.");
-                        interaction.delete();
-                    }
-                    pendingInteractions.remove(interaction.getId());
+                protected void send(OutfieldAPI.ResponseCallback<Void> callback) {
+                    OutfieldAPI.deleteInteraction(id, callback);
+                }
+
+                @Override
+                protected Void read(Gson gson, JsonElement body) {
+                    return null;
+                }
+
+                @Override
+                protected void onFinished(final boolean success, Void object) {
+                    runWrite(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (success) {
+                                Log.d(TAG, "Deleted interaction on server.");
+                                OutfieldApp.getDatabase().getWriter().delete(
+                                        OutfieldContract.Interaction.TABLE_NAME,
+                                        OutfieldContract.Interaction.INTERACTION_ID, id);
+                                outbox.complete(entry, id);
+                            } else {
+                                outbox.release(entry);
+                            }
+                            pendingInteractions.remove(id);
+                            tracker.done(true);
+                        }
+                    });
                 }
             });
         }
@@ -278,53 +528,121 @@ public class SyncController {
         // Sync created interactions
         for (final Interaction interaction : createdInteractions) {
             final long originalId = interaction.getId();
+            final Outbox.Entry entry = entries.get(originalId);
             interaction.setId(0);
-            OutfieldAPI.createInteraction(interaction, new OutfieldAPI.ResponseCallback<Interaction>() {
+            tracker.add();
+            batcher.add(new MutationBatcher.Mutation<Interaction>(UploadScheduler.PRIORITY_CREATE,
+                    "create interaction " + originalId, "POST",
+                    Constants.Endpoints.INTERACTIONS, interaction.wrap()) {
                 @Override
-                public void onResponse(boolean success, Interaction object) {
-                    if (success && object != null) {
-                        Log.d(TAG, "Created interaction on server.");
-                        interaction.setId(object.getId());
-                        interaction.update();
-
-                        object.setImages(interaction.getImages());
-                        object.setComments(interaction.getComments());
-                        object.setDirty(false);
-                        object.save();
-                    }
-                    pendingInteractions.remove(interaction.getId());
+                protected void send(OutfieldAPI.ResponseCallback<Interaction> callback) {
+                    OutfieldAPI.createInteraction(interaction, callback);
+                }
+
+                @Override
+                protected Interaction read(Gson gson, JsonElement body) {
+                    return gson.fromJson(body, Interaction.Wrapper.class).getInteraction();
+                }
+
+                @Override
+                protected void onFinished(final boolean success, final Interaction object) {
+                    runWrite(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (success && object != null) {
+                                Log.d(TAG, "Created interaction on server.");
+                                SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
+                                db.beginTransaction();
+                                try {
+                                    if (outbox.complete(entry, object.getId()) != null) {
+                                        // Changed or deleted while in flight. Keep the local
+                                        // row, under its server id, until that change is sent.
+                                        moveId(OutfieldContract.Interaction.TABLE_NAME,
+                                                OutfieldContract.Interaction.INTERACTION_ID,
+                                                interaction.getRowId(), object.getId());
+                                    } else {
+                                        interaction.setId(object.getId());
+                                        interaction.update();
+
+                                        object.setImages(interaction.getImages());
+                                        object.setComments(interaction.getComments());
+                                        object.setDirty(false);
+                                        object.save();
+                                    }
+                                    db.setTransactionSuccessful();
+                                } finally {
+                                    db.endTransaction();
+                                }
+                            } else {
+                                outbox.release(entry);
+                            }
+                            pendingInteractions.remove(originalId);
+                            tracker.done(success && object != null);
+                        }
+                    });
                 }
             });
         }
 
         // Sync updated interactions
         for (final Interaction interaction : updatedInteractions) {
-            OutfieldAPI.updateInteraction(interaction, new OutfieldAPI.ResponseCallback<Interaction>() {
+            final Outbox.Entry entry = entries.get(interaction.getId());
+            tracker.add();
+            batcher.add(new MutationBatcher.Mutation<Interaction>(UploadScheduler.PRIORITY_UPDATE,
+                    "update interaction " + interaction.getId(), "PUT",
+                    Constants.Endpoints.INTERACTIONS + "/" + interaction.getId(),
+                    interaction.wrap()) {
                 @Override
-                public void onResponse(boolean success, Interaction object) {
-                    if (success && object != null) {
-                        Log.d(TAG, "Updated interaction on server.");
-                        object.setImages(interaction.getImages());
-                        object.setComments(interaction.getComments());
-                        object.setDirty(false);
-                        object.save();
-                    }
-                    pendingInteractions.remove(interaction.getId());
+                protected void send(OutfieldAPI.ResponseCallback<Interaction> callback) {
+                    OutfieldAPI.updateInteraction(interaction, callback);
+                }
+
+                @Override
+                protected Interaction read(Gson gson, JsonElement body) {
+                    return gson.fromJson(body, Interaction.Wrapper.class).getInteraction();
+                }
+
+                @Override
+                protected void onFinished(final boolean success, final Interaction object) {
+                    runWrite(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (success && object != null) {
+                                Log.d(TAG, "Updated interaction on server.");
+                                object.setImages(interaction.getImages());
+                                object.setComments(interaction.getComments());
+                                writeBack(entry, interaction.getId(), new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        object.setDirty(false);
+                                        object.save();
+                                    }
+                                });
+                            } else {
+                                outbox.release(entry);
+                            }
+                            pendingInteractions.remove(interaction.getId());
+                            tracker.done(true);
+                        }
+                    });
                 }
             });
         }
-    }
-
-    private void syncContactImages() {
 
+        batcher.flush();
+        tracker.done(true);
     }
 
-    private void syncInteractionImages() {
-
+    private void syncContactImages(SyncPhaseScheduler.Callback callback) {
+        callback.onFinished(true);
     }
 
-    private void syncComments() {
+    private void syncInteractionImages(SyncPhaseScheduler.Callback callback) {
+        callback.onFinished(true);
+    }
 
+    private void syncComments(SyncPhaseScheduler.Callback callback) {
+        callback.onFinished(true);
     }
 
     private void syncNotifications() {
@@ -334,16 +652,24 @@ public class SyncController {
     /**
      * Retrieves and inserts organization's current interaction forms.
      */
-    private void syncForms() {
+    private void syncForms(final SyncPhaseScheduler.Callback callback) {
         OutfieldAPI.getLatestForms(new OutfieldAPI.ResponseCallback<List<Form>>() {
             @Override
-            public void onResponse(boolean success, List<Form> object) {
-                if (success && object != null) {
-                    // TODO: Save current form ids
-                    for (Form form : object) {
-                        form.save();
-                    }
+            public void onResponse(boolean success, final List<Form> object) {
+                if (!success || object == null) {
+                    callback.onFinished(false);
+                    return;
                 }
+                runWrite(new Runnable() {
+                    @Override
+                    public void run() {
+                        // TODO: Save current form ids
+                        for (Form form : object) {
+                            form.save();
+                        }
+                        callback.onFinished(true);
+                    }
+                });
             }
         });
     }
@@ -352,93 +678,23 @@ public class SyncController {
      * Gets contact and interaction changes for favored contacts from server.
      * @param onlyMe If false, retrieves interactions by all team members for favored contact.
      * @param syncToken When to begin syncing from. If null, will sync from beginning of time.
+     * @param callback Called once every page has been written.
      */
-    private void sync(final Boolean onlyMe, final String syncToken) {
-
-        final String oldToken = this.syncToken;
-        this.syncToken = syncToken;
-
-        OutfieldAPI.sync(onlyMe, 50, syncToken, new OutfieldAPI.ResponseCallback<SyncResponse>() {
+    private void sync(final Boolean onlyMe, final String syncToken,
+                      final SyncPhaseScheduler.Callback callback) {
+        new SyncPager(onlyMe, pageSizer, new SyncPager.Listener() {
             @Override
-            public void onResponse(boolean success, SyncResponse object) {
-
-                // If failed, reset token so user can try again later
-                if (!success) {
-                    setSyncToken(oldToken);
-                    onSyncFinished(false);
-                    return;
-                }
-
-                // Save new sync token
-                String newToken = object.getToken();
-                SharedPreferences.Editor editor = OutfieldApp.getSharedPrefs().edit();
-                editor.putString(Constants.Headers.SYNC_TOKEN, newToken);
-                editor.apply();
-
-                // If not finished, call sync again
-                if (object.getStatus().equals("more")) {
-                    sync(onlyMe, newToken);
-                }
-
-                // Get changes from response
-                List<Contact> contacts = new ArrayList<Contact>();
-                List<Integer> deletedContacts = new ArrayList<Integer>();
-                if (object.getContacts() != null) {
-                    contacts.addAll(object.getContacts().getCurrentContacts());
-                    deletedContacts.addAll(object.getContacts().getDeletedContactIds());
-                }
-
-                List<Interaction> interactions = new ArrayList<Interaction>();
-                List<Integer> deletedInteractions = new ArrayList<Integer>();
-                if (object.getInteractions() != null) {
-                    interactions.addAll(object.getInteractions().getCurrentInteractions());
-                    deletedInteractions.addAll(object.getInteractions().getDeletedInteractionIds());
-                }
-
-                // TODO: Bulk insert contacts and interactions.
-                // TODO: Insert on background thread.
-                // Create/update interactions from server
-                for (Interaction interaction : interactions) {
-                    interaction.setDirty(false);
-                    interaction.save();
-                }
-
-                // Destroy interactions deleted remotely
-                SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
-                db.beginTransaction();
-                for (Integer id : deletedInteractions) {
-                    db.delete(OutfieldContract.Interaction.TABLE_NAME,
-                            OutfieldContract.Interaction.INTERACTION_ID + "=?",
-                            new String[]{String.valueOf(id)});
-                }
-                db.setTransactionSuccessful();
-                db.endTransaction();
-
-                // Create/update contacts from server
-                for (Contact contact : contacts) {
-                    contact.setDirty(false);
-                    contact.save();
-                }
-
-                // Destroy contacts deleted remotely
-                db.beginTransaction();
-                for (Integer id : deletedContacts) {
-                    db.delete(OutfieldContract.Contact.TABLE_NAME,
-                            OutfieldContract.Contact.CONTACT_ID + "=?",
-                            new String[]{String.valueOf(id)});
-                }
-                db.setTransactionSuccessful();
-                db.endTransaction();
+            public void onPagesFinished(boolean success) {
                 // TODO: update progress
 
                 // Sync notifications and disable loading screen for future app launches
-                if (object.getStatus().equals("done")) {
+                if (success) {
                     syncNotifications();
                     // TODO: mark showLoadingScreen false
-                    onSyncFinished(true);
                 }
+                callback.onFinished(success);
             }
-        });
+        }).start(syncToken);
     }
 
     /**
@@ -446,16 +702,139 @@ public class SyncController {
      * @param success True if sync completed successfully.
      */
     private void onSyncFinished(boolean success) {
-        isSyncing = false;
+        syncing.set(false);
         Log.d(TAG, "Sync finished. Success = " + success);
+        Log.d(TAG, "Sent " + batcher.getMutationsSent() + " changes in "
+                + batcher.getRequestsSent() + " requests");
+
+        // Remove image files left behind by replaced or deleted image rows
+        runWrite(new Runnable() {
+            @Override
+            public void run() {
+                BlobStore.getInstance(OutfieldApp.getContext())
+                        .removeUnreferenced(OutfieldApp.getDatabase().getWritableDatabase());
+            }
+        });
+        OutfieldApp.getDatabase().checkpointWhenIdle();
         // TODO: Send broadcast intent
     }
 
+    /**
+     * @return True if a sync is running.
+     */
+    public boolean isSyncing() {
+        return syncing.get();
+    }
+
+    /**
+     * @return The number of local changes still being uploaded.
+     */
+    public int getPendingCount() {
+        return pendingContacts.size() + pendingInteractions.size() + pendingComments.size()
+                + pendingImages.size();
+    }
+
+    /**
+     * @return The scheduler that sends local changes, for inspecting its request metrics.
+     */
+    public UploadScheduler getUploadScheduler() {
+        return uploads;
+    }
+
+    /**
+     * @return The controller that picks sync page sizes, for inspecting its decisions.
+     */
+    public SyncPageSizer getPageSizer() {
+        return pageSizer;
+    }
+
     private void reset() {
 
     }
 
-    private void setSyncToken(String token) {
-        syncToken = token;
+    /**
+     * Queues a database write on the {@link WriteExecutor} so it runs off the callback thread.
+     * @param write The write to perform.
+     */
+    private static void runWrite(Runnable write) {
+        OutfieldApp.getDatabase().getWriteExecutor().execute(write);
+    }
+
+    /**
+     * Drops queued changes whose rows no longer exist, such as ones deleted by the server.
+     * @param ids Ids of entities that were queued but could not be loaded.
+     */
+    private static void discardMissing(List<Long> ids, final Map<Long, Outbox.Entry> entries,
+                                       final ConcurrentLongSet pending) {
+        for (final long id : ids) {
+            runWrite(new Runnable() {
+                @Override
+                public void run() {
+                    OutfieldApp.getDatabase().getOutbox().discard(entries.get(id));
+                    pending.remove(id);
+                }
+            });
+        }
+    }
+
+    /**
+     * Completes an update's outbox entry and then saves the server's copy of the entity, unless
+     * the entity changed again while the update was in flight. Then the local row is newer than
+     * the server's copy and stays dirty, to be sent by the entry that is still queued. Both
+     * happen in one transaction, which a local save cannot land in the middle of.
+     * @param save Saves the server's copy over the row.
+     */
+    private static void writeBack(Outbox.Entry entry, long id, Runnable save) {
+        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
+        db.beginTransaction();
+        try {
+            if (OutfieldApp.getDatabase().getOutbox().complete(entry, id) == null) save.run();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Gives a locally created row the id the server assigned it, without changing its other
+     * columns. Child rows follow through their foreign keys.
+     */
+    private static void moveId(String table, String idColumn, long rowId, long id) {
+        ContentValues values = new ContentValues();
+        values.put(idColumn, id);
+        OutfieldApp.getDatabase().getWriter().update(table, values, rowId);
+    }
+
+    /**
+     * Counts a phase's uploads and finishes the phase once the last one has been written back.
+     * Only failed creates fail the phase, since later phases need the server ids they assign.
+     * Failed updates and deletes stay in the outbox for the next sync.
+     */
+    private static class UploadTracker {
+        private final SyncPhaseScheduler.Callback callback;
+        // Starts at one so the phase cannot finish while uploads are still being queued
+        private final AtomicInteger remaining = new AtomicInteger(1);
+        private final AtomicBoolean failed = new AtomicBoolean();
+
+        UploadTracker(SyncPhaseScheduler.Callback callback) {
+            this.callback = callback;
+        }
+
+        void add() {
+            remaining.incrementAndGet();
+        }
+
+        void done(boolean success) {
+            if (!success) failed.set(true);
+            if (remaining.decrementAndGet() == 0) callback.onFinished(!failed.get());
+        }
+    }
+
+    private static long[] toArray(List<Long> list) {
+        long[] array = new long[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
     }
 }
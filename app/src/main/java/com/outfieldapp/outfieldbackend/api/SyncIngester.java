@@ -0,0 +1,229 @@
+package com.outfieldapp.outfieldbackend.api;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.outfieldapp.outfieldbackend.OutfieldApp;
+import com.outfieldapp.outfieldbackend.database.DatabaseWriter;
+import com.outfieldapp.outfieldbackend.database.OutfieldContract;
+import com.outfieldapp.outfieldbackend.models.Comment;
+import com.outfieldapp.outfieldbackend.models.Contact;
+import com.outfieldapp.outfieldbackend.models.Form;
+import com.outfieldapp.outfieldbackend.models.Interaction;
+import com.outfieldapp.outfieldbackend.models.User;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Applies one page of sync changes to the local database. Creates, updates and deletes are written
+ * through the {@link DatabaseWriter} in a transaction that begins with the first change and ends
+ * with {@link #commit()}, so a batch of changes costs one commit instead of one per row.
+ * <p>
+ * Changes can be added one at a time as they are parsed, which keeps memory use flat for large
+ * pages. Commit after each batch rather than once per page when changes arrive from the network,
+ * so the transaction is never held open while waiting for the response; {@link SyncPager} does.
+ * Every method must be called on the same thread, normally the
+ * {@link com.outfieldapp.outfieldbackend.database.WriteExecutor WriteExecutor} thread. Changes
+ * are idempotent, so a page can be committed in parts and applied again later.
+ * <p>
+ * Contacts and interactions whose content hash matches the stored row are skipped, which costs one
+ * indexed lookup instead of rewriting the entity and its children. Rows with local changes are
+ * always overwritten, as before.
+ * <p>
+ * Rows that fail to write are counted ({@link #getFailureCount()}) rather than rolling back the
+ * batch. A page with failures must not advance the sync token, so it is fetched and applied
+ * again. An entity with a failed row keeps no content hash, so it is not skipped next time.
+ */
+public class SyncIngester {
+
+    public static final String TAG = SyncIngester.class.getSimpleName();
+
+    private SQLiteDatabase db;
+    private DatabaseWriter writer;
+
+    private boolean inTransaction;
+    private long startRows;
+    private long startFailures;
+    private long failures;
+    private long busyMillis;
+    private int skipped;
+
+    // API ids written in the open transaction, removed from the model caches again on commit
+    private final Set<Long> contactIds = new HashSet<>();
+    private final Set<Long> userIds = new HashSet<>();
+    private final Set<Long> formIds = new HashSet<>();
+
+    /**
+     * Creates or updates a contact from the server.
+     */
+    public void addContact(Contact contact) {
+        long start = begin();
+        if (isUnchanged(OutfieldContract.Contact.TABLE_NAME, OutfieldContract.Contact.CONTACT_ID,
+                contact.getId(), contact.getContentHash())) {
+            skipped++;
+        } else {
+            long failed = writer.getFailures();
+            contact.setDirty(false);
+            contact.save();
+            contactIds.add(contact.getId());
+            if (writer.getFailures() != failed) {
+                forgetHash(OutfieldContract.Contact.TABLE_NAME, contact.getRowId());
+            }
+        }
+        end(start);
+    }
+
+    /**
+     * Creates or updates an interaction from the server.
+     */
+    public void addInteraction(Interaction interaction) {
+        long start = begin();
+        if (isUnchanged(OutfieldContract.Interaction.TABLE_NAME,
+                OutfieldContract.Interaction.INTERACTION_ID, interaction.getId(),
+                interaction.getContentHash())) {
+            skipped++;
+        } else {
+            long failed = writer.getFailures();
+            interaction.setDirty(false);
+            interaction.save();
+            addCachedIds(interaction);
+            if (writer.getFailures() != failed) {
+                forgetHash(OutfieldContract.Interaction.TABLE_NAME, interaction.getRowId());
+            }
+        }
+        end(start);
+    }
+
+    /**
+     * Destroys a contact deleted remotely.
+     */
+    public void deleteContact(long contactId) {
+        long start = begin();
+        writer.delete(OutfieldContract.Contact.TABLE_NAME,
+                OutfieldContract.Contact.CONTACT_ID, contactId);
+        Contact.getCache().invalidate(contactId);
+        contactIds.add(contactId);
+        end(start);
+    }
+
+    /**
+     * Destroys an interaction deleted remotely.
+     */
+    public void deleteInteraction(long interactionId) {
+        long start = begin();
+        writer.delete(OutfieldContract.Interaction.TABLE_NAME,
+                OutfieldContract.Interaction.INTERACTION_ID, interactionId);
+        end(start);
+    }
+
+    /**
+     * Commits all changes added since the last commit. Changes added later begin a new
+     * transaction.
+     * @return The number of rows written.
+     */
+    public long commit() {
+        if (!inTransaction) return 0;
+        long start = SystemClock.elapsedRealtime();
+        try {
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            inTransaction = false;
+        }
+        end(start);
+        failures += writer.getFailures() - startFailures;
+
+        // Readers that ran during the transaction may have cached rows from before the commit
+        for (long id : contactIds) Contact.getCache().invalidate(id);
+        for (long id : userIds) User.getCache().invalidate(id);
+        for (long id : formIds) Form.getCache().invalidate(id);
+        contactIds.clear();
+        userIds.clear();
+        formIds.clear();
+
+        long rows = writer.getRowsWritten() - startRows;
+        long elapsed = Math.max(1, busyMillis);
+        Log.d(TAG, "Ingested " + rows + " rows in " + elapsed + "ms ("
+                + (rows * 1000 / elapsed) + " rows/sec), skipped " + skipped + " unchanged");
+        if (failures > 0) Log.w(TAG, failures + " rows failed to write");
+        Log.d(TAG, "Upserts so far: " + writer.getUpsertStats());
+        return rows;
+    }
+
+    /**
+     * @return Time spent writing this page so far, in milliseconds.
+     */
+    public long getBusyMillis() {
+        return busyMillis;
+    }
+
+    /**
+     * @return The number of contacts and interactions skipped because they had not changed.
+     */
+    public int getSkippedCount() {
+        return skipped;
+    }
+
+    /**
+     * @return The number of rows that failed to write in the transactions committed so far. Writes
+     * on other threads that fail at the same time are counted too, which only costs a retry.
+     */
+    public long getFailureCount() {
+        return failures;
+    }
+
+    /**
+     * Records the ids of the cached models an interaction's save wrote.
+     */
+    private void addCachedIds(Interaction interaction) {
+        if (interaction.getContact() != null) contactIds.add(interaction.getContact().getId());
+        if (interaction.getUser() != null) userIds.add(interaction.getUser().getId());
+        for (Form form : interaction.getForms()) formIds.add(form.getId());
+        for (Comment comment : interaction.getComments()) {
+            if (comment.getUser() != null) userIds.add(comment.getUser().getId());
+        }
+    }
+
+    /**
+     * Clears a partly written entity's content hash, so it is written again rather than skipped
+     * when the page is applied again.
+     */
+    private void forgetHash(String table, long rowId) {
+        if (rowId <= 0) return;
+        // Contacts and interactions name their hash column the same
+        ContentValues values = new ContentValues();
+        values.putNull(OutfieldContract.Contact.CONTENT_HASH);
+        writer.update(table, values, rowId);
+    }
+
+    /**
+     * @return True if a clean row with the API id was saved from identical server content.
+     */
+    private boolean isUnchanged(String table, String idColumn, long id, String contentHash) {
+        if (contentHash == null || id <= 0) return false;
+        // Contacts and interactions name their hash and dirty columns the same
+        String stored = writer.queryString("SELECT " + OutfieldContract.Contact.CONTENT_HASH
+                + " FROM " + table + " WHERE " + idColumn + "=? AND "
+                + OutfieldContract.Contact.DIRTY + "=0", id);
+        return contentHash.equals(stored);
+    }
+
+    private long begin() {
+        if (!inTransaction) {
+            db = OutfieldApp.getDatabase().getWritableDatabase();
+            writer = OutfieldApp.getDatabase().getWriter();
+            startRows = writer.getRowsWritten();
+            startFailures = writer.getFailures();
+            db.beginTransaction();
+            inTransaction = true;
+        }
+        return SystemClock.elapsedRealtime();
+    }
+
+    private void end(long start) {
+        busyMillis += SystemClock.elapsedRealtime() - start;
+    }
+}
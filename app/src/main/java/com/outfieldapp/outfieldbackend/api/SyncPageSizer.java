@@ -0,0 +1,156 @@
+package com.outfieldapp.outfieldbackend.api;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Chooses the <code>per_sync</code> page size for {@link OutfieldAPI#sync} from measured
+ * throughput. After each page, the time spent fetching and persisting it and the size of the
+ * response are used to estimate how many items fit in {@link #TARGET_PAGE_MILLIS} and
+ * {@link #MAX_PAGE_BYTES}. The page size moves toward that estimate, at most doubling per page,
+ * and is halved whenever a page fails. The result always stays within the configured bounds.
+ * <p>
+ * Each adjustment is recorded as a {@link Decision} so page sizing can be inspected later.
+ */
+public class SyncPageSizer {
+
+    public static final String TAG = SyncPageSizer.class.getSimpleName();
+
+    public static final int DEFAULT_MIN_PAGE_SIZE = 10;
+    public static final int DEFAULT_MAX_PAGE_SIZE = 250;
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    /** Time one page should take to fetch and persist, well below the HTTP read timeout. */
+    public static final long TARGET_PAGE_MILLIS = 5000;
+    /** Largest response body a page should produce. */
+    public static final long MAX_PAGE_BYTES = 1024 * 1024;
+    /** Number of decisions kept for inspection. */
+    public static final int MAX_DECISIONS = 50;
+
+    private final int minPageSize;
+    private final int maxPageSize;
+    private final LinkedList<Decision> decisions = new LinkedList<>();
+    private int pageSize;
+
+    public SyncPageSizer() {
+        this(DEFAULT_MIN_PAGE_SIZE, DEFAULT_MAX_PAGE_SIZE);
+    }
+
+    /**
+     * @param minPageSize The smallest page size that may be requested.
+     * @param maxPageSize The largest page size that may be requested.
+     */
+    public SyncPageSizer(int minPageSize, int maxPageSize) {
+        if (minPageSize <= 0 || maxPageSize < minPageSize) {
+            throw new IllegalArgumentException("Invalid page size bounds");
+        }
+        this.minPageSize = minPageSize;
+        this.maxPageSize = maxPageSize;
+        this.pageSize = clamp(DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @return The page size to request for the next page.
+     */
+    public synchronized int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Adjusts the page size using measurements from a page that was fetched and persisted.
+     * @param items The number of contacts, interactions and deletions in the page.
+     * @param bytes The size of the response body, or -1 if unknown.
+     * @param fetchMillis Time from sending the request to receiving the parsed response, not
+     *                    counting time spent waiting for the database writer.
+     * @param persistMillis Time spent writing the page to the database.
+     */
+    public synchronized void onPageCompleted(int items, long bytes, long fetchMillis,
+                                             long persistMillis) {
+        if (items <= 0) return;
+
+        // Items that fit in the target time at this page's per-item cost
+        long pageMillis = Math.max(1, fetchMillis + persistMillis);
+        long byTime = TARGET_PAGE_MILLIS * items / pageMillis;
+
+        // Items that fit in the byte budget at this page's per-item size
+        long byBytes = bytes > 0 ? MAX_PAGE_BYTES * items / bytes : Long.MAX_VALUE;
+
+        long estimate = Math.min(byTime, byBytes);
+        int next = (int) Math.min(estimate, pageSize * 2L);
+        next = clamp((pageSize + next) / 2);
+
+        String reason = byBytes < byTime ? "bytes" : "time";
+        record(new Decision(pageSize, next, items, bytes, fetchMillis, persistMillis, reason));
+        pageSize = next;
+    }
+
+    /**
+     * Halves the page size after a page failed to load, such as from a read timeout.
+     */
+    public synchronized void onPageFailed() {
+        int next = clamp(pageSize / 2);
+        record(new Decision(pageSize, next, 0, -1, 0, 0, "failure"));
+        pageSize = next;
+    }
+
+    /**
+     * @return The most recent page size decisions, oldest first.
+     */
+    public synchronized List<Decision> getDecisions() {
+        return new ArrayList<>(decisions);
+    }
+
+    private int clamp(int size) {
+        return Math.max(minPageSize, Math.min(maxPageSize, size));
+    }
+
+    private void record(Decision decision) {
+        decisions.add(decision);
+        if (decisions.size() > MAX_DECISIONS) decisions.removeFirst();
+        Log.d(TAG, decision.toString());
+    }
+
+    /**
+     * A single page size adjustment and the measurements that caused it.
+     */
+    public static class Decision {
+        private final long timestamp = System.currentTimeMillis();
+        private final int previousSize;
+        private final int newSize;
+        private final int items;
+        private final long bytes;
+        private final long fetchMillis;
+        private final long persistMillis;
+        private final String reason;
+
+        Decision(int previousSize, int newSize, int items, long bytes, long fetchMillis,
+                 long persistMillis, String reason) {
+            this.previousSize = previousSize;
+            this.newSize = newSize;
+            this.items = items;
+            this.bytes = bytes;
+            this.fetchMillis = fetchMillis;
+            this.persistMillis = persistMillis;
+            this.reason = reason;
+        }
+
+        public long getTimestamp() { return timestamp; }
+        public int getPreviousSize() { return previousSize; }
+        public int getNewSize() { return newSize; }
+        public int getItems() { return items; }
+        public long getBytes() { return bytes; }
+        public long getFetchMillis() { return fetchMillis; }
+        public long getPersistMillis() { return persistMillis; }
+        public String getReason() { return reason; }
+
+        @Override
+        public String toString() {
+            return "Page size " + previousSize + " -> " + newSize + " (" + reason + "): "
+                    + items + " items, " + bytes + " bytes, fetch " + fetchMillis
+                    + "ms, persist " + persistMillis + "ms";
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.outfieldapp.outfieldbackend.api;
+
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.outfieldapp.outfieldbackend.OutfieldApp;
+import com.outfieldapp.outfieldbackend.api.response.SyncResponse;
+import com.outfieldapp.outfieldbackend.api.response.SyncResponseReader;
+import com.outfieldapp.outfieldbackend.database.WriteExecutor;
+import com.outfieldapp.outfieldbackend.models.Contact;
+import com.outfieldapp.outfieldbackend.models.Interaction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pages through <code>GET /api/v2/sync</code> and persists each page on the
+ * {@link WriteExecutor}. Pages are streamed with {@link OutfieldAPI#streamSync}, and changes are
+ * queued for writing in batches of {@link #BATCH_SIZE} as they are parsed. Batches are queued with
+ * {@link WriteExecutor#executeBounded(Runnable)}, so parsing waits when the writer falls behind,
+ * which also limits how much of a page is held in memory. Each batch is written in its own short
+ * transaction, so other writes wait for at most one batch rather than a whole download. The next
+ * page is fetched while earlier pages are still being written, but no more than
+ * {@link #MAX_PAGES_IN_FLIGHT} fetched pages may be waiting to be persisted at once. A page's sync
+ * token is only saved after all of that page's batches are committed, so if the app dies mid-sync
+ * the next sync resumes from the last page that was fully applied. If any of a page's rows fail
+ * to write, neither its token nor any later page's is saved, no more pages are fetched and the
+ * sync fails, so the next sync applies the page again.
+ * <p>
+ * Page sizes come from a {@link SyncPageSizer}, which is told how long each page took.
+ */
+public class SyncPager {
+
+    public static final String TAG = SyncPager.class.getSimpleName();
+    public static final int MAX_PAGES_IN_FLIGHT = 2;
+    /** Changes written per transaction. */
+    public static final int BATCH_SIZE = 50;
+    public static final String STATUS_MORE = "more";
+    public static final String STATUS_DONE = "done";
+
+    /**
+     * Receives the result of the sync once every fetched page has been persisted.
+     */
+    public interface Listener {
+        void onPagesFinished(boolean success);
+    }
+
+    private final Boolean onlyMe;
+    private final SyncPageSizer pageSizer;
+    private final Listener listener;
+
+    private int pagesInFlight;
+    private boolean fetching;
+    private String deferredToken;
+    private boolean writeFailed;
+    private boolean finished;
+
+    /**
+     * @param onlyMe If false, retrieves interactions by all team members for favored contacts.
+     * @param pageSizer Chooses the number of items to request per page.
+     * @param listener Listener to notify when paging finishes or fails.
+     */
+    public SyncPager(Boolean onlyMe, SyncPageSizer pageSizer, Listener listener) {
+        this.onlyMe = onlyMe;
+        this.pageSizer = pageSizer;
+        this.listener = listener;
+    }
+
+    /**
+     * Begins fetching pages.
+     * @param syncToken When to begin syncing from. If null, will sync from beginning of time.
+     */
+    public void start(String syncToken) {
+        synchronized (this) {
+            fetching = true;
+        }
+        fetch(syncToken);
+    }
+
+    private void fetch(String syncToken) {
+        final long startedAt = SystemClock.elapsedRealtime();
+        final SyncIngester ingester = new SyncIngester();
+        final WriteExecutor writeExecutor = getWriteExecutor();
+        int perSync = pageSizer.getPageSize();
+
+        final ChangeBuffer buffer = new ChangeBuffer(ingester, writeExecutor);
+
+        OutfieldAPI.streamSync(onlyMe, perSync, syncToken, buffer,
+                new OutfieldAPI.ResponseCallback<SyncResponse>() {
+            @Override
+            public void onResponse(boolean success, SyncResponse object) {
+                buffer.flush();
+                // Time parsing waited for the writer is counted in the page's persist time
+                long fetchMillis = SystemClock.elapsedRealtime() - startedAt
+                        - buffer.getBlockedMillis();
+                onPageFetched(success, object, ingester, fetchMillis);
+            }
+        });
+    }
+
+    private void onPageFetched(boolean success, final SyncResponse page,
+                               final SyncIngester ingester, final long fetchMillis) {
+
+        // If failed, keep the changes already received but don't advance the token, and finish
+        // after pages already fetched are persisted so user can try again later
+        if (!success || page == null) {
+            pageSizer.onPageFailed();
+            synchronized (this) {
+                fetching = false;
+            }
+            getWriteExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    ingester.commit();
+                    finish(false);
+                }
+            });
+            return;
+        }
+
+        // If not finished, fetch the next page now or once a page has been persisted
+        String nextToken = null;
+        synchronized (this) {
+            fetching = false;
+            pagesInFlight++;
+            if (STATUS_MORE.equals(page.getStatus()) && !writeFailed) {
+                if (pagesInFlight < MAX_PAGES_IN_FLIGHT) {
+                    nextToken = page.getToken();
+                    fetching = true;
+                } else {
+                    deferredToken = page.getToken();
+                }
+            }
+        }
+
+        getWriteExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                persist(page, ingester, fetchMillis);
+            }
+        });
+
+        if (nextToken != null) fetch(nextToken);
+    }
+
+    /**
+     * Commits a page's changes and then saves its token, unless a row of this page or an earlier
+     * one failed to write. Runs on the writer thread after all of the page's changes have been
+     * written.
+     */
+    private void persist(SyncResponse page, SyncIngester ingester, long fetchMillis) {
+        ingester.commit();
+        pageSizer.onPageCompleted(page.getItemCount(), page.getContentLength(),
+                fetchMillis, ingester.getBusyMillis());
+
+        boolean failed;
+        synchronized (this) {
+            if (ingester.getFailureCount() > 0) writeFailed = true;
+            failed = writeFailed;
+            if (failed) {
+                pagesInFlight--;
+                deferredToken = null;
+            }
+        }
+        if (failed) {
+            Log.w(TAG, "Not advancing sync token, since rows failed to write");
+            finish(false);
+            return;
+        }
+
+        // Rows are committed, so it is now safe to resume from this page's token
+        SharedPreferences.Editor editor = OutfieldApp.getSharedPrefs().edit();
+        editor.putString(Constants.Headers.SYNC_TOKEN, page.getToken());
+        editor.commit();
+
+        String nextToken = null;
+        synchronized (this) {
+            pagesInFlight--;
+            if (deferredToken != null && !fetching) {
+                nextToken = deferredToken;
+                deferredToken = null;
+                fetching = true;
+            }
+        }
+        if (nextToken != null) fetch(nextToken);
+
+        if (!STATUS_MORE.equals(page.getStatus())) {
+            finish(STATUS_DONE.equals(page.getStatus()));
+        }
+    }
+
+    private void finish(boolean success) {
+        synchronized (this) {
+            if (finished) return;
+            finished = true;
+        }
+        Log.d(TAG, "Finished paging. Success = " + success);
+        listener.onPagesFinished(success);
+    }
+
+    private static WriteExecutor getWriteExecutor() {
+        return OutfieldApp.getDatabase().getWriteExecutor();
+    }
+
+    /**
+     * Collects a page's changes on the thread reading the response and queues them for writing in
+     * batches of {@link #BATCH_SIZE}. Each batch is committed as soon as it is written, so the
+     * writer thread never holds a transaction open while waiting for the network.
+     */
+    private static class ChangeBuffer implements SyncResponseReader.Listener {
+        private final SyncIngester ingester;
+        private final WriteExecutor writeExecutor;
+        private List<Runnable> changes = new ArrayList<>(BATCH_SIZE);
+        private long blockedMillis;
+
+        ChangeBuffer(SyncIngester ingester, WriteExecutor writeExecutor) {
+            this.ingester = ingester;
+            this.writeExecutor = writeExecutor;
+        }
+
+        @Override
+        public void onContact(final Contact contact) {
+            add(new Runnable() {
+                @Override
+                public void run() {
+                    ingester.addContact(contact);
+                }
+            });
+        }
+
+        @Override
+        public void onInteraction(final Interaction interaction) {
+            add(new Runnable() {
+                @Override
+                public void run() {
+                    ingester.addInteraction(interaction);
+                }
+            });
+        }
+
+        @Override
+        public void onContactDeleted(final long contactId) {
+            add(new Runnable() {
+                @Override
+                public void run() {
+                    ingester.deleteContact(contactId);
+                }
+            });
+        }
+
+        @Override
+        public void onInteractionDeleted(final long interactionId) {
+            add(new Runnable() {
+                @Override
+                public void run() {
+                    ingester.deleteInteraction(interactionId);
+                }
+            });
+        }
+
+        /**
+         * Queues the changes collected so far, even if they do not fill a batch.
+         */
+        void flush() {
+            if (changes.isEmpty()) return;
+            final List<Runnable> batch = changes;
+            changes = new ArrayList<>(BATCH_SIZE);
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (Runnable change : batch) {
+                            change.run();
+                        }
+                    } finally {
+                        ingester.commit();
+                    }
+                }
+            };
+            long start = SystemClock.elapsedRealtime();
+            try {
+                // Runs on the stream thread, so waiting here slows parsing to the disk's pace
+                writeExecutor.executeBounded(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                writeExecutor.execute(task);
+            } finally {
+                blockedMillis += SystemClock.elapsedRealtime() - start;
+            }
+        }
+
+        /**
+         * @return Time spent waiting for the writer to accept batches, in milliseconds.
+         */
+        long getBlockedMillis() {
+            return blockedMillis;
+        }
+
+        private void add(Runnable change) {
+            changes.add(change);
+            if (changes.size() >= BATCH_SIZE) flush();
+        }
+    }
+}
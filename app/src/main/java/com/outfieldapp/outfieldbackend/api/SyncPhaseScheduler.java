@@ -0,0 +1,268 @@
+package com.outfieldapp.outfieldbackend.api;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the steps of a sync as a dependency graph. Every phase starts as soon as the phases it
+ * depends on have finished, so independent phases, such as uploading the user and fetching forms,
+ * run at the same time while dependent ones, such as uploading interactions after the contacts they
+ * refer to, wait.
+ * <p>
+ * A phase added with {@link Node#requires(String...)} is skipped if a phase it requires failed or
+ * was skipped, and the skip propagates to the phases that require it in turn. A phase added with
+ * {@link Node#after(String...)} only waits for those phases and runs whether they succeeded or not.
+ * <p>
+ * How long each phase took is logged when the graph finishes and can be read from
+ * {@link #getTimings()}.
+ */
+public class SyncPhaseScheduler {
+
+    public static final String TAG = SyncPhaseScheduler.class.getSimpleName();
+
+    /**
+     * One step of a sync.
+     */
+    public interface Phase {
+        /**
+         * Starts the phase.
+         * @param callback Callback that must be called exactly once, when the phase finishes.
+         */
+        void run(Callback callback);
+    }
+
+    /**
+     * Receives the result of one phase.
+     */
+    public interface Callback {
+        void onFinished(boolean success);
+    }
+
+    /**
+     * Receives the result of the graph once every phase has finished or been skipped.
+     */
+    public interface Listener {
+        /**
+         * @param success True if every phase ran and succeeded.
+         */
+        void onPhasesFinished(boolean success);
+    }
+
+    private enum State {
+        WAITING, RUNNING, SUCCEEDED, FAILED, SKIPPED
+    }
+
+    /**
+     * A phase and its dependencies, returned by {@link #add(String, Phase)}.
+     */
+    public class Node {
+        private final String name;
+        private final Phase phase;
+        private final List<Node> required = new ArrayList<>();
+        private final List<Node> preceding = new ArrayList<>();
+        private final List<Node> dependents = new ArrayList<>();
+        private State state = State.WAITING;
+        private long startedAt;
+        private long finishedAt;
+
+        private Node(String name, Phase phase) {
+            this.name = name;
+            this.phase = phase;
+        }
+
+        /**
+         * Makes this phase wait for other phases, and be skipped if any of them do not succeed.
+         * @param names Names of phases that were already added.
+         */
+        public Node requires(String... names) {
+            addDependencies(required, names);
+            return this;
+        }
+
+        /**
+         * Makes this phase wait for other phases, whether they succeed or not.
+         * @param names Names of phases that were already added.
+         */
+        public Node after(String... names) {
+            addDependencies(preceding, names);
+            return this;
+        }
+
+        private void addDependencies(List<Node> list, String... names) {
+            synchronized (SyncPhaseScheduler.this) {
+                if (started) throw new IllegalStateException("Phases already started");
+                for (String name : names) {
+                    Node node = nodes.get(name);
+                    if (node == null) {
+                        throw new IllegalArgumentException("Unknown phase " + name);
+                    }
+                    list.add(node);
+                    node.dependents.add(this);
+                }
+            }
+        }
+
+        private boolean isDone() {
+            return state == State.SUCCEEDED || state == State.FAILED || state == State.SKIPPED;
+        }
+    }
+
+    private final Listener listener;
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    private boolean started;
+    private int remaining;
+    private boolean allSucceeded = true;
+
+    /**
+     * @param listener Listener to notify once every phase has finished or been skipped.
+     */
+    public SyncPhaseScheduler(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds a phase. Phases can only depend on phases added before them, so the graph never has
+     * cycles.
+     * @param name Unique name of the phase, used for dependencies and in logs.
+     * @param phase The phase to run.
+     * @return The phase's node, for declaring its dependencies.
+     */
+    public synchronized Node add(String name, Phase phase) {
+        if (started) throw new IllegalStateException("Phases already started");
+        if (nodes.containsKey(name)) throw new IllegalArgumentException("Duplicate phase " + name);
+        Node node = new Node(name, phase);
+        nodes.put(name, node);
+        return node;
+    }
+
+    /**
+     * Starts every phase without dependencies. Can only be called once.
+     */
+    public void start() {
+        List<Node> ready = new ArrayList<>();
+        synchronized (this) {
+            if (started) throw new IllegalStateException("Phases already started");
+            started = true;
+            remaining = nodes.size();
+            for (Node node : nodes.values()) {
+                if (node.required.isEmpty() && node.preceding.isEmpty()) {
+                    node.state = State.RUNNING;
+                    ready.add(node);
+                }
+            }
+        }
+
+        if (ready.isEmpty()) {
+            listener.onPhasesFinished(true);
+            return;
+        }
+        for (Node node : ready) {
+            run(node);
+        }
+    }
+
+    /**
+     * @return Each phase's result and duration, such as "contacts succeeded in 120ms".
+     */
+    public synchronized String getTimings() {
+        StringBuilder builder = new StringBuilder();
+        for (Node node : nodes.values()) {
+            if (builder.length() > 0) builder.append(", ");
+            builder.append(node.name).append(' ').append(node.state.name().toLowerCase());
+            if (node.state == State.SUCCEEDED || node.state == State.FAILED) {
+                builder.append(" in ").append(node.finishedAt - node.startedAt).append("ms");
+            }
+        }
+        return builder.toString();
+    }
+
+    private void run(final Node node) {
+        synchronized (this) {
+            node.startedAt = SystemClock.elapsedRealtime();
+        }
+        Log.d(TAG, "Starting phase " + node.name);
+        try {
+            node.phase.run(new Callback() {
+                private boolean called;
+
+                @Override
+                public void onFinished(boolean success) {
+                    synchronized (this) {
+                        if (called) return;
+                        called = true;
+                    }
+                    finish(node, success);
+                }
+            });
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error during run() for phase " + node.name, e);
+            finish(node, false);
+        }
+    }
+
+    private void finish(Node node, boolean success) {
+        List<Node> ready = new ArrayList<>();
+        boolean finished;
+        synchronized (this) {
+            if (node.state != State.RUNNING) return;
+            node.finishedAt = SystemClock.elapsedRealtime();
+            node.state = success ? State.SUCCEEDED : State.FAILED;
+            if (!success) allSucceeded = false;
+            remaining--;
+            release(node, ready);
+            finished = remaining == 0;
+        }
+
+        Log.d(TAG, "Phase " + node.name + (success ? " succeeded" : " failed") + " in "
+                + (node.finishedAt - node.startedAt) + "ms");
+        for (Node next : ready) {
+            run(next);
+        }
+        if (finished) {
+            Log.d(TAG, "Phases finished: " + getTimings());
+            listener.onPhasesFinished(allSucceeded);
+        }
+    }
+
+    /**
+     * Checks the phases that depend on a finished one, skipping those whose requirements did not
+     * succeed and collecting those that can now run. Called while holding the lock.
+     */
+    private void release(Node node, List<Node> ready) {
+        for (Node dependent : node.dependents) {
+            if (dependent.state != State.WAITING || !dependenciesDone(dependent)) continue;
+            if (requirementsSucceeded(dependent)) {
+                dependent.state = State.RUNNING;
+                ready.add(dependent);
+            } else {
+                Log.w(TAG, "Skipping phase " + dependent.name);
+                dependent.state = State.SKIPPED;
+                allSucceeded = false;
+                remaining--;
+                release(dependent, ready);
+            }
+        }
+    }
+
+    private static boolean dependenciesDone(Node node) {
+        for (Node dependency : node.required) {
+            if (!dependency.isDone()) return false;
+        }
+        for (Node dependency : node.preceding) {
+            if (!dependency.isDone()) return false;
+        }
+        return true;
+    }
+
+    private static boolean requirementsSucceeded(Node node) {
+        for (Node dependency : node.required) {
+            if (dependency.state != State.SUCCEEDED) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,164 @@
+package com.outfieldapp.outfieldbackend.api;
+
+import android.util.Log;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Reads the API's ISO 8601 timestamps, such as <code>2016-05-12T14:03:22.123-05:00</code>, into
+ * epoch milliseconds and writes them back in UTC. Annotate <code>long</code> fields with
+ * <code>@JsonAdapter(TimestampAdapter.class)</code> so timestamps are parsed once, when a response
+ * is read, and stored as integers that sort and compare correctly.
+ * <p>
+ * Timestamps without an offset are read as UTC. Missing or malformed timestamps are read as 0,
+ * which is also written as a missing value.
+ */
+public class TimestampAdapter extends TypeAdapter<Long> {
+
+    public static final String TAG = TimestampAdapter.class.getSimpleName();
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+
+    @Override
+    public void write(JsonWriter out, Long value) throws IOException {
+        if (value == null || value == 0) {
+            out.nullValue();
+        } else {
+            out.value(format(value));
+        }
+    }
+
+    @Override
+    public Long read(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return 0L;
+        } else if (token == JsonToken.NUMBER) {
+            return in.nextLong();
+        }
+        return parse(in.nextString());
+    }
+
+    /**
+     * Parses an ISO 8601 date or date and time, with an optional fraction of a second and offset.
+     * @return Milliseconds since the epoch, or 0 if the value is empty or cannot be parsed.
+     */
+    public static long parse(String value) {
+        if (value == null || value.isEmpty()) return 0;
+        try {
+            int length = value.length();
+            int year = digits(value, 0, 4);
+            expect(value, 4, '-');
+            int month = digits(value, 5, 2);
+            expect(value, 7, '-');
+            int day = digits(value, 8, 2);
+            if (month < 1 || month > 12 || day < 1 || day > 31) {
+                throw new IllegalArgumentException("Date out of range");
+            }
+
+            int position = 10;
+            int hour = 0;
+            int minute = 0;
+            int second = 0;
+            int millis = 0;
+            if (position < length && (value.charAt(position) == 'T'
+                    || value.charAt(position) == ' ')) {
+                hour = digits(value, 11, 2);
+                expect(value, 13, ':');
+                minute = digits(value, 14, 2);
+                position = 16;
+                if (position < length && value.charAt(position) == ':') {
+                    second = digits(value, 17, 2);
+                    position = 19;
+                }
+                if (position < length && value.charAt(position) == '.') {
+                    // Digits past milliseconds are dropped
+                    int scale = 100;
+                    while (++position < length && Character.isDigit(value.charAt(position))) {
+                        millis += (value.charAt(position) - '0') * scale;
+                        scale /= 10;
+                    }
+                }
+                if (hour > 23 || minute > 59 || second > 60) {
+                    throw new IllegalArgumentException("Time out of range");
+                }
+            }
+
+            int offsetMinutes = 0;
+            if (position < length) {
+                char sign = value.charAt(position);
+                if (sign == 'Z') {
+                    position++;
+                } else if (sign == '+' || sign == '-') {
+                    int hours = digits(value, position + 1, 2);
+                    position += 3;
+                    int minutes = 0;
+                    if (position < length && value.charAt(position) == ':') position++;
+                    if (position < length) {
+                        minutes = digits(value, position, 2);
+                        position += 2;
+                    }
+                    offsetMinutes = (sign == '-' ? -1 : 1) * (hours * 60 + minutes);
+                }
+            }
+            if (position != length) throw new IllegalArgumentException("Unexpected suffix");
+
+            return daysSinceEpoch(year, month, day) * MILLIS_PER_DAY
+                    + (hour * 60 + minute - offsetMinutes) * MILLIS_PER_MINUTE
+                    + second * 1000 + millis;
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            Log.w(TAG, "Could not parse timestamp " + value);
+            return 0;
+        }
+    }
+
+    /**
+     * @return The timestamp in ISO 8601 format in UTC, like
+     * <code>2016-05-12T19:03:22.123Z</code>.
+     */
+    public static String format(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(millis));
+    }
+
+    private static int digits(String value, int start, int count) {
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') throw new NumberFormatException("Expected a digit at " + i);
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static void expect(String value, int index, char c) {
+        if (value.charAt(index) != c) {
+            throw new IllegalArgumentException("Expected " + c + " at " + index);
+        }
+    }
+
+    /**
+     * @return Days from 1970-01-01 to a date in the proleptic Gregorian calendar.
+     */
+    private static long daysSinceEpoch(int year, int month, int day) {
+        // Count years from March, so the leap day is the last day of the year
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,305 @@
+package com.outfieldapp.outfieldbackend.api;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends local changes to the server with at most {@link #getMaxInFlight()} requests running at
+ * once, instead of enqueueing a request per dirty row all at the same time. Waiting uploads start
+ * in {@link Upload#getPriority() priority} order, deletes first, then creates, then updates, so
+ * rows that updates may depend on are created first. Uploads with the same priority start in the
+ * order they were submitted.
+ * <p>
+ * Failed uploads are retried up to {@link #getMaxAttempts()} times, but only if they are
+ * {@link Upload#isIdempotent() idempotent} and failed without a response or with a server error.
+ * Creates are not retried, since a request that timed out may still have been applied, and
+ * sending it again would create a duplicate. Client errors such as a failed validation would only
+ * fail again. Each retry waits an exponentially growing delay with random jitter, so uploads that
+ * failed together do not retry together, and does not hold a request slot while waiting.
+ * <p>
+ * The latency of every request, including retries, is recorded and can be read from
+ * {@link #getStats()}.
+ */
+public class UploadScheduler {
+
+    public static final String TAG = UploadScheduler.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    public static final int DEFAULT_MAX_ATTEMPTS = 4;
+    /** Delay before the first retry. Each later retry waits twice as long. */
+    public static final long BASE_BACKOFF_MILLIS = 1000;
+    public static final long MAX_BACKOFF_MILLIS = 60 * 1000;
+    /** Number of recent request latencies kept for percentiles. */
+    public static final int LATENCY_SAMPLES = 128;
+
+    public static final int PRIORITY_DELETE = 0;
+    public static final int PRIORITY_CREATE = 1;
+    public static final int PRIORITY_UPDATE = 2;
+
+    /** Status of a failure that was not reported, such as a request rejected before sending. */
+    private static final int UNKNOWN_STATUS = -1;
+
+    /**
+     * One request to send, and what to do with its final result.
+     * @param <T> The type of object returned by the request.
+     */
+    public static abstract class Upload<T> {
+        private final int priority;
+        private final String name;
+        private final boolean idempotent;
+        private long sequence;
+        private int attempts;
+
+        /**
+         * @param priority One of the <code>PRIORITY_</code> constants. Lower values start first.
+         * @param name Describes the upload in logs, such as "update contact 12".
+         * @param idempotent True if sending the request twice has the same effect as sending it
+         *                   once, such as a PUT or DELETE, so it may be retried.
+         */
+        protected Upload(int priority, String name, boolean idempotent) {
+            this.priority = priority;
+            this.name = name;
+            this.idempotent = idempotent;
+        }
+
+        public int getPriority() { return priority; }
+        public String getName() { return name; }
+        public boolean isIdempotent() { return idempotent; }
+        public int getAttempts() { return attempts; }
+
+        /**
+         * Sends the request. Called again for each retry.
+         * @param callback Callback that must receive the response exactly once. Pass it to
+         *                 {@link OutfieldAPI} as is, so it is told the status of a failure.
+         */
+        protected abstract void send(OutfieldAPI.ResponseCallback<T> callback);
+
+        /**
+         * Receives the result of the last attempt, once the upload succeeds or runs out of
+         * attempts. Called on the thread that delivered the response.
+         */
+        protected abstract void onFinished(boolean success, T object);
+    }
+
+    private static final Comparator<Upload<?>> ORDER = new Comparator<Upload<?>>() {
+        @Override
+        public int compare(Upload<?> a, Upload<?> b) {
+            if (a.priority != b.priority) return a.priority < b.priority ? -1 : 1;
+            return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+        }
+    };
+
+    private final int maxInFlight;
+    private final int maxAttempts;
+    private final PriorityQueue<Upload<?>> queue = new PriorityQueue<>(16, ORDER);
+    private final ScheduledExecutorService retryTimer =
+            Executors.newSingleThreadScheduledExecutor();
+    private final Random random = new Random();
+
+    private long nextSequence;
+    private int inFlight;
+    private int waitingForRetry;
+
+    private long requests;
+    private long failures;
+    private long retries;
+    private long givenUp;
+    private long totalLatencyMillis;
+    private long maxLatencyMillis;
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+
+    public UploadScheduler() {
+        this(DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * @param maxInFlight The most requests that may run at once.
+     * @param maxAttempts The most times an upload is sent before it is given up on.
+     */
+    public UploadScheduler(int maxInFlight, int maxAttempts) {
+        if (maxInFlight <= 0 || maxAttempts <= 0) {
+            throw new IllegalArgumentException("Invalid upload limits");
+        }
+        this.maxInFlight = maxInFlight;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Queues an upload. It starts as soon as a request slot is free and no upload with a higher
+     * priority is waiting.
+     */
+    public void submit(Upload<?> upload) {
+        synchronized (this) {
+            upload.sequence = nextSequence++;
+            queue.add(upload);
+        }
+        startWaiting();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @return The number of uploads queued, running or waiting to retry.
+     */
+    public synchronized int getPendingCount() {
+        return queue.size() + inFlight + waitingForRetry;
+    }
+
+    /**
+     * @return True if no uploads are queued, running or waiting to retry.
+     */
+    public synchronized boolean isIdle() {
+        return getPendingCount() == 0;
+    }
+
+    /**
+     * @return Request counts and latencies, such as for logging after a sync.
+     */
+    public synchronized String getStats() {
+        long average = requests > 0 ? totalLatencyMillis / requests : 0;
+        return requests + " requests, " + failures + " failed, " + retries + " retried, "
+                + givenUp + " given up; latency avg " + average + "ms, p50 "
+                + getLatencyPercentile(50) + "ms, p95 " + getLatencyPercentile(95) + "ms, max "
+                + maxLatencyMillis + "ms";
+    }
+
+    /**
+     * @param percentile The percentile, from 0 to 100.
+     * @return The latency of recent requests at the percentile, in milliseconds, or 0 if no
+     * requests have finished.
+     */
+    public synchronized long getLatencyPercentile(int percentile) {
+        int count = (int) Math.min(requests, LATENCY_SAMPLES);
+        if (count == 0) return 0;
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    /**
+     * Starts queued uploads until the request window is full.
+     */
+    private void startWaiting() {
+        while (true) {
+            Upload<?> upload;
+            synchronized (this) {
+                if (inFlight >= maxInFlight || queue.isEmpty()) return;
+                upload = queue.poll();
+                inFlight++;
+            }
+            start(upload);
+        }
+    }
+
+    private <T> void start(final Upload<T> upload) {
+        final long startedAt = SystemClock.elapsedRealtime();
+        upload.attempts++;
+        try {
+            upload.send(new OutfieldAPI.StatusCallback<T>() {
+                // Stays unknown if the request was rejected before it was sent
+                private int status = UNKNOWN_STATUS;
+
+                @Override
+                public void onFailureStatus(int status) {
+                    this.status = status;
+                }
+
+                @Override
+                public void onResponse(boolean success, T object) {
+                    onResponseReceived(upload, success, object, status,
+                            SystemClock.elapsedRealtime() - startedAt);
+                }
+            });
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error during start() for " + upload.getName(), e);
+            onResponseReceived(upload, false, null, UNKNOWN_STATUS,
+                    SystemClock.elapsedRealtime() - startedAt);
+        }
+    }
+
+    private <T> void onResponseReceived(Upload<T> upload, boolean success, T object, int status,
+                                        long latencyMillis) {
+        boolean retry = !success && upload.attempts < maxAttempts && isRetryable(upload, status);
+        boolean idle;
+        synchronized (this) {
+            inFlight--;
+            latencies[(int) (requests % LATENCY_SAMPLES)] = latencyMillis;
+            requests++;
+            totalLatencyMillis += latencyMillis;
+            maxLatencyMillis = Math.max(maxLatencyMillis, latencyMillis);
+            if (!success) failures++;
+            if (retry) {
+                retries++;
+                waitingForRetry++;
+            } else if (!success) {
+                givenUp++;
+            }
+            idle = getPendingCount() == 0;
+        }
+
+        if (retry) {
+            scheduleRetry(upload);
+        } else {
+            if (!success) {
+                Log.w(TAG, "Giving up on " + upload.getName() + " after " + upload.attempts
+                        + " attempts");
+            }
+            upload.onFinished(success, object);
+        }
+
+        if (idle) Log.d(TAG, "Uploads finished: " + getStats());
+        startWaiting();
+    }
+
+    /**
+     * @param status The failed request's HTTP status, {@link OutfieldAPI#NO_RESPONSE} or
+     *               {@link #UNKNOWN_STATUS}.
+     * @return True if sending the upload again is safe and could succeed.
+     */
+    private static boolean isRetryable(Upload<?> upload, int status) {
+        if (!upload.isIdempotent()) return false;
+        return status == OutfieldAPI.NO_RESPONSE || status == 408 || status == 429
+                || status >= 500;
+    }
+
+    private void scheduleRetry(final Upload<?> upload) {
+        long delay = getBackoffMillis(upload.attempts);
+        Log.d(TAG, "Retrying " + upload.getName() + " in " + delay + "ms");
+        retryTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (UploadScheduler.this) {
+                    waitingForRetry--;
+                    queue.add(upload);
+                }
+                startWaiting();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param attempts The number of times the upload has been sent.
+     * @return A delay between half and all of the exponential backoff for the attempt.
+     */
+    private long getBackoffMillis(int attempts) {
+        long backoff = BASE_BACKOFF_MILLIS << Math.min(attempts - 1, 16);
+        backoff = Math.min(backoff, MAX_BACKOFF_MILLIS);
+        long half = backoff / 2;
+        return half + (long) (random.nextDouble() * (backoff - half));
+    }
+}
@@ -0,0 +1,42 @@
+package com.outfieldapp.outfieldbackend.api.response;
+
+import com.google.gson.JsonElement;
+import com.google.gson.annotations.SerializedName;
+import com.outfieldapp.outfieldbackend.api.Constants;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchResponse {
+    @SerializedName(Constants.Keys.Batch.RESULTS)
+    List<Result> results = new ArrayList<>();
+
+    /**
+     * @return One result per operation, in the order the operations were sent.
+     */
+    public List<Result> getResults() {
+        return results;
+    }
+
+    /**
+     * The response the single-item endpoint would have given for one operation.
+     */
+    public static class Result {
+        @SerializedName(Constants.Keys.Batch.STATUS)
+        int status;
+        @SerializedName(Constants.Keys.Batch.BODY)
+        JsonElement body;
+
+        public int getStatus() {
+            return status;
+        }
+
+        public JsonElement getBody() {
+            return body;
+        }
+
+        public boolean isSuccessful() {
+            return status >= 200 && status < 300;
+        }
+    }
+}
@@ -10,6 +10,8 @@ import java.util.List;
 
 public class SyncResponse {
     String status = "";
+    transient long contentLength = -1;
+    transient int itemCount;
 
     @SerializedName(Constants.Keys.Response.Sync.SYNC_COUNT)
     int syncCount;
@@ -62,6 +64,35 @@ public class SyncResponse {
         this.status = status;
     }
 
+    /**
+     * @return Size of the response body in bytes, or -1 if unknown.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public void setContentLength(long contentLength) {
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * @return The number of created, updated and deleted contacts and interactions in this page.
+     */
+    public int getItemCount() {
+        int count = itemCount;
+        if (contacts != null) {
+            count += contacts.createdContacts.size();
+            count += contacts.updatedContacts.size();
+            count += contacts.deletedContactIds.size();
+        }
+        if (interactions != null) {
+            count += interactions.createdInteractions.size();
+            count += interactions.updatedInteractions.size();
+            count += interactions.deletedInteractionIds.size();
+        }
+        return count;
+    }
+
     public static class ContactsSyncResponse {
         @SerializedName(Constants.Keys.Response.Sync.CREATE_COUNT)
         int createCount;
@@ -0,0 +1,222 @@
+package com.outfieldapp.outfieldbackend.api.response;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.outfieldapp.outfieldbackend.api.Constants.Keys;
+import com.outfieldapp.outfieldbackend.database.BlobStore;
+import com.outfieldapp.outfieldbackend.models.Contact;
+import com.outfieldapp.outfieldbackend.models.Interaction;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a sync response body as a stream. Each contact and interaction is handed to a
+ * {@link Listener} as soon as it is parsed instead of being collected into lists, so memory use
+ * does not grow with page size.
+ * <p>
+ * Each contact and interaction is given a hash of its JSON, which covers its submodels, so the
+ * ingester can skip ones the server re-sends without changes.
+ * <p>
+ * The returned {@link SyncResponse} holds the page's token and counts, but its contact and
+ * interaction lists are left empty.
+ */
+public class SyncResponseReader {
+
+    /**
+     * Receives changes from the response in the order they appear in the body.
+     */
+    public interface Listener {
+        void onContact(Contact contact);
+        void onInteraction(Interaction interaction);
+        void onContactDeleted(long contactId);
+        void onInteractionDeleted(long interactionId);
+    }
+
+    private final Gson gson;
+
+    public SyncResponseReader(Gson gson) {
+        this.gson = gson;
+    }
+
+    /**
+     * Parses a sync response body.
+     * @param in The response body.
+     * @param listener Listener to receive each change.
+     * @return The page's token and counts.
+     * @throws IOException If the body could not be read or is malformed.
+     */
+    public SyncResponse read(Reader in, Listener listener) throws IOException {
+        SyncResponse response = new SyncResponse();
+        JsonReader reader = new JsonReader(in);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case Keys.Response.Sync.SYNC_COUNT:
+                    response.syncCount = nextInt(reader);
+                    break;
+                case Keys.Response.Sync.REMAINING_COUNT:
+                    response.remainingCount = nextInt(reader);
+                    break;
+                case Keys.Response.Sync.CONTACTS_COUNT:
+                    response.contactsCount = nextInt(reader);
+                    break;
+                case Keys.Response.Sync.INTERACTIONS_COUNT:
+                    response.interactionsCount = nextInt(reader);
+                    break;
+                case Keys.Response.Sync.TOKEN:
+                    response.token = nextString(reader);
+                    break;
+                case Keys.Response.Sync.CONTACTS:
+                    response.contacts = readContacts(reader, response, listener);
+                    break;
+                case Keys.Response.Sync.INTERACTIONS:
+                    response.interactions = readInteractions(reader, response, listener);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return response;
+    }
+
+    private SyncResponse.ContactsSyncResponse readContacts(JsonReader reader,
+            SyncResponse response, Listener listener) throws IOException {
+        SyncResponse.ContactsSyncResponse contacts = new SyncResponse.ContactsSyncResponse();
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return contacts;
+        }
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case Keys.Response.Sync.CREATE_COUNT:
+                    contacts.createCount = nextInt(reader);
+                    break;
+                case Keys.Response.Sync.UPDATE_COUNT:
+                    contacts.updateCount = nextInt(reader);
+                    break;
+                case Keys.Response.Sync.DELETE_COUNT:
+                    contacts.deleteCount = nextInt(reader);
+                    break;
+                case Keys.Response.Sync.CREATE:
+                case Keys.Response.Sync.UPDATE:
+                    if (!beginArray(reader)) break;
+                    while (reader.hasNext()) {
+                        JsonElement json = gson.fromJson(reader, JsonElement.class);
+                        Contact contact = gson.fromJson(json, Contact.class);
+                        if (contact != null) {
+                            contact.setContentHash(hash(json));
+                            response.itemCount++;
+                            listener.onContact(contact);
+                        }
+                    }
+                    reader.endArray();
+                    break;
+                case Keys.Response.Sync.DELETE:
+                    if (!beginArray(reader)) break;
+                    while (reader.hasNext()) {
+                        response.itemCount++;
+                        listener.onContactDeleted(reader.nextLong());
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return contacts;
+    }
+
+    private SyncResponse.InteractionsSyncResponse readInteractions(JsonReader reader,
+            SyncResponse response, Listener listener) throws IOException {
+        SyncResponse.InteractionsSyncResponse interactions =
+                new SyncResponse.InteractionsSyncResponse();
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return interactions;
+        }
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case Keys.Response.Sync.CREATE_COUNT:
+                    interactions.createCount = nextInt(reader);
+                    break;
+                case Keys.Response.Sync.UPDATE_COUNT:
+                    interactions.updateCount = nextInt(reader);
+                    break;
+                case Keys.Response.Sync.DELETE_COUNT:
+                    interactions.deleteCount = nextInt(reader);
+                    break;
+                case Keys.Response.Sync.CREATE:
+                case Keys.Response.Sync.UPDATE:
+                    if (!beginArray(reader)) break;
+                    while (reader.hasNext()) {
+                        JsonElement json = gson.fromJson(reader, JsonElement.class);
+                        Interaction interaction = gson.fromJson(json, Interaction.class);
+                        if (interaction != null) {
+                            interaction.setContentHash(hash(json));
+                            response.itemCount++;
+                            listener.onInteraction(interaction);
+                        }
+                    }
+                    reader.endArray();
+                    break;
+                case Keys.Response.Sync.DELETE:
+                    if (!beginArray(reader)) break;
+                    while (reader.hasNext()) {
+                        response.itemCount++;
+                        listener.onInteractionDeleted(reader.nextLong());
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return interactions;
+    }
+
+    private static String hash(JsonElement json) {
+        return BlobStore.hash(json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Begins an array, or consumes a null in its place.
+     * @return True if an array was begun.
+     */
+    private static boolean beginArray(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return false;
+        }
+        reader.beginArray();
+        return true;
+    }
+
+    private static int nextInt(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return 0;
+        }
+        return reader.nextInt();
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+}
@@ -0,0 +1,208 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Content-addressed file store for image binaries. Each blob is written once to a file named by
+ * the SHA-256 hash of its contents, and the database stores only that hash. Identical images share
+ * one file, rows stay small enough for a CursorWindow, and bytes are only read when asked for.
+ * <p>
+ * Files are written to a temporary file and renamed into place, so a blob is either complete or
+ * absent. Reads go through a memory-mapped {@link FileChannel}. Files no longer referenced by the
+ * image table are removed by {@link #removeUnreferenced(SQLiteDatabase)}, once they are older than
+ * {@link #GRACE_MILLIS}, so a blob whose image row has not been committed yet is never removed.
+ */
+public class BlobStore {
+
+    public static final String TAG = BlobStore.class.getSimpleName();
+    public static final String DIRECTORY_NAME = "blobs";
+    /** How long a blob is kept after it was last put, even if no image row refers to it. */
+    public static final long GRACE_MILLIS = 60 * 60 * 1000;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static BlobStore instance;
+    private final File directory;
+
+    public static synchronized BlobStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new BlobStore(new File(context.getFilesDir(), DIRECTORY_NAME));
+        }
+        return instance;
+    }
+
+    BlobStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Stores a blob if an identical one is not already stored.
+     * @param bytes The blob's contents.
+     * @return The blob's hash, or null if it could not be written.
+     */
+    public String put(byte[] bytes) {
+        String hash = hash(bytes);
+        File file = getFile(hash);
+        if (file.exists() && file.length() == bytes.length) {
+            // Restart the grace period, since a new image row is about to refer to it
+            file.setLastModified(System.currentTimeMillis());
+            return hash;
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Could not create " + directory);
+            return null;
+        }
+
+        File temp = new File(directory, hash + TEMP_SUFFIX);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.getChannel().write(ByteBuffer.wrap(bytes));
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) throw new IOException("Could not rename " + temp);
+            return hash;
+        } catch (IOException e) {
+            Log.e(TAG, "Error during put()", e);
+            temp.delete();
+            return null;
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Maps a blob into memory without copying it onto the heap.
+     * @param hash The blob's hash.
+     * @return A read-only buffer of the blob's contents, or null if it is not stored.
+     */
+    public ByteBuffer map(String hash) {
+        File file = getFile(hash);
+        if (!file.isFile()) return null;
+
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return buffer.asReadOnlyBuffer();
+        } catch (IOException e) {
+            Log.e(TAG, "Error during map()", e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Reads a blob into a byte array.
+     * @param hash The blob's hash.
+     * @return The blob's contents, or null if it is not stored.
+     */
+    public byte[] get(String hash) {
+        ByteBuffer buffer = map(hash);
+        if (buffer == null) return null;
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @param hash The blob's hash.
+     * @return True if the blob is stored.
+     */
+    public boolean contains(String hash) {
+        return getFile(hash).isFile();
+    }
+
+    /**
+     * @param hash The blob's hash.
+     * @return The file a blob with this hash is stored in.
+     */
+    public File getFile(String hash) {
+        return new File(directory, hash);
+    }
+
+    /**
+     * Deletes stored blobs whose hash is no longer referenced by any image row, and temporary
+     * files left by interrupted writes. Files put within the last {@link #GRACE_MILLIS} are kept,
+     * since an image row for them may still be being inserted on another thread.
+     * @param db The database to check references against.
+     * @return The number of files deleted.
+     */
+    public int removeUnreferenced(SQLiteDatabase db) {
+        File[] files = directory.listFiles();
+        if (files == null || files.length == 0) return 0;
+
+        Set<String> referenced = new HashSet<>();
+        Cursor cursor = db.query(
+                true,
+                OutfieldContract.Image.TABLE_NAME,
+                new String[]{OutfieldContract.Image.IMAGE_HASH},
+                OutfieldContract.Image.IMAGE_HASH + " IS NOT NULL",
+                null,
+                null,
+                null,
+                null,
+                null
+        );
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                referenced.add(cursor.getString(0));
+            }
+            cursor.close();
+        }
+
+        long keepAfter = System.currentTimeMillis() - GRACE_MILLIS;
+        int deleted = 0;
+        for (File file : files) {
+            if (file.lastModified() > keepAfter) continue;
+            String name = file.getName();
+            boolean temporary = name.endsWith(TEMP_SUFFIX);
+            if ((temporary || !referenced.contains(name)) && file.delete()) deleted++;
+        }
+        if (deleted > 0) Log.d(TAG, "Removed " + deleted + " unreferenced blobs");
+        return deleted;
+    }
+
+    /**
+     * @return The lowercase hex SHA-256 hash of the bytes.
+     */
+    public static String hash(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {}
+    }
+}
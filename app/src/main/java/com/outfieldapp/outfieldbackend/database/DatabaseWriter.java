@@ -0,0 +1,435 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Performs inserts, updates and deletes on the writable database using compiled
+ * {@link SQLiteStatement SQLiteStatements}. Statements are cached per table and column set, so
+ * repeated writes to the same table skip building and parsing SQL.
+ * <p>
+ * Each write joins the calling thread's transaction if one is open, otherwise it runs in its own
+ * transaction. Failed writes are logged and reported through the return value instead of being
+ * thrown, so one bad row does not roll back a caller's batch. They are also counted
+ * ({@link #getFailures()}), so a caller writing many rows can tell that one of them was lost.
+ * <p>
+ * Upserts update rows in place and skip rows that did not change. The counters kept for them
+ * ({@link #getWriteAmplification()}) show how many rows were physically written for each row a
+ * model asked to save.
+ */
+public class DatabaseWriter {
+
+    public static final String TAG = DatabaseWriter.class.getSimpleName();
+
+    private final SQLiteDatabase db;
+    private final Map<String, SQLiteStatement> statements = new HashMap<>();
+    private final Map<String, UpsertStatement> upserts = new HashMap<>();
+    private long rowsWritten;
+    private long rowsInserted;
+    private long rowsUpdated;
+    private long rowsUnchanged;
+    private long rowsDeleted;
+    private long failures;
+
+    DatabaseWriter(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Inserts a row into the given table.
+     * @param table The table to insert into.
+     * @param values The column values for the new row.
+     * @return The row id of the new row, or -1 if the insert failed.
+     */
+    public long insert(String table, ContentValues values) {
+        boolean ownTransaction = !db.inTransaction();
+        if (ownTransaction) db.beginTransaction();
+        try {
+            long rowId;
+            synchronized (this) {
+                StringBuilder key = new StringBuilder("INSERT INTO ").append(table).append(" (");
+                StringBuilder params = new StringBuilder(") VALUES (");
+                int i = 0;
+                for (String column : values.keySet()) {
+                    if (i++ > 0) {
+                        key.append(',');
+                        params.append(',');
+                    }
+                    key.append(column);
+                    params.append('?');
+                }
+                String sql = key.append(params).append(')').toString();
+
+                SQLiteStatement statement = getStatement(sql);
+                bindValues(statement, values, 1);
+                rowId = statement.executeInsert();
+                if (rowId >= 0) rowsWritten++;
+            }
+            if (ownTransaction) db.setTransactionSuccessful();
+            return rowId;
+        } catch (SQLException e) {
+            Log.e(TAG, "Error inserting into " + table, e);
+            fail();
+            return -1;
+        } finally {
+            if (ownTransaction) db.endTransaction();
+        }
+    }
+
+    /**
+     * Writes a row using the table's cached {@link UpsertStatement}. A row with the same API id,
+     * which must be the first column, is updated in place if any column changed.
+     * @param table The table to write to.
+     * @param columns The table's <code>COLUMNS</code> from {@link OutfieldContract}.
+     * @param binder Binds the row's values in column order.
+     * @return The row id of the written row, or -1 if the write failed.
+     */
+    public long upsert(String table, String[] columns, UpsertStatement.Binder binder) {
+        return upsert(table, columns, 1, false, binder);
+    }
+
+    /**
+     * Writes a row like {@link #upsert(String, String[], UpsertStatement.Binder)}, matching
+     * existing rows on the first <code>keyCount</code> columns instead of the API id alone.
+     * @return The row id of the written row, or -1 if the write failed.
+     */
+    public long upsert(String table, String[] columns, int keyCount,
+                       UpsertStatement.Binder binder) {
+        return upsert(table, columns, keyCount, false, binder);
+    }
+
+    /**
+     * Writes a row like {@link #upsert(String, String[], UpsertStatement.Binder)}. If the API id
+     * is bound to 0, the row is inserted with a local id equal to its negated row id in the same
+     * statement.
+     * @return The row id of the written row, or -1 if the write failed.
+     */
+    public long upsertWithLocalId(String table, String[] columns, UpsertStatement.Binder binder) {
+        return upsert(table, columns, 1, true, binder);
+    }
+
+    private long upsert(String table, String[] columns, int keyCount, boolean assignLocalId,
+                        UpsertStatement.Binder binder) {
+        boolean ownTransaction = !db.inTransaction();
+        if (ownTransaction) db.beginTransaction();
+        try {
+            long rowId;
+            synchronized (this) {
+                String key = assignLocalId ? table + "#local" : table;
+                UpsertStatement statement = upserts.get(key);
+                if (statement == null) {
+                    statement = new UpsertStatement(db, table, columns, keyCount, assignLocalId);
+                    upserts.put(key, statement);
+                }
+                statement.reset();
+                binder.bindValues(statement);
+                rowId = statement.execute();
+                count(statement.getResult());
+            }
+            if (ownTransaction) db.setTransactionSuccessful();
+            return rowId;
+        } catch (SQLException e) {
+            Log.e(TAG, "Error upserting into " + table, e);
+            fail();
+            return -1;
+        } finally {
+            if (ownTransaction) db.endTransaction();
+        }
+    }
+
+    /**
+     * Updates the row with the given local row id.
+     * @param table The table containing the row.
+     * @param values The column values to change.
+     * @param rowId The row's {@link BaseColumns#_ID}.
+     * @return The number of rows changed, or -1 if the update failed.
+     */
+    public int update(String table, ContentValues values, long rowId) {
+        boolean ownTransaction = !db.inTransaction();
+        if (ownTransaction) db.beginTransaction();
+        try {
+            int rows;
+            synchronized (this) {
+                StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+                int i = 0;
+                for (String column : values.keySet()) {
+                    if (i++ > 0) sql.append(',');
+                    sql.append(column).append("=?");
+                }
+                sql.append(" WHERE ").append(BaseColumns._ID).append("=?");
+
+                SQLiteStatement statement = getStatement(sql.toString());
+                bindValues(statement, values, 1);
+                statement.bindLong(values.size() + 1, rowId);
+                rows = statement.executeUpdateDelete();
+                rowsWritten += rows;
+            }
+            if (ownTransaction) db.setTransactionSuccessful();
+            return rows;
+        } catch (SQLException e) {
+            Log.e(TAG, "Error updating " + table, e);
+            fail();
+            return -1;
+        } finally {
+            if (ownTransaction) db.endTransaction();
+        }
+    }
+
+    /**
+     * Writes every column of the row with the given local row id, including its API id, using the
+     * table's cached {@link UpsertStatement}. Use this when a row's API id changes, since an upsert
+     * would insert a new row for the new id.
+     * @param table The table containing the row.
+     * @param columns The table's <code>COLUMNS</code> from {@link OutfieldContract}.
+     * @param rowId The row's {@link BaseColumns#_ID}.
+     * @param binder Binds the row's values in column order.
+     * @return The number of rows changed, which is 0 if nothing changed, or -1 if the update
+     * failed.
+     */
+    public int update(String table, String[] columns, long rowId, UpsertStatement.Binder binder) {
+        boolean ownTransaction = !db.inTransaction();
+        if (ownTransaction) db.beginTransaction();
+        try {
+            int rows;
+            synchronized (this) {
+                String key = table + "#update";
+                UpsertStatement statement = upserts.get(key);
+                if (statement == null) {
+                    statement = new UpsertStatement(db, table, columns, 0, false);
+                    upserts.put(key, statement);
+                }
+                statement.reset();
+                binder.bindValues(statement);
+                rows = statement.update(rowId);
+                count(statement.getResult());
+            }
+            if (ownTransaction) db.setTransactionSuccessful();
+            return rows;
+        } catch (SQLException e) {
+            Log.e(TAG, "Error updating " + table, e);
+            fail();
+            return -1;
+        } finally {
+            if (ownTransaction) db.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes all rows whose column matches the given value.
+     * @param table The table to delete from.
+     * @param column The column to match, usually the table's API id column.
+     * @param value The value to match.
+     * @return The number of rows deleted, or -1 if the delete failed.
+     */
+    public int delete(String table, String column, long value) {
+        boolean ownTransaction = !db.inTransaction();
+        if (ownTransaction) db.beginTransaction();
+        try {
+            int rows;
+            synchronized (this) {
+                SQLiteStatement statement =
+                        getStatement("DELETE FROM " + table + " WHERE " + column + "=?");
+                statement.bindLong(1, value);
+                rows = statement.executeUpdateDelete();
+                rowsWritten += rows;
+            }
+            if (ownTransaction) db.setTransactionSuccessful();
+            return rows;
+        } catch (SQLException e) {
+            Log.e(TAG, "Error deleting from " + table, e);
+            fail();
+            return -1;
+        } finally {
+            if (ownTransaction) db.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes a parent's child rows that are not in a list being saved, so the children in the
+     * table match the list without deleting and re-inserting the rows that are kept. Children
+     * without an API id cannot be matched and are always deleted, to be inserted again.
+     * @param table The child table.
+     * @param parentColumn The column referencing the parent, such as a contact id.
+     * @param parentId The parent's API id.
+     * @param idColumn The children's API id column.
+     * @param keepIds The API ids of the children being saved. Sorted in place.
+     * @return The number of rows deleted, or -1 if the delete failed.
+     */
+    public int deleteChildrenExcept(String table, String parentColumn, long parentId,
+                                    String idColumn, long[] keepIds) {
+        Arrays.sort(keepIds);
+        boolean ownTransaction = !db.inTransaction();
+        if (ownTransaction) db.beginTransaction();
+        try {
+            int rows = 0;
+            synchronized (this) {
+                Cursor cursor = db.rawQuery("SELECT " + BaseColumns._ID + ", " + idColumn
+                                + " FROM " + table + " WHERE " + parentColumn + "=?",
+                        new String[]{String.valueOf(parentId)});
+                if (cursor != null) {
+                    SQLiteStatement statement = null;
+                    while (cursor.moveToNext()) {
+                        if (!cursor.isNull(1)
+                                && Arrays.binarySearch(keepIds, cursor.getLong(1)) >= 0) continue;
+
+                        if (statement == null) {
+                            statement = getStatement("DELETE FROM " + table + " WHERE "
+                                    + BaseColumns._ID + "=?");
+                        }
+                        statement.bindLong(1, cursor.getLong(0));
+                        rows += statement.executeUpdateDelete();
+                    }
+                    cursor.close();
+                }
+                rowsWritten += rows;
+                rowsDeleted += rows;
+            }
+            if (ownTransaction) db.setTransactionSuccessful();
+            return rows;
+        } catch (SQLException e) {
+            Log.e(TAG, "Error deleting children from " + table, e);
+            fail();
+            return -1;
+        } finally {
+            if (ownTransaction) db.endTransaction();
+        }
+    }
+
+    /**
+     * Reads a single value with a cached statement, joining the calling thread's transaction so
+     * rows written earlier in it are visible.
+     * @param sql A query selecting one column, with one parameter.
+     * @param value The value to bind to the parameter.
+     * @return The first row's value, or null if there are no rows or the query failed.
+     */
+    public synchronized String queryString(String sql, long value) {
+        try {
+            SQLiteStatement statement = getStatement(sql);
+            statement.bindLong(1, value);
+            return statement.simpleQueryForString();
+        } catch (SQLiteDoneException e) {
+            return null;
+        } catch (SQLException e) {
+            Log.e(TAG, "Error during queryString()", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return The total number of rows inserted, updated or deleted through this writer.
+     */
+    public synchronized long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * @return The total number of inserts, upserts, updates and deletes through this writer that
+     * failed, from any thread.
+     */
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    /* Upsert counters */
+    public synchronized long getRowsInserted() { return rowsInserted; }
+    public synchronized long getRowsUpdated() { return rowsUpdated; }
+    public synchronized long getRowsUnchanged() { return rowsUnchanged; }
+    public synchronized long getRowsDeleted() { return rowsDeleted; }
+
+    /**
+     * @return Rows physically inserted, updated or deleted for each row passed to an upsert. A
+     * re-save that changes nothing writes no rows, while the replace-on-conflict writes it
+     * replaced cost a delete and an insert for the row and each of its children.
+     */
+    public synchronized double getWriteAmplification() {
+        long saved = rowsInserted + rowsUpdated + rowsUnchanged;
+        if (saved == 0) return 0;
+        return (double) (rowsInserted + rowsUpdated + rowsDeleted) / saved;
+    }
+
+    /**
+     * @return A summary of the upsert counters for logging.
+     */
+    public synchronized String getUpsertStats() {
+        return rowsInserted + " inserted, " + rowsUpdated + " updated, " + rowsUnchanged
+                + " unchanged, " + rowsDeleted + " deleted ("
+                + String.format("%.2f", getWriteAmplification()) + " rows written per row saved)";
+    }
+
+    /**
+     * Closes all cached statements. They will be recompiled on next use.
+     */
+    public synchronized void close() {
+        for (SQLiteStatement statement : statements.values()) {
+            statement.close();
+        }
+        statements.clear();
+        for (UpsertStatement statement : upserts.values()) {
+            statement.close();
+        }
+        upserts.clear();
+    }
+
+    private synchronized void fail() {
+        failures++;
+    }
+
+    private void count(UpsertStatement.Result result) {
+        if (result == null) return;
+        switch (result) {
+            case INSERTED:
+                rowsInserted++;
+                rowsWritten++;
+                break;
+            case UPDATED:
+                rowsUpdated++;
+                rowsWritten++;
+                break;
+            case UNCHANGED:
+                rowsUnchanged++;
+                break;
+        }
+    }
+
+    private SQLiteStatement getStatement(String sql) {
+        SQLiteStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+            statements.put(sql, statement);
+        } else {
+            statement.clearBindings();
+        }
+        return statement;
+    }
+
+    private static void bindValues(SQLiteStatement statement, ContentValues values, int start) {
+        int index = start;
+        for (String column : values.keySet()) {
+            Object value = values.get(column);
+            if (value == null) {
+                statement.bindNull(index);
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(index, (byte[]) value);
+            } else if (value instanceof Boolean) {
+                statement.bindLong(index, (Boolean) value ? 1 : 0);
+            } else if (value instanceof Float || value instanceof Double) {
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                statement.bindLong(index, ((Number) value).longValue());
+            } else {
+                statement.bindString(index, value.toString());
+            }
+            index++;
+        }
+    }
+}
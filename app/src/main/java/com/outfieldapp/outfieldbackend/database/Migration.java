@@ -0,0 +1,35 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * One step of the database schema, from version {@link #getVersion()} - 1 to
+ * {@link #getVersion()}. Steps are listed in {@link Migrations} and run in order by
+ * {@link OutfieldDatabase} inside the transaction opened by
+ * {@link android.database.sqlite.SQLiteOpenHelper SQLiteOpenHelper}, so a failed step leaves the
+ * database at its previous version.
+ */
+public abstract class Migration {
+
+    private final int version;
+
+    /**
+     * @param version The schema version this step upgrades the database to.
+     */
+    protected Migration(int version) {
+        this.version = version;
+    }
+
+    /**
+     * @return The schema version this step upgrades the database to.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Applies this step. Must not open or end transactions.
+     * @param db The database being upgraded.
+     */
+    public abstract void migrate(SQLiteDatabase db);
+}
@@ -0,0 +1,530 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.outfieldapp.outfieldbackend.OutfieldApp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.outfieldapp.outfieldbackend.database.OutfieldContract.Address;
+import static com.outfieldapp.outfieldbackend.database.OutfieldContract.Comment;
+import static com.outfieldapp.outfieldbackend.database.OutfieldContract.Contact;
+import static com.outfieldapp.outfieldbackend.database.OutfieldContract.Email;
+import static com.outfieldapp.outfieldbackend.database.OutfieldContract.Form;
+import static com.outfieldapp.outfieldbackend.database.OutfieldContract.FormEntry;
+import static com.outfieldapp.outfieldbackend.database.OutfieldContract.FormField;
+import static com.outfieldapp.outfieldbackend.database.OutfieldContract.FormFieldChoice;
+import static com.outfieldapp.outfieldbackend.database.OutfieldContract.Image;
+import static com.outfieldapp.outfieldbackend.database.OutfieldContract.Interaction;
+import static com.outfieldapp.outfieldbackend.database.OutfieldContract.InteractionForm;
+import static com.outfieldapp.outfieldbackend.database.OutfieldContract.Notification;
+import static com.outfieldapp.outfieldbackend.database.OutfieldContract.Phone;
+import static com.outfieldapp.outfieldbackend.database.OutfieldContract.PlannedInteraction;
+import static com.outfieldapp.outfieldbackend.database.OutfieldContract.User;
+
+/**
+ * Ordered list of schema {@link Migration Migrations}. Version 1 is the schema created in
+ * {@link OutfieldDatabase#onCreate(SQLiteDatabase)}. New installs run every step after creating
+ * version 1, so fresh and upgraded databases always end up with the same schema.
+ * <p>
+ * To change the schema, add a step to {@link #ALL} with the next version number and bump
+ * {@link OutfieldDatabase#DATABASE_VERSION} to match. Never edit a step that has shipped.
+ */
+public final class Migrations {
+
+    public static final String TAG = Migrations.class.getSimpleName();
+    private static final int BLOB_SLICE_SIZE = 512 * 1024;
+
+    /** Every migration, in version order. */
+    public static final List<Migration> ALL;
+
+    static {
+        List<Migration> migrations = new ArrayList<>();
+
+        // Index columns used by sync scans and child loads
+        migrations.add(new Migration(2) {
+            @Override
+            public void migrate(SQLiteDatabase db) {
+                // Partial indexes only hold dirty rows, which are few between syncs
+                db.execSQL("CREATE INDEX IF NOT EXISTS contact_dirty_idx ON "
+                        + Contact.TABLE_NAME + " (" + Contact.DIRTY + ") WHERE "
+                        + Contact.DIRTY + " = 1");
+                db.execSQL("CREATE INDEX IF NOT EXISTS interaction_dirty_idx ON "
+                        + Interaction.TABLE_NAME + " (" + Interaction.DIRTY + ") WHERE "
+                        + Interaction.DIRTY + " = 1");
+
+                db.execSQL("CREATE INDEX IF NOT EXISTS interaction_contact_id_idx ON "
+                        + Interaction.TABLE_NAME + " (" + Interaction.CONTACT_ID + ", "
+                        + Interaction.CREATED_AT + ")");
+                db.execSQL("CREATE INDEX IF NOT EXISTS interaction_created_at_idx ON "
+                        + Interaction.TABLE_NAME + " (" + Interaction.CREATED_AT + ")");
+                db.execSQL("CREATE INDEX IF NOT EXISTS comment_interaction_id_idx ON "
+                        + Comment.TABLE_NAME + " (" + Comment.INTERACTION_ID + ", "
+                        + Comment.CREATED_AT + ")");
+                db.execSQL("CREATE INDEX IF NOT EXISTS image_interaction_id_idx ON "
+                        + Image.TABLE_NAME + " (" + Image.INTERACTION_ID + ")");
+                db.execSQL("CREATE INDEX IF NOT EXISTS image_contact_id_idx ON "
+                        + Image.TABLE_NAME + " (" + Image.CONTACT_ID + ")");
+                db.execSQL("CREATE INDEX IF NOT EXISTS image_user_id_idx ON "
+                        + Image.TABLE_NAME + " (" + Image.USER_ID + ")");
+                db.execSQL("CREATE INDEX IF NOT EXISTS form_field_form_id_idx ON "
+                        + FormField.TABLE_NAME + " (" + FormField.FORM_ID + ", "
+                        + FormField.POSITION + ")");
+                db.execSQL("CREATE INDEX IF NOT EXISTS address_contact_id_idx ON "
+                        + Address.TABLE_NAME + " (" + Address.CONTACT_ID + ")");
+                db.execSQL("CREATE INDEX IF NOT EXISTS email_contact_id_idx ON "
+                        + Email.TABLE_NAME + " (" + Email.CONTACT_ID + ")");
+                db.execSQL("CREATE INDEX IF NOT EXISTS phone_contact_id_idx ON "
+                        + Phone.TABLE_NAME + " (" + Phone.CONTACT_ID + ")");
+            }
+        });
+
+        // Move image binaries out of the image table into the blob store
+        migrations.add(new Migration(3) {
+            @Override
+            public void migrate(SQLiteDatabase db) {
+                db.execSQL("ALTER TABLE " + Image.TABLE_NAME + " ADD COLUMN "
+                        + Image.IMAGE_HASH + " TEXT");
+
+                BlobStore store = BlobStore.getInstance(OutfieldApp.getContext());
+                Cursor cursor = db.query(
+                        Image.TABLE_NAME,
+                        new String[]{Image._ID, "length(" + Image.IMAGE_FILE + ")"},
+                        Image.IMAGE_FILE + " IS NOT NULL",
+                        null, null, null, null
+                );
+                if (cursor == null) return;
+
+                int moved = 0;
+                while (cursor.moveToNext()) {
+                    long rowId = cursor.getLong(0);
+                    byte[] bytes = readBlob(db, rowId, cursor.getInt(1));
+                    String hash = bytes != null ? store.put(bytes) : null;
+                    if (hash == null) continue;
+
+                    ContentValues values = new ContentValues();
+                    values.put(Image.IMAGE_HASH, hash);
+                    values.putNull(Image.IMAGE_FILE);
+                    db.update(Image.TABLE_NAME, values, Image._ID + "=?",
+                            new String[]{String.valueOf(rowId)});
+                    moved++;
+                }
+                cursor.close();
+                Log.d(TAG, "Moved " + moved + " image files to blob store");
+            }
+        });
+
+        // Store a hash of each synced contact and interaction so unchanged ones can be skipped
+        migrations.add(new Migration(4) {
+            @Override
+            public void migrate(SQLiteDatabase db) {
+                db.execSQL("ALTER TABLE " + Contact.TABLE_NAME + " ADD COLUMN "
+                        + Contact.CONTENT_HASH + " TEXT");
+                db.execSQL("ALTER TABLE " + Interaction.TABLE_NAME + " ADD COLUMN "
+                        + Interaction.CONTENT_HASH + " TEXT");
+            }
+        });
+
+        // Queue local changes in an outbox instead of scanning for dirty rows
+        migrations.add(new Migration(5) {
+            @Override
+            public void migrate(SQLiteDatabase db) {
+                String table = OutfieldContract.Outbox.TABLE_NAME;
+                String type = OutfieldContract.Outbox.ENTITY_TYPE;
+                String id = OutfieldContract.Outbox.ENTITY_ID;
+                String operation = OutfieldContract.Outbox.OPERATION;
+                db.execSQL("CREATE TABLE " + table + " ("
+                        + OutfieldContract.Outbox._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                        + type + " TEXT NOT NULL,"
+                        + id + " INTEGER NOT NULL,"
+                        + operation + " TEXT NOT NULL,"
+                        + OutfieldContract.Outbox.VERSION + " INTEGER NOT NULL DEFAULT 1,"
+                        + "UNIQUE(" + type + ", " + id + "))");
+
+                // Rows created and deleted offline were never seen by the server
+                db.delete(Contact.TABLE_NAME, Contact.DESTROY + "=1 AND " + Contact.CONTACT_ID
+                        + "<0", null);
+                db.delete(Interaction.TABLE_NAME, Interaction.DESTROY + "=1 AND "
+                        + Interaction.INTERACTION_ID + "<0", null);
+
+                // Carry over changes made before the upgrade
+                db.execSQL("INSERT INTO " + table + " (" + type + ", " + id + ", " + operation
+                        + ") SELECT '" + Outbox.CONTACT + "', " + Contact.CONTACT_ID + ", "
+                        + operationSql(Contact.CONTACT_ID, Contact.DESTROY) + " FROM "
+                        + Contact.TABLE_NAME + " WHERE " + Contact.DIRTY + "=1 ORDER BY "
+                        + Contact._ID);
+                db.execSQL("INSERT INTO " + table + " (" + type + ", " + id + ", " + operation
+                        + ") SELECT '" + Outbox.INTERACTION + "', " + Interaction.INTERACTION_ID
+                        + ", " + operationSql(Interaction.INTERACTION_ID, Interaction.DESTROY)
+                        + " FROM " + Interaction.TABLE_NAME + " WHERE " + Interaction.DIRTY
+                        + "=1 ORDER BY " + Interaction._ID);
+            }
+        });
+
+        migrations.add(new Migration(6) {
+            @Override
+            public void migrate(SQLiteDatabase db) {
+                createSearchIndex(db, OutfieldContract.ContactSearch.TABLE_NAME,
+                        Contact.TABLE_NAME, OutfieldContract.ContactSearch.COLUMNS);
+                createSearchIndex(db, OutfieldContract.InteractionSearch.TABLE_NAME,
+                        Interaction.TABLE_NAME, OutfieldContract.InteractionSearch.COLUMNS);
+                createSearchIndex(db, OutfieldContract.CommentSearch.TABLE_NAME,
+                        Comment.TABLE_NAME, OutfieldContract.CommentSearch.COLUMNS);
+            }
+        });
+
+        migrations.add(new Migration(7) {
+            @Override
+            public void migrate(SQLiteDatabase db) {
+                createGeoIndex(db, Contact.TABLE_NAME, Contact.GEO_ROW, Contact.LATITUDE,
+                        Contact.LONGITUDE);
+                createGeoIndex(db, Interaction.TABLE_NAME, Interaction.GEO_ROW,
+                        Interaction.LATITUDE, Interaction.LONGITUDE);
+            }
+        });
+
+        // Move comma-separated form ids and field choices into indexed join tables. Foreign keys
+        // remove join rows with their parent and follow a local id replaced by a server id.
+        migrations.add(new Migration(8) {
+            @Override
+            public void migrate(SQLiteDatabase db) {
+                db.execSQL("CREATE TABLE " + InteractionForm.TABLE_NAME + " ("
+                        + InteractionForm._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                        + InteractionForm.INTERACTION_ID + " INTEGER NOT NULL,"
+                        + InteractionForm.FORM_ID + " INTEGER NOT NULL,"
+                        + InteractionForm.POSITION + " INTEGER NOT NULL,"
+                        + "FOREIGN KEY (" + InteractionForm.INTERACTION_ID + ") REFERENCES "
+                        + Interaction.TABLE_NAME + " (" + Interaction.INTERACTION_ID
+                        + ") ON DELETE CASCADE ON UPDATE CASCADE,"
+                        + "UNIQUE(" + InteractionForm.INTERACTION_ID + ", "
+                        + InteractionForm.FORM_ID + "))");
+                db.execSQL("CREATE INDEX IF NOT EXISTS interaction_form_form_id_idx ON "
+                        + InteractionForm.TABLE_NAME + "(" + InteractionForm.FORM_ID + ", "
+                        + InteractionForm.INTERACTION_ID + ")");
+                db.execSQL("CREATE TABLE " + FormFieldChoice.TABLE_NAME + " ("
+                        + FormFieldChoice._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                        + FormFieldChoice.FORM_FIELD_ID + " INTEGER NOT NULL,"
+                        + FormFieldChoice.POSITION + " INTEGER NOT NULL,"
+                        + FormFieldChoice.VALUE + " TEXT,"
+                        + "FOREIGN KEY (" + FormFieldChoice.FORM_FIELD_ID + ") REFERENCES "
+                        + FormField.TABLE_NAME + " (" + FormField.FORM_FIELD_ID
+                        + ") ON DELETE CASCADE ON UPDATE CASCADE,"
+                        + "UNIQUE(" + FormFieldChoice.FORM_FIELD_ID + ", "
+                        + FormFieldChoice.POSITION + "))");
+
+                int forms = splitList(db, Interaction.TABLE_NAME, Interaction.INTERACTION_ID,
+                        Interaction.FORM_IDS, InteractionForm.TABLE_NAME,
+                        InteractionForm.INTERACTION_ID, InteractionForm.FORM_ID, true);
+                int choices = splitList(db, FormField.TABLE_NAME, FormField.FORM_FIELD_ID,
+                        FormField.CHOICES, FormFieldChoice.TABLE_NAME,
+                        FormFieldChoice.FORM_FIELD_ID, FormFieldChoice.VALUE, false);
+                Log.d(TAG, "Moved " + forms + " interaction forms and " + choices
+                        + " field choices to join tables");
+            }
+        });
+
+        // Store created_at as epoch milliseconds and index it for time-range queries
+        migrations.add(new Migration(9) {
+            @Override
+            public void migrate(SQLiteDatabase db) {
+                int rows = convertTimestamps(db, Interaction.TABLE_NAME, Interaction.CREATED_AT)
+                        + convertTimestamps(db, Comment.TABLE_NAME, Comment.CREATED_AT)
+                        + convertTimestamps(db, Notification.TABLE_NAME, Notification.CREATED_AT);
+                Log.d(TAG, "Converted " + rows + " timestamps to epoch milliseconds");
+
+                // Each index also orders by _id, the row id, which Timeline uses to break ties
+                db.execSQL("CREATE INDEX IF NOT EXISTS comment_created_at_idx ON "
+                        + Comment.TABLE_NAME + " (" + Comment.CREATED_AT + ")");
+                db.execSQL("CREATE INDEX IF NOT EXISTS notification_created_at_idx ON "
+                        + Notification.TABLE_NAME + " (" + Notification.CREATED_AT + ")");
+            }
+        });
+
+        // Index contact names for paging through the contact list in name order
+        migrations.add(new Migration(10) {
+            @Override
+            public void migrate(SQLiteDatabase db) {
+                db.execSQL("CREATE INDEX IF NOT EXISTS contact_name_idx ON " + Contact.TABLE_NAME
+                        + " (" + Contact.NAME + " COLLATE NOCASE)");
+            }
+        });
+
+        // Saves upsert in place, so drop ON CONFLICT REPLACE from the unique ids. A duplicate
+        // insert now fails instead of deleting the row along with its children and search terms.
+        migrations.add(new Migration(11) {
+            @Override
+            public void migrate(SQLiteDatabase db) {
+                rebuildWithoutReplace(db, Contact.TABLE_NAME, User.TABLE_NAME, Form.TABLE_NAME,
+                        Interaction.TABLE_NAME, PlannedInteraction.TABLE_NAME, Address.TABLE_NAME,
+                        Email.TABLE_NAME, Phone.TABLE_NAME, Image.TABLE_NAME,
+                        FormField.TABLE_NAME, FormEntry.TABLE_NAME, Comment.TABLE_NAME,
+                        Notification.TABLE_NAME, InteractionForm.TABLE_NAME,
+                        FormFieldChoice.TABLE_NAME);
+            }
+        });
+
+        ALL = Collections.unmodifiableList(migrations);
+    }
+
+    private Migrations() {}
+
+    /**
+     * @return SQL choosing the outbox operation for a dirty row, like
+     * {@link Outbox.Operation#of}.
+     */
+    private static String operationSql(String idColumn, String destroyColumn) {
+        return "CASE WHEN " + destroyColumn + "=1 THEN 'DELETE' WHEN " + idColumn
+                + "<0 THEN 'CREATE' ELSE 'UPDATE' END";
+    }
+
+    /**
+     * Rebuilds tables without <code>ON CONFLICT REPLACE</code> on their unique constraints, since
+     * SQLite cannot change a constraint in place. Each table keeps its columns, rows, row ids,
+     * <code>AUTOINCREMENT</code> sequence, indexes and triggers. A table whose foreign keys
+     * reference a rebuilt table must be rebuilt with it.
+     * <p>
+     * Every old table is renamed before any copy is created. Renaming a parent points its
+     * children's foreign keys at the renamed table, so dropping it cascades only into the old
+     * children, never into the copies.
+     * @param tables The tables to rebuild, parents before children.
+     */
+    private static void rebuildWithoutReplace(SQLiteDatabase db, String... tables) {
+        String[] creates = new String[tables.length];
+        List<String> schema = new ArrayList<>();
+        for (int i = 0; i < tables.length; i++) {
+            Cursor cursor = db.rawQuery("SELECT type, sql FROM sqlite_master WHERE tbl_name=?"
+                    + " AND sql IS NOT NULL", new String[]{tables[i]});
+            if (cursor == null) continue;
+            while (cursor.moveToNext()) {
+                if ("table".equals(cursor.getString(0))) {
+                    creates[i] = cursor.getString(1).replace(" ON CONFLICT REPLACE", "");
+                } else {
+                    // Indexes and triggers, which are dropped with the old table
+                    schema.add(cursor.getString(1));
+                }
+            }
+            cursor.close();
+            if (creates[i] == null) throw new IllegalStateException("No table " + tables[i]);
+        }
+
+        for (String table : tables) {
+            db.execSQL("ALTER TABLE " + table + " RENAME TO " + table + "_old");
+        }
+        for (int i = 0; i < tables.length; i++) {
+            String table = tables[i];
+            db.execSQL(creates[i]);
+            db.execSQL("INSERT INTO " + table + " SELECT * FROM " + table + "_old");
+            db.execSQL("DELETE FROM sqlite_sequence WHERE name=?", new Object[]{table});
+            db.execSQL("UPDATE sqlite_sequence SET name=? WHERE name=?",
+                    new Object[]{table, table + "_old"});
+        }
+        for (int i = tables.length - 1; i >= 0; i--) {
+            db.execSQL("DROP TABLE " + tables[i] + "_old");
+        }
+        for (String sql : schema) {
+            db.execSQL(sql);
+        }
+    }
+
+    /**
+     * Copies each item of a comma-separated column into its own row of a join table, then clears
+     * the column.
+     * @param idColumn The source table's API id column, copied to <code>parentColumn</code>.
+     * @param listColumn The comma-separated column.
+     * @param numeric True if items are ids, in which case items that are not numbers are skipped.
+     * @return The number of join rows written.
+     */
+    private static int splitList(SQLiteDatabase db, String table, String idColumn,
+                                 String listColumn, String joinTable, String parentColumn,
+                                 String valueColumn, boolean numeric) {
+        Cursor cursor = db.query(table, new String[]{idColumn, listColumn},
+                idColumn + " IS NOT NULL AND " + listColumn + " IS NOT NULL AND " + listColumn
+                        + "!=''", null, null, null, null);
+        if (cursor == null) return 0;
+
+        int rows = 0;
+        ContentValues values = new ContentValues();
+        while (cursor.moveToNext()) {
+            String[] items = TextUtils.split(cursor.getString(1), ",");
+            for (int position = 0; position < items.length; position++) {
+                values.clear();
+                values.put(parentColumn, cursor.getLong(0));
+                // Both join tables use the same name for their position column
+                values.put(InteractionForm.POSITION, position);
+                if (numeric) {
+                    try {
+                        values.put(valueColumn, Long.parseLong(items[position].trim()));
+                    } catch (NumberFormatException e) {
+                        Log.w(TAG, "Skipping " + listColumn + " item " + items[position]);
+                        continue;
+                    }
+                } else {
+                    values.put(valueColumn, items[position]);
+                }
+                if (db.insertWithOnConflict(joinTable, null, values,
+                        SQLiteDatabase.CONFLICT_IGNORE) > 0) {
+                    rows++;
+                }
+            }
+        }
+        cursor.close();
+
+        db.execSQL("UPDATE " + table + " SET " + listColumn + "=NULL");
+        return rows;
+    }
+
+    /**
+     * Rewrites a column of ISO 8601 timestamps as epoch milliseconds, as
+     * {@link com.outfieldapp.outfieldbackend.api.TimestampAdapter#parse(String) TimestampAdapter}
+     * reads them from the API. Empty timestamps and ones SQLite cannot read become 0.
+     * @return The number of rows rewritten.
+     */
+    private static int convertTimestamps(SQLiteDatabase db, String table, String column) {
+        SQLiteStatement statement = db.compileStatement("UPDATE " + table + " SET " + column
+                + "=COALESCE(CAST(ROUND((julianday(" + column + ")-2440587.5)*86400000)"
+                + " AS INTEGER), 0) WHERE typeof(" + column + ")='text'");
+        try {
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Creates an external content FTS4 table over some of a table's columns, fills it from the
+     * table's current rows and adds triggers that keep it current on every insert, update and
+     * delete. The index stores only its terms, not a second copy of the text.
+     * @param searchTable Name of the FTS table to create.
+     * @param contentTable Table whose rows are indexed. Its row ids become the index's docids.
+     * @param columns Columns of the content table to index.
+     */
+    private static void createSearchIndex(SQLiteDatabase db, String searchTable,
+                                          String contentTable, String[] columns) {
+        StringBuilder list = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        StringBuilder changed = new StringBuilder();
+        for (String column : columns) {
+            if (list.length() > 0) {
+                list.append(", ");
+                values.append(", ");
+                changed.append(" OR ");
+            }
+            list.append(column);
+            values.append("new.").append(column);
+            changed.append("old.").append(column).append(" IS NOT new.").append(column);
+        }
+        String delete = " BEGIN DELETE FROM " + searchTable + " WHERE docid=old._id; END";
+        String insert = " BEGIN INSERT INTO " + searchTable + "(docid, " + list
+                + ") VALUES(new._id, " + values + "); END";
+
+        // Prefix indexes make short prefix queries as fast as whole terms
+        db.execSQL("CREATE VIRTUAL TABLE " + searchTable + " USING fts4(content=\""
+                + contentTable + "\", " + list + ", prefix=\"2,3\")");
+
+        // Old terms must be removed before the content row changes, since they are read from it
+        db.execSQL("CREATE TRIGGER " + searchTable + "_bu BEFORE UPDATE OF " + list + " ON "
+                + contentTable + " WHEN " + changed + delete);
+        db.execSQL("CREATE TRIGGER " + searchTable + "_bd BEFORE DELETE ON " + contentTable
+                + delete);
+        db.execSQL("CREATE TRIGGER " + searchTable + "_au AFTER UPDATE OF " + list + " ON "
+                + contentTable + " WHEN " + changed + insert);
+        db.execSQL("CREATE TRIGGER " + searchTable + "_ai AFTER INSERT ON " + contentTable
+                + insert);
+        db.execSQL("INSERT INTO " + searchTable + "(" + searchTable + ") VALUES('rebuild')");
+    }
+
+    /**
+     * Adds a latitude band column to a table, fills it, indexes it with longitude and adds
+     * triggers that keep it current whenever a row's coordinates are written.
+     * @param table Table with latitude and longitude columns.
+     * @param geoRowColumn Name of the band column to add.
+     */
+    private static void createGeoIndex(SQLiteDatabase db, String table, String geoRowColumn,
+                                       String latitudeColumn, String longitudeColumn) {
+        // Rows without a location, or at the 0,0 left by a missing one, get no band
+        String band = "CASE WHEN " + latitudeColumn + " IS NULL OR " + longitudeColumn
+                + " IS NULL OR (" + latitudeColumn + "=0 AND " + longitudeColumn + "=0)"
+                + " THEN NULL ELSE CAST((" + latitudeColumn + "+90)*"
+                + SpatialIndex.BANDS_PER_DEGREE + " AS INTEGER) END";
+        String update = " BEGIN UPDATE " + table + " SET " + geoRowColumn + "=" + band
+                + " WHERE _id=new._id; END";
+
+        db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + geoRowColumn + " INTEGER");
+        db.execSQL("UPDATE " + table + " SET " + geoRowColumn + "=" + band);
+        db.execSQL("CREATE INDEX " + table + "_" + geoRowColumn + "_idx ON " + table + "("
+                + geoRowColumn + ", " + longitudeColumn + ") WHERE " + geoRowColumn
+                + " IS NOT NULL");
+        db.execSQL("CREATE TRIGGER " + table + "_" + geoRowColumn + "_ai AFTER INSERT ON "
+                + table + update);
+        db.execSQL("CREATE TRIGGER " + table + "_" + geoRowColumn + "_au AFTER UPDATE OF "
+                + latitudeColumn + ", " + longitudeColumn + " ON " + table + " WHEN old."
+                + latitudeColumn + " IS NOT new." + latitudeColumn + " OR old."
+                + longitudeColumn + " IS NOT new." + longitudeColumn + update);
+    }
+
+    /**
+     * Reads an image row's BLOB in slices, since a whole photo may not fit in a CursorWindow.
+     * @return The blob's contents, or null if it could not be read.
+     */
+    private static byte[] readBlob(SQLiteDatabase db, long rowId, int length) {
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int count = Math.min(BLOB_SLICE_SIZE, length - offset);
+            Cursor slice = db.rawQuery("SELECT substr(" + Image.IMAGE_FILE + ", ?, ?) FROM "
+                    + Image.TABLE_NAME + " WHERE " + Image._ID + "=?",
+                    new String[]{String.valueOf(offset + 1), String.valueOf(count),
+                            String.valueOf(rowId)});
+            byte[] part = null;
+            if (slice != null) {
+                if (slice.moveToFirst()) part = slice.getBlob(0);
+                slice.close();
+            }
+            if (part == null || part.length != count) return null;
+            System.arraycopy(part, 0, bytes, offset, count);
+            offset += count;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The version of the newest migration, which the database version must match.
+     */
+    public static int getLatestVersion() {
+        return ALL.isEmpty() ? 1 : ALL.get(ALL.size() - 1).getVersion();
+    }
+
+    /**
+     * Runs every migration after <code>oldVersion</code> up to and including
+     * <code>newVersion</code>.
+     * @param db The database being upgraded, already in a transaction.
+     * @param oldVersion The database's current version.
+     * @param newVersion The version to upgrade to.
+     * @throws IllegalStateException If a step is missing or out of order.
+     */
+    public static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        int version = oldVersion;
+        for (Migration migration : ALL) {
+            if (migration.getVersion() <= oldVersion) continue;
+            if (migration.getVersion() > newVersion) break;
+            if (migration.getVersion() != version + 1) {
+                throw new IllegalStateException("Missing migration to version " + (version + 1));
+            }
+
+            Log.d(TAG, "Migrating database to version " + migration.getVersion());
+            migration.migrate(db);
+            version = migration.getVersion();
+        }
+
+        if (version != newVersion) {
+            throw new IllegalStateException("No migration to version " + newVersion);
+        }
+    }
+}
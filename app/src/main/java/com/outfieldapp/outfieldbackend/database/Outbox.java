@@ -0,0 +1,285 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Persistent queue of local changes waiting to be uploaded. Saving a dirty contact or interaction
+ * records a create, update or delete here, so a sync reads only the changes made since the last
+ * one instead of scanning whole tables for dirty rows.
+ * <p>
+ * Each entity has at most one entry, and a new change is coalesced with the pending one. A create
+ * followed by updates stays a create. A create followed by a delete removes the entry and the row,
+ * since the server never saw it, unless the create is being uploaded. Then the entry becomes a
+ * delete, sent once the create has assigned a server id. An update followed by a delete becomes a
+ * delete. Entries keep the position of the entity's first pending change, so entities are
+ * uploaded in the order they were first changed.
+ * <p>
+ * Every change bumps the entry's version. An upload is completed with the version that was read
+ * before it was sent, so a change made while the upload was in flight stays queued for the next
+ * sync. Uploads mark their entries with {@link #begin(Entry)} so that {@link #record} knows which
+ * creates are in flight.
+ */
+public class Outbox {
+
+    public static final String TAG = Outbox.class.getSimpleName();
+
+    /** Entity type of contact entries. */
+    public static final String CONTACT = "contact";
+    /** Entity type of interaction entries. */
+    public static final String INTERACTION = "interaction";
+
+    public enum Operation {
+        CREATE, UPDATE, DELETE;
+
+        /**
+         * @param entityId The entity's API id, negative if it has not been uploaded.
+         * @param destroy True if the entity was deleted locally.
+         * @return The operation a save of a dirty entity represents.
+         */
+        public static Operation of(long entityId, boolean destroy) {
+            if (destroy) return DELETE;
+            return entityId < 0 ? CREATE : UPDATE;
+        }
+    }
+
+    /**
+     * A pending change to one entity, as read by {@link #peek(String, int)}.
+     */
+    public static class Entry {
+        private final long rowId;
+        private final String entityType;
+        private final long entityId;
+        private final Operation operation;
+        private final long version;
+
+        Entry(long rowId, String entityType, long entityId, Operation operation, long version) {
+            this.rowId = rowId;
+            this.entityType = entityType;
+            this.entityId = entityId;
+            this.operation = operation;
+            this.version = version;
+        }
+
+        public String getEntityType() { return entityType; }
+        public long getEntityId() { return entityId; }
+        public Operation getOperation() { return operation; }
+        public long getVersion() { return version; }
+    }
+
+    private final SQLiteDatabase db;
+    private final DatabaseWriter writer;
+    /** Row ids of entries being uploaded. Only valid for this process, like the uploads. */
+    private final Set<Long> inFlight = new HashSet<>();
+
+    Outbox(SQLiteDatabase db, DatabaseWriter writer) {
+        this.db = db;
+        this.writer = writer;
+    }
+
+    /**
+     * Records a local change, coalescing it with the entity's pending change if there is one.
+     * Joins the calling thread's transaction if one is open.
+     * @param entityType {@link #CONTACT} or {@link #INTERACTION}.
+     * @param entityId The entity's API id, negative if it has not been uploaded.
+     * @param operation The change that was saved.
+     */
+    public void record(String entityType, long entityId, Operation operation) {
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.query(
+                    OutfieldContract.Outbox.TABLE_NAME,
+                    new String[]{OutfieldContract.Outbox._ID, OutfieldContract.Outbox.OPERATION},
+                    OutfieldContract.Outbox.ENTITY_TYPE + "=? AND "
+                            + OutfieldContract.Outbox.ENTITY_ID + "=?",
+                    new String[]{entityType, String.valueOf(entityId)},
+                    null, null, null
+            );
+            long rowId = -1;
+            Operation pending = null;
+            if (cursor != null) {
+                if (cursor.moveToFirst()) {
+                    rowId = cursor.getLong(0);
+                    pending = Operation.valueOf(cursor.getString(1));
+                }
+                cursor.close();
+            }
+
+            if (pending == null) {
+                ContentValues values = new ContentValues();
+                values.put(OutfieldContract.Outbox.ENTITY_TYPE, entityType);
+                values.put(OutfieldContract.Outbox.ENTITY_ID, entityId);
+                values.put(OutfieldContract.Outbox.OPERATION, operation.name());
+                values.put(OutfieldContract.Outbox.VERSION, 1);
+                writer.insert(OutfieldContract.Outbox.TABLE_NAME, values);
+            } else if (pending == Operation.CREATE && operation == Operation.DELETE
+                    && !isInFlight(rowId)) {
+                // Never uploaded, so there is nothing to tell the server
+                writer.delete(OutfieldContract.Outbox.TABLE_NAME,
+                        OutfieldContract.Outbox._ID, rowId);
+                deleteEntity(entityType, entityId);
+            } else {
+                db.execSQL("UPDATE " + OutfieldContract.Outbox.TABLE_NAME + " SET "
+                                + OutfieldContract.Outbox.OPERATION + "=?, "
+                                + OutfieldContract.Outbox.VERSION + "="
+                                + OutfieldContract.Outbox.VERSION + "+1 WHERE "
+                                + OutfieldContract.Outbox._ID + "=?",
+                        new Object[]{coalesce(pending, operation).name(), rowId});
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            Log.e(TAG, "Error during record()", e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Reads the oldest pending changes of one entity type without removing them.
+     * @param entityType {@link #CONTACT} or {@link #INTERACTION}.
+     * @param limit The most entries to return.
+     * @return Entries in the order their entities were first changed.
+     */
+    public List<Entry> peek(String entityType, int limit) {
+        List<Entry> entries = new ArrayList<>();
+        Cursor cursor = db.query(
+                OutfieldContract.Outbox.TABLE_NAME,
+                new String[]{
+                        OutfieldContract.Outbox._ID,
+                        OutfieldContract.Outbox.ENTITY_ID,
+                        OutfieldContract.Outbox.OPERATION,
+                        OutfieldContract.Outbox.VERSION
+                },
+                OutfieldContract.Outbox.ENTITY_TYPE + "=?",
+                new String[]{entityType},
+                null, null,
+                OutfieldContract.Outbox._ID,
+                String.valueOf(limit)
+        );
+        if (cursor == null) return entries;
+        try {
+            while (cursor.moveToNext()) {
+                entries.add(new Entry(cursor.getLong(0), entityType, cursor.getLong(1),
+                        Operation.valueOf(cursor.getString(2)), cursor.getLong(3)));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error during peek()", e);
+        } finally {
+            cursor.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Marks an entry as being uploaded, until it is completed, released or discarded.
+     */
+    public void begin(Entry entry) {
+        synchronized (inFlight) {
+            inFlight.add(entry.rowId);
+        }
+    }
+
+    /**
+     * Ends an upload that failed, leaving its entry queued for the next sync.
+     */
+    public void release(Entry entry) {
+        synchronized (inFlight) {
+            inFlight.remove(entry.rowId);
+        }
+    }
+
+    /**
+     * Removes an entry after its change was uploaded, unless the entity changed again since the
+     * entry was read. If it did and the upload gave it a server id, the remaining change is kept
+     * under the new id, as an update if it was a create.
+     * @param entry The entry that was uploaded.
+     * @param newEntityId The entity's id after the upload, such as the id assigned by a create.
+     * @return The change still queued for the entity, or null if there is none. A create answered
+     * with {@link Operation#DELETE} was deleted locally while it was in flight, and its row should
+     * be kept as it is until the delete is uploaded.
+     */
+    public Operation complete(Entry entry, long newEntityId) {
+        release(entry);
+        Operation remaining = null;
+        db.beginTransaction();
+        try {
+            int rows = db.delete(OutfieldContract.Outbox.TABLE_NAME,
+                    OutfieldContract.Outbox._ID + "=? AND " + OutfieldContract.Outbox.VERSION
+                            + "=?",
+                    new String[]{String.valueOf(entry.rowId), String.valueOf(entry.version)});
+            if (rows == 0 && newEntityId != entry.entityId) {
+                db.execSQL("UPDATE " + OutfieldContract.Outbox.TABLE_NAME + " SET "
+                                + OutfieldContract.Outbox.ENTITY_ID + "=?, "
+                                + OutfieldContract.Outbox.OPERATION + "=CASE "
+                                + OutfieldContract.Outbox.OPERATION + " WHEN ? THEN ? ELSE "
+                                + OutfieldContract.Outbox.OPERATION + " END WHERE "
+                                + OutfieldContract.Outbox._ID + "=?",
+                        new Object[]{newEntityId, Operation.CREATE.name(),
+                                Operation.UPDATE.name(), entry.rowId});
+            }
+            if (rows == 0) {
+                String operation = writer.queryString("SELECT "
+                        + OutfieldContract.Outbox.OPERATION + " FROM "
+                        + OutfieldContract.Outbox.TABLE_NAME + " WHERE "
+                        + OutfieldContract.Outbox._ID + "=?", entry.rowId);
+                if (operation != null) remaining = Operation.valueOf(operation);
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            Log.e(TAG, "Error during complete()", e);
+        } finally {
+            db.endTransaction();
+        }
+        return remaining;
+    }
+
+    /**
+     * Removes an entry whose change can no longer be uploaded, such as one whose row is gone.
+     */
+    public void discard(Entry entry) {
+        release(entry);
+        writer.delete(OutfieldContract.Outbox.TABLE_NAME, OutfieldContract.Outbox._ID,
+                entry.rowId);
+    }
+
+    /**
+     * @return The number of entities with pending changes.
+     */
+    public long size() {
+        return DatabaseUtils.queryNumEntries(db, OutfieldContract.Outbox.TABLE_NAME);
+    }
+
+    private boolean isInFlight(long rowId) {
+        synchronized (inFlight) {
+            return inFlight.contains(rowId);
+        }
+    }
+
+    /**
+     * @return The operation left to upload after a pending one is followed by another.
+     */
+    private static Operation coalesce(Operation pending, Operation operation) {
+        // A create can only be followed by a delete here if the create is in flight
+        if (operation == Operation.DELETE) return Operation.DELETE;
+        return pending;
+    }
+
+    private void deleteEntity(String entityType, long entityId) {
+        if (CONTACT.equals(entityType)) {
+            writer.delete(OutfieldContract.Contact.TABLE_NAME,
+                    OutfieldContract.Contact.CONTACT_ID, entityId);
+        } else if (INTERACTION.equals(entityType)) {
+            writer.delete(OutfieldContract.Interaction.TABLE_NAME,
+                    OutfieldContract.Interaction.INTERACTION_ID, entityId);
+        }
+    }
+}
@@ -26,6 +26,33 @@ public final class OutfieldContract {
         public static final String THUMBNAIL_URL = "thumbnail_url";
         public static final String DIRTY = "dirty";
         public static final String DESTROY = "destroy";
+        public static final String CONTENT_HASH = "content_hash";
+        /** Latitude band of the row's location, kept by triggers. See {@link SpatialIndex}. */
+        public static final String GEO_ROW = "geo_row";
+
+        /** Columns written by {@link UpsertStatement}, in bind order. */
+        public static final String[] COLUMNS = {
+                CONTACT_ID,
+                CONTACT_TYPE,
+                NAME,
+                TITLE,
+                COMPANY,
+                WEBSITE,
+                FAVORED,
+                ADDRESS,
+                CITY,
+                REGION,
+                COUNTRY,
+                LATITUDE,
+                LONGITUDE,
+                EMAIL,
+                PHONE,
+                IMAGE_URL,
+                THUMBNAIL_URL,
+                DIRTY,
+                DESTROY,
+                CONTENT_HASH
+        };
     }
 
     public static class Address implements BaseColumns {
@@ -42,6 +69,22 @@ public final class OutfieldContract {
         public static final String LATITUDE = "latitude";
         public static final String LONGITUDE = "longitude";
         public static final String DESTROY = "destroy";
+
+        /** Columns written by {@link UpsertStatement}, in bind order. */
+        public static final String[] COLUMNS = {
+                ADDRESS_ID,
+                CONTACT_ID,
+                LABEL,
+                STREET1,
+                STREET2,
+                CITY,
+                REGION,
+                POSTAL_CODE,
+                COUNTRY,
+                LATITUDE,
+                LONGITUDE,
+                DESTROY
+        };
     }
 
     public static class Email implements BaseColumns {
@@ -51,6 +94,15 @@ public final class OutfieldContract {
         public static final String LABEL = "label";
         public static final String VALUE = "value";
         public static final String DESTROY = "destroy";
+
+        /** Columns written by {@link UpsertStatement}, in bind order. */
+        public static final String[] COLUMNS = {
+                EMAIL_ID,
+                CONTACT_ID,
+                LABEL,
+                VALUE,
+                DESTROY
+        };
     }
 
     public static class Phone implements BaseColumns {
@@ -60,6 +112,15 @@ public final class OutfieldContract {
         public static final String LABEL = "label";
         public static final String VALUE = "value";
         public static final String DESTROY = "destroy";
+
+        /** Columns written by {@link UpsertStatement}, in bind order. */
+        public static final String[] COLUMNS = {
+                PHONE_ID,
+                CONTACT_ID,
+                LABEL,
+                VALUE,
+                DESTROY
+        };
     }
 
     public static class Image implements BaseColumns {
@@ -68,11 +129,26 @@ public final class OutfieldContract {
         public static final String CONTACT_ID = "contact_id";
         public static final String INTERACTION_ID = "interaction_id";
         public static final String USER_ID = "user_id";
+        /** No longer written. Binaries are kept in {@link com.outfieldapp.outfieldbackend.database.BlobStore}. */
         public static final String IMAGE_FILE = "image_file";
+        public static final String IMAGE_HASH = "image_hash";
         public static final String IMAGE_URI = "image_uri";
         public static final String ORIGINAL_URL = "original_url";
         public static final String THUMBNAIL_URL = "thumbnail_url";
         public static final String DESTROY = "destroy";
+
+        /** Columns written by {@link UpsertStatement}, in bind order. */
+        public static final String[] COLUMNS = {
+                IMAGE_ID,
+                CONTACT_ID,
+                INTERACTION_ID,
+                USER_ID,
+                IMAGE_HASH,
+                IMAGE_URI,
+                ORIGINAL_URL,
+                THUMBNAIL_URL,
+                DESTROY
+        };
     }
 
     public static class User implements BaseColumns {
@@ -83,12 +159,27 @@ public final class OutfieldContract {
         public static final String IMAGE_URL = "image_url";
         public static final String THUMBNAIL_URL = "thumbnail_url";
         public static final String DIRTY = "dirty";
+
+        /** Columns written by {@link UpsertStatement}, in bind order. */
+        public static final String[] COLUMNS = {
+                USER_ID,
+                NAME,
+                EMAIL,
+                IMAGE_URL,
+                THUMBNAIL_URL
+        };
     }
 
     public static class Form implements BaseColumns {
         public static final String TABLE_NAME = "form";
         public static final String FORM_ID = "form_id";
         public static final String TITLE = "title";
+
+        /** Columns written by {@link UpsertStatement}, in bind order. */
+        public static final String[] COLUMNS = {
+                FORM_ID,
+                TITLE
+        };
     }
 
     public static class FormField implements BaseColumns {
@@ -99,7 +190,18 @@ public final class OutfieldContract {
         public static final String REQUIRED = "required";
         public static final String LABEL = "label";
         public static final String FIELD_TYPE = "field_type";
+        /** No longer written. Choices are kept in {@link FormFieldChoice}. */
         public static final String CHOICES = "choices";
+
+        /** Columns written by {@link UpsertStatement}, in bind order. */
+        public static final String[] COLUMNS = {
+                FORM_FIELD_ID,
+                FORM_ID,
+                POSITION,
+                REQUIRED,
+                LABEL,
+                FIELD_TYPE
+        };
     }
 
     public static class FormEntry implements BaseColumns {
@@ -108,6 +210,14 @@ public final class OutfieldContract {
         public static final String FORM_FIELD_ID = "form_field_id";
         public static final String FORM_ID = "form_id";
         public static final String VALUE = "value";
+
+        /** Columns written by {@link UpsertStatement}, in bind order. */
+        public static final String[] COLUMNS = {
+                INTERACTION_ID,
+                FORM_FIELD_ID,
+                FORM_ID,
+                VALUE
+        };
     }
 
     public static class Comment implements BaseColumns {
@@ -116,9 +226,21 @@ public final class OutfieldContract {
         public static final String INTERACTION_ID = "interaction_id";
         public static final String USER_ID = "user_name";
         public static final String COMMENT_TEXT = "comment_text";
+        /** Milliseconds since the epoch. See {@link Timeline}. */
         public static final String CREATED_AT = "created_at";
         public static final String DIRTY = "dirty";
         public static final String DESTROY = "destroy";
+
+        /** Columns written by {@link UpsertStatement}, in bind order. */
+        public static final String[] COLUMNS = {
+                COMMENT_ID,
+                INTERACTION_ID,
+                USER_ID,
+                COMMENT_TEXT,
+                CREATED_AT,
+                DIRTY,
+                DESTROY
+        };
     }
 
     public static class Notification implements BaseColumns {
@@ -131,7 +253,21 @@ public final class OutfieldContract {
         public static final String INTERACTION_ID = "interaction_id";
         public static final String INTERACTION_TYPE = "interaction_type";
         public static final String CONTACT_NAME = "contact_name";
+        /** Milliseconds since the epoch. See {@link Timeline}. */
         public static final String CREATED_AT = "created_at";
+
+        /** Columns written by {@link UpsertStatement}, in bind order. */
+        public static final String[] COLUMNS = {
+                NOTIFICATION_ID,
+                COMMENT_ID,
+                COMMENT_TEXT,
+                USER_NAME,
+                USER_THUMB_URL,
+                INTERACTION_ID,
+                INTERACTION_TYPE,
+                CONTACT_NAME,
+                CREATED_AT
+        };
     }
 
     public static class Interaction implements BaseColumns {
@@ -139,6 +275,7 @@ public final class OutfieldContract {
         public static final String INTERACTION_ID = "interaction_id";
         public static final String CONTACT_ID = "contact_id";
         public static final String USER_ID = "user_id";
+        /** No longer written. Form ids are kept in {@link InteractionForm}. */
         public static final String FORM_IDS = "form_ids";
         public static final String INTERACTION_TYPE = "interaction_type";
         public static final String NOTES = "notes";
@@ -151,10 +288,36 @@ public final class OutfieldContract {
         public static final String IMAGE_COUNT = "image_count";
         public static final String IN_TEAM_ACTIVITY = "in_team_activity";
         public static final String DISPLAY_IN_TEAM_ACTIVITY = "display_in_team_activity";
+        /** Milliseconds since the epoch. See {@link Timeline}. */
         public static final String CREATED_AT = "created_at";
         public static final String DRAFT = "draft";
         public static final String DIRTY = "dirty";
         public static final String DESTROY = "destroy";
+        public static final String CONTENT_HASH = "content_hash";
+        /** Latitude band of the row's location, kept by triggers. See {@link SpatialIndex}. */
+        public static final String GEO_ROW = "geo_row";
+
+        /** Columns written by {@link UpsertStatement}, in bind order. */
+        public static final String[] COLUMNS = {
+                INTERACTION_ID,
+                CONTACT_ID,
+                USER_ID,
+                INTERACTION_TYPE,
+                NOTES,
+                SHARE_URL,
+                DURATION,
+                LATITUDE,
+                LONGITUDE,
+                IMAGE_URL,
+                COMMENT_COUNT,
+                IMAGE_COUNT,
+                IN_TEAM_ACTIVITY,
+                CREATED_AT,
+                DRAFT,
+                DIRTY,
+                DESTROY,
+                CONTENT_HASH
+        };
     }
 
     public static class PlannedInteraction implements BaseColumns {
@@ -170,5 +333,89 @@ public final class OutfieldContract {
         public static final String DATE = "date";
         public static final String DIRTY = "dirty";
         public static final String DESTROY = "destroy";
+
+        /** Columns written by {@link UpsertStatement}, in bind order. */
+        public static final String[] COLUMNS = {
+                INTERACTION_ID,
+                CONTACT_ID,
+                USER_ID,
+                INTERACTION_TYPE,
+                NOTES,
+                SHARE_URL,
+                DURATION,
+                COMMENT_COUNT,
+                DATE,
+                DIRTY,
+                DESTROY
+        };
+    }
+
+    public static class InteractionForm implements BaseColumns {
+        public static final String TABLE_NAME = "interaction_form";
+        public static final String INTERACTION_ID = "interaction_id";
+        public static final String FORM_ID = "form_id";
+        public static final String POSITION = "position";
+
+        /** Columns written by {@link UpsertStatement}, in bind order. */
+        public static final String[] COLUMNS = {
+                INTERACTION_ID,
+                FORM_ID,
+                POSITION
+        };
+    }
+
+    public static class FormFieldChoice implements BaseColumns {
+        public static final String TABLE_NAME = "form_field_choice";
+        public static final String FORM_FIELD_ID = "form_field_id";
+        public static final String POSITION = "position";
+        public static final String VALUE = "value";
+
+        /** Columns written by {@link UpsertStatement}, in bind order. */
+        public static final String[] COLUMNS = {
+                FORM_FIELD_ID,
+                POSITION,
+                VALUE
+        };
+    }
+
+    public static class Outbox implements BaseColumns {
+        public static final String TABLE_NAME = "outbox";
+        public static final String ENTITY_TYPE = "entity_type";
+        public static final String ENTITY_ID = "entity_id";
+        public static final String OPERATION = "operation";
+        public static final String VERSION = "version";
+    }
+
+    /**
+     * FTS4 index over {@link Contact}. Reads its text from the contact table, and its docids are
+     * contact row ids.
+     */
+    public static class ContactSearch {
+        public static final String TABLE_NAME = "contact_search";
+
+        /** Indexed columns, in the order their weights are listed in {@link SearchIndex}. */
+        public static final String[] COLUMNS = {
+                Contact.NAME,
+                Contact.COMPANY,
+                Contact.TITLE,
+                Contact.EMAIL,
+                Contact.PHONE
+        };
+    }
+
+    /**
+     * FTS4 index over interaction notes. Its docids are interaction row ids.
+     */
+    public static class InteractionSearch {
+        public static final String TABLE_NAME = "interaction_search";
+        public static final String[] COLUMNS = {Interaction.NOTES};
+    }
+
+    /**
+     * FTS4 index over comment text. Its docids are comment row ids.
+     */
+    public static class CommentSearch {
+        public static final String TABLE_NAME = "comment_search";
+        public static final String[] COLUMNS = {Comment.COMMENT_TEXT};
     }
 }
@@ -1,8 +1,13 @@
 package com.outfieldapp.outfieldbackend.database;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
 
 import static com.outfieldapp.outfieldbackend.database.OutfieldContract.Address;
 import static com.outfieldapp.outfieldbackend.database.OutfieldContract.Comment;
@@ -21,9 +26,22 @@ import static com.outfieldapp.outfieldbackend.database.OutfieldContract.User;
 public class OutfieldDatabase extends SQLiteOpenHelper {
 
     private static OutfieldDatabase instance;
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 11;
     public static final String DATABASE_NAME = "Outfield.db";
 
+    public static final String TAG = OutfieldDatabase.class.getSimpleName();
+
+    private DatabaseWriter writer;
+    private WriteExecutor writeExecutor;
+    private Outbox outbox;
+    private SearchIndex searchIndex;
+    private SpatialIndex spatialIndex;
+    private Timeline timeline;
+
+    private long checkpointCount;
+    private long lastCheckpointMillis;
+    private int lastCheckpointFrames = -1;
+
 
     public static synchronized OutfieldDatabase getInstance(Context context) {
         if (instance == null) {
@@ -34,6 +52,144 @@ public class OutfieldDatabase extends SQLiteOpenHelper {
 
     private OutfieldDatabase(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+
+        // Write-ahead logging lets reads run on pooled connections while the writer thread is in
+        // a transaction, and commits append to the log instead of rewriting the journal
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * @return The {@link DatabaseWriter} used to write rows to the writable database.
+     */
+    public synchronized DatabaseWriter getWriter() {
+        if (writer == null) {
+            writer = new DatabaseWriter(getWritableDatabase());
+        }
+        return writer;
+    }
+
+    /**
+     * @return The {@link Outbox} of local changes waiting to be uploaded.
+     */
+    public synchronized Outbox getOutbox() {
+        if (outbox == null) {
+            outbox = new Outbox(getWritableDatabase(), getWriter());
+        }
+        return outbox;
+    }
+
+    /**
+     * @return The {@link SearchIndex} for searching local contacts and interactions.
+     */
+    public synchronized SearchIndex getSearchIndex() {
+        if (searchIndex == null) {
+            searchIndex = new SearchIndex(getReadableDatabase());
+        }
+        return searchIndex;
+    }
+
+    /**
+     * @return The {@link SpatialIndex} for finding local contacts and interactions by location.
+     */
+    public synchronized SpatialIndex getSpatialIndex() {
+        if (spatialIndex == null) {
+            spatialIndex = new SpatialIndex(getReadableDatabase());
+        }
+        return spatialIndex;
+    }
+
+    /**
+     * @return The {@link Timeline} for paging through interactions, comments and notifications by
+     * creation time.
+     */
+    public synchronized Timeline getTimeline() {
+        if (timeline == null) {
+            timeline = new Timeline(getReadableDatabase());
+        }
+        return timeline;
+    }
+
+    /**
+     * @return The {@link WriteExecutor} that sync writes are queued on.
+     */
+    public synchronized WriteExecutor getWriteExecutor() {
+        if (writeExecutor == null) {
+            writeExecutor = new WriteExecutor(WriteExecutor.DEFAULT_CAPACITY);
+        }
+        return writeExecutor;
+    }
+
+    /**
+     * Queues a checkpoint on the {@link WriteExecutor}, which copies the write-ahead log back
+     * into the database file so the log stops growing. The checkpoint is skipped if more writes
+     * are waiting by the time it runs. Call when a sync finishes.
+     */
+    public void checkpointWhenIdle() {
+        getWriteExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (getWriteExecutor().getQueueDepth() == 0) checkpoint();
+            }
+        });
+    }
+
+    /**
+     * Runs a passive checkpoint, which copies as much of the write-ahead log as it can without
+     * waiting on readers.
+     * @return True if every frame in the log was copied.
+     */
+    public boolean checkpoint() {
+        long start = SystemClock.elapsedRealtime();
+        long walBytes = getWalSizeBytes();
+        int logFrames = -1;
+        int checkpointedFrames = -1;
+
+        Cursor cursor = getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                logFrames = cursor.getInt(1);
+                checkpointedFrames = cursor.getInt(2);
+            }
+            cursor.close();
+        }
+
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        synchronized (this) {
+            checkpointCount++;
+            lastCheckpointMillis = elapsed;
+            lastCheckpointFrames = checkpointedFrames;
+        }
+        Log.d(TAG, "Checkpointed " + checkpointedFrames + "/" + logFrames + " frames of "
+                + walBytes + " byte log in " + elapsed + "ms");
+        return logFrames >= 0 && logFrames == checkpointedFrames;
+    }
+
+    /**
+     * @return The size of the write-ahead log file in bytes, or 0 if there is none.
+     */
+    public long getWalSizeBytes() {
+        return new File(getWritableDatabase().getPath() + "-wal").length();
+    }
+
+    /**
+     * @return The number of checkpoints run by {@link #checkpoint()}.
+     */
+    public synchronized long getCheckpointCount() {
+        return checkpointCount;
+    }
+
+    /**
+     * @return How long the last checkpoint took, in milliseconds.
+     */
+    public synchronized long getLastCheckpointMillis() {
+        return lastCheckpointMillis;
+    }
+
+    /**
+     * @return The number of frames copied by the last checkpoint, or -1 if none has run.
+     */
+    public synchronized int getLastCheckpointFrames() {
+        return lastCheckpointFrames;
     }
 
     @Override
@@ -247,10 +403,13 @@ public class OutfieldDatabase extends SQLiteOpenHelper {
                 + " (" + Contact.CONTACT_ID + ") ON UPDATE CASCADE,"
                 + "UNIQUE (" + PlannedInteraction.INTERACTION_ID + ") ON CONFLICT REPLACE)"
         );
+
+        // Bring the version 1 schema up to date
+        Migrations.migrate(sqLiteDatabase, 1, DATABASE_VERSION);
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
-
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        Migrations.migrate(sqLiteDatabase, oldVersion, newVersion);
     }
 }
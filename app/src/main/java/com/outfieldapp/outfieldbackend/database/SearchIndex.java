@@ -0,0 +1,202 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Searches local contacts, interaction notes and comments without a server round trip, using the
+ * FTS4 tables created by {@link Migrations}. Triggers keep the tables current on every write to
+ * the indexed tables, so results always match what is stored.
+ * <p>
+ * Every word of a query is matched as a prefix, so "jo smi" finds "John Smith". Results are
+ * ranked by how often each word appears in a row relative to the whole index, with matches in
+ * some columns, such as a contact's name, counting more than others. Deleted rows waiting to be
+ * uploaded are left out.
+ */
+public class SearchIndex {
+
+    public static final String TAG = SearchIndex.class.getSimpleName();
+
+    /** Weights of the contact columns: name, company, title, email and phone. */
+    private static final double[] CONTACT_WEIGHTS = {4, 2, 1, 2, 1};
+    private static final double[] NOTES_WEIGHTS = {1};
+    /** Comments count less than notes, since they are replies about the interaction. */
+    private static final double[] COMMENT_WEIGHTS = {0.5};
+
+    private static final String CONTACTS_SQL = searchSql(
+            OutfieldContract.ContactSearch.TABLE_NAME, OutfieldContract.Contact.TABLE_NAME,
+            OutfieldContract.Contact.CONTACT_ID, OutfieldContract.Contact.DESTROY);
+    private static final String NOTES_SQL = searchSql(
+            OutfieldContract.InteractionSearch.TABLE_NAME, OutfieldContract.Interaction.TABLE_NAME,
+            OutfieldContract.Interaction.INTERACTION_ID, OutfieldContract.Interaction.DESTROY);
+    private static final String COMMENTS_SQL = searchSql(
+            OutfieldContract.CommentSearch.TABLE_NAME, OutfieldContract.Comment.TABLE_NAME,
+            OutfieldContract.Comment.INTERACTION_ID, OutfieldContract.Comment.DESTROY);
+
+    private static final Comparator<Map.Entry<Long, Double>> BY_SCORE =
+            new Comparator<Map.Entry<Long, Double>>() {
+        @Override
+        public int compare(Map.Entry<Long, Double> a, Map.Entry<Long, Double> b) {
+            return Double.compare(a.getValue(), b.getValue());
+        }
+    };
+
+    private final SQLiteDatabase db;
+
+    SearchIndex(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Searches contact names, companies, titles, emails and phone numbers.
+     * @param query Text typed by the user.
+     * @param limit The most results to return.
+     * @return Ids of matching contacts, best match first. Load them with
+     * {@link com.outfieldapp.outfieldbackend.models.ContactLoader ContactLoader}.
+     */
+    public List<Long> searchContacts(String query, int limit) {
+        String match = toMatchQuery(query);
+        if (match == null) return new ArrayList<>();
+
+        long startedAt = SystemClock.elapsedRealtime();
+        Map<Long, Double> scores = new HashMap<>();
+        collect(CONTACTS_SQL, match, CONTACT_WEIGHTS, scores);
+        List<Long> ids = top(scores, limit);
+        Log.d(TAG, "Found " + scores.size() + " contacts in "
+                + (SystemClock.elapsedRealtime() - startedAt) + "ms");
+        return ids;
+    }
+
+    /**
+     * Searches interaction notes and the comments on interactions. An interaction matched by both
+     * ranks above one matched by either alone.
+     * @param query Text typed by the user.
+     * @param limit The most results to return.
+     * @return Ids of matching interactions, best match first.
+     */
+    public List<Long> searchInteractions(String query, int limit) {
+        String match = toMatchQuery(query);
+        if (match == null) return new ArrayList<>();
+
+        long startedAt = SystemClock.elapsedRealtime();
+        Map<Long, Double> scores = new HashMap<>();
+        collect(NOTES_SQL, match, NOTES_WEIGHTS, scores);
+        collect(COMMENTS_SQL, match, COMMENT_WEIGHTS, scores);
+        List<Long> ids = top(scores, limit);
+        Log.d(TAG, "Found " + scores.size() + " interactions in "
+                + (SystemClock.elapsedRealtime() - startedAt) + "ms");
+        return ids;
+    }
+
+    /**
+     * Turns user input into an FTS query that matches every word as a prefix. Punctuation is
+     * dropped, so input can never be read as FTS syntax.
+     * @return The query, or null if the input has no words.
+     */
+    static String toMatchQuery(String query) {
+        if (query == null) return null;
+        StringBuilder match = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= query.length(); i++) {
+            char c = i < query.length() ? query.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            } else if (word.length() > 0) {
+                if (match.length() > 0) match.append(' ');
+                // Lowercase, since FTS reads uppercase AND, OR and NOT as operators
+                match.append(word.toString().toLowerCase(Locale.ROOT)).append('*');
+                word.setLength(0);
+            }
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    /**
+     * @return SQL selecting the id column and match info of every row that matches a query and
+     * is not waiting to be deleted.
+     */
+    private static String searchSql(String searchTable, String contentTable, String idColumn,
+                                    String destroyColumn) {
+        return "SELECT c." + idColumn + ", matchinfo(" + searchTable + ", 'pcx') FROM "
+                + searchTable + " JOIN " + contentTable + " c ON c._id=" + searchTable
+                + ".docid WHERE " + searchTable + " MATCH ? AND c." + destroyColumn + "=0";
+    }
+
+    /**
+     * Runs a search query and adds each row's score to its id's total.
+     */
+    private void collect(String sql, String match, double[] weights, Map<Long, Double> scores) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(sql, new String[]{match});
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                double score = score(cursor.getBlob(1), weights);
+                Double total = scores.get(id);
+                scores.put(id, total != null ? total + score : score);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error during collect()", e);
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    /**
+     * Scores a row from its <code>matchinfo(..., 'pcx')</code> blob. Each phrase adds, for every
+     * column, the column's weight times the share of the phrase's hits in the whole index that
+     * are in this row, so rare words count for more than common ones.
+     */
+    static double score(byte[] matchinfo, double[] weights) {
+        IntBuffer ints = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phrases = ints.get(0);
+        int columns = ints.get(1);
+        double score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns && column < weights.length; column++) {
+                int offset = 2 + 3 * (phrase * columns + column);
+                int hitsInRow = ints.get(offset);
+                int hitsInAllRows = ints.get(offset + 1);
+                if (hitsInRow > 0) score += weights[column] * hitsInRow / hitsInAllRows;
+            }
+        }
+        return score;
+    }
+
+    /**
+     * @return The ids with the highest scores, best first.
+     */
+    private static List<Long> top(Map<Long, Double> scores, int limit) {
+        if (limit <= 0) return new ArrayList<>();
+        PriorityQueue<Map.Entry<Long, Double>> best = new PriorityQueue<>(limit, BY_SCORE);
+        for (Map.Entry<Long, Double> entry : scores.entrySet()) {
+            if (best.size() < limit) {
+                best.add(entry);
+            } else if (entry.getValue() > best.peek().getValue()) {
+                best.poll();
+                best.add(entry);
+            }
+        }
+
+        List<Long> ids = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            ids.add(best.poll().getKey());
+        }
+        Collections.reverse(ids);
+        return ids;
+    }
+}
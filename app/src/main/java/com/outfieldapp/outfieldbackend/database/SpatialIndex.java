@@ -0,0 +1,257 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds local contacts and interactions near a point, for "what's near me" without a connection.
+ * <p>
+ * Android's SQLite is not built with the R-tree module, so rows are bucketed instead. Triggers
+ * added by {@link Migrations} keep a <code>geo_row</code> column holding the row's latitude band,
+ * {@link #BANDS_PER_DEGREE} bands to a degree, and an index on the band and longitude. A query
+ * lists the bands its bounding box covers and reads a longitude range from each, so it only
+ * touches rows inside the box. Exact distances are then computed for those rows.
+ * <p>
+ * Radius queries start with a small radius and widen it until enough rows are found, so asking
+ * for the nearest few contacts in a dense area reads only the rows around the point.
+ */
+public class SpatialIndex {
+
+    public static final String TAG = SpatialIndex.class.getSimpleName();
+
+    /** Latitude bands per degree. Each band is about 1.1km tall. */
+    public static final int BANDS_PER_DEGREE = 100;
+    /** Radius of the first search around a point, before it is widened. */
+    public static final double INITIAL_RADIUS_METERS = 1000;
+
+    // The contact and interaction tables use the same names for these columns
+    private static final String GEO_ROW = OutfieldContract.Contact.GEO_ROW;
+    private static final String LATITUDE = OutfieldContract.Contact.LATITUDE;
+    private static final String LONGITUDE = OutfieldContract.Contact.LONGITUDE;
+    private static final String DESTROY = OutfieldContract.Contact.DESTROY;
+
+    private static final double EARTH_RADIUS_METERS = 6371000;
+    private static final double METERS_PER_DEGREE = Math.PI * EARTH_RADIUS_METERS / 180;
+
+    /**
+     * A row found by a query, and how far it is from the query's center.
+     */
+    public static class Result {
+        private final long id;
+        private final double distanceMeters;
+
+        Result(long id, double distanceMeters) {
+            this.id = id;
+            this.distanceMeters = distanceMeters;
+        }
+
+        public long getId() { return id; }
+        public double getDistanceMeters() { return distanceMeters; }
+    }
+
+    private static final Comparator<Result> BY_DISTANCE = new Comparator<Result>() {
+        @Override
+        public int compare(Result a, Result b) {
+            return Double.compare(a.distanceMeters, b.distanceMeters);
+        }
+    };
+
+    private final SQLiteDatabase db;
+
+    SpatialIndex(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Finds the contacts closest to a point.
+     * @param latitude Latitude of the point.
+     * @param longitude Longitude of the point.
+     * @param radiusMeters Contacts farther away than this are left out.
+     * @param limit The most results to return.
+     * @return Contact ids with their distances, nearest first.
+     */
+    public List<Result> nearbyContacts(double latitude, double longitude, double radiusMeters,
+                                       int limit) {
+        return nearby(OutfieldContract.Contact.TABLE_NAME, OutfieldContract.Contact.CONTACT_ID,
+                latitude, longitude, radiusMeters, limit);
+    }
+
+    /**
+     * Finds the interactions that took place closest to a point.
+     * @param latitude Latitude of the point.
+     * @param longitude Longitude of the point.
+     * @param radiusMeters Interactions farther away than this are left out.
+     * @param limit The most results to return.
+     * @return Interaction ids with their distances, nearest first.
+     */
+    public List<Result> nearbyInteractions(double latitude, double longitude,
+                                           double radiusMeters, int limit) {
+        return nearby(OutfieldContract.Interaction.TABLE_NAME,
+                OutfieldContract.Interaction.INTERACTION_ID, latitude, longitude, radiusMeters,
+                limit);
+    }
+
+    /**
+     * Finds the contacts inside a bounding box, such as the visible part of a map.
+     * @param west Longitude of the box's west edge. May be greater than east if the box crosses
+     *             the antimeridian.
+     * @param limit The most results to return.
+     * @return Contact ids with their distances from the box's center, nearest first.
+     */
+    public List<Result> contactsInBounds(double south, double west, double north, double east,
+                                         int limit) {
+        return inBounds(OutfieldContract.Contact.TABLE_NAME, OutfieldContract.Contact.CONTACT_ID,
+                south, west, north, east, limit);
+    }
+
+    /**
+     * Finds the interactions inside a bounding box.
+     * @param west Longitude of the box's west edge. May be greater than east if the box crosses
+     *             the antimeridian.
+     * @param limit The most results to return.
+     * @return Interaction ids with their distances from the box's center, nearest first.
+     */
+    public List<Result> interactionsInBounds(double south, double west, double north,
+                                             double east, int limit) {
+        return inBounds(OutfieldContract.Interaction.TABLE_NAME,
+                OutfieldContract.Interaction.INTERACTION_ID, south, west, north, east, limit);
+    }
+
+    private List<Result> nearby(String table, String idColumn, double latitude, double longitude,
+                                double radiusMeters, int limit) {
+        long startedAt = SystemClock.elapsedRealtime();
+        List<Result> results = new ArrayList<>();
+        double radius = Math.min(radiusMeters, INITIAL_RADIUS_METERS);
+        while (limit > 0) {
+            results.clear();
+            double latitudeDelta = radius / METERS_PER_DEGREE;
+            double south = Math.max(-90, latitude - latitudeDelta);
+            double north = Math.min(90, latitude + latitudeDelta);
+            double cos = Math.cos(Math.toRadians(Math.max(Math.abs(south), Math.abs(north))));
+            double longitudeDelta = cos > 0 ? radius / (METERS_PER_DEGREE * cos) : 180;
+
+            String[] columns = {idColumn, LATITUDE, LONGITUDE};
+            Cursor cursor = query(table, columns, south, north, longitude - longitudeDelta,
+                    longitude + longitudeDelta);
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext()) {
+                        double distance = distance(latitude, longitude, cursor.getDouble(1),
+                                cursor.getDouble(2));
+                        if (distance <= radius) {
+                            results.add(new Result(cursor.getLong(0), distance));
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            // Every row within the searched radius was found, so these are the nearest ones
+            if (results.size() >= limit || radius >= radiusMeters) break;
+            radius = Math.min(radius * 4, radiusMeters);
+        }
+
+        List<Result> nearest = top(results, limit);
+        Log.d(TAG, "Found " + nearest.size() + " rows in " + table + " within " + (long) radius
+                + "m in " + (SystemClock.elapsedRealtime() - startedAt) + "ms");
+        return nearest;
+    }
+
+    private List<Result> inBounds(String table, String idColumn, double south, double west,
+                                  double north, double east, int limit) {
+        double centerLatitude = (south + north) / 2;
+        double centerLongitude = west <= east ? (west + east) / 2 : (west + east + 360) / 2;
+        if (centerLongitude > 180) centerLongitude -= 360;
+
+        List<Result> results = new ArrayList<>();
+        String[] columns = {idColumn, LATITUDE, LONGITUDE};
+        Cursor cursor = query(table, columns, Math.max(-90, south), Math.min(90, north), west,
+                west <= east ? east : east + 360);
+        if (cursor == null) return results;
+        try {
+            while (cursor.moveToNext()) {
+                results.add(new Result(cursor.getLong(0), distance(centerLatitude,
+                        centerLongitude, cursor.getDouble(1), cursor.getDouble(2))));
+            }
+        } finally {
+            cursor.close();
+        }
+        return top(results, limit);
+    }
+
+    /**
+     * Reads the rows inside a bounding box through the band index.
+     * @param west Longitude of the west edge. May be below -180 or east above 180 if the box
+     *             crosses the antimeridian.
+     */
+    private Cursor query(String table, String[] columns, double south, double north, double west,
+                         double east) {
+        StringBuilder selection = new StringBuilder(GEO_ROW + " IN (");
+        int firstBand = band(south);
+        int lastBand = band(north);
+        for (int band = firstBand; band <= lastBand; band++) {
+            if (band > firstBand) selection.append(',');
+            selection.append(band);
+        }
+        selection.append(") AND ").append(DESTROY).append("=0 AND ").append(LATITUDE)
+                .append(" BETWEEN ? AND ?");
+
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(south));
+        args.add(String.valueOf(north));
+        if (east - west >= 360) {
+            // Covers every longitude, so only the bands narrow the search
+        } else if (west < -180 || east > 180) {
+            double wrappedWest = west < -180 ? west + 360 : west;
+            double wrappedEast = east > 180 ? east - 360 : east;
+            selection.append(" AND (").append(LONGITUDE).append(">=? OR ").append(LONGITUDE)
+                    .append("<=?)");
+            args.add(String.valueOf(wrappedWest));
+            args.add(String.valueOf(wrappedEast));
+        } else {
+            selection.append(" AND ").append(LONGITUDE).append(" BETWEEN ? AND ?");
+            args.add(String.valueOf(west));
+            args.add(String.valueOf(east));
+        }
+
+        try {
+            return db.query(table, columns, selection.toString(),
+                    args.toArray(new String[args.size()]), null, null, null);
+        } catch (Exception e) {
+            Log.e(TAG, "Error during query()", e);
+            return null;
+        }
+    }
+
+    private static int band(double latitude) {
+        return (int) ((latitude + 90) * BANDS_PER_DEGREE);
+    }
+
+    /**
+     * @return The great-circle distance between two points in meters, by the haversine formula.
+     */
+    static double distance(double latitude1, double longitude1, double latitude2,
+                           double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double sinPhi = Math.sin((phi2 - phi1) / 2);
+        double sinLambda = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double h = sinPhi * sinPhi + Math.cos(phi1) * Math.cos(phi2) * sinLambda * sinLambda;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    private static List<Result> top(List<Result> results, int limit) {
+        Collections.sort(results, BY_DISTANCE);
+        return results.size() > limit
+                ? new ArrayList<>(results.subList(0, Math.max(0, limit)))
+                : results;
+    }
+}
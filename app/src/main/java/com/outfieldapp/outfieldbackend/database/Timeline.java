@@ -0,0 +1,131 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pages through interactions, comments and notifications by when they were created, newest first,
+ * for activity feeds and "last 7 days" views.
+ * <p>
+ * Timestamps are stored as epoch milliseconds in indexed <code>created_at</code> columns. Rows
+ * are ordered by <code>created_at</code> and then <code>_id</code>, which is the order every
+ * <code>created_at</code> index already keeps, since SQLite appends the row id to each index
+ * entry. A page starts where the previous one ended, given as a {@link Position}, rather than at
+ * an offset, so each page reads only its own rows from the index however deep the feed has been
+ * scrolled, and rows written in the meantime never shift later pages.
+ */
+public class Timeline {
+
+    public static final String TAG = Timeline.class.getSimpleName();
+
+    /** Pass as the end of a range to include everything up to now. */
+    public static final long NO_END = Long.MAX_VALUE;
+
+    // The timeline tables use the same names for these columns
+    private static final String CREATED_AT = OutfieldContract.Interaction.CREATED_AT;
+    private static final String ROW_ID = OutfieldContract.Interaction._ID;
+    private static final String ORDER = CREATED_AT + " DESC, " + ROW_ID + " DESC";
+
+    /**
+     * The last row of a page. The next page starts with the first row after it.
+     */
+    public static class Position {
+        private final long createdAt;
+        private final long rowId;
+
+        /**
+         * @param createdAt The row's <code>created_at</code> value.
+         * @param rowId The row's <code>_id</code> value.
+         */
+        public Position(long createdAt, long rowId) {
+            this.createdAt = createdAt;
+            this.rowId = rowId;
+        }
+
+        /**
+         * @param cursor A cursor returned by a {@link Timeline} query, moved to the last row of a
+         *               page.
+         * @return The position of the cursor's current row.
+         */
+        public static Position of(Cursor cursor) {
+            return new Position(cursor.getLong(cursor.getColumnIndexOrThrow(CREATED_AT)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(ROW_ID)));
+        }
+
+        public long getCreatedAt() { return createdAt; }
+        public long getRowId() { return rowId; }
+    }
+
+    private final SQLiteDatabase db;
+
+    Timeline(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Queries a page of interactions created within a time range. Interactions waiting to be
+     * deleted are left out.
+     * @param since Earliest creation time to include, in epoch milliseconds.
+     * @param until Creation time to stop before, in epoch milliseconds, or {@link #NO_END}.
+     * @param after Where the previous page ended, or null for the first page.
+     * @param limit The most rows to return.
+     * @return A cursor to the interaction table, newest first, which the caller must close, or
+     * null if the query failed. Load it with
+     * {@link com.outfieldapp.outfieldbackend.models.InteractionLoader InteractionLoader}.
+     */
+    public Cursor queryInteractions(long since, long until, Position after, int limit) {
+        return query(OutfieldContract.Interaction.TABLE_NAME,
+                OutfieldContract.Interaction.DESTROY, since, until, after, limit);
+    }
+
+    /**
+     * Queries a page of comments created within a time range, across every interaction. Comments
+     * waiting to be deleted are left out.
+     * @see #queryInteractions(long, long, Position, int)
+     */
+    public Cursor queryComments(long since, long until, Position after, int limit) {
+        return query(OutfieldContract.Comment.TABLE_NAME, OutfieldContract.Comment.DESTROY,
+                since, until, after, limit);
+    }
+
+    /**
+     * Queries a page of notifications created within a time range.
+     * @see #queryInteractions(long, long, Position, int)
+     */
+    public Cursor queryNotifications(long since, long until, Position after, int limit) {
+        return query(OutfieldContract.Notification.TABLE_NAME, null, since, until, after, limit);
+    }
+
+    private Cursor query(String table, String destroyColumn, long since, long until,
+                         Position after, int limit) {
+        StringBuilder selection = new StringBuilder(CREATED_AT + ">=?");
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(since));
+
+        // Give SQLite a single upper bound, so it starts reading the index where the page starts
+        if (after != null && after.createdAt < until) {
+            selection.append(" AND ").append(CREATED_AT).append("<=? AND (").append(CREATED_AT)
+                    .append("<? OR ").append(ROW_ID).append("<?)");
+            args.add(String.valueOf(after.createdAt));
+            args.add(String.valueOf(after.createdAt));
+            args.add(String.valueOf(after.rowId));
+        } else if (until != NO_END) {
+            selection.append(" AND ").append(CREATED_AT).append("<?");
+            args.add(String.valueOf(until));
+        }
+        if (destroyColumn != null) selection.append(" AND ").append(destroyColumn).append("=0");
+
+        try {
+            return db.query(table, null, selection.toString(),
+                    args.toArray(new String[args.size()]), null, null, ORDER,
+                    String.valueOf(limit));
+        } catch (Exception e) {
+            Log.e(TAG, "Error during query()", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+
+/**
+ * Compiled upsert for one table, built once from the table's <code>COLUMNS</code> in
+ * {@link OutfieldContract}. Values are bound by position in that order, so writing a row builds no
+ * SQL, no {@link android.content.ContentValues} and no boxed values.
+ * <p>
+ * The leading key columns, normally just the API id, identify an existing row. A row that is
+ * found is updated in place, keeping its {@link BaseColumns#_ID} and its child rows, and the
+ * update only matches if a column actually changed, so saving an unchanged row writes nothing.
+ * Rows that are not found, or whose key is null, are inserted. SQLite on older devices has no
+ * <code>INSERT ... ON CONFLICT DO UPDATE</code>, so the lookup is a separate compiled statement.
+ * <p>
+ * Statements created with a local id assign one to inserted rows whose first column, the API id,
+ * is bound to 0: the negated {@link BaseColumns#_ID} of the new row. The row id is computed inside
+ * the insert the same way <code>AUTOINCREMENT</code> would pick it, so no follow-up
+ * <code>UPDATE</code> is needed.
+ * <p>
+ * Statements created without key columns write every column, including the API id, to a row
+ * chosen by its {@link BaseColumns#_ID} through {@link #update(long)}. They serve updates that
+ * change a row's API id, which an upsert would take for a new row.
+ * <p>
+ * Statements are not thread-safe. Use them through {@link DatabaseWriter#upsert}.
+ */
+public class UpsertStatement {
+
+    /**
+     * Binds an object's values to an {@link UpsertStatement}.
+     */
+    public interface Binder {
+        /**
+         * Binds one value for each of the table's <code>COLUMNS</code>, in order.
+         * @param statement The statement to bind to.
+         */
+        void bindValues(UpsertStatement statement);
+    }
+
+    /** What the last {@link #execute()} did. */
+    public enum Result { INSERTED, UPDATED, UNCHANGED }
+
+    private final String table;
+    private final int columnCount;
+    private final int keyCount;
+    private final SQLiteStatement insert;
+    private final SQLiteStatement update;
+    private final SQLiteStatement find;
+    private int index;
+    private boolean hasKey;
+    private Result result;
+
+    UpsertStatement(SQLiteDatabase db, String table, String[] columns, int keyCount,
+                    boolean assignLocalId) {
+        this.table = table;
+        this.columnCount = columns.length;
+        this.keyCount = keyCount;
+        this.insert = db.compileStatement(assignLocalId
+                ? buildLocalIdInsertSql(table, columns)
+                : buildInsertSql(table, columns));
+        this.update = keyCount < columns.length
+                ? db.compileStatement(buildUpdateSql(table, columns, keyCount))
+                : null;
+        this.find = keyCount > 0
+                ? db.compileStatement(buildFindSql(table, columns, keyCount))
+                : null;
+    }
+
+    /* Binding */
+    public void bindLong(long value) {
+        insert.bindLong(++index, value);
+        if (index <= keyCount) {
+            find.bindLong(index, value);
+        } else if (update != null) {
+            update.bindLong(index, value);
+        }
+    }
+
+    public void bindDouble(double value) {
+        insert.bindDouble(++index, value);
+        if (index <= keyCount) {
+            find.bindDouble(index, value);
+        } else if (update != null) {
+            update.bindDouble(index, value);
+        }
+    }
+
+    public void bindString(String value) {
+        if (value == null) {
+            bindNull();
+            return;
+        }
+        insert.bindString(++index, value);
+        if (index <= keyCount) {
+            find.bindString(index, value);
+        } else if (update != null) {
+            update.bindString(index, value);
+        }
+    }
+
+    public void bindNull() {
+        insert.bindNull(++index);
+        if (index <= keyCount) {
+            hasKey = false;
+        } else if (update != null) {
+            update.bindNull(index);
+        }
+    }
+
+    public void bindBoolean(boolean value) {
+        bindLong(value ? 1 : 0);
+    }
+
+    /**
+     * Binds an id, or null if it is 0 so that rows without an id are always inserted.
+     */
+    public void bindId(long id) {
+        if (id != 0) {
+            bindLong(id);
+        } else {
+            bindNull();
+        }
+    }
+
+    /**
+     * Clears values bound for the previous row.
+     */
+    void reset() {
+        index = 0;
+        hasKey = true;
+        result = null;
+        insert.clearBindings();
+        if (update != null) update.clearBindings();
+        if (find != null) find.clearBindings();
+    }
+
+    /**
+     * Updates the row with the bound key if there is one, otherwise inserts the bound row.
+     * @return The row's {@link BaseColumns#_ID}, or -1 if it was not inserted.
+     * @throws IllegalStateException If a value was not bound for every column.
+     */
+    long execute() {
+        checkBound();
+
+        if (hasKey && find != null) {
+            long rowId = findRowId();
+            if (rowId > 0) {
+                if (update == null) {
+                    result = Result.UNCHANGED;
+                } else {
+                    update.bindLong(columnCount + 1, rowId);
+                    result = update.executeUpdateDelete() > 0 ? Result.UPDATED : Result.UNCHANGED;
+                }
+                return rowId;
+            }
+        }
+
+        long rowId = insert.executeInsert();
+        if (rowId >= 0) result = Result.INSERTED;
+        return rowId;
+    }
+
+    /**
+     * Writes the bound values to the row with the given row id, if any column changed. Only
+     * statements without key columns update by row id.
+     * @param rowId The row's {@link BaseColumns#_ID}.
+     * @return The number of rows changed, which is 0 if the row already had the bound values.
+     * @throws IllegalStateException If a value was not bound for every column, or the statement
+     * has key columns.
+     */
+    int update(long rowId) {
+        checkBound();
+        if (keyCount > 0) {
+            throw new IllegalStateException("Statement for " + table + " has key columns");
+        }
+
+        update.bindLong(columnCount + 1, rowId);
+        int rows = update.executeUpdateDelete();
+        result = rows > 0 ? Result.UPDATED : Result.UNCHANGED;
+        return rows;
+    }
+
+    /**
+     * @return What the last {@link #execute()} or {@link #update(long)} did, or null if it
+     * failed.
+     */
+    Result getResult() {
+        return result;
+    }
+
+    void close() {
+        insert.close();
+        if (update != null) update.close();
+        if (find != null) find.close();
+    }
+
+    private void checkBound() {
+        if (index != columnCount) {
+            throw new IllegalStateException("Bound " + index + " of " + columnCount
+                    + " columns for " + table);
+        }
+    }
+
+    private long findRowId() {
+        try {
+            return find.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return -1;
+        }
+    }
+
+    private static String buildInsertSql(String table, String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        StringBuilder params = new StringBuilder(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(',');
+                params.append(',');
+            }
+            sql.append(columns[i]);
+            params.append('?').append(i + 1);
+        }
+        return sql.append(params).append(')').toString();
+    }
+
+    private static String buildLocalIdInsertSql(String table, String[] columns) {
+        // The next id AUTOINCREMENT would use, so the row id and local id can be written together
+        String nextRowId = "SELECT MAX("
+                + "IFNULL((SELECT seq FROM sqlite_sequence WHERE name='" + table + "'), 0), "
+                + "IFNULL((SELECT MAX(" + BaseColumns._ID + ") FROM " + table + "), 0)) + 1 AS n";
+
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table)
+                .append(" (").append(BaseColumns._ID);
+        StringBuilder select = new StringBuilder(" SELECT n, COALESCE(?1, -n)");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(',').append(columns[i]);
+            if (i > 0) select.append(", ?").append(i + 1);
+        }
+        return sql.append(')').append(select).append(" FROM (").append(nextRowId).append(')')
+                .toString();
+    }
+
+    private static String buildUpdateSql(String table, String[] columns, int keyCount) {
+        // Parameters are numbered like the insert's, so one set of bindings serves both
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        StringBuilder changed = new StringBuilder(" AND (");
+        for (int i = keyCount; i < columns.length; i++) {
+            if (i > keyCount) {
+                sql.append(',');
+                changed.append(" OR ");
+            }
+            sql.append(columns[i]).append("=?").append(i + 1);
+            changed.append(columns[i]).append(" IS NOT ?").append(i + 1);
+        }
+        return sql.append(" WHERE ").append(BaseColumns._ID).append("=?").append(columns.length + 1)
+                .append(changed).append(')').toString();
+    }
+
+    private static String buildFindSql(String table, String[] columns, int keyCount) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(BaseColumns._ID)
+                .append(" FROM ").append(table).append(" WHERE ");
+        for (int i = 0; i < keyCount; i++) {
+            if (i > 0) sql.append(" AND ");
+            sql.append(columns[i]).append("=?").append(i + 1);
+        }
+        return sql.append(" LIMIT 1").toString();
+    }
+}
@@ -0,0 +1,170 @@
+package com.outfieldapp.outfieldbackend.database;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single background thread for the sync's writes to {@link OutfieldDatabase}. Sync callbacks,
+ * page ingest and checkpoints enqueue work with {@link #execute(Runnable)} instead of writing on
+ * their own thread, so they never block the main thread or contend with each other.
+ * <p>
+ * It does not own every write: models saved directly, such as by a screen calling
+ * {@link com.outfieldapp.outfieldbackend.models.Contact#save() Contact.save()}, still write on the
+ * caller's thread. SQLite serializes those with the writer thread's transactions, so they may
+ * wait for a batch to commit.
+ * <p>
+ * {@link #execute(Runnable)} never blocks, since it is called from Retrofit callbacks on the main
+ * thread. Background producers that can outpace the disk, such as a sync page being parsed, use
+ * {@link #executeBounded(Runnable)} instead, which blocks while the executor's capacity of
+ * bounded tasks are all waiting or running. Queue depth and task latency are exposed so write backpressure can be
+ * observed during large syncs.
+ */
+public class WriteExecutor {
+
+    public static final String TAG = WriteExecutor.class.getSimpleName();
+    public static final int DEFAULT_CAPACITY = 64;
+    private static final long SLOW_TASK_MILLIS = 500;
+
+    private final ThreadPoolExecutor executor;
+    /** Slots for tasks queued with {@link #executeBounded(Runnable)}. */
+    private final Semaphore permits;
+    private volatile Thread writerThread;
+
+    private long completedTasks;
+    private long totalWaitMillis;
+    private long totalRunMillis;
+    private long maxRunMillis;
+
+    /**
+     * @param capacity The most tasks queued with {@link #executeBounded(Runnable)} that may be
+     *                 waiting or running at once.
+     */
+    WriteExecutor(int capacity) {
+        permits = new Semaphore(capacity);
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "OutfieldWriter");
+                        writerThread = thread;
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Queues a task to run on the writer thread. Tasks run one at a time in the order they were
+     * queued. If called from the writer thread itself, the task runs immediately. Never blocks,
+     * so it is safe to call from the main thread.
+     * @param task The work to run. Exceptions thrown by the task are logged and discarded.
+     */
+    public void execute(Runnable task) {
+        if (isWriterThread()) {
+            task.run();
+            return;
+        }
+        submit(task, false);
+    }
+
+    /**
+     * Queues a task like {@link #execute(Runnable)}, but first waits until fewer than the
+     * executor's capacity of bounded tasks are waiting or running. Only call this from a
+     * background thread.
+     * @param task The work to run. Exceptions thrown by the task are logged and discarded.
+     * @throws InterruptedException If the caller was interrupted while waiting. The task is not
+     * queued.
+     */
+    public void executeBounded(Runnable task) throws InterruptedException {
+        if (isWriterThread()) {
+            task.run();
+            return;
+        }
+        permits.acquire();
+        try {
+            submit(task, true);
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void submit(final Runnable task, final boolean bounded) {
+        final long queuedAt = SystemClock.elapsedRealtime();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long startedAt = SystemClock.elapsedRealtime();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Error during write task", e);
+                } finally {
+                    if (bounded) permits.release();
+                    long finishedAt = SystemClock.elapsedRealtime();
+                    recordTask(startedAt - queuedAt, finishedAt - startedAt);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return True if the calling thread is the writer thread.
+     */
+    public boolean isWriterThread() {
+        return Thread.currentThread() == writerThread;
+    }
+
+    /**
+     * @return The number of tasks waiting to run, not including the one currently running.
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return The number of tasks that have finished running.
+     */
+    public synchronized long getCompletedTaskCount() {
+        return completedTasks;
+    }
+
+    /**
+     * @return The average time tasks spent in the queue before running, in milliseconds.
+     */
+    public synchronized long getAverageWaitMillis() {
+        return completedTasks > 0 ? totalWaitMillis / completedTasks : 0;
+    }
+
+    /**
+     * @return The average time tasks spent running, in milliseconds.
+     */
+    public synchronized long getAverageRunMillis() {
+        return completedTasks > 0 ? totalRunMillis / completedTasks : 0;
+    }
+
+    /**
+     * @return The longest time any task spent running, in milliseconds.
+     */
+    public synchronized long getMaxRunMillis() {
+        return maxRunMillis;
+    }
+
+    private synchronized void recordTask(long waitMillis, long runMillis) {
+        completedTasks++;
+        totalWaitMillis += waitMillis;
+        totalRunMillis += runMillis;
+        maxRunMillis = Math.max(maxRunMillis, runMillis);
+
+        if (runMillis > SLOW_TASK_MILLIS) {
+            Log.w(TAG, "Slow write task: waited " + waitMillis + "ms, ran " + runMillis
+                    + "ms, queue depth " + getQueueDepth());
+        }
+    }
+}
@@ -1,8 +1,6 @@
 package com.outfieldapp.outfieldbackend.models;
 
-import android.content.ContentValues;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -10,6 +8,7 @@ import com.google.gson.annotations.SerializedName;
 import com.outfieldapp.outfieldbackend.OutfieldApp;
 import com.outfieldapp.outfieldbackend.api.Constants.Keys;
 import com.outfieldapp.outfieldbackend.database.OutfieldContract;
+import com.outfieldapp.outfieldbackend.database.UpsertStatement;
 
 public class Address extends Model {
 
@@ -99,6 +98,27 @@ public class Address extends Model {
         return address;
     }
 
+    /**
+     * @return A copy of this address, for {@link Contact#copy()}.
+     */
+    Address copy() {
+        Address copy = new Address();
+        copy.rowId = rowId;
+        copy.contactId = contactId;
+        copy.addressId = addressId;
+        copy.label = label;
+        copy.street1 = street1;
+        copy.street2 = street2;
+        copy.city = city;
+        copy.region = region;
+        copy.postalCode = postalCode;
+        copy.country = country;
+        copy.latitude = latitude;
+        copy.longitude = longitude;
+        copy.destroy = destroy;
+        return copy;
+    }
+
     /* Database Access */
     @Override
     protected boolean insert() {
@@ -108,16 +128,8 @@ public class Address extends Model {
             return false;
         }
 
-        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
-        db.beginTransaction();
-        try {
-            rowId = db.insertOrThrow(OutfieldContract.Address.TABLE_NAME, null, getContentValues());
-            db.setTransactionSuccessful();
-        } catch (Exception e) {
-            Log.e(TAG, "Error during insert()", e);
-        } finally {
-            db.endTransaction();
-        }
+        rowId = OutfieldApp.getDatabase().getWriter()
+                .upsert(OutfieldContract.Address.TABLE_NAME, OutfieldContract.Address.COLUMNS, this);
         return rowId >= 0;
     }
 
@@ -157,20 +169,18 @@ public class Address extends Model {
     }
 
     @Override
-    protected ContentValues getContentValues() {
-        ContentValues values = new ContentValues();
-        if (addressId != 0) values.put(OutfieldContract.Address.ADDRESS_ID, addressId);
-        if (contactId != 0) values.put(OutfieldContract.Address.CONTACT_ID, contactId);
-        values.put(OutfieldContract.Address.LABEL, label);
-        values.put(OutfieldContract.Address.STREET1, street1);
-        values.put(OutfieldContract.Address.STREET2, street2);
-        values.put(OutfieldContract.Address.CITY, city);
-        values.put(OutfieldContract.Address.REGION, region);
-        values.put(OutfieldContract.Address.POSTAL_CODE, postalCode);
-        values.put(OutfieldContract.Address.COUNTRY, country);
-        values.put(OutfieldContract.Address.LATITUDE, latitude);
-        values.put(OutfieldContract.Address.LONGITUDE, longitude);
-        values.put(OutfieldContract.Address.DESTROY, destroy);
-        return values;
+    public void bindValues(UpsertStatement statement) {
+        statement.bindId(addressId);
+        statement.bindId(contactId);
+        statement.bindString(label);
+        statement.bindString(street1);
+        statement.bindString(street2);
+        statement.bindString(city);
+        statement.bindString(region);
+        statement.bindString(postalCode);
+        statement.bindString(country);
+        statement.bindDouble(latitude);
+        statement.bindDouble(longitude);
+        statement.bindBoolean(destroy);
     }
 }
@@ -1,14 +1,20 @@
 package com.outfieldapp.outfieldbackend.models;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
+import com.google.gson.annotations.JsonAdapter;
 import com.google.gson.annotations.SerializedName;
 import com.outfieldapp.outfieldbackend.OutfieldApp;
 import com.outfieldapp.outfieldbackend.api.Constants.Keys;
+import com.outfieldapp.outfieldbackend.api.TimestampAdapter;
 import com.outfieldapp.outfieldbackend.database.OutfieldContract;
+import com.outfieldapp.outfieldbackend.database.Timeline;
+import com.outfieldapp.outfieldbackend.database.UpsertStatement;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class Comment extends Model {
 
@@ -17,13 +23,16 @@ public class Comment extends Model {
     private long rowId;
     private long interactionId;
     private boolean dirty;
+    private transient long userId;
+    private transient boolean userPending;
 
     @SerializedName(Keys.Comment.ID)
     private long commentId;
     @SerializedName(Keys.Comment.COMMENT_TEXT)
     private String text = "";
     @SerializedName(Keys.Comment.CREATED_AT)
-    private String createdAt = "";
+    @JsonAdapter(TimestampAdapter.class)
+    private long createdAt;
     @SerializedName(Keys.Comment.DESTROY)
     private boolean destroy;
     @SerializedName(Keys.Comment.USER)
@@ -34,23 +43,31 @@ public class Comment extends Model {
     public Comment(Cursor cursor) {
         if (cursor != null) loadFromCursor(cursor);
     }
+    public Comment(Cursor cursor, LoadOptions options) {
+        if (cursor != null) load(cursor, options);
+    }
 
     /* Getters */
     public long getId() { return commentId; }
     public long getInteractionId() { return interactionId; }
     public String getText() { return text; }
-    public String getCreatedAt() { return createdAt; }
+    public long getRowId() { return rowId; }
+    public long getCreatedAt() { return createdAt; }
     public boolean isDirty() { return dirty; }
     public boolean isDestroy() { return destroy; }
-    public User getUser() { return user; }
+    public User getUser() { resolveUser(); return user; }
 
     /* Setters */
     public void setInteractionId(long id) { interactionId = id; }
     public void setText(String text) { this.text = text; }
-    public void setCreatedAt(String createdAt) { this.createdAt = createdAt; }
+    public void setCreatedAt(long createdAt) { this.createdAt = createdAt; }
     public void setDirty(boolean dirty) { this.dirty = dirty; }
     public void setDestroy(boolean destroy) { this.destroy = destroy; }
-    public void setUser(User user) { this.user = user; }
+    public void setUser(User user) {
+        userPending = false;
+        this.user = user;
+        userId = user != null ? user.getId() : 0;
+    }
 
     /* Database Access */
     /**
@@ -83,10 +100,33 @@ public class Comment extends Model {
         return null;
     }
 
+    /**
+     * Loads a page of comments created within a time range, across every interaction, newest
+     * first. Each comment's user is loaded the first time it is read. See {@link Timeline}.
+     * @param since Earliest creation time to include, in epoch milliseconds.
+     * @param until Creation time to stop before, in epoch milliseconds, or {@link Timeline#NO_END}.
+     * @param after Where the previous page ended, or null for the first page.
+     * @param limit The most comments to load.
+     * @return Comments in the page, newest first.
+     */
+    public static List<Comment> getCommentsBetween(long since, long until, Timeline.Position after,
+                                                   int limit) {
+        List<Comment> comments = new ArrayList<>();
+        Cursor cursor = OutfieldApp.getDatabase().getTimeline()
+                .queryComments(since, until, after, limit);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                comments.add(new Comment(cursor, LoadOptions.FIELDS_ONLY));
+            }
+            cursor.close();
+        }
+        return comments;
+    }
+
     /**
      * Calls {@link #insert()} method for this Comment object and all submodels. If a
-     * Comment with the same {@link #commentId} already exists in the database, that
-     * Comment and its submodels will be deleted and replaced.
+     * Comment with the same {@link #commentId} already exists in the database, it and its
+     * user are updated in place.
      * @return True if save was successful.
      */
     public boolean save() {
@@ -107,76 +147,86 @@ public class Comment extends Model {
             return false;
         }
 
-        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
-        db.beginTransaction();
-        try {
-            rowId = db.insertOrThrow(OutfieldContract.Comment.TABLE_NAME, null, getContentValues());
-            db.setTransactionSuccessful();
-        } catch (Exception e) {
-            Log.e(TAG, "Error during insert()", e);
-        } finally {
-            db.endTransaction();
-        }
+        // Comments created locally are ordered by when they were first saved
+        if (createdAt == 0 && commentId <= 0) createdAt = System.currentTimeMillis();
+
+        rowId = OutfieldApp.getDatabase().getWriter()
+                .upsert(OutfieldContract.Comment.TABLE_NAME, OutfieldContract.Comment.COLUMNS, this);
         return rowId >= 0;
     }
 
     @Override
     protected void loadFromCursor(Cursor cursor) {
-        try {
-            int rowIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Comment._ID);
-            int commentIdIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Comment.COMMENT_ID);
-            int interactionIdIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Comment.INTERACTION_ID);
-            int userIdIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Comment.USER_ID);
-            int textIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Comment.COMMENT_TEXT);
-            int createdAtIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Comment.CREATED_AT);
-            int dirtyIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Comment.DIRTY);
-            int destroyIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Comment.DESTROY);
-
-            // Load comment values
-            rowId = cursor.getLong(rowIndex);
-            commentId = cursor.getLong(commentIdIndex);
-            interactionId = cursor.getLong(interactionIdIndex);
-            text = cursor.getString(textIndex);
-            createdAt = cursor.getString(createdAtIndex);
-            dirty = cursor.getInt(dirtyIndex) > 0;
-            destroy = cursor.getInt(destroyIndex) > 0;
-
-            // Load user
-            long userId = cursor.getLong(userIdIndex);
-            SQLiteDatabase db = OutfieldApp.getDatabase().getReadableDatabase();
-            Cursor userCursor = db.query(
-                    OutfieldContract.User.TABLE_NAME,
-                    null,
-                    OutfieldContract.User.USER_ID + "=?",
-                    new String[]{String.valueOf(userId)},
-                    null,
-                    null,
-                    "LIMIT 1"
-            );
+        load(cursor, LoadOptions.ALL);
+    }
 
-            if (userCursor != null && userCursor.moveToFirst()) {
-                user = new User(userCursor);
-                userCursor.close();
-            }
+    /**
+     * Loads this comment's columns from the cursor, and its user if the options include
+     * {@link LoadOptions.Relation#USER}. Otherwise the user is loaded on first use.
+     * @param cursor A cursor to the comment table, which may contain only some of its columns.
+     * @param options The relations to load now.
+     */
+    void load(Cursor cursor, LoadOptions options) {
+        // Load comment values
+        loadFields(cursor);
+
+        // Load user
+        if (options.includes(LoadOptions.Relation.USER)) {
+            user = User.getUserWithId(userId);
+        } else {
+            userPending = true;
+        }
+    }
 
+    /**
+     * Loads the user deferred by {@link #load(Cursor, LoadOptions)}.
+     */
+    private void resolveUser() {
+        if (!userPending) return;
+        userPending = false;
+        user = User.getUserWithId(userId);
+    }
+
+    /**
+     * Loads this comment's own columns from the cursor's current row without loading the user.
+     * @param cursor A cursor to the comment table, which may contain only some of its columns.
+     */
+    void loadFields(Cursor cursor) {
+        try {
+            int rowIndex = cursor.getColumnIndex(OutfieldContract.Comment._ID);
+            int commentIdIndex = cursor.getColumnIndex(OutfieldContract.Comment.COMMENT_ID);
+            int interactionIdIndex = cursor.getColumnIndex(OutfieldContract.Comment.INTERACTION_ID);
+            int userIdIndex = cursor.getColumnIndex(OutfieldContract.Comment.USER_ID);
+            int textIndex = cursor.getColumnIndex(OutfieldContract.Comment.COMMENT_TEXT);
+            int createdAtIndex = cursor.getColumnIndex(OutfieldContract.Comment.CREATED_AT);
+            int dirtyIndex = cursor.getColumnIndex(OutfieldContract.Comment.DIRTY);
+            int destroyIndex = cursor.getColumnIndex(OutfieldContract.Comment.DESTROY);
+
+            // Columns left out of the cursor's projection keep their defaults
+            if (rowIndex >= 0) rowId = cursor.getLong(rowIndex);
+            if (commentIdIndex >= 0) commentId = cursor.getLong(commentIdIndex);
+            if (interactionIdIndex >= 0) interactionId = cursor.getLong(interactionIdIndex);
+            if (userIdIndex >= 0) userId = cursor.getLong(userIdIndex);
+            if (textIndex >= 0) text = cursor.getString(textIndex);
+            if (createdAtIndex >= 0) createdAt = cursor.getLong(createdAtIndex);
+            if (dirtyIndex >= 0) dirty = cursor.getInt(dirtyIndex) > 0;
+            if (destroyIndex >= 0) destroy = cursor.getInt(destroyIndex) > 0;
+            user = null;
+            userPending = false;
         } catch (Exception e) {
-            Log.e(TAG, "Error during loadFromCursor()", e);
+            Log.e(TAG, "Error during loadFields()", e);
         }
     }
 
     @Override
-    protected ContentValues getContentValues() {
-        ContentValues values = new ContentValues();
-        if (commentId != 0) values.put(OutfieldContract.Comment.COMMENT_ID, commentId);
-        if (interactionId != 0) values.put(OutfieldContract.Comment.INTERACTION_ID, interactionId);
-        values.put(OutfieldContract.Comment.COMMENT_TEXT, text);
-        values.put(OutfieldContract.Comment.CREATED_AT, createdAt);
-        values.put(OutfieldContract.Comment.DIRTY, dirty);
-        values.put(OutfieldContract.Comment.DESTROY, destroy);
-        if (user != null && user.getId() != 0) {
-            values.put(OutfieldContract.Comment.USER_ID, user.getId());
-        }
-        return values;
+    public void bindValues(UpsertStatement statement) {
+        statement.bindId(commentId);
+        statement.bindId(interactionId);
+        statement.bindId(user != null && user.getId() != 0 ? user.getId() : userId);
+        statement.bindString(text);
+        statement.bindLong(createdAt);
+        statement.bindBoolean(dirty);
+        statement.bindBoolean(destroy);
     }
 
     /**
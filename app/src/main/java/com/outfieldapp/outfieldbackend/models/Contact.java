@@ -1,6 +1,5 @@
 package com.outfieldapp.outfieldbackend.models;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.text.TextUtils;
@@ -9,7 +8,10 @@ import android.util.Log;
 import com.google.gson.annotations.SerializedName;
 import com.outfieldapp.outfieldbackend.OutfieldApp;
 import com.outfieldapp.outfieldbackend.api.Constants.Keys;
+import com.outfieldapp.outfieldbackend.database.DatabaseWriter;
+import com.outfieldapp.outfieldbackend.database.Outbox;
 import com.outfieldapp.outfieldbackend.database.OutfieldContract;
+import com.outfieldapp.outfieldbackend.database.UpsertStatement;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -17,9 +19,26 @@ import java.util.List;
 public class Contact extends Model {
 
     public static final String TAG = Contact.class.getSimpleName();
+    public static final int CACHE_SIZE = 200;
+
+    private static final ModelCache<Contact> cache = new ModelCache<Contact>("Contact", CACHE_SIZE) {
+        @Override
+        protected Contact copy(Contact contact) {
+            return contact.copy();
+        }
+
+        @Override
+        protected int sizeOf(Contact contact) {
+            return 1 + contact.getAddresses().size() + contact.getEmails().size()
+                    + contact.getPhones().size() + contact.getImages().size();
+        }
+    };
 
     private long rowId;
     private boolean dirty;
+    /** Hash of the server's JSON for this contact and its submodels, or null if saved locally. */
+    private transient String contentHash;
+    private transient boolean detailsPending;
 
     @SerializedName(Keys.Contact.ID)
     private long contactId;
@@ -51,20 +70,25 @@ public class Contact extends Model {
     public Contact(Cursor cursor) {
         if (cursor != null) loadFromCursor(cursor);
     }
+    public Contact(Cursor cursor, LoadOptions options) {
+        if (cursor != null) load(cursor, options);
+    }
 
     /* Getters */
     public long getId() { return contactId; }
+    public long getRowId() { return rowId; }
     public String getName() { return name; }
     public String getTitle() { return title; }
     public String getCompany() { return company; }
     public String getWebsite() { return website; }
     public boolean isFavored() { return favored; }
     public boolean isDirty() { return dirty; }
+    public String getContentHash() { return contentHash; }
     public boolean isDestroy() { return destroy; }
-    public List<Address> getAddresses() { return addresses; }
-    public List<Email> getEmails() { return emails; }
-    public List<Phone> getPhones() { return phones; }
-    public List<Image> getImages() { return images; }
+    public List<Address> getAddresses() { resolveDetails(); return addresses; }
+    public List<Email> getEmails() { resolveDetails(); return emails; }
+    public List<Phone> getPhones() { resolveDetails(); return phones; }
+    public List<Image> getImages() { resolveDetails(); return images; }
 
     public Type getContactType() {
         if (!TextUtils.isEmpty(contactType)) {
@@ -82,11 +106,37 @@ public class Contact extends Model {
     public void setWebsite(String website) { this.website = website; }
     public void setFavored(boolean favored) { this.favored = favored; }
     public void setDirty(boolean dirty) { this.dirty = dirty; }
+    public void setContentHash(String hash) { contentHash = hash; }
     public void setDestroy(boolean destroy) { this.destroy = destroy; }
-    public void setAddresses(List<Address> addresses) { this.addresses = addresses; }
-    public void setEmails(List<Email> emails) { this.emails = emails; }
-    public void setPhones(List<Phone> phones) { this.phones = phones; }
-    public void setImages(List<Image> images) { this.images = images; }
+    public void setAddresses(List<Address> addresses) { resolveDetails(); this.addresses = addresses; }
+    public void setEmails(List<Email> emails) { resolveDetails(); this.emails = emails; }
+    public void setPhones(List<Phone> phones) { resolveDetails(); this.phones = phones; }
+    public void setImages(List<Image> images) { resolveDetails(); this.images = images; }
+
+    /**
+     * @return A copy of this contact and its submodels, so a cached contact is never shared.
+     * Deferred submodels stay deferred.
+     */
+    Contact copy() {
+        Contact copy = new Contact();
+        copy.rowId = rowId;
+        copy.dirty = dirty;
+        copy.contentHash = contentHash;
+        copy.detailsPending = detailsPending;
+        copy.contactId = contactId;
+        copy.contactType = contactType;
+        copy.name = name;
+        copy.title = title;
+        copy.company = company;
+        copy.website = website;
+        copy.favored = favored;
+        copy.destroy = destroy;
+        for (Address address : addresses) copy.addresses.add(address.copy());
+        for (Email email : emails) copy.emails.add(email.copy());
+        for (Phone phone : phones) copy.phones.add(phone.copy());
+        for (Image image : images) copy.images.add(image.copy());
+        return copy;
+    }
 
     /* Database Access */
     /**
@@ -97,6 +147,10 @@ public class Contact extends Model {
      */
     public static Contact getContactWithId(long contactId) {
         if (contactId != 0) {
+            Contact cached = cache.get(contactId);
+            if (cached != null) return cached;
+
+            long generation = cache.getGeneration();
             SQLiteDatabase db = OutfieldApp.getDatabase().getReadableDatabase();
             Cursor contactCursor = db.query(
                     OutfieldContract.Contact.TABLE_NAME,
@@ -112,6 +166,7 @@ public class Contact extends Model {
             if (contactCursor != null && contactCursor.moveToFirst()) {
                 Contact contact = new Contact(contactCursor);
                 contactCursor.close();
+                cache.putIfCurrent(contactId, contact, generation);
                 return contact;
             }
         }
@@ -119,49 +174,90 @@ public class Contact extends Model {
         return null;
     }
 
+    /**
+     * @return The cache used by {@link #getContactWithId(long)}, for reading its counters.
+     */
+    public static ModelCache<Contact> getCache() {
+        return cache;
+    }
+
     /**
      * Calls {@link #insert()} method for this Contact object and all submodels. If a contact with the
-     * same {@link #contactId} already exists in the database, that contact and its submodels will
-     * be deleted and replaced.
+     * same {@link #contactId} already exists in the database, it is updated in place, and its
+     * submodels that are no longer on this contact are deleted.
      * @return True if save was successful.
      */
     public boolean save() {
+        // One transaction, so an upload finishing on the writer thread sees the row and its
+        // outbox entry change together
+        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
+        db.beginTransaction();
+        try {
+            boolean saved = saveRows();
+            db.setTransactionSuccessful();
+            return saved;
+        } finally {
+            db.endTransaction();
+        }
+    }
 
-        // Insert contact values
+    private boolean saveRows() {
+
+        // Load deferred submodels so they are written back
+        resolveDetails();
+
+        // Insert or update contact values
         insert();
+        DatabaseWriter writer = OutfieldApp.getDatabase().getWriter();
+
+        // Remove children no longer on the contact, then write the rest in place
+        long[] addressIds = new long[addresses.size()];
+        for (int i = 0; i < addressIds.length; i++) addressIds[i] = addresses.get(i).getId();
+        writer.deleteChildrenExcept(OutfieldContract.Address.TABLE_NAME,
+                OutfieldContract.Address.CONTACT_ID, contactId,
+                OutfieldContract.Address.ADDRESS_ID, addressIds);
+        for (Address address : addresses) {
+            address.setContactId(contactId);
+            address.insert();
+        }
 
-        // Insert addresses
-        if (!addresses.isEmpty()) {
-            for (Address address : addresses) {
-                address.setContactId(contactId);
-                address.insert();
-            }
+        long[] emailIds = new long[emails.size()];
+        for (int i = 0; i < emailIds.length; i++) emailIds[i] = emails.get(i).getId();
+        writer.deleteChildrenExcept(OutfieldContract.Email.TABLE_NAME,
+                OutfieldContract.Email.CONTACT_ID, contactId,
+                OutfieldContract.Email.EMAIL_ID, emailIds);
+        for (Email email: emails) {
+            email.setContactId(contactId);
+            email.insert();
         }
 
-        // Insert emails
-        if (!emails.isEmpty()) {
-            for (Email email: emails) {
-                email.setContactId(contactId);
-                email.insert();
-            }
+        long[] phoneIds = new long[phones.size()];
+        for (int i = 0; i < phoneIds.length; i++) phoneIds[i] = phones.get(i).getId();
+        writer.deleteChildrenExcept(OutfieldContract.Phone.TABLE_NAME,
+                OutfieldContract.Phone.CONTACT_ID, contactId,
+                OutfieldContract.Phone.PHONE_ID, phoneIds);
+        for (Phone phone : phones) {
+            phone.setContactId(contactId);
+            phone.insert();
         }
 
-        // Insert phones
-        if (!phones.isEmpty()) {
-            for (Phone phone : phones) {
-                phone.setContactId(contactId);
-                phone.insert();
-            }
+        long[] imageIds = new long[images.size()];
+        for (int i = 0; i < imageIds.length; i++) imageIds[i] = images.get(i).getId();
+        writer.deleteChildrenExcept(OutfieldContract.Image.TABLE_NAME,
+                OutfieldContract.Image.CONTACT_ID, contactId,
+                OutfieldContract.Image.IMAGE_ID, imageIds);
+        for (Image image : images) {
+            image.setContactId(contactId);
+            image.insert();
         }
 
-        // Insert images
-        if (!images.isEmpty()) {
-            for (Image image : images) {
-                image.setContactId(contactId);
-                image.insert();
-            }
+        // Queue local changes for upload
+        if (dirty) {
+            OutfieldApp.getDatabase().getOutbox().record(Outbox.CONTACT, contactId,
+                    Outbox.Operation.of(contactId, destroy));
         }
 
+        cache.invalidate(contactId);
         return true;
     }
 
@@ -173,31 +269,11 @@ public class Contact extends Model {
             return false;
         }
 
-        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
-        db.beginTransaction();
-        try {
-            // Insert values, get row id
-            rowId = db.insertOrThrow(OutfieldContract.Contact.TABLE_NAME, null, getContentValues());
-
-            // If contact does not have an id, generate negative id from row id and update
-            if (contactId == 0) {
-                contactId = rowId * -1;
-                ContentValues values = new ContentValues();
-                values.put(OutfieldContract.Contact.CONTACT_ID, contactId);
-                db.update(
-                        OutfieldContract.Contact.TABLE_NAME,
-                        values,
-                        OutfieldContract.Contact._ID + "=?",
-                        new String[]{String.valueOf(rowId)}
-                );
-            }
-
-            db.setTransactionSuccessful();
-        } catch (Exception e) {
-            Log.e(TAG, "Error during insert()", e);
-        } finally {
-            db.endTransaction();
-        }
+        // Insert values, get row id. A missing id is assigned from the row id by the same insert.
+        rowId = OutfieldApp.getDatabase().getWriter().upsertWithLocalId(
+                OutfieldContract.Contact.TABLE_NAME, OutfieldContract.Contact.COLUMNS, this);
+        if (rowId > 0 && contactId == 0) contactId = rowId * -1;
+        cache.invalidate(contactId);
         return rowId >= 0;
     }
 
@@ -207,17 +283,10 @@ public class Contact extends Model {
             Log.e(TAG, "Error: You must insert before updating");
             return false;
         }
-        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
-        db.beginTransaction();
-        int rows = db.update(
-                OutfieldContract.Contact.TABLE_NAME,
-                getContentValues(),
-                OutfieldContract.Contact._ID + "=?",
-                new String[]{String.valueOf(rowId)}
-        );
-        db.setTransactionSuccessful();
-        db.endTransaction();
-        return rows > 0;
+        int rows = OutfieldApp.getDatabase().getWriter().update(
+                OutfieldContract.Contact.TABLE_NAME, OutfieldContract.Contact.COLUMNS, rowId, this);
+        cache.invalidate(contactId);
+        return rows >= 0;
     }
 
     public boolean delete() {
@@ -228,41 +297,45 @@ public class Contact extends Model {
                 OutfieldContract.Contact._ID + "=?",
                 new String[]{String.valueOf(rowId)}
         );
+        cache.invalidate(contactId);
         return rows > 0;
     }
 
     @Override
     protected void loadFromCursor(Cursor cursor) {
-        try {
-            int rowIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Contact._ID);
-            int contactIdIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Contact.CONTACT_ID);
-            int contactTypeIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Contact.CONTACT_TYPE);
-            int nameIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Contact.NAME);
-            int titleIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Contact.TITLE);
-            int companyIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Contact.COMPANY);
-            int websiteIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Contact.WEBSITE);
-            int favoredIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Contact.FAVORED);
-            int dirtyIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Contact.DIRTY);
-            int destroyIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Contact.DESTROY);
-
-            // Load contact fields
-            rowId = cursor.getLong(rowIndex);
-            contactId = cursor.getInt(contactIdIndex);
-            contactType = cursor.getString(contactTypeIndex);
-            name = cursor.getString(nameIndex);
-            title = cursor.getString(titleIndex);
-            company = cursor.getString(companyIndex);
-            website = cursor.getString(websiteIndex);
-            favored = cursor.getInt(favoredIndex) > 0;
-            dirty = cursor.getInt(dirtyIndex) > 0;
-            destroy = cursor.getInt(destroyIndex) > 0;
+        load(cursor, LoadOptions.ALL);
+    }
 
-            SQLiteDatabase db = OutfieldApp.getDatabase().getReadableDatabase();
+    /**
+     * Loads this contact's columns from the cursor, and its addresses, emails, phones and images if
+     * the options include {@link LoadOptions.Relation#DETAILS}. Otherwise they are loaded on first
+     * use.
+     * @param cursor A cursor to the contact table, which may contain only some of its columns.
+     * @param options The relations to load now.
+     */
+    void load(Cursor cursor, LoadOptions options) {
+        // Load contact fields
+        loadFields(cursor);
+
+        if (options.includes(LoadOptions.Relation.DETAILS)) {
+            loadDetails();
+        } else {
+            detailsPending = true;
+        }
+    }
 
-            addresses = new ArrayList<>();
-            emails = new ArrayList<>();
-            phones = new ArrayList<>();
-            images = new ArrayList<>();
+    /**
+     * Loads submodels deferred by {@link #load(Cursor, LoadOptions)}.
+     */
+    private void resolveDetails() {
+        if (!detailsPending) return;
+        detailsPending = false;
+        loadDetails();
+    }
+
+    private void loadDetails() {
+        try {
+            SQLiteDatabase db = OutfieldApp.getDatabase().getReadableDatabase();
 
             // Load addresses
             Cursor addressCursor = db.query(
@@ -337,54 +410,91 @@ public class Contact extends Model {
             }
 
         } catch (Exception e) {
-            Log.e(TAG, "Error during loadFromCursor()", e);
+            Log.e(TAG, "Error during loadDetails()", e);
         }
     }
 
-    @Override
-    protected ContentValues getContentValues() {
-        ContentValues values = new ContentValues();
-
-        // Contact values
-        if (contactId != 0) values.put(OutfieldContract.Contact.CONTACT_ID, contactId);
-        values.put(OutfieldContract.Contact.CONTACT_TYPE, contactType);
-        values.put(OutfieldContract.Contact.NAME, name);
-        values.put(OutfieldContract.Contact.TITLE, title);
-        values.put(OutfieldContract.Contact.COMPANY, company);
-        values.put(OutfieldContract.Contact.WEBSITE, website);
-        values.put(OutfieldContract.Contact.FAVORED, favored);
-        values.put(OutfieldContract.Contact.DIRTY, dirty);
-        values.put(OutfieldContract.Contact.DESTROY, destroy);
-
-        // Address values
-        if (!addresses.isEmpty()) {
-            Address address = addresses.get(0);
-            values.put(OutfieldContract.Contact.ADDRESS, address.toString());
-            values.put(OutfieldContract.Contact.CITY, address.getCity());
-            values.put(OutfieldContract.Contact.REGION, address.getRegion());
-            values.put(OutfieldContract.Contact.COUNTRY, address.getCountry());
-            values.put(OutfieldContract.Contact.LATITUDE, address.getLatitude());
-            values.put(OutfieldContract.Contact.LONGITUDE, address.getLongitude());
-        }
+    /**
+     * Loads this contact's own columns from the cursor's current row without loading submodels.
+     * Submodel lists are left empty so they can be filled by {@link ContactLoader}.
+     * @param cursor A cursor to the contact table, which may contain only some of its columns.
+     */
+    void loadFields(Cursor cursor) {
+        try {
+            int rowIndex = cursor.getColumnIndex(OutfieldContract.Contact._ID);
+            int contactIdIndex = cursor.getColumnIndex(OutfieldContract.Contact.CONTACT_ID);
+            int contactTypeIndex = cursor.getColumnIndex(OutfieldContract.Contact.CONTACT_TYPE);
+            int nameIndex = cursor.getColumnIndex(OutfieldContract.Contact.NAME);
+            int titleIndex = cursor.getColumnIndex(OutfieldContract.Contact.TITLE);
+            int companyIndex = cursor.getColumnIndex(OutfieldContract.Contact.COMPANY);
+            int websiteIndex = cursor.getColumnIndex(OutfieldContract.Contact.WEBSITE);
+            int favoredIndex = cursor.getColumnIndex(OutfieldContract.Contact.FAVORED);
+            int dirtyIndex = cursor.getColumnIndex(OutfieldContract.Contact.DIRTY);
+            int destroyIndex = cursor.getColumnIndex(OutfieldContract.Contact.DESTROY);
+
+            // Columns left out of the cursor's projection keep their defaults
+            if (rowIndex >= 0) rowId = cursor.getLong(rowIndex);
+            if (contactIdIndex >= 0) contactId = cursor.getLong(contactIdIndex);
+            if (contactTypeIndex >= 0) contactType = cursor.getString(contactTypeIndex);
+            if (nameIndex >= 0) name = cursor.getString(nameIndex);
+            if (titleIndex >= 0) title = cursor.getString(titleIndex);
+            if (companyIndex >= 0) company = cursor.getString(companyIndex);
+            if (websiteIndex >= 0) website = cursor.getString(websiteIndex);
+            if (favoredIndex >= 0) favored = cursor.getInt(favoredIndex) > 0;
+            if (dirtyIndex >= 0) dirty = cursor.getInt(dirtyIndex) > 0;
+            if (destroyIndex >= 0) destroy = cursor.getInt(destroyIndex) > 0;
 
-        // Email values
-        if (!emails.isEmpty()) {
-            values.put(OutfieldContract.Contact.EMAIL, emails.get(0).toString());
+            addresses = new ArrayList<>();
+            emails = new ArrayList<>();
+            phones = new ArrayList<>();
+            images = new ArrayList<>();
+            detailsPending = false;
+        } catch (Exception e) {
+            Log.e(TAG, "Error during loadFields()", e);
         }
+    }
 
-        // Phone values
-        if (!phones.isEmpty()) {
-            values.put(OutfieldContract.Contact.PHONE, phones.get(0).toString());
+    @Override
+    public void bindValues(UpsertStatement statement) {
+        resolveDetails();
+
+        // Bind contact values
+        statement.bindId(contactId);
+        statement.bindString(contactType);
+        statement.bindString(name);
+        statement.bindString(title);
+        statement.bindString(company);
+        statement.bindString(website);
+        statement.bindBoolean(favored);
+
+        // Bind address values
+        if (!addresses.isEmpty()) {
+            Address address = addresses.get(0);
+            statement.bindString(address.toString());
+            statement.bindString(address.getCity());
+            statement.bindString(address.getRegion());
+            statement.bindString(address.getCountry());
+            statement.bindDouble(address.getLatitude());
+            statement.bindDouble(address.getLongitude());
+        } else {
+            for (int i = 0; i < 6; i++) statement.bindNull();
         }
 
-        // Image values
+        // Bind email, phone and image values
+        statement.bindString(!emails.isEmpty() ? emails.get(0).toString() : null);
+        statement.bindString(!phones.isEmpty() ? phones.get(0).toString() : null);
         if (!images.isEmpty()) {
             Image image = images.get(0);
-            values.put(OutfieldContract.Contact.IMAGE_URL, image.getOriginalUrlString());
-            values.put(OutfieldContract.Contact.THUMBNAIL_URL, image.getThumbnailUrlString());
+            statement.bindString(image.getOriginalUrlString());
+            statement.bindString(image.getThumbnailUrlString());
+        } else {
+            statement.bindNull();
+            statement.bindNull();
         }
 
-        return values;
+        statement.bindBoolean(dirty);
+        statement.bindBoolean(destroy);
+        statement.bindString(contentHash);
     }
 
     public enum Type {
@@ -413,6 +523,8 @@ public class Contact extends Model {
     }
 
     public Wrapper wrap() {
+        // Load deferred submodels so they are serialized
+        resolveDetails();
         return new Wrapper(this);
     }
 }
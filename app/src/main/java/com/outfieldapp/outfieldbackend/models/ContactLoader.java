@@ -0,0 +1,277 @@
+package com.outfieldapp.outfieldbackend.models;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.outfieldapp.outfieldbackend.OutfieldApp;
+import com.outfieldapp.outfieldbackend.database.OutfieldContract;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads many contacts and their submodels at once. {@link Contact#Contact(Cursor)} runs four
+ * queries per contact to load its addresses, emails, phones and images. This loader reads the
+ * contacts' own columns first, then loads each submodel table with a single
+ * <code>contact_id IN (...)</code> query for the whole batch and groups the rows in memory.
+ * <p>
+ * Loading n contacts costs 4 queries (per {@link #MAX_IDS_PER_QUERY} contacts) instead of 4n.
+ */
+public final class ContactLoader {
+
+    public static final String TAG = ContactLoader.class.getSimpleName();
+
+    /** Ids bound per IN query, below SQLite's default limit of 999 variables. */
+    public static final int MAX_IDS_PER_QUERY = 500;
+
+    private ContactLoader() {}
+
+    /**
+     * Loads every contact in a cursor along with its submodels. The cursor is read from its
+     * current position to the end but is not closed.
+     * @param cursor A cursor to the contact table, such as one returned by
+     *               <code>SELECT * FROM contacts WHERE dirty = 1</code>.
+     * @return Contacts in cursor order.
+     */
+    public static List<Contact> load(Cursor cursor) {
+        List<Contact> contacts = new ArrayList<>();
+        if (cursor == null) return contacts;
+
+        while (cursor.moveToNext()) {
+            Contact contact = new Contact();
+            contact.loadFields(cursor);
+            contacts.add(contact);
+        }
+
+        loadSubmodels(contacts);
+        return contacts;
+    }
+
+    /**
+     * Loads contacts with the given ids along with their submodels.
+     * @param contactIds Contact ids as assigned by the API, or negative local ids.
+     * @return Contacts found, ordered by row id. Ids not found are skipped.
+     */
+    public static List<Contact> getContactsWithIds(long[] contactIds) {
+        List<Contact> contacts = new ArrayList<>();
+        if (contactIds == null || contactIds.length == 0) return contacts;
+
+        SQLiteDatabase db = OutfieldApp.getDatabase().getReadableDatabase();
+        for (int start = 0; start < contactIds.length; start += MAX_IDS_PER_QUERY) {
+            int end = Math.min(contactIds.length, start + MAX_IDS_PER_QUERY);
+            Cursor cursor = db.query(
+                    OutfieldContract.Contact.TABLE_NAME,
+                    null,
+                    OutfieldContract.Contact.CONTACT_ID + " IN (" + placeholders(end - start) + ")",
+                    toArgs(contactIds, start, end),
+                    null,
+                    null,
+                    OutfieldContract.Contact._ID
+            );
+
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    Contact contact = new Contact();
+                    contact.loadFields(cursor);
+                    contacts.add(contact);
+                }
+                cursor.close();
+            }
+        }
+
+        loadSubmodels(contacts);
+        return contacts;
+    }
+
+    /**
+     * Loads a page of contacts in name order, ignoring case, along with their submodels. Pages
+     * start after the last contact of the previous page rather than at an offset, so each page
+     * reads only its own rows from the name index. Contacts waiting to be deleted are left out.
+     * @param afterName Name of the last contact of the previous page.
+     * @param afterRowId Row id of the last contact of the previous page, or 0 for the first page.
+     * @param limit The most contacts to load.
+     * @return Contacts in the page, ordered by name and then row id.
+     */
+    public static List<Contact> getContactsByName(String afterName, long afterRowId, int limit) {
+        String name = OutfieldContract.Contact.NAME + " COLLATE NOCASE";
+        StringBuilder selection = new StringBuilder();
+        List<String> args = new ArrayList<>();
+        if (afterRowId > 0 && afterName != null) {
+            selection.append(name).append(">=? AND (").append(name).append(">? OR ")
+                    .append(OutfieldContract.Contact._ID).append(">?) AND ");
+            args.add(afterName);
+            args.add(afterName);
+            args.add(String.valueOf(afterRowId));
+        } else if (afterRowId > 0) {
+            // Contacts without a name sort first
+            selection.append("(").append(OutfieldContract.Contact.NAME).append(" IS NOT NULL OR ")
+                    .append(OutfieldContract.Contact._ID).append(">?) AND ");
+            args.add(String.valueOf(afterRowId));
+        }
+        selection.append(OutfieldContract.Contact.DESTROY).append("=0");
+
+        List<Contact> contacts = new ArrayList<>();
+        try {
+            SQLiteDatabase db = OutfieldApp.getDatabase().getReadableDatabase();
+            Cursor cursor = db.query(
+                    OutfieldContract.Contact.TABLE_NAME,
+                    null,
+                    selection.toString(),
+                    args.toArray(new String[args.size()]),
+                    null,
+                    null,
+                    name + ", " + OutfieldContract.Contact._ID,
+                    String.valueOf(limit)
+            );
+            if (cursor != null) {
+                contacts.addAll(load(cursor));
+                cursor.close();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error during getContactsByName()", e);
+        }
+        return contacts;
+    }
+
+    /**
+     * Fills the address, email, phone and image lists of contacts that were loaded with
+     * {@link Contact#loadFields(Cursor)}.
+     */
+    static void loadSubmodels(List<Contact> contacts) {
+        if (contacts.isEmpty()) return;
+
+        LongSparseArray<Contact> contactsById = new LongSparseArray<>(contacts.size());
+        for (Contact contact : contacts) {
+            contactsById.put(contact.getId(), contact);
+        }
+
+        long[] ids = new long[contactsById.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = contactsById.keyAt(i);
+        }
+
+        try {
+            SQLiteDatabase db = OutfieldApp.getDatabase().getReadableDatabase();
+            for (int start = 0; start < ids.length; start += MAX_IDS_PER_QUERY) {
+                int end = Math.min(ids.length, start + MAX_IDS_PER_QUERY);
+                String[] args = toArgs(ids, start, end);
+                String in = " IN (" + placeholders(end - start) + ")";
+
+                // Load addresses
+                Cursor addressCursor = db.query(
+                        OutfieldContract.Address.TABLE_NAME,
+                        null,
+                        OutfieldContract.Address.CONTACT_ID + in,
+                        args,
+                        null,
+                        null,
+                        OutfieldContract.Address.CONTACT_ID + ", "
+                                + OutfieldContract.Address.ADDRESS_ID
+                );
+
+                if (addressCursor != null) {
+                    int contactIdIndex = addressCursor.getColumnIndexOrThrow(
+                            OutfieldContract.Address.CONTACT_ID);
+                    while (addressCursor.moveToNext()) {
+                        Contact contact = contactsById.get(addressCursor.getLong(contactIdIndex));
+                        if (contact != null) contact.getAddresses().add(new Address(addressCursor));
+                    }
+                    addressCursor.close();
+                }
+
+                // Load emails
+                Cursor emailCursor = db.query(
+                        OutfieldContract.Email.TABLE_NAME,
+                        null,
+                        OutfieldContract.Email.CONTACT_ID + in,
+                        args,
+                        null,
+                        null,
+                        OutfieldContract.Email.CONTACT_ID + ", "
+                                + OutfieldContract.Email.EMAIL_ID
+                );
+
+                if (emailCursor != null) {
+                    int contactIdIndex = emailCursor.getColumnIndexOrThrow(
+                            OutfieldContract.Email.CONTACT_ID);
+                    while (emailCursor.moveToNext()) {
+                        Contact contact = contactsById.get(emailCursor.getLong(contactIdIndex));
+                        if (contact != null) contact.getEmails().add(new Email(emailCursor));
+                    }
+                    emailCursor.close();
+                }
+
+                // Load phones
+                Cursor phoneCursor = db.query(
+                        OutfieldContract.Phone.TABLE_NAME,
+                        null,
+                        OutfieldContract.Phone.CONTACT_ID + in,
+                        args,
+                        null,
+                        null,
+                        OutfieldContract.Phone.CONTACT_ID + ", "
+                                + OutfieldContract.Phone.PHONE_ID
+                );
+
+                if (phoneCursor != null) {
+                    int contactIdIndex = phoneCursor.getColumnIndexOrThrow(
+                            OutfieldContract.Phone.CONTACT_ID);
+                    while (phoneCursor.moveToNext()) {
+                        Contact contact = contactsById.get(phoneCursor.getLong(contactIdIndex));
+                        if (contact != null) contact.getPhones().add(new Phone(phoneCursor));
+                    }
+                    phoneCursor.close();
+                }
+
+                // Load images
+                Cursor imageCursor = db.query(
+                        OutfieldContract.Image.TABLE_NAME,
+                        null,
+                        OutfieldContract.Image.CONTACT_ID + in,
+                        args,
+                        null,
+                        null,
+                        OutfieldContract.Image.CONTACT_ID + ", "
+                                + OutfieldContract.Image.IMAGE_ID
+                );
+
+                if (imageCursor != null) {
+                    int contactIdIndex = imageCursor.getColumnIndexOrThrow(
+                            OutfieldContract.Image.CONTACT_ID);
+                    while (imageCursor.moveToNext()) {
+                        Contact contact = contactsById.get(imageCursor.getLong(contactIdIndex));
+                        if (contact != null) contact.getImages().add(new Image(imageCursor));
+                    }
+                    imageCursor.close();
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error during loadSubmodels()", e);
+        }
+    }
+
+    /**
+     * @return A comma-separated list of <code>count</code> bind placeholders.
+     */
+    static String placeholders(int count) {
+        StringBuilder builder = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) builder.append(',');
+            builder.append('?');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return Selection arguments for ids in the range [start, end).
+     */
+    static String[] toArgs(long[] ids, int start, int end) {
+        String[] args = new String[end - start];
+        for (int i = start; i < end; i++) {
+            args[i - start] = String.valueOf(ids[i]);
+        }
+        return args;
+    }
+}
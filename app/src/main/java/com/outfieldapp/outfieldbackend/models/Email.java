@@ -1,14 +1,13 @@
 package com.outfieldapp.outfieldbackend.models;
 
-import android.content.ContentValues;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
 import com.google.gson.annotations.SerializedName;
 import com.outfieldapp.outfieldbackend.OutfieldApp;
 import com.outfieldapp.outfieldbackend.api.Constants.Keys;
 import com.outfieldapp.outfieldbackend.database.OutfieldContract;
+import com.outfieldapp.outfieldbackend.database.UpsertStatement;
 
 public class Email extends Model {
 
@@ -49,6 +48,20 @@ public class Email extends Model {
         return value;
     }
 
+    /**
+     * @return A copy of this email, for {@link Contact#copy()}.
+     */
+    Email copy() {
+        Email copy = new Email();
+        copy.rowId = rowId;
+        copy.contactId = contactId;
+        copy.emailId = emailId;
+        copy.label = label;
+        copy.value = value;
+        copy.destroy = destroy;
+        return copy;
+    }
+
     /* Database Access */
     @Override
     protected boolean insert() {
@@ -58,16 +71,8 @@ public class Email extends Model {
             return false;
         }
 
-        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
-        db.beginTransaction();
-        try {
-            rowId = db.insertOrThrow(OutfieldContract.Email.TABLE_NAME, null, getContentValues());
-            db.setTransactionSuccessful();
-        } catch (Exception e) {
-            Log.e(TAG, "Error during insert()", e);
-        } finally {
-            db.endTransaction();
-        }
+        rowId = OutfieldApp.getDatabase().getWriter()
+                .upsert(OutfieldContract.Email.TABLE_NAME, OutfieldContract.Email.COLUMNS, this);
         return rowId >= 0;
     }
 
@@ -93,13 +98,11 @@ public class Email extends Model {
     }
 
     @Override
-    protected ContentValues getContentValues() {
-        ContentValues values = new ContentValues();
-        if (emailId != 0) values.put(OutfieldContract.Email.EMAIL_ID, emailId);
-        if (contactId != 0) values.put(OutfieldContract.Email.CONTACT_ID, contactId);
-        values.put(OutfieldContract.Email.LABEL, label);
-        values.put(OutfieldContract.Email.VALUE, value);
-        values.put(OutfieldContract.Email.DESTROY, destroy);
-        return values;
+    public void bindValues(UpsertStatement statement) {
+        statement.bindId(emailId);
+        statement.bindId(contactId);
+        statement.bindString(label);
+        statement.bindString(value);
+        statement.bindBoolean(destroy);
     }
 }
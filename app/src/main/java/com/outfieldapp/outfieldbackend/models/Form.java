@@ -1,6 +1,5 @@
 package com.outfieldapp.outfieldbackend.models;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
@@ -9,6 +8,7 @@ import com.google.gson.annotations.SerializedName;
 import com.outfieldapp.outfieldbackend.OutfieldApp;
 import com.outfieldapp.outfieldbackend.api.Constants.Keys;
 import com.outfieldapp.outfieldbackend.database.OutfieldContract;
+import com.outfieldapp.outfieldbackend.database.UpsertStatement;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -16,6 +16,19 @@ import java.util.List;
 public class Form extends Model {
 
     public static final String TAG = Form.class.getSimpleName();
+    public static final int CACHE_SIZE = 100;
+
+    private static final ModelCache<Form> cache = new ModelCache<Form>("Form", CACHE_SIZE) {
+        @Override
+        protected Form copy(Form form) {
+            return form.copy();
+        }
+
+        @Override
+        protected int sizeOf(Form form) {
+            return 1 + form.getFormFields().size();
+        }
+    };
 
     private long rowId;
 
@@ -37,6 +50,20 @@ public class Form extends Model {
     public String getTitle() { return title; }
     public List<FormField> getFormFields() { return formFields; }
 
+    /**
+     * @return A copy of this form and its fields, so a cached form is never shared.
+     */
+    Form copy() {
+        Form copy = new Form();
+        copy.rowId = rowId;
+        copy.formId = formId;
+        copy.title = title;
+        for (FormField field : formFields) {
+            copy.formFields.add(field.copy());
+        }
+        return copy;
+    }
+
     /* Database Access */
     /**
      * Searches Forms database table for a row with matching {@link #formId} and uses
@@ -46,6 +73,10 @@ public class Form extends Model {
      */
     public static Form getFormWithId(long formId) {
         if (formId != 0) {
+            Form cached = cache.get(formId);
+            if (cached != null) return cached;
+
+            long generation = cache.getGeneration();
             SQLiteDatabase db = OutfieldApp.getDatabase().getReadableDatabase();
             Cursor formCursor = db.query(
                     OutfieldContract.Form.TABLE_NAME,
@@ -61,6 +92,7 @@ public class Form extends Model {
             if (formCursor != null && formCursor.moveToFirst()) {
                 Form form = new Form(formCursor);
                 formCursor.close();
+                cache.putIfCurrent(formId, form, generation);
                 return form;
             }
         }
@@ -68,51 +100,51 @@ public class Form extends Model {
         return null;
     }
 
+    /**
+     * @return The cache used by {@link #getFormWithId(long)}, for reading its counters.
+     */
+    public static ModelCache<Form> getCache() {
+        return cache;
+    }
+
     /**
      * Calls {@link #insert()} method for this Form object and all submodels. If a
-     * Form with the same {@link #formId} already exists in the database, that
-     * Form and its submodels will be deleted and replaced.
+     * Form with the same {@link #formId} already exists in the database, it is
+     * updated in place, and its submodels that are no longer on this Form are deleted.
      * @return True if save was successful.
      */
     public boolean save() {
-        // Insert form values
+        // Insert or update form values
         insert();
 
-        // Insert fields
+        // Remove fields no longer on the form, then write the rest in place
+        long[] fieldIds = new long[formFields.size()];
+        for (int i = 0; i < fieldIds.length; i++) fieldIds[i] = formFields.get(i).getId();
+        OutfieldApp.getDatabase().getWriter().deleteChildrenExcept(
+                OutfieldContract.FormField.TABLE_NAME, OutfieldContract.FormField.FORM_ID, formId,
+                OutfieldContract.FormField.FORM_FIELD_ID, fieldIds);
         for (FormField field : formFields) {
-            field.insert();
+            field.save();
         }
 
+        cache.invalidate(formId);
         return true;
     }
 
     @Override
     protected boolean insert() {
-        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
-        db.beginTransaction();
-        try {
-            rowId = db.insertOrThrow(OutfieldContract.Form.TABLE_NAME, null, getContentValues());
-            db.setTransactionSuccessful();
-        } catch (Exception e) {
-            Log.e(TAG, "Error during insert()", e);
-        } finally {
-            db.endTransaction();
-        }
+        rowId = OutfieldApp.getDatabase().getWriter()
+                .upsert(OutfieldContract.Form.TABLE_NAME, OutfieldContract.Form.COLUMNS, this);
+        cache.invalidate(formId);
         return rowId >= 0;
     }
 
     @Override
     protected void loadFromCursor(Cursor cursor) {
-        try {
-            int rowIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Form._ID);
-            int formIdIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Form.FORM_ID);
-            int titleIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Form.TITLE);
-
-            // Load form values
-            rowId = cursor.getLong(rowIndex);
-            formId = cursor.getLong(formIdIndex);
-            title = cursor.getString(titleIndex);
+        // Load form values
+        loadFields(cursor);
 
+        try {
             // Retrieve form fields
             formFields.clear();
             SQLiteDatabase db = OutfieldApp.getDatabase().getReadableDatabase();
@@ -129,17 +161,37 @@ public class Form extends Model {
             while (formFieldCursor != null && formFieldCursor.moveToNext()) {
                 formFields.add(new FormField(formFieldCursor));
             }
+            if (formFieldCursor != null) formFieldCursor.close();
+            FormField.loadChoices(db, formFields);
         } catch (Exception e) {
             Log.e(TAG, "Error during loadFromCursor()", e);
         }
     }
 
+    /**
+     * Loads this form's own columns from the cursor's current row without loading its fields.
+     * @param cursor A cursor to the form table.
+     */
+    void loadFields(Cursor cursor) {
+        try {
+            int rowIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Form._ID);
+            int formIdIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Form.FORM_ID);
+            int titleIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Form.TITLE);
+
+            rowId = cursor.getLong(rowIndex);
+            formId = cursor.getLong(formIdIndex);
+            title = cursor.getString(titleIndex);
+
+            formFields.clear();
+        } catch (Exception e) {
+            Log.e(TAG, "Error during loadFields()", e);
+        }
+    }
+
     @Override
-    protected ContentValues getContentValues() {
-        ContentValues values = new ContentValues();
-        if (formId != 0) values.put(OutfieldContract.Form.FORM_ID, formId);
-        values.put(OutfieldContract.Form.TITLE, title);
-        return values;
+    public void bindValues(UpsertStatement statement) {
+        statement.bindId(formId);
+        statement.bindString(title);
     }
 
     /**
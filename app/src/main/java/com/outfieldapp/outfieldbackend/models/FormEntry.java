@@ -1,14 +1,13 @@
 package com.outfieldapp.outfieldbackend.models;
 
-import android.content.ContentValues;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
 import com.google.gson.annotations.SerializedName;
 import com.outfieldapp.outfieldbackend.OutfieldApp;
 import com.outfieldapp.outfieldbackend.api.Constants.Keys;
 import com.outfieldapp.outfieldbackend.database.OutfieldContract;
+import com.outfieldapp.outfieldbackend.database.UpsertStatement;
 
 public class FormEntry extends Model {
 
@@ -49,16 +48,9 @@ public class FormEntry extends Model {
             return false;
         }
 
-        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
-        db.beginTransaction();
-        try {
-            rowId = db.insertOrThrow(OutfieldContract.FormEntry.TABLE_NAME, null, getContentValues());
-            db.setTransactionSuccessful();
-        } catch (Exception e) {
-            Log.e(TAG, "Error during insert()", e);
-        } finally {
-            db.endTransaction();
-        }
+        rowId = OutfieldApp.getDatabase().getWriter()
+                .upsert(OutfieldContract.FormEntry.TABLE_NAME, OutfieldContract.FormEntry.COLUMNS,
+                        2, this);
         return rowId >= 0;
     }
 
@@ -82,12 +74,10 @@ public class FormEntry extends Model {
     }
 
     @Override
-    protected ContentValues getContentValues() {
-        ContentValues values = new ContentValues();
-        if (interactionId != 0) values.put(OutfieldContract.FormEntry.INTERACTION_ID, interactionId);
-        if (formFieldId != 0) values.put(OutfieldContract.FormEntry.FORM_FIELD_ID, formFieldId);
-        if (formId != 0) values.put(OutfieldContract.FormEntry.FORM_ID, formId);
-        values.put(OutfieldContract.FormEntry.VALUE, value);
-        return values;
+    public void bindValues(UpsertStatement statement) {
+        statement.bindId(interactionId);
+        statement.bindId(formFieldId);
+        statement.bindId(formId);
+        statement.bindString(value);
     }
 }
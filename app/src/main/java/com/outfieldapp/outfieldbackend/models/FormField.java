@@ -1,18 +1,20 @@
 package com.outfieldapp.outfieldbackend.models;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.LongSparseArray;
 
 import com.google.gson.annotations.SerializedName;
 import com.outfieldapp.outfieldbackend.OutfieldApp;
 import com.outfieldapp.outfieldbackend.api.Constants.Keys;
+import com.outfieldapp.outfieldbackend.database.DatabaseWriter;
 import com.outfieldapp.outfieldbackend.database.OutfieldContract;
+import com.outfieldapp.outfieldbackend.database.UpsertStatement;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.List;
 
 public class FormField extends Model {
 
@@ -33,7 +35,7 @@ public class FormField extends Model {
     @SerializedName(Keys.Form.FormField.FIELD_TYPE)
     private String fieldType;
     @SerializedName(Keys.Form.FormField.CHOICES)
-    private ArrayList<String> choices;
+    private ArrayList<String> choices = new ArrayList<>();
 
     /* Constructors */
     public FormField() {}
@@ -57,7 +59,94 @@ public class FormField extends Model {
         }
     }
 
+    /**
+     * @return A copy of this field and its choices, for {@link Form#copy()}.
+     */
+    FormField copy() {
+        FormField copy = new FormField();
+        copy.rowId = rowId;
+        copy.formFieldId = formFieldId;
+        copy.formId = formId;
+        copy.position = position;
+        copy.required = required;
+        copy.label = label;
+        copy.fieldType = fieldType;
+        copy.choices = choices != null ? new ArrayList<>(choices) : null;
+        return copy;
+    }
+
     /* Database Access */
+    /**
+     * Calls {@link #insert()} for this field, then writes its choices in place, one row per
+     * choice, and removes choices beyond the end of the list.
+     * @return True if save was successful.
+     */
+    public boolean save() {
+        if (!insert()) return false;
+
+        DatabaseWriter writer = OutfieldApp.getDatabase().getWriter();
+        int count = choices != null ? choices.size() : 0;
+        long[] positions = new long[count];
+        for (int i = 0; i < count; i++) positions[i] = i;
+        writer.deleteChildrenExcept(OutfieldContract.FormFieldChoice.TABLE_NAME,
+                OutfieldContract.FormFieldChoice.FORM_FIELD_ID, formFieldId,
+                OutfieldContract.FormFieldChoice.POSITION, positions);
+        for (int i = 0; i < count; i++) {
+            final int position = i;
+            final String choice = choices.get(i);
+            writer.upsert(OutfieldContract.FormFieldChoice.TABLE_NAME,
+                    OutfieldContract.FormFieldChoice.COLUMNS, 2, new UpsertStatement.Binder() {
+                @Override
+                public void bindValues(UpsertStatement statement) {
+                    statement.bindId(formFieldId);
+                    statement.bindLong(position);
+                    statement.bindString(choice);
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Loads the choices of many fields with one query per batch of ids.
+     * @param db The database to read from.
+     * @param fields Fields whose choices should be replaced with the stored ones.
+     */
+    static void loadChoices(SQLiteDatabase db, List<FormField> fields) {
+        if (fields.isEmpty()) return;
+        LongSparseArray<FormField> fieldsById = new LongSparseArray<>(fields.size());
+        for (FormField field : fields) {
+            field.choices = new ArrayList<>();
+            fieldsById.put(field.formFieldId, field);
+        }
+        long[] ids = new long[fieldsById.size()];
+        for (int i = 0; i < ids.length; i++) ids[i] = fieldsById.keyAt(i);
+
+        for (int start = 0; start < ids.length; start += ContactLoader.MAX_IDS_PER_QUERY) {
+            int end = Math.min(ids.length, start + ContactLoader.MAX_IDS_PER_QUERY);
+            Cursor cursor = db.query(
+                    OutfieldContract.FormFieldChoice.TABLE_NAME,
+                    new String[]{
+                            OutfieldContract.FormFieldChoice.FORM_FIELD_ID,
+                            OutfieldContract.FormFieldChoice.VALUE
+                    },
+                    OutfieldContract.FormFieldChoice.FORM_FIELD_ID + " IN ("
+                            + ContactLoader.placeholders(end - start) + ")",
+                    ContactLoader.toArgs(ids, start, end),
+                    null,
+                    null,
+                    OutfieldContract.FormFieldChoice.FORM_FIELD_ID + ", "
+                            + OutfieldContract.FormFieldChoice.POSITION
+            );
+            if (cursor == null) continue;
+            while (cursor.moveToNext()) {
+                FormField field = fieldsById.get(cursor.getLong(0));
+                if (field != null) field.choices.add(cursor.getString(1));
+            }
+            cursor.close();
+        }
+    }
+
     @Override
     protected boolean insert() {
 
@@ -66,16 +155,8 @@ public class FormField extends Model {
             return false;
         }
 
-        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
-        db.beginTransaction();
-        try {
-            rowId = db.insertOrThrow(OutfieldContract.FormField.TABLE_NAME, null, getContentValues());
-            db.setTransactionSuccessful();
-        } catch (Exception e) {
-            Log.e(TAG, "Error during insert()", e);
-        } finally {
-            db.endTransaction();
-        }
+        rowId = OutfieldApp.getDatabase().getWriter()
+                .upsert(OutfieldContract.FormField.TABLE_NAME, OutfieldContract.FormField.COLUMNS, this);
         return rowId >= 0;
     }
 
@@ -89,7 +170,6 @@ public class FormField extends Model {
             int requiredIndex = cursor.getColumnIndexOrThrow(OutfieldContract.FormField.REQUIRED);
             int labelIndex = cursor.getColumnIndexOrThrow(OutfieldContract.FormField.LABEL);
             int fieldTypeIndex = cursor.getColumnIndexOrThrow(OutfieldContract.FormField.FIELD_TYPE);
-            int choicesIndex = cursor.getColumnIndexOrThrow(OutfieldContract.FormField.CHOICES);
 
             rowId = cursor.getLong(rowIndex);
             formFieldId = cursor.getLong(fieldIdIndex);
@@ -99,26 +179,21 @@ public class FormField extends Model {
             label = cursor.getString(labelIndex);
             fieldType = cursor.getString(fieldTypeIndex);
 
+            // Choices are loaded for many fields at once by loadChoices()
             choices = new ArrayList<>();
-            String choicesString = cursor.getString(choicesIndex);
-            Collections.addAll(choices, TextUtils.split(choicesString, ","));
-
         } catch (Exception e) {
             Log.d(TAG, "Error during loadFromCursor()", e);
         }
     }
 
     @Override
-    protected ContentValues getContentValues() {
-        ContentValues values = new ContentValues();
-        if (formFieldId != 0) values.put(OutfieldContract.FormField.FORM_FIELD_ID, formFieldId);
-        if (formId != 0) values.put(OutfieldContract.FormField.FORM_ID, formId);
-        values.put(OutfieldContract.FormField.POSITION, position);
-        values.put(OutfieldContract.FormField.REQUIRED, required);
-        values.put(OutfieldContract.FormField.LABEL, label);
-        values.put(OutfieldContract.FormField.FIELD_TYPE, fieldType);
-        values.put(OutfieldContract.FormField.CHOICES, getChoicesAsString());
-        return values;
+    public void bindValues(UpsertStatement statement) {
+        statement.bindId(formFieldId);
+        statement.bindId(formId);
+        statement.bindLong(position);
+        statement.bindBoolean(required);
+        statement.bindString(label);
+        statement.bindString(fieldType);
     }
 
     public enum FieldType {
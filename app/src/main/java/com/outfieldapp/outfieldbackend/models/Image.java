@@ -1,14 +1,16 @@
 package com.outfieldapp.outfieldbackend.models;
 
-import android.content.ContentValues;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
 import com.google.gson.annotations.SerializedName;
 import com.outfieldapp.outfieldbackend.OutfieldApp;
 import com.outfieldapp.outfieldbackend.api.Constants.Keys;
+import com.outfieldapp.outfieldbackend.database.BlobStore;
 import com.outfieldapp.outfieldbackend.database.OutfieldContract;
+import com.outfieldapp.outfieldbackend.database.UpsertStatement;
+
+import java.nio.ByteBuffer;
 
 public class Image extends Model {
 
@@ -19,6 +21,7 @@ public class Image extends Model {
     private long interactionId;
     private long userId;
     private byte[] imageFile;
+    private String imageHash;
     private String uri;
 
     @SerializedName(Keys.Image.ID)
@@ -37,7 +40,9 @@ public class Image extends Model {
     }
 
     /* Getters */
-    public byte[] getImageFile() { return imageFile; }
+    public long getId() { return imageId; }
+    public String getImageHash() { return imageHash; }
+    public boolean hasImageFile() { return imageFile != null || imageHash != null; }
     public String getUriString() { return uri; }
     public String getOriginalUrlString() { return originalUrl; }
     public String getThumbnailUrlString() { return thumbnailUrl; }
@@ -47,10 +52,53 @@ public class Image extends Model {
     public void setContactId(long id) { contactId = id; }
     public void setInteractionId(long id) { interactionId = id; }
     public void setUserId(long id) { userId = id; }
-    public void setImageFile(byte[] bytes) { imageFile = bytes; }
+    public void setImageFile(byte[] bytes) {
+        imageFile = bytes;
+        imageHash = null;
+    }
     public void setUri(String uri) { this.uri = uri; }
     public void setDestroy(boolean destroy) { this.destroy = destroy; }
 
+    /**
+     * Reads this image's binary. Stored images are read from the {@link BlobStore} each time this
+     * is called and are not kept in memory.
+     * @return The image's bytes, or null if it has none.
+     */
+    public byte[] getImageFile() {
+        if (imageFile != null) return imageFile;
+        if (imageHash == null) return null;
+        return BlobStore.getInstance(OutfieldApp.getContext()).get(imageHash);
+    }
+
+    /**
+     * Maps this image's stored binary into memory without copying it onto the heap.
+     * @return A read-only buffer of the image's bytes, or null if it has not been stored.
+     */
+    public ByteBuffer mapImageFile() {
+        if (imageHash == null) return null;
+        return BlobStore.getInstance(OutfieldApp.getContext()).map(imageHash);
+    }
+
+    /**
+     * @return A copy of this image, for {@link Contact#copy()} and {@link User#copy()}. An
+     * unsaved binary is shared, since it is never changed in place.
+     */
+    Image copy() {
+        Image copy = new Image();
+        copy.rowId = rowId;
+        copy.contactId = contactId;
+        copy.interactionId = interactionId;
+        copy.userId = userId;
+        copy.imageFile = imageFile;
+        copy.imageHash = imageHash;
+        copy.uri = uri;
+        copy.imageId = imageId;
+        copy.originalUrl = originalUrl;
+        copy.thumbnailUrl = thumbnailUrl;
+        copy.destroy = destroy;
+        return copy;
+    }
+
     /* Database Access */
     @Override
     protected boolean insert() {
@@ -59,16 +107,9 @@ public class Image extends Model {
             return false;
         }
 
-        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
-        db.beginTransaction();
-        try {
-            rowId = db.insertOrThrow(OutfieldContract.Image.TABLE_NAME, null, getContentValues());
-            db.setTransactionSuccessful();
-        } catch (Exception e) {
-            Log.e(TAG, "Error during insert()", e);
-        } finally {
-            db.endTransaction();
-        }
+        storeImageFile();
+        rowId = OutfieldApp.getDatabase().getWriter()
+                .upsert(OutfieldContract.Image.TABLE_NAME, OutfieldContract.Image.COLUMNS, this);
         return rowId >= 0;
     }
 
@@ -78,17 +119,23 @@ public class Image extends Model {
             return false;
         }
 
-        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
-
-        db.beginTransaction();
-        int rows = db.update(
-                OutfieldContract.Image.TABLE_NAME,
-                getContentValues(),
-                OutfieldContract.Image._ID + "=?",
-                new String[]{String.valueOf(rowId)}
-        );
-        db.endTransaction();
-        return rows > 0;
+        storeImageFile();
+        int rows = OutfieldApp.getDatabase().getWriter().update(
+                OutfieldContract.Image.TABLE_NAME, OutfieldContract.Image.COLUMNS, rowId, this);
+        return rows >= 0;
+    }
+
+    /**
+     * Moves a binary set with {@link #setImageFile(byte[])} into the {@link BlobStore} so only its
+     * hash is written to the database.
+     */
+    private void storeImageFile() {
+        if (imageFile == null) return;
+        String hash = BlobStore.getInstance(OutfieldApp.getContext()).put(imageFile);
+        if (hash != null) {
+            imageHash = hash;
+            imageFile = null;
+        }
     }
 
     @Override
@@ -99,7 +146,7 @@ public class Image extends Model {
             int contactIdIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Image.CONTACT_ID);
             int interactionIdIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Image.INTERACTION_ID);
             int userIdIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Image.USER_ID);
-            int imageFileIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Image.IMAGE_FILE);
+            int imageHashIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Image.IMAGE_HASH);
             int imageUriIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Image.IMAGE_URI);
             int originalUrlIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Image.ORIGINAL_URL);
             int thumbUrlIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Image.THUMBNAIL_URL);
@@ -110,7 +157,8 @@ public class Image extends Model {
             contactId = cursor.getLong(contactIdIndex);
             interactionId = cursor.getLong(interactionIdIndex);
             userId = cursor.getLong(userIdIndex);
-            imageFile = cursor.getBlob(imageFileIndex);
+            imageHash = cursor.getString(imageHashIndex);
+            imageFile = null;
             uri = cursor.getString(imageUriIndex);
             originalUrl = cursor.getString(originalUrlIndex);
             thumbnailUrl = cursor.getString(thumbUrlIndex);
@@ -121,17 +169,15 @@ public class Image extends Model {
     }
 
     @Override
-    protected ContentValues getContentValues() {
-        ContentValues values = new ContentValues();
-        if (imageId != 0) values.put(OutfieldContract.Image.IMAGE_ID, imageId);
-        if (contactId != 0) values.put(OutfieldContract.Image.CONTACT_ID, contactId);
-        if (interactionId != 0) values.put(OutfieldContract.Image.INTERACTION_ID, interactionId);
-        if (userId != 0) values.put(OutfieldContract.Image.USER_ID, userId);
-        values.put(OutfieldContract.Image.IMAGE_FILE, imageFile);
-        values.put(OutfieldContract.Image.IMAGE_URI, uri);
-        values.put(OutfieldContract.Image.ORIGINAL_URL, originalUrl);
-        values.put(OutfieldContract.Image.THUMBNAIL_URL, thumbnailUrl);
-        values.put(OutfieldContract.Image.DESTROY, destroy);
-        return values;
+    public void bindValues(UpsertStatement statement) {
+        statement.bindId(imageId);
+        statement.bindId(contactId);
+        statement.bindId(interactionId);
+        statement.bindId(userId);
+        statement.bindString(imageHash);
+        statement.bindString(uri);
+        statement.bindString(originalUrl);
+        statement.bindString(thumbnailUrl);
+        statement.bindBoolean(destroy);
     }
 }
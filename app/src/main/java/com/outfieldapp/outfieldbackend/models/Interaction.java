@@ -1,21 +1,24 @@
 package com.outfieldapp.outfieldbackend.models;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.google.gson.annotations.JsonAdapter;
 import com.google.gson.annotations.SerializedName;
 import com.outfieldapp.outfieldbackend.OutfieldApp;
 import com.outfieldapp.outfieldbackend.api.Constants.Keys;
+import com.outfieldapp.outfieldbackend.api.TimestampAdapter;
+import com.outfieldapp.outfieldbackend.database.DatabaseWriter;
+import com.outfieldapp.outfieldbackend.database.Outbox;
 import com.outfieldapp.outfieldbackend.database.OutfieldContract;
+import com.outfieldapp.outfieldbackend.database.UpsertStatement;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.Map;
 
 public class Interaction extends Model {
 
@@ -24,6 +27,10 @@ public class Interaction extends Model {
     private long rowId;
     private boolean draft;
     private boolean dirty;
+    /** Hash of the server's JSON for this interaction and its submodels, or null if saved locally. */
+    private transient String contentHash;
+    transient long userId;
+    private transient EnumSet<LoadOptions.Relation> pending;
 
     @SerializedName(Keys.Interaction.ID)
     private long interactionId;
@@ -34,7 +41,8 @@ public class Interaction extends Model {
     @SerializedName(Keys.Interaction.SHARE_URL)
     private String shareUrl = "";
     @SerializedName(Keys.Interaction.CREATED_AT)
-    private String createdAt = "";
+    @JsonAdapter(TimestampAdapter.class)
+    private long createdAt;
     @SerializedName(Keys.Interaction.IN_TEAM_ACTIVITY)
     private boolean inTeamActivity;
     @SerializedName(Keys.Interaction.DESTROY)
@@ -64,27 +72,40 @@ public class Interaction extends Model {
     public Interaction(Cursor cursor) {
         if (cursor != null) loadFromCursor(cursor);
     }
+    public Interaction(Cursor cursor, LoadOptions options) {
+        if (cursor != null) load(cursor, options);
+    }
 
     /* Getters */
     public long getId() { return interactionId; }
     public Type getInteractionType() { return Type.valueOf(interactionType.toUpperCase()); }
     public String getNotes() { return notes; }
     public String getShareUrl() { return shareUrl; }
-    public String getCreatedAt() { return createdAt; }
+    public long getRowId() { return rowId; }
+    public long getCreatedAt() { return createdAt; }
     public boolean isInTeamActivity() { return inTeamActivity; }
     public boolean isDraft() { return draft; }
     public boolean isDirty() { return dirty; }
+    public String getContentHash() { return contentHash; }
     public boolean isDestroy() { return destroy; }
-    public Contact getContact() { return (!contacts.isEmpty()) ? contacts.get(0) : null; }
-    public User getUser() { return user; }
-    public List<Form> getForms() { return forms; }
-    public List<FormEntryGroup> getFormEntryGroups() { return formEntryGroups; }
-    public List<Comment> getComments() { return comments; }
-    public List<Image> getImages() { return images; }
+    public Contact getContact() {
+        resolve(LoadOptions.Relation.CONTACT);
+        return (!contacts.isEmpty()) ? contacts.get(0) : null;
+    }
+    public User getUser() { resolve(LoadOptions.Relation.USER); return user; }
+    public List<Form> getForms() { resolve(LoadOptions.Relation.FORMS); return forms; }
+    public List<Long> getFormIds() { resolve(LoadOptions.Relation.FORMS); return formIds; }
+    public List<FormEntryGroup> getFormEntryGroups() {
+        resolve(LoadOptions.Relation.FORMS);
+        return formEntryGroups;
+    }
+    public List<Comment> getComments() { resolve(LoadOptions.Relation.COMMENTS); return comments; }
+    public List<Image> getImages() { resolve(LoadOptions.Relation.IMAGES); return images; }
     public float getDuration() { return interactionDetails.duration; }
     public float getLatitude() { return interactionDetails.getLocation().latitude; }
     public float getLongitude() { return interactionDetails.getLocation().longitude; }
     public String getFormIdsAsString() {
+        resolve(LoadOptions.Relation.FORMS);
         if (formIds == null || formIds.isEmpty()) {
             return "";
         } else {
@@ -98,17 +119,37 @@ public class Interaction extends Model {
     public void setNotes(String notes) { this.notes = notes;}
     public void setDuration(float duration) { interactionDetails.duration = duration; }
     public void setLocation(float lat, float lng) { interactionDetails.setLocation(lat, lng); }
-    public void setCreatedAt(String createdAt) { this.createdAt = createdAt; }
+    public void setCreatedAt(long createdAt) { this.createdAt = createdAt; }
     public void setInTeamActivity(boolean inTeamActivity) { this.inTeamActivity = inTeamActivity; }
     public void setDraft(boolean draft) { this.draft = draft; }
     public void setDirty(boolean dirty) { this.dirty = dirty; }
+    public void setContentHash(String hash) { contentHash = hash; }
     public void setDestroy(boolean destroy) { this.destroy = destroy; }
-    public void setContactId(long id) { contactIds.set(0, id); }
-    public void setUser(User user) { this.user = user; }
-    public void setFormIds(List<Long> formIds) { this.formIds = formIds; }
-    public void setFormEntryGroups(List<FormEntryGroup> groups) { formEntryGroups = groups; }
-    public void setComments(List<Comment> comments) { this.comments = comments; }
-    public void setImages(List<Image> images) { this.images = images; }
+    public void setContactId(long id) {
+        contactIds.clear();
+        contactIds.add(id);
+    }
+    public void setUser(User user) {
+        discard(LoadOptions.Relation.USER);
+        this.user = user;
+        userId = user != null ? user.getId() : 0;
+    }
+    public void setFormIds(List<Long> formIds) {
+        resolve(LoadOptions.Relation.FORMS);
+        this.formIds = formIds;
+    }
+    public void setFormEntryGroups(List<FormEntryGroup> groups) {
+        resolve(LoadOptions.Relation.FORMS);
+        formEntryGroups = groups;
+    }
+    public void setComments(List<Comment> comments) {
+        discard(LoadOptions.Relation.COMMENTS);
+        this.comments = comments;
+    }
+    public void setImages(List<Image> images) {
+        discard(LoadOptions.Relation.IMAGES);
+        this.images = images;
+    }
 
     /* Database Access */
     /**
@@ -143,21 +184,42 @@ public class Interaction extends Model {
 
     /**
      * Calls {@link #insert()} method for this Interaction object and all submodels. If an
-     * Interaction with the same {@link #interactionId} already exists in the database, that
-     * Interaction and its submodels will be deleted and replaced.
+     * Interaction with the same {@link #interactionId} already exists in the database, it is
+     * updated in place, and its submodels that are no longer on this Interaction are deleted.
      * @return True if save was successful.
      */
     public boolean save() {
+        // One transaction, so an upload finishing on the writer thread sees the row and its
+        // outbox entry change together
+        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
+        db.beginTransaction();
+        try {
+            boolean saved = saveRows();
+            db.setTransactionSuccessful();
+            return saved;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private boolean saveRows() {
 
         if (interactionType.equalsIgnoreCase("planned_check_in")
                 || interactionType.equalsIgnoreCase("planned_meeting")) return false;
 
+        // Load deferred submodels so they are written back
+        resolveAll();
+
         // Insert user
         if (user != null) user.save();
-
-        // Insert contact
-        if (getContact() != null) {
-            getContact().save();
+        DatabaseWriter writer = OutfieldApp.getDatabase().getWriter();
+
+        // Insert contact, unless it is an unchanged copy of a stored one. A contact sent inside an
+        // interaction has no content hash, so saving it would clear the hash its own sync stored.
+        Contact contact = getContact();
+        if (contact != null && (contact.isDirty() || contact.getContentHash() != null
+                || !hasCleanRow(writer, contact))) {
+            contact.save();
         }
 
         // Insert forms
@@ -165,10 +227,44 @@ public class Interaction extends Model {
             form.save();
         }
 
-        // Insert interaction
+        // Insert or update interaction
         insert();
+        int i;
+
+        // Remove children no longer on the interaction, then write the rest in place
+        long[] keepFormIds = new long[formIds.size()];
+        for (i = 0; i < keepFormIds.length; i++) keepFormIds[i] = formIds.get(i);
+        writer.deleteChildrenExcept(OutfieldContract.InteractionForm.TABLE_NAME,
+                OutfieldContract.InteractionForm.INTERACTION_ID, interactionId,
+                OutfieldContract.InteractionForm.FORM_ID, keepFormIds);
+        for (i = 0; i < formIds.size(); i++) {
+            final long formId = formIds.get(i);
+            final int position = i;
+            writer.upsert(OutfieldContract.InteractionForm.TABLE_NAME,
+                    OutfieldContract.InteractionForm.COLUMNS, 2, new UpsertStatement.Binder() {
+                @Override
+                public void bindValues(UpsertStatement statement) {
+                    statement.bindId(interactionId);
+                    statement.bindId(formId);
+                    statement.bindLong(position);
+                }
+            });
+        }
 
-        // Insert form entries
+        int entryCount = 0;
+        for (FormEntryGroup group : formEntryGroups) {
+            entryCount += group.getFormEntries().size();
+        }
+        long[] fieldIds = new long[entryCount];
+        i = 0;
+        for (FormEntryGroup group : formEntryGroups) {
+            for (FormEntry entry : group.getFormEntries()) {
+                fieldIds[i++] = entry.getFormFieldId();
+            }
+        }
+        writer.deleteChildrenExcept(OutfieldContract.FormEntry.TABLE_NAME,
+                OutfieldContract.FormEntry.INTERACTION_ID, interactionId,
+                OutfieldContract.FormEntry.FORM_FIELD_ID, fieldIds);
         for (FormEntryGroup group : formEntryGroups) {
             for (FormEntry entry : group.getFormEntries()) {
                 entry.setInteractionId(interactionId);
@@ -177,21 +273,46 @@ public class Interaction extends Model {
             }
         }
 
-        // Insert comments
+        long[] commentIds = new long[comments.size()];
+        for (i = 0; i < commentIds.length; i++) commentIds[i] = comments.get(i).getId();
+        writer.deleteChildrenExcept(OutfieldContract.Comment.TABLE_NAME,
+                OutfieldContract.Comment.INTERACTION_ID, interactionId,
+                OutfieldContract.Comment.COMMENT_ID, commentIds);
         for (Comment comment : comments) {
             comment.setInteractionId(interactionId);
             comment.save();
         }
 
-        // Insert images
+        long[] imageIds = new long[images.size()];
+        for (i = 0; i < imageIds.length; i++) imageIds[i] = images.get(i).getId();
+        writer.deleteChildrenExcept(OutfieldContract.Image.TABLE_NAME,
+                OutfieldContract.Image.INTERACTION_ID, interactionId,
+                OutfieldContract.Image.IMAGE_ID, imageIds);
         for (Image image : images) {
             image.setInteractionId(interactionId);
             image.insert();
         }
 
+        // Queue local changes for upload
+        if (dirty) {
+            OutfieldApp.getDatabase().getOutbox().record(Outbox.INTERACTION, interactionId,
+                    Outbox.Operation.of(interactionId, destroy));
+        }
+
         return true;
     }
 
+    /**
+     * @return True if the contact already has a row without local changes.
+     */
+    private static boolean hasCleanRow(DatabaseWriter writer, Contact contact) {
+        if (contact.getId() <= 0) return false;
+        return writer.queryString("SELECT " + OutfieldContract.Contact._ID + " FROM "
+                + OutfieldContract.Contact.TABLE_NAME + " WHERE "
+                + OutfieldContract.Contact.CONTACT_ID + "=? AND "
+                + OutfieldContract.Contact.DIRTY + "=0", contact.getId()) != null;
+    }
+
     @Override
     protected boolean insert() {
 
@@ -200,31 +321,13 @@ public class Interaction extends Model {
             return false;
         }
 
-        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
-        db.beginTransaction();
-        try {
-            // Insert values, get row id
-            rowId = db.insertOrThrow(OutfieldContract.Interaction.TABLE_NAME, null, getContentValues());
-
-            // If interaction does not have an id, generate negative id from row id and update
-            if (interactionId == 0) {
-                interactionId = rowId * -1;
-                ContentValues values = new ContentValues();
-                values.put(OutfieldContract.Interaction.INTERACTION_ID, interactionId);
-                db.update(
-                        OutfieldContract.Interaction.TABLE_NAME,
-                        values,
-                        OutfieldContract.Interaction._ID + "=?",
-                        new String[]{String.valueOf(rowId)}
-                );
-            }
+        // Interactions created locally are placed in the feed by when they were first saved
+        if (createdAt == 0 && interactionId <= 0) createdAt = System.currentTimeMillis();
 
-            db.setTransactionSuccessful();
-        } catch (Exception e) {
-            Log.e(TAG, "Error during insert()", e);
-        } finally {
-            db.endTransaction();
-        }
+        // Insert values, get row id. A missing id is assigned from the row id by the same insert.
+        rowId = OutfieldApp.getDatabase().getWriter().upsertWithLocalId(
+                OutfieldContract.Interaction.TABLE_NAME, OutfieldContract.Interaction.COLUMNS, this);
+        if (rowId > 0 && interactionId == 0) interactionId = rowId * -1;
         return rowId >= 0;
     }
 
@@ -234,17 +337,10 @@ public class Interaction extends Model {
             Log.e(TAG, "Error: You must insert before updating");
             return false;
         }
-        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
-        db.beginTransaction();
-        int rows = db.update(
-                OutfieldContract.Interaction.TABLE_NAME,
-                getContentValues(),
-                OutfieldContract.Interaction._ID + "=?",
-                new String[]{String.valueOf(rowId)}
-        );
-        db.setTransactionSuccessful();
-        db.endTransaction();
-        return rows > 0;
+        int rows = OutfieldApp.getDatabase().getWriter().update(
+                OutfieldContract.Interaction.TABLE_NAME, OutfieldContract.Interaction.COLUMNS,
+                rowId, this);
+        return rows >= 0;
     }
 
     public boolean delete() {
@@ -260,185 +356,169 @@ public class Interaction extends Model {
 
     @Override
     protected void loadFromCursor(Cursor cursor) {
-        try {
-            int rowIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Interaction._ID);
-            int interactionIdIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Interaction.INTERACTION_ID);
-            int userIdIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Interaction.USER_ID);
-            int contactIdIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Interaction.CONTACT_ID);
-            int formIdsIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Interaction.FORM_IDS);
-            int typeIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Interaction.INTERACTION_TYPE);
-            int notesIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Interaction.NOTES);
-            int shareUrlIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Interaction.SHARE_URL);
-            int createdAtIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Interaction.CREATED_AT);
-            int teamActivityIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Interaction.IN_TEAM_ACTIVITY);
-            int draftIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Interaction.DRAFT);
-            int dirtyIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Interaction.DIRTY);
-            int destroyIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Interaction.DESTROY);
-            int durationIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Interaction.DURATION);
-            int latitudeIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Interaction.LATITUDE);
-            int longitudeIndex = cursor.getColumnIndexOrThrow(OutfieldContract.Interaction.LONGITUDE);
-
-            // Load interaction values
-            rowId = cursor.getLong(rowIndex);
-            interactionId = cursor.getLong(interactionIdIndex);
-            interactionType = cursor.getString(typeIndex);
-            notes = cursor.getString(notesIndex);
-            shareUrl = cursor.getString(shareUrlIndex);
-            createdAt = cursor.getString(createdAtIndex);
-            inTeamActivity = cursor.getInt(teamActivityIndex) > 0;
-            draft = cursor.getInt(draftIndex) > 0;
-            dirty = cursor.getInt(dirtyIndex) > 0;
-            destroy = cursor.getInt(destroyIndex) > 0;
-
-            // Load interaction detail values
-            interactionDetails.duration = cursor.getFloat(durationIndex);
-            interactionDetails.setLocation(cursor.getFloat(latitudeIndex), cursor.getFloat(longitudeIndex));
-
-            // Load user
-            long userId = cursor.getLong(userIdIndex);
-            if (userId != 0) user = User.getUserWithId(userId);
-
-            // Load contact
-            long contactId = cursor.getLong(contactIdIndex);
-            if (contactId != 0) {
-                contactIds.set(0, contactId);
-                contacts.set(0, Contact.getContactWithId(contactId));
-            }
-
-            SQLiteDatabase db = OutfieldApp.getDatabase().getReadableDatabase();
-
-            // Load comments
-            comments.clear();
-            Cursor commentCursor = db.query(
-                    OutfieldContract.Comment.TABLE_NAME,
-                    null,
-                    OutfieldContract.Comment.INTERACTION_ID + "=?",
-                    new String[]{String.valueOf(interactionId)},
-                    null,
-                    null,
-                    OutfieldContract.Comment.CREATED_AT
-            );
+        load(cursor, LoadOptions.ALL);
+    }
 
-            while (commentCursor != null && commentCursor.moveToNext()) {
-                comments.add(new Comment(commentCursor));
-            }
+    /**
+     * Loads this interaction's columns from the cursor along with the relations in the options.
+     * Relations left out are loaded by {@link InteractionLoader} the first time they are used.
+     * @param cursor A cursor to the interaction table, which may contain only some of its columns.
+     * @param options The relations to load now.
+     */
+    void load(Cursor cursor, LoadOptions options) {
+        // Load interaction values
+        loadFields(cursor);
 
-            if (commentCursor != null) commentCursor.close();
+        // Load user, contact, forms, comments, images and entries
+        try {
+            new InteractionLoader().loadRelations(
+                    Collections.singletonList(this), options.getRelations());
+        } catch (Exception e) {
+            Log.e(TAG, "Error during load()", e);
+        }
+        setPending(options.getDeferred());
+    }
 
-            // Load images
-            images.clear();
-            Cursor imageCursor = db.query(
-                    OutfieldContract.Image.TABLE_NAME,
-                    null,
-                    OutfieldContract.Image.INTERACTION_ID + "=?",
-                    new String[]{String.valueOf(interactionId)},
-                    null,
-                    null,
-                    null
-            );
+    /**
+     * Marks relations that were not loaded with this interaction's columns.
+     */
+    void setPending(EnumSet<LoadOptions.Relation> relations) {
+        pending = relations.isEmpty() ? null : relations;
+    }
 
-            while (imageCursor != null && imageCursor.moveToNext()) {
-                images.add(new Image(imageCursor));
-            }
+    /**
+     * Loads a relation deferred by {@link #load(Cursor, LoadOptions)}.
+     */
+    private void resolve(LoadOptions.Relation relation) {
+        if (pending == null || !pending.remove(relation)) return;
+        new InteractionLoader().loadRelations(
+                Collections.singletonList(this), EnumSet.of(relation));
+    }
 
-            if (imageCursor != null) imageCursor.close();
+    /**
+     * Drops a deferred relation that is being replaced, so it is not loaded over the new value.
+     */
+    private void discard(LoadOptions.Relation relation) {
+        if (pending != null) pending.remove(relation);
+    }
 
-            // Load forms
-            formIds.clear();
-            forms.clear();
-            Map<Long, FormEntryGroup> groupMap = new HashMap<>();
-            String formIdString = cursor.getString(formIdsIndex);
-            List<String> formIdStringArray = new ArrayList<>();
-            Collections.addAll(formIdStringArray, TextUtils.split(formIdString, ","));
-
-            for (String s : formIdStringArray) {
-                long formId = Long.parseLong(s);
-                Form form = Form.getFormWithId(formId);
-                if (form != null) {
-                    formIds.add(formId);
-                    forms.add(form);
-                    FormEntryGroup group = new FormEntryGroup();
-                    group.setFormId(formId);
-                    groupMap.put(formId, group);
-                }
-            }
+    private void resolveAll() {
+        if (pending == null) return;
+        EnumSet<LoadOptions.Relation> relations = pending;
+        pending = null;
+        new InteractionLoader().loadRelations(Collections.singletonList(this), relations);
+    }
 
-            // Load entries
-            Cursor entryCursor = db.query(
-                    OutfieldContract.FormEntry.TABLE_NAME,
-                    null,
-                    OutfieldContract.FormEntry.INTERACTION_ID + "=?",
-                    new String[]{String.valueOf(interactionId)},
-                    null,
-                    null,
-                    null
-            );
+    /**
+     * Loads this interaction's own columns from the cursor's current row without loading
+     * submodels. The contact id is read so that {@link InteractionLoader} can resolve it.
+     * @param cursor A cursor to the interaction table.
+     */
+    void loadFields(Cursor cursor) {
+        try {
+            int rowIndex = cursor.getColumnIndex(OutfieldContract.Interaction._ID);
+            int interactionIdIndex = cursor.getColumnIndex(OutfieldContract.Interaction.INTERACTION_ID);
+            int userIdIndex = cursor.getColumnIndex(OutfieldContract.Interaction.USER_ID);
+            int contactIdIndex = cursor.getColumnIndex(OutfieldContract.Interaction.CONTACT_ID);
+            int typeIndex = cursor.getColumnIndex(OutfieldContract.Interaction.INTERACTION_TYPE);
+            int notesIndex = cursor.getColumnIndex(OutfieldContract.Interaction.NOTES);
+            int shareUrlIndex = cursor.getColumnIndex(OutfieldContract.Interaction.SHARE_URL);
+            int createdAtIndex = cursor.getColumnIndex(OutfieldContract.Interaction.CREATED_AT);
+            int teamActivityIndex = cursor.getColumnIndex(OutfieldContract.Interaction.IN_TEAM_ACTIVITY);
+            int draftIndex = cursor.getColumnIndex(OutfieldContract.Interaction.DRAFT);
+            int dirtyIndex = cursor.getColumnIndex(OutfieldContract.Interaction.DIRTY);
+            int destroyIndex = cursor.getColumnIndex(OutfieldContract.Interaction.DESTROY);
+            int durationIndex = cursor.getColumnIndex(OutfieldContract.Interaction.DURATION);
+            int latitudeIndex = cursor.getColumnIndex(OutfieldContract.Interaction.LATITUDE);
+            int longitudeIndex = cursor.getColumnIndex(OutfieldContract.Interaction.LONGITUDE);
+
+            // Columns left out of the cursor's projection keep their defaults
+            if (rowIndex >= 0) rowId = cursor.getLong(rowIndex);
+            if (interactionIdIndex >= 0) interactionId = cursor.getLong(interactionIdIndex);
+            if (userIdIndex >= 0) userId = cursor.getLong(userIdIndex);
+            if (typeIndex >= 0) interactionType = cursor.getString(typeIndex);
+            if (notesIndex >= 0) notes = cursor.getString(notesIndex);
+            if (shareUrlIndex >= 0) shareUrl = cursor.getString(shareUrlIndex);
+            if (createdAtIndex >= 0) createdAt = cursor.getLong(createdAtIndex);
+            if (teamActivityIndex >= 0) inTeamActivity = cursor.getInt(teamActivityIndex) > 0;
+            if (draftIndex >= 0) draft = cursor.getInt(draftIndex) > 0;
+            if (dirtyIndex >= 0) dirty = cursor.getInt(dirtyIndex) > 0;
+            if (destroyIndex >= 0) destroy = cursor.getInt(destroyIndex) > 0;
 
-            while (entryCursor != null && entryCursor.moveToNext()) {
-                FormEntry entry = new FormEntry(entryCursor);
-                FormEntryGroup group = groupMap.get(entry.getFormId());
-                if (group != null) group.addFormEntry(entry);
+            // Load interaction detail values
+            if (durationIndex >= 0) interactionDetails.duration = cursor.getFloat(durationIndex);
+            if (latitudeIndex >= 0 && longitudeIndex >= 0) {
+                interactionDetails.setLocation(cursor.getFloat(latitudeIndex),
+                        cursor.getFloat(longitudeIndex));
             }
 
-            if (entryCursor != null) entryCursor.close();
+            // Load contact id
+            user = null;
+            contacts.clear();
+            contactIds.clear();
+            long contactId = contactIdIndex >= 0 ? cursor.getLong(contactIdIndex) : 0;
+            if (contactId != 0) contactIds.add(contactId);
 
+            // Form ids are loaded with the forms, from the interaction_form table
+            forms.clear();
+            formIds.clear();
 
+            formEntryGroups.clear();
+            comments.clear();
+            images.clear();
+            pending = null;
         } catch (Exception e) {
-            Log.e(TAG, "Error during loadFromCursor()", e);
+            Log.e(TAG, "Error during loadFields()", e);
         }
     }
 
     @Override
-    protected ContentValues getContentValues() {
-        ContentValues values = new ContentValues();
-
-        // Put interaction values
-        if (interactionId != 0) values.put(OutfieldContract.Interaction.INTERACTION_ID, interactionId);
-        values.put(OutfieldContract.Interaction.INTERACTION_TYPE, interactionType);
-        values.put(OutfieldContract.Interaction.NOTES, notes);
-        values.put(OutfieldContract.Interaction.SHARE_URL, shareUrl);
-        values.put(OutfieldContract.Interaction.CREATED_AT, createdAt);
-        values.put(OutfieldContract.Interaction.IN_TEAM_ACTIVITY, inTeamActivity);
-        values.put(OutfieldContract.Interaction.DRAFT, draft);
-        values.put(OutfieldContract.Interaction.DIRTY, dirty);
-        values.put(OutfieldContract.Interaction.DESTROY, destroy);
-
-        // Put interaction detail values
-        if (Type.valueOf(interactionType.toUpperCase()) != Type.NOTE) {
-            values.put(OutfieldContract.Interaction.DURATION, getDuration());
-            values.put(OutfieldContract.Interaction.LATITUDE, getLatitude());
-            values.put(OutfieldContract.Interaction.LONGITUDE, getLongitude());
-        }
+    public void bindValues(UpsertStatement statement) {
+        resolveAll();
+        boolean hasDetails = Type.valueOf(interactionType.toUpperCase()) != Type.NOTE;
 
-        // Put contact values
+        // Bind interaction values
+        statement.bindId(interactionId);
         if (!contactIds.isEmpty()) {
-            values.put(OutfieldContract.Interaction.CONTACT_ID, contactIds.get(0));
-        } else if (!contacts.isEmpty() && contacts.get(0).getId() != 0) {
-            values.put(OutfieldContract.Interaction.CONTACT_ID, contacts.get(0).getId());
-        }
-
-        // Put user values
-        if (user != null && user.getId() != 0) {
-            values.put(OutfieldContract.Interaction.USER_ID, user.getId());
+            statement.bindId(contactIds.get(0));
+        } else {
+            statement.bindId(!contacts.isEmpty() ? contacts.get(0).getId() : 0);
         }
-
-        // Put form values
-        if (!formIds.isEmpty()) {
-            values.put(OutfieldContract.Interaction.FORM_IDS, getFormIdsAsString());
+        statement.bindId(user != null && user.getId() != 0 ? user.getId() : userId);
+        statement.bindString(interactionType);
+        statement.bindString(notes);
+        statement.bindString(shareUrl);
+
+        // Bind interaction detail values
+        if (hasDetails) {
+            statement.bindDouble(getDuration());
+            statement.bindDouble(getLatitude());
+            statement.bindDouble(getLongitude());
+        } else {
+            statement.bindNull();
+            statement.bindNull();
+            statement.bindNull();
         }
 
-        // Put comment values
+        // Bind image and comment values
+        statement.bindString(!images.isEmpty() ? images.get(0).getOriginalUrlString() : null);
         if (!comments.isEmpty()) {
-            values.put(OutfieldContract.Interaction.COMMENT_COUNT, comments.size());
+            statement.bindLong(comments.size());
+        } else {
+            statement.bindNull();
         }
-
-        // Put image values
         if (!images.isEmpty()) {
-            values.put(OutfieldContract.Interaction.IMAGE_COUNT, images.size());
-            values.put(OutfieldContract.Interaction.IMAGE_URL, images.get(0).getOriginalUrlString());
+            statement.bindLong(images.size());
+        } else {
+            statement.bindNull();
         }
 
-        return values;
+        statement.bindBoolean(inTeamActivity);
+        statement.bindLong(createdAt);
+        statement.bindBoolean(draft);
+        statement.bindBoolean(dirty);
+        statement.bindBoolean(destroy);
+        statement.bindString(contentHash);
     }
 
     public enum Type {
@@ -475,6 +555,8 @@ public class Interaction extends Model {
     }
 
     public Wrapper wrap() {
+        // Load deferred submodels so they are serialized
+        resolveAll();
         return new Wrapper(this);
     }
 
@@ -487,7 +569,8 @@ public class Interaction extends Model {
         List<Location> locations = new ArrayList<>();
 
         public void setLocation(float latitude, float longitude) {
-            locations.set(0, new Location(latitude, longitude));
+            locations.clear();
+            locations.add(new Location(latitude, longitude));
         }
 
         public Location getLocation() {
@@ -0,0 +1,492 @@
+package com.outfieldapp.outfieldbackend.models;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.outfieldapp.outfieldbackend.OutfieldApp;
+import com.outfieldapp.outfieldbackend.database.OutfieldContract;
+import com.outfieldapp.outfieldbackend.database.Timeline;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Loads many interactions and everything they reference at once. Loading an interaction with
+ * {@link Interaction#Interaction(Cursor)} looks up its user, contact and each of its forms one at a
+ * time, then queries its comments, images and form entries, so a feed of interactions costs
+ * dozens of queries per row. This loader reads the interactions' own columns first, then resolves
+ * every relation for the whole batch with one <code>IN (...)</code> query per table:
+ * comments, users, user images, contacts (see {@link ContactLoader}), interaction forms, forms,
+ * form fields, field choices, interaction images and form entries.
+ * <p>
+ * Users, contacts and forms are identity-mapped. Interactions and comments that reference the same
+ * id share a single instance, and a loader reused across several batches, such as the pages of a
+ * feed, only queries ids it has not seen before. A loader is not thread-safe.
+ * <p>
+ * {@link LoadOptions} limit which relations are queried. Relations left out are loaded per
+ * interaction the first time their getter is called.
+ */
+public class InteractionLoader {
+
+    public static final String TAG = InteractionLoader.class.getSimpleName();
+
+    private final LongSparseArray<User> users = new LongSparseArray<>();
+    private final LongSparseArray<Contact> contacts = new LongSparseArray<>();
+    private final LongSparseArray<Form> forms = new LongSparseArray<>();
+    private final SQLiteDatabase db;
+    private int queryCount;
+
+    /**
+     * Creates a loader that reads the app's database.
+     */
+    public InteractionLoader() {
+        this(null);
+    }
+
+    /**
+     * Creates a loader that reads the given database, such as a test's. Contacts are still loaded
+     * through {@link ContactLoader} and time ranges through the app's {@link Timeline}.
+     * @param db The database to read, or null for the app's database.
+     */
+    public InteractionLoader(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Loads every interaction in a cursor along with its related models. The cursor is read from
+     * its current position to the end but is not closed.
+     * @param cursor A cursor to the interaction table.
+     * @return Interactions in cursor order.
+     */
+    public List<Interaction> load(Cursor cursor) {
+        return load(cursor, LoadOptions.ALL);
+    }
+
+    /**
+     * Loads every interaction in a cursor along with the relations in the options. The cursor is
+     * read from its current position to the end but is not closed.
+     * @param cursor A cursor to the interaction table, which may contain only some of its columns.
+     * @param options The relations to load now.
+     * @return Interactions in cursor order.
+     */
+    public List<Interaction> load(Cursor cursor, LoadOptions options) {
+        List<Interaction> interactions = new ArrayList<>();
+        if (cursor == null) return interactions;
+
+        while (cursor.moveToNext()) {
+            Interaction interaction = new Interaction();
+            interaction.loadFields(cursor);
+            interactions.add(interaction);
+        }
+
+        loadRelations(interactions, options.getRelations());
+        for (Interaction interaction : interactions) {
+            interaction.setPending(options.getDeferred());
+        }
+        return interactions;
+    }
+
+    /**
+     * Loads interactions with the given ids along with their related models.
+     * @param interactionIds Interaction ids as assigned by the API, or negative local ids.
+     * @return Interactions found, ordered by row id. Ids not found are skipped.
+     */
+    public List<Interaction> getInteractionsWithIds(long[] interactionIds) {
+        List<Interaction> interactions = new ArrayList<>();
+        if (interactionIds == null || interactionIds.length == 0) return interactions;
+
+        SQLiteDatabase db = getDatabase();
+        for (int start = 0; start < interactionIds.length; start += ContactLoader.MAX_IDS_PER_QUERY) {
+            int end = Math.min(interactionIds.length, start + ContactLoader.MAX_IDS_PER_QUERY);
+            Cursor cursor = queryIn(db, OutfieldContract.Interaction.TABLE_NAME,
+                    OutfieldContract.Interaction.INTERACTION_ID, interactionIds, start, end,
+                    OutfieldContract.Interaction._ID);
+            if (cursor != null) {
+                interactions.addAll(load(cursor));
+                cursor.close();
+            }
+        }
+        return interactions;
+    }
+
+    /**
+     * Loads the interactions that use a form, through the index on the interaction_form table.
+     * @param formId The form's API id.
+     * @return Interactions using the form, ordered by row id.
+     */
+    public List<Interaction> getInteractionsWithForm(long formId) {
+        List<Interaction> interactions = new ArrayList<>();
+        SQLiteDatabase db = getDatabase();
+        queryCount++;
+        Cursor cursor = db.query(
+                OutfieldContract.Interaction.TABLE_NAME,
+                null,
+                OutfieldContract.Interaction.INTERACTION_ID + " IN (SELECT "
+                        + OutfieldContract.InteractionForm.INTERACTION_ID + " FROM "
+                        + OutfieldContract.InteractionForm.TABLE_NAME + " WHERE "
+                        + OutfieldContract.InteractionForm.FORM_ID + "=?)",
+                new String[]{String.valueOf(formId)},
+                null,
+                null,
+                OutfieldContract.Interaction._ID
+        );
+        if (cursor != null) {
+            interactions.addAll(load(cursor));
+            cursor.close();
+        }
+        return interactions;
+    }
+
+    /**
+     * Loads a page of interactions created within a time range, newest first, along with their
+     * related models. See {@link Timeline}.
+     * @param since Earliest creation time to include, in epoch milliseconds.
+     * @param until Creation time to stop before, in epoch milliseconds, or {@link Timeline#NO_END}.
+     * @param after Where the previous page ended, or null for the first page. The next page starts
+     *              after <code>new Timeline.Position(last.getCreatedAt(), last.getRowId())</code>.
+     * @param limit The most interactions to load.
+     * @return Interactions in the page, newest first.
+     */
+    public List<Interaction> getInteractionsBetween(long since, long until,
+                                                    Timeline.Position after, int limit) {
+        List<Interaction> interactions = new ArrayList<>();
+        queryCount++;
+        Cursor cursor = OutfieldApp.getDatabase().getTimeline()
+                .queryInteractions(since, until, after, limit);
+        if (cursor != null) {
+            interactions.addAll(load(cursor));
+            cursor.close();
+        }
+        return interactions;
+    }
+
+    /**
+     * @return The number of queries this loader has run, for comparing against per-row loading.
+     */
+    public int getQueryCount() {
+        return queryCount;
+    }
+
+    /**
+     * Resolves relations of interactions that were loaded with
+     * {@link Interaction#loadFields(Cursor)}.
+     * @param interactions The interactions to fill.
+     * @param relations The relations to load. Comments are loaded with their users.
+     */
+    void loadRelations(List<Interaction> interactions, EnumSet<LoadOptions.Relation> relations) {
+        if (interactions.isEmpty() || relations.isEmpty()) return;
+        boolean loadUser = relations.contains(LoadOptions.Relation.USER);
+        boolean loadContact = relations.contains(LoadOptions.Relation.CONTACT);
+        boolean loadForms = relations.contains(LoadOptions.Relation.FORMS);
+        boolean loadComments = relations.contains(LoadOptions.Relation.COMMENTS);
+        boolean loadImages = relations.contains(LoadOptions.Relation.IMAGES);
+
+        LongSparseArray<Interaction> interactionsById = new LongSparseArray<>(interactions.size());
+        for (Interaction interaction : interactions) {
+            interactionsById.put(interaction.getId(), interaction);
+        }
+        long[] interactionIds = keys(interactionsById);
+
+        try {
+            SQLiteDatabase db = getDatabase();
+
+            // Load comments, collecting their authors with the interactions' users
+            LongSparseArray<Boolean> wantedUsers = new LongSparseArray<>();
+            if (loadUser) {
+                for (Interaction interaction : interactions) {
+                    if (interaction.userId > 0) wantedUsers.put(interaction.userId, true);
+                }
+            }
+            LongSparseArray<List<Comment>> commentsByUser = new LongSparseArray<>();
+            if (loadComments) {
+                for (int start = 0; start < interactionIds.length; start += ContactLoader.MAX_IDS_PER_QUERY) {
+                    int end = Math.min(interactionIds.length, start + ContactLoader.MAX_IDS_PER_QUERY);
+                    Cursor commentCursor = queryIn(db, OutfieldContract.Comment.TABLE_NAME,
+                            OutfieldContract.Comment.INTERACTION_ID, interactionIds, start, end,
+                            OutfieldContract.Comment.CREATED_AT);
+                    if (commentCursor == null) continue;
+
+                    int userIdIndex = commentCursor.getColumnIndexOrThrow(OutfieldContract.Comment.USER_ID);
+                    while (commentCursor.moveToNext()) {
+                        Comment comment = new Comment();
+                        comment.loadFields(commentCursor);
+                        Interaction interaction = interactionsById.get(comment.getInteractionId());
+                        if (interaction == null) continue;
+                        interaction.comments.add(comment);
+
+                        long userId = commentCursor.getLong(userIdIndex);
+                        if (userId > 0) {
+                            wantedUsers.put(userId, true);
+                            List<Comment> authored = commentsByUser.get(userId);
+                            if (authored == null) {
+                                authored = new ArrayList<>();
+                                commentsByUser.put(userId, authored);
+                            }
+                            authored.add(comment);
+                        }
+                    }
+                    commentCursor.close();
+                }
+            }
+
+            // Load users and attach them to interactions and comments
+            loadUsers(db, keys(wantedUsers));
+            if (loadUser) {
+                for (Interaction interaction : interactions) {
+                    if (interaction.userId > 0) interaction.user = users.get(interaction.userId);
+                }
+            }
+            for (int i = 0; i < commentsByUser.size(); i++) {
+                User user = users.get(commentsByUser.keyAt(i));
+                for (Comment comment : commentsByUser.valueAt(i)) {
+                    comment.setUser(user);
+                }
+            }
+
+            // Load contacts
+            if (loadContact) {
+                LongSparseArray<Boolean> wantedContacts = new LongSparseArray<>();
+                for (Interaction interaction : interactions) {
+                    for (Long contactId : interaction.contactIds) {
+                        if (contactId != 0 && contacts.get(contactId) == null) {
+                            wantedContacts.put(contactId, true);
+                        }
+                    }
+                }
+                if (wantedContacts.size() > 0) {
+                    List<Contact> loaded = ContactLoader.getContactsWithIds(keys(wantedContacts));
+                    queryCount += 5 * chunks(wantedContacts.size());
+                    for (Contact contact : loaded) {
+                        contacts.put(contact.getId(), contact);
+                    }
+                }
+                for (Interaction interaction : interactions) {
+                    if (interaction.contactIds.isEmpty()) continue;
+                    Contact contact = contacts.get(interaction.contactIds.get(0));
+                    if (contact != null) interaction.contacts.add(contact);
+                }
+            }
+
+            // Load forms and create an entry group for each
+            LongSparseArray<LongSparseArray<FormEntryGroup>> groupsByInteraction =
+                    new LongSparseArray<>(interactions.size());
+            if (loadForms) {
+                loadFormIds(db, interactions, interactionsById, interactionIds);
+                LongSparseArray<Boolean> wantedForms = new LongSparseArray<>();
+                for (Interaction interaction : interactions) {
+                    for (Long formId : interaction.formIds) {
+                        if (forms.get(formId) == null) wantedForms.put(formId, true);
+                    }
+                }
+                loadForms(db, keys(wantedForms));
+                for (Interaction interaction : interactions) {
+                    LongSparseArray<FormEntryGroup> groups = new LongSparseArray<>();
+                    for (Long formId : interaction.formIds) {
+                        Form form = forms.get(formId);
+                        if (form == null) continue;
+                        interaction.forms.add(form);
+                        FormEntryGroup group = new FormEntryGroup();
+                        group.setFormId(formId);
+                        group.setFormEntries(new ArrayList<FormEntry>());
+                        interaction.formEntryGroups.add(group);
+                        groups.put(formId, group);
+                    }
+                    groupsByInteraction.put(interaction.getId(), groups);
+                }
+            }
+
+            for (int start = 0; start < interactionIds.length; start += ContactLoader.MAX_IDS_PER_QUERY) {
+                int end = Math.min(interactionIds.length, start + ContactLoader.MAX_IDS_PER_QUERY);
+
+                // Load images
+                Cursor imageCursor = null;
+                if (loadImages) {
+                    imageCursor = queryIn(db, OutfieldContract.Image.TABLE_NAME,
+                            OutfieldContract.Image.INTERACTION_ID, interactionIds, start, end,
+                            OutfieldContract.Image.INTERACTION_ID + ", " + OutfieldContract.Image._ID);
+                }
+                if (imageCursor != null) {
+                    int interactionIdIndex = imageCursor.getColumnIndexOrThrow(
+                            OutfieldContract.Image.INTERACTION_ID);
+                    while (imageCursor.moveToNext()) {
+                        Interaction interaction = interactionsById.get(
+                                imageCursor.getLong(interactionIdIndex));
+                        if (interaction != null) interaction.images.add(new Image(imageCursor));
+                    }
+                    imageCursor.close();
+                }
+
+                // Load entries
+                Cursor entryCursor = null;
+                if (loadForms) {
+                    entryCursor = queryIn(db, OutfieldContract.FormEntry.TABLE_NAME,
+                            OutfieldContract.FormEntry.INTERACTION_ID, interactionIds, start, end,
+                            OutfieldContract.FormEntry.INTERACTION_ID + ", "
+                                    + OutfieldContract.FormEntry._ID);
+                }
+                if (entryCursor != null) {
+                    while (entryCursor.moveToNext()) {
+                        FormEntry entry = new FormEntry(entryCursor);
+                        LongSparseArray<FormEntryGroup> groups =
+                                groupsByInteraction.get(entry.getInteractionId());
+                        FormEntryGroup group = groups != null ? groups.get(entry.getFormId()) : null;
+                        if (group != null) group.addFormEntry(entry);
+                    }
+                    entryCursor.close();
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error during loadRelations()", e);
+        }
+    }
+
+    /**
+     * Loads users not already in the identity map, along with their images.
+     */
+    private void loadUsers(SQLiteDatabase db, long[] userIds) {
+        List<Long> missing = new ArrayList<>();
+        for (long userId : userIds) {
+            if (users.get(userId) == null) missing.add(userId);
+        }
+        if (missing.isEmpty()) return;
+        long[] ids = toArray(missing);
+
+        for (int start = 0; start < ids.length; start += ContactLoader.MAX_IDS_PER_QUERY) {
+            int end = Math.min(ids.length, start + ContactLoader.MAX_IDS_PER_QUERY);
+
+            Cursor userCursor = queryIn(db, OutfieldContract.User.TABLE_NAME,
+                    OutfieldContract.User.USER_ID, ids, start, end, null);
+            if (userCursor != null) {
+                while (userCursor.moveToNext()) {
+                    User user = new User();
+                    user.loadFields(userCursor);
+                    users.put(user.getId(), user);
+                }
+                userCursor.close();
+            }
+
+            Cursor imageCursor = queryIn(db, OutfieldContract.Image.TABLE_NAME,
+                    OutfieldContract.Image.USER_ID, ids, start, end, null);
+            if (imageCursor != null) {
+                int userIdIndex = imageCursor.getColumnIndexOrThrow(OutfieldContract.Image.USER_ID);
+                while (imageCursor.moveToNext()) {
+                    User user = users.get(imageCursor.getLong(userIdIndex));
+                    if (user != null && user.getImage() == null) {
+                        user.setImage(new Image(imageCursor));
+                    }
+                }
+                imageCursor.close();
+            }
+        }
+    }
+
+    /**
+     * Replaces the interactions' form ids with the ones in the interaction_form table, in the
+     * order they were saved.
+     */
+    private void loadFormIds(SQLiteDatabase db, List<Interaction> interactions,
+                             LongSparseArray<Interaction> interactionsById, long[] interactionIds) {
+        for (Interaction interaction : interactions) {
+            interaction.formIds.clear();
+        }
+        for (int start = 0; start < interactionIds.length; start += ContactLoader.MAX_IDS_PER_QUERY) {
+            int end = Math.min(interactionIds.length, start + ContactLoader.MAX_IDS_PER_QUERY);
+            Cursor cursor = queryIn(db, OutfieldContract.InteractionForm.TABLE_NAME,
+                    OutfieldContract.InteractionForm.INTERACTION_ID, interactionIds, start, end,
+                    OutfieldContract.InteractionForm.INTERACTION_ID + ", "
+                            + OutfieldContract.InteractionForm.POSITION);
+            if (cursor == null) continue;
+
+            int interactionIdIndex = cursor.getColumnIndexOrThrow(
+                    OutfieldContract.InteractionForm.INTERACTION_ID);
+            int formIdIndex = cursor.getColumnIndexOrThrow(
+                    OutfieldContract.InteractionForm.FORM_ID);
+            while (cursor.moveToNext()) {
+                Interaction interaction = interactionsById.get(cursor.getLong(interactionIdIndex));
+                if (interaction != null) interaction.formIds.add(cursor.getLong(formIdIndex));
+            }
+            cursor.close();
+        }
+    }
+
+    /**
+     * Loads forms not already in the identity map, along with their fields and field choices.
+     */
+    private void loadForms(SQLiteDatabase db, long[] formIds) {
+        if (formIds.length == 0) return;
+
+        for (int start = 0; start < formIds.length; start += ContactLoader.MAX_IDS_PER_QUERY) {
+            int end = Math.min(formIds.length, start + ContactLoader.MAX_IDS_PER_QUERY);
+
+            Cursor formCursor = queryIn(db, OutfieldContract.Form.TABLE_NAME,
+                    OutfieldContract.Form.FORM_ID, formIds, start, end, null);
+            if (formCursor != null) {
+                while (formCursor.moveToNext()) {
+                    Form form = new Form();
+                    form.loadFields(formCursor);
+                    forms.put(form.getId(), form);
+                }
+                formCursor.close();
+            }
+
+            Cursor fieldCursor = queryIn(db, OutfieldContract.FormField.TABLE_NAME,
+                    OutfieldContract.FormField.FORM_ID, formIds, start, end,
+                    OutfieldContract.FormField.FORM_ID + ", " + OutfieldContract.FormField.POSITION);
+            if (fieldCursor != null) {
+                List<FormField> fields = new ArrayList<>();
+                while (fieldCursor.moveToNext()) {
+                    FormField field = new FormField(fieldCursor);
+                    Form form = forms.get(field.getFormId());
+                    if (form != null) {
+                        form.getFormFields().add(field);
+                        fields.add(field);
+                    }
+                }
+                fieldCursor.close();
+                FormField.loadChoices(db, fields);
+                queryCount += chunks(fields.size());
+            }
+        }
+    }
+
+    private Cursor queryIn(SQLiteDatabase db, String table, String column, long[] ids,
+                           int start, int end, String orderBy) {
+        queryCount++;
+        return db.query(
+                table,
+                null,
+                column + " IN (" + ContactLoader.placeholders(end - start) + ")",
+                ContactLoader.toArgs(ids, start, end),
+                null,
+                null,
+                orderBy
+        );
+    }
+
+    private SQLiteDatabase getDatabase() {
+        return db != null ? db : OutfieldApp.getDatabase().getReadableDatabase();
+    }
+
+    private static int chunks(int count) {
+        return (count + ContactLoader.MAX_IDS_PER_QUERY - 1) / ContactLoader.MAX_IDS_PER_QUERY;
+    }
+
+    private static long[] keys(LongSparseArray<?> array) {
+        long[] keys = new long[array.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = array.keyAt(i);
+        }
+        return keys;
+    }
+
+    private static long[] toArray(List<Long> list) {
+        long[] array = new long[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
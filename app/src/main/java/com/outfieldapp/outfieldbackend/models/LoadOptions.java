@@ -0,0 +1,73 @@
+package com.outfieldapp.outfieldbackend.models;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+
+/**
+ * Chooses which relations a model loads from the database along with its own columns. Relations
+ * that are left out are loaded lazily the first time their getter is called, so callers that only
+ * need a few columns, such as sorting dirty rows, do not pay for submodel queries.
+ * <p>
+ * Models also accept cursors over a subset of their columns. Columns missing from the cursor are
+ * left at their defaults, which lets a caller query only the columns it needs. A model loaded
+ * from a partial projection should only be read or deleted, since saving it would overwrite the
+ * columns it did not load.
+ */
+public class LoadOptions {
+
+    public enum Relation {
+        /** The user that created an interaction or comment. */
+        USER,
+        /** The contact an interaction belongs to. */
+        CONTACT,
+        /** A contact's addresses, emails, phones and images. */
+        DETAILS,
+        /** An interaction's forms and form entries. */
+        FORMS,
+        /** An interaction's comments. */
+        COMMENTS,
+        /** An interaction's images, or a user's image. */
+        IMAGES
+    }
+
+    /** Loads every relation, the same as {@link Model#loadFromCursor}. */
+    public static final LoadOptions ALL = new LoadOptions(EnumSet.allOf(Relation.class));
+    /** Loads only the model's own columns. */
+    public static final LoadOptions FIELDS_ONLY = new LoadOptions(EnumSet.noneOf(Relation.class));
+
+    private final EnumSet<Relation> relations;
+
+    private LoadOptions(EnumSet<Relation> relations) {
+        this.relations = relations;
+    }
+
+    /**
+     * @return Options that load the given relations and defer the rest.
+     */
+    public static LoadOptions with(Relation relation, Relation... more) {
+        EnumSet<Relation> relations = EnumSet.of(relation);
+        relations.addAll(Arrays.asList(more));
+        return new LoadOptions(relations);
+    }
+
+    /**
+     * @return True if the relation should be loaded now.
+     */
+    public boolean includes(Relation relation) {
+        return relations.contains(relation);
+    }
+
+    /**
+     * @return A copy of the relations to load now.
+     */
+    public EnumSet<Relation> getRelations() {
+        return EnumSet.copyOf(relations);
+    }
+
+    /**
+     * @return The relations to defer until first use.
+     */
+    public EnumSet<Relation> getDeferred() {
+        return EnumSet.complementOf(relations);
+    }
+}
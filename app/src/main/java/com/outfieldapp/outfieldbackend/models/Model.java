@@ -1,21 +1,25 @@
 package com.outfieldapp.outfieldbackend.models;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 
+import com.outfieldapp.outfieldbackend.database.UpsertStatement;
+
 /**
  * Abstract class containing the methods required to insert a Java object to the SQLite database and
  * reconstruct the object from a cursor to the database. This abstract methods in this class are
  * protected, so if you wish to have a public save method for your extending class, you must
  * implement it manually.
+ * <p>
+ * Inserts and updates bind fields straight to a compiled {@link UpsertStatement} through
+ * {@link #bindValues(UpsertStatement)}, so each model maps its fields to columns in one place.
  *
  * @author Tim Havelka (tim@outfieldapp.com)
  */
-public abstract class Model {
+public abstract class Model implements UpsertStatement.Binder {
 
     /**
-     * Inserts values obtained from {@link #getContentValues()} into the model's respective
-     * database table. Existing rows with the same API id will be deleted and replaced.
+     * Inserts values bound by {@link #bindValues(UpsertStatement)} into the model's respective
+     * database table. An existing row with the same API id is updated in place instead.
      * Note that this method will only insert this object's fields and should not
      * insert the submodels' values.
      * @return True if insertion was successful.
@@ -30,11 +34,4 @@ public abstract class Model {
      * @param cursor A cursor to the model's respective database table.
      */
     protected abstract void loadFromCursor(Cursor cursor);
-
-    /**
-     * Generates {@link ContentValues} from this object's fields for insertion into the database.
-     * Note that this does not generate ContentValues for submodels.
-     * @return The ContentValues for this object's fields.
-     */
-    protected abstract ContentValues getContentValues();
 }
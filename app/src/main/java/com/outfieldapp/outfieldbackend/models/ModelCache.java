@@ -0,0 +1,114 @@
+package com.outfieldapp.outfieldbackend.models;
+
+import android.util.LruCache;
+
+/**
+ * Bounded LRU cache of models keyed by API id. Lookups such as {@link User#getUserWithId(long)}
+ * return a copy of the cached model when there is one, so the same rows are not queried and
+ * decoded again for every interaction or comment that references them, and a caller that changes
+ * or saves the model it was given cannot change what other callers see.
+ * <p>
+ * The size of each entry is the number of database rows it was built from (see
+ * {@link #sizeOf(Object)}), so a contact with many addresses takes more room than a user.
+ * <p>
+ * Models remove themselves from their cache whenever they are saved, inserted, updated or
+ * deleted. A write generation is kept so that a lookup that raced with a write does not put the
+ * stale object it read back into the cache.
+ */
+public abstract class ModelCache<T> {
+
+    private final String name;
+    private final LruCache<Long, Entry<T>> lruCache;
+    private long generation;
+
+    /**
+     * @param name Name used in {@link #getStats()}.
+     * @param maxSize The maximum number of rows to keep cached.
+     */
+    public ModelCache(String name, int maxSize) {
+        this.name = name;
+        this.lruCache = new LruCache<Long, Entry<T>>(maxSize) {
+            @Override
+            protected int sizeOf(Long id, Entry<T> entry) {
+                return entry.size;
+            }
+        };
+    }
+
+    /**
+     * @param id The model's API id.
+     * @return A copy of the cached model, or null if it must be loaded from the database.
+     */
+    public T get(long id) {
+        Entry<T> entry = lruCache.get(id);
+        return entry != null ? copy(entry.model) : null;
+    }
+
+    /**
+     * @return The current write generation. Pass to {@link #putIfCurrent} after loading a model.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches a copy of a model loaded from the database unless the cache was invalidated since
+     * the load began. The caller keeps the model it passed in.
+     * @param id The model's API id.
+     * @param model The loaded model.
+     * @param loadGeneration The value of {@link #getGeneration()} before the load began.
+     */
+    public synchronized void putIfCurrent(long id, T model, long loadGeneration) {
+        if (model != null && loadGeneration == generation) {
+            T cached = copy(model);
+            lruCache.put(id, new Entry<>(cached, Math.max(1, sizeOf(cached))));
+        }
+    }
+
+    /**
+     * Removes a model after it was written to the database.
+     * @param id The model's API id.
+     */
+    public synchronized void invalidate(long id) {
+        generation++;
+        lruCache.remove(id);
+    }
+
+    /**
+     * @return A copy of the model that shares no mutable state with it.
+     */
+    protected abstract T copy(T model);
+
+    /**
+     * @return The number of rows the model was built from. Override to weigh models with
+     * submodels more heavily.
+     */
+    protected int sizeOf(T model) {
+        return 1;
+    }
+
+    /* Counters */
+    public int getHitCount() { return lruCache.hitCount(); }
+    public int getMissCount() { return lruCache.missCount(); }
+    public int getEvictionCount() { return lruCache.evictionCount(); }
+    public int getSize() { return lruCache.size(); }
+    public int getMaxSize() { return lruCache.maxSize(); }
+
+    /**
+     * @return A summary of this cache's size and counters for logging.
+     */
+    public String getStats() {
+        return name + " cache: " + getSize() + "/" + getMaxSize() + " rows, " + getHitCount()
+                + " hits, " + getMissCount() + " misses, " + getEvictionCount() + " evictions";
+    }
+
+    private static class Entry<T> {
+        final T model;
+        final int size;
+
+        Entry(T model, int size) {
+            this.model = model;
+            this.size = size;
+        }
+    }
+}
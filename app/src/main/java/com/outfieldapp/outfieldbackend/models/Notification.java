@@ -1,14 +1,16 @@
 package com.outfieldapp.outfieldbackend.models;
 
-import android.content.ContentValues;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
+import com.google.gson.annotations.JsonAdapter;
 import com.google.gson.annotations.SerializedName;
 import com.outfieldapp.outfieldbackend.OutfieldApp;
 import com.outfieldapp.outfieldbackend.api.Constants.Keys;
+import com.outfieldapp.outfieldbackend.api.TimestampAdapter;
 import com.outfieldapp.outfieldbackend.database.OutfieldContract;
+import com.outfieldapp.outfieldbackend.database.Timeline;
+import com.outfieldapp.outfieldbackend.database.UpsertStatement;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -22,7 +24,8 @@ public class Notification extends Model {
     @SerializedName(Keys.Notification.ID)
     private long notificationId;
     @SerializedName(Keys.Notification.CREATED_AT)
-    private String createdAt = "";
+    @JsonAdapter(TimestampAdapter.class)
+    private long createdAt;
     @SerializedName(Keys.Notification.NOTIFICATION_DETAILS)
     private NotificationDetails notificationDetails = new NotificationDetails();
 
@@ -33,14 +36,39 @@ public class Notification extends Model {
     }
 
     /* Getters */
+    public long getRowId() { return rowId; }
+    public long getCreatedAt() { return createdAt; }
     public Comment getComment() { return notificationDetails.comment; }
     public Interaction getInteraction() { return notificationDetails.interaction; }
 
     /* Database Access */
+    /**
+     * Loads a page of notifications created within a time range, newest first. See
+     * {@link Timeline}.
+     * @param since Earliest creation time to include, in epoch milliseconds.
+     * @param until Creation time to stop before, in epoch milliseconds, or {@link Timeline#NO_END}.
+     * @param after Where the previous page ended, or null for the first page.
+     * @param limit The most notifications to load.
+     * @return Notifications in the page, newest first.
+     */
+    public static List<Notification> getNotificationsBetween(long since, long until,
+                                                             Timeline.Position after, int limit) {
+        List<Notification> notifications = new ArrayList<>();
+        Cursor cursor = OutfieldApp.getDatabase().getTimeline()
+                .queryNotifications(since, until, after, limit);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                notifications.add(new Notification(cursor));
+            }
+            cursor.close();
+        }
+        return notifications;
+    }
+
     /**
      * Calls {@link #insert()} method for this Notification object and all submodels. If a
-     * Notification with the same {@link #notificationId} already exists in the database, that
-     * Notification and its submodels will be deleted and replaced.
+     * Notification with the same {@link #notificationId} already exists in the database, it
+     * and its interaction are updated in place.
      * @return True if save was successful.
      */
     public boolean save() {
@@ -55,16 +83,9 @@ public class Notification extends Model {
 
     @Override
     protected boolean insert() {
-        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
-        db.beginTransaction();
-        try {
-            rowId = db.insertOrThrow(OutfieldContract.Notification.TABLE_NAME, null, getContentValues());
-            db.setTransactionSuccessful();
-        } catch (Exception e) {
-            Log.e(TAG, "Error during insert()", e);
-        } finally {
-            db.endTransaction();
-        }
+        rowId = OutfieldApp.getDatabase().getWriter()
+                .upsert(OutfieldContract.Notification.TABLE_NAME,
+                        OutfieldContract.Notification.COLUMNS, this);
         return rowId >= 0;
     }
 
@@ -80,7 +101,7 @@ public class Notification extends Model {
 
             rowId = cursor.getLong(rowIndex);
             notificationId = cursor.getLong(notificationIdIndex);
-            createdAt = cursor.getString(createdAtIndex);
+            createdAt = cursor.getLong(createdAtIndex);
 
             // Load comment
             long commentId = cursor.getLong(commentIdIndex);
@@ -96,42 +117,33 @@ public class Notification extends Model {
     }
 
     @Override
-    protected ContentValues getContentValues() {
-        ContentValues values = new ContentValues();
-        // Put notification values
-        if (notificationId != 0) values.put(OutfieldContract.Notification.NOTIFICATION_ID, notificationId);
-        values.put(OutfieldContract.Notification.CREATED_AT, createdAt);
-
-        // Put comment values
-        if (notificationDetails.comment != null) {
-            Comment comment = notificationDetails.comment;
-            if (comment.getId() != 0) values.put(OutfieldContract.Notification.COMMENT_ID, comment.getId());
-            values.put(OutfieldContract.Notification.COMMENT_TEXT, comment.getText());
-            // Put user values
-            if (comment.getUser() != null) {
-                User user = comment.getUser();
-                values.put(OutfieldContract.Notification.USER_NAME, user.getName());
-                // Put image values
-                if (user.getImage() != null) {
-                    Image image = user.getImage();
-                    values.put(OutfieldContract.Notification.USER_THUMB_URL, image.getThumbnailUrlString());
-                }
-            }
-        }
-
-        // Put Interaction values
-        if (notificationDetails.interaction != null) {
-            Interaction interaction = notificationDetails.interaction;
-            values.put(OutfieldContract.Notification.INTERACTION_ID, interaction.getId());
-            values.put(OutfieldContract.Notification.INTERACTION_TYPE, interaction.getInteractionType().toString());
-            // Put contact values
-            if (interaction.getContact() != null) {
-                Contact contact = interaction.getContact();
-                values.put(OutfieldContract.Notification.CONTACT_NAME, contact.getName());
-            }
+    public void bindValues(UpsertStatement statement) {
+        Comment comment = notificationDetails.comment;
+        User user = comment != null ? comment.getUser() : null;
+        Image image = user != null ? user.getImage() : null;
+        Interaction interaction = notificationDetails.interaction;
+        Contact contact = interaction != null ? interaction.getContact() : null;
+
+        // Bind notification values
+        statement.bindId(notificationId);
+
+        // Bind comment, user and image values
+        statement.bindId(comment != null ? comment.getId() : 0);
+        statement.bindString(comment != null ? comment.getText() : null);
+        statement.bindString(user != null ? user.getName() : null);
+        statement.bindString(image != null ? image.getThumbnailUrlString() : null);
+
+        // Bind interaction and contact values
+        if (interaction != null) {
+            statement.bindLong(interaction.getId());
+            statement.bindString(interaction.getInteractionType().toString());
+        } else {
+            statement.bindNull();
+            statement.bindNull();
         }
+        statement.bindString(contact != null ? contact.getName() : null);
 
-        return values;
+        statement.bindLong(createdAt);
     }
 
     private static class NotificationDetails {
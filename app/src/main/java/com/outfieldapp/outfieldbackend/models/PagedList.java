@@ -0,0 +1,262 @@
+package com.outfieldapp.outfieldbackend.models;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A long list of models, such as an activity feed or the contact list, read from the database a
+ * page at a time. Create one with {@link Repository}.
+ * <p>
+ * Pages are fetched by keyset: each page starts after the key of the previous page's last item
+ * instead of at an offset, so reaching page 1,000 costs the same as reaching page 1. Only the
+ * {@link #getMaxPages()} most recently used pages are kept, along with one small key per page
+ * already passed, so memory stays bounded however far the list is scrolled. Pages that were
+ * dropped are read again from their key when scrolled back to.
+ * <p>
+ * Whenever a page is read, the page after it is loaded on a background thread, so scrolling
+ * forward rarely waits for the database. Call {@link #invalidate()} after the underlying tables
+ * change, such as after a sync, to start over from the first page.
+ * @param <T> The model type.
+ */
+public class PagedList<T> {
+
+    public static final String TAG = PagedList.class.getSimpleName();
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    /** Pages kept in memory: the current one and those on either side of it. */
+    public static final int DEFAULT_MAX_PAGES = 3;
+
+    /**
+     * Loads the pages of a {@link PagedList}. May be called on the reading thread and the prefetch
+     * thread at the same time, so implementations must not share unsynchronized state between
+     * calls.
+     * @param <T> The model type.
+     * @param <K> The type of key that a page starts after.
+     */
+    public interface Source<T, K> {
+        /**
+         * Loads the items that follow a key, in list order.
+         * @param after Key of the last item of the previous page, or null for the first page.
+         * @param limit The most items to load.
+         * @return Up to <code>limit</code> items. Fewer means the list ends with this page.
+         */
+        List<T> load(K after, int limit);
+
+        /**
+         * @return The key the next page starts after, if this item ends a page. Keys are kept
+         * for every page passed, so they should not hold on to the item.
+         */
+        K keyOf(T item);
+    }
+
+    // Shared by every list, so prefetches never compete with each other for the database
+    private static final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "OutfieldPrefetch");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final Source<T, Object> source;
+    private final int pageSize;
+    private final int maxPages;
+
+    /** Key each page starts after. Page n's key is known once page n - 1 has been loaded. */
+    private final List<Object> keys = new ArrayList<>();
+    private final Map<Integer, List<T>> pages;
+    private final Map<Integer, Future<List<T>>> prefetches = new HashMap<>();
+    /** The number of pages, or -1 until the last page has been loaded. */
+    private int pageCount = -1;
+    private int size = -1;
+    /** Incremented by {@link #invalidate()}, so pages loaded before it are discarded. */
+    private int generation;
+
+    /**
+     * Creates a list with {@link #DEFAULT_PAGE_SIZE} items per page that keeps
+     * {@link #DEFAULT_MAX_PAGES} pages in memory.
+     */
+    public PagedList(Source<T, ?> source) {
+        this(source, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
+    }
+
+    /**
+     * @param source Source of the list's pages.
+     * @param pageSize Items per page.
+     * @param maxPages Pages to keep in memory. At least 2, so the page being read and the one
+     *                 being prefetched fit.
+     */
+    @SuppressWarnings("unchecked")
+    public PagedList(Source<T, ?> source, int pageSize, int maxPages) {
+        if (pageSize < 1) throw new IllegalArgumentException("Page size must be positive");
+        if (maxPages < 2) throw new IllegalArgumentException("At least 2 pages must be kept");
+
+        // Keys only ever come from the source's own keyOf(), so they always have its key type
+        this.source = (Source<T, Object>) source;
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        pages = new LinkedHashMap<Integer, List<T>>(maxPages + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<T>> eldest) {
+                return size() > PagedList.this.maxPages;
+            }
+        };
+        keys.add(null);
+    }
+
+    /* Getters */
+    public int getPageSize() { return pageSize; }
+    public int getMaxPages() { return maxPages; }
+
+    /**
+     * @return The number of items in the list, or -1 if the last page has not been loaded yet.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets an item by its position in the list, loading its page if it is not in memory.
+     * @return The item, or null if the list is shorter.
+     */
+    public T get(int index) {
+        List<T> page = getPage(index / pageSize);
+        int offset = index % pageSize;
+        return offset < page.size() ? page.get(offset) : null;
+    }
+
+    /**
+     * Gets a page, loading it if it is not in memory, and starts loading the page after it in the
+     * background. Pages between the furthest page reached so far and this one are loaded on the
+     * way, since a page can only be found from the end of the page before it.
+     * @param page Index of the page, starting from 0.
+     * @return The page's items, or an empty list if the list ends before it.
+     */
+    public List<T> getPage(int page) {
+        List<T> items = obtain(page);
+        prefetch(page + 1);
+        return Collections.unmodifiableList(items);
+    }
+
+    /**
+     * Drops every page and key, so the next read starts again from the first page. Prefetches
+     * still running are discarded when they finish.
+     */
+    public synchronized void invalidate() {
+        generation++;
+        for (Future<List<T>> prefetch : prefetches.values()) {
+            prefetch.cancel(false);
+        }
+        prefetches.clear();
+        pages.clear();
+        keys.clear();
+        keys.add(null);
+        pageCount = -1;
+        size = -1;
+    }
+
+    private List<T> obtain(int page) {
+        while (true) {
+            int furthest;
+            synchronized (this) {
+                if (pageCount >= 0 && page >= pageCount) return new ArrayList<>();
+                furthest = keys.size() - 1;
+            }
+            if (page <= furthest) return load(page);
+            load(furthest);
+        }
+    }
+
+    /**
+     * Returns a page from memory, waits for its prefetch or reads it now. The page's key must be
+     * known.
+     */
+    private List<T> load(int page) {
+        Future<List<T>> prefetch;
+        Object key;
+        int loadGeneration;
+        synchronized (this) {
+            List<T> items = pages.get(page);
+            if (items != null) return items;
+            prefetch = prefetches.get(page);
+            key = keys.get(page);
+            loadGeneration = generation;
+        }
+
+        if (prefetch != null) {
+            try {
+                List<T> items = prefetch.get();
+                if (items != null) return items;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Error during prefetch of page " + page, e.getCause());
+            } catch (CancellationException e) {
+                // Cancelled by invalidate(), so the page is read again below
+            }
+        }
+
+        List<T> items = source.load(key, pageSize);
+        store(page, items, loadGeneration);
+        return items;
+    }
+
+    /**
+     * Starts loading a page in the background if its key is known and it is not in memory.
+     */
+    private synchronized void prefetch(final int page) {
+        if (pageCount >= 0 && page >= pageCount) return;
+        if (page >= keys.size() || pages.containsKey(page) || prefetches.containsKey(page)) return;
+
+        final Object key = keys.get(page);
+        final int prefetchGeneration = generation;
+        prefetches.put(page, prefetchExecutor.submit(new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                try {
+                    List<T> items = source.load(key, pageSize);
+                    store(page, items, prefetchGeneration);
+                    return items;
+                } finally {
+                    synchronized (PagedList.this) {
+                        if (generation == prefetchGeneration) prefetches.remove(page);
+                    }
+                }
+            }
+        }));
+    }
+
+    /**
+     * Keeps a loaded page and records the key of the page after it, or that the list ends.
+     */
+    private void store(int page, List<T> items, int loadGeneration) {
+        // Read the key outside the lock, since a source may take a moment to build it
+        Object nextKey = items.size() >= pageSize ? source.keyOf(items.get(items.size() - 1))
+                : null;
+        synchronized (this) {
+            if (generation != loadGeneration) return;
+            pages.put(page, items);
+            if (items.size() < pageSize) {
+                pageCount = page + 1;
+                size = page * pageSize + items.size();
+            } else if (keys.size() == page + 1) {
+                keys.add(nextKey);
+            }
+        }
+    }
+}
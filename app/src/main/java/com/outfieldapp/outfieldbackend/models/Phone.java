@@ -1,14 +1,13 @@
 package com.outfieldapp.outfieldbackend.models;
 
-import android.content.ContentValues;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
 import com.google.gson.annotations.SerializedName;
 import com.outfieldapp.outfieldbackend.OutfieldApp;
 import com.outfieldapp.outfieldbackend.api.Constants.Keys;
 import com.outfieldapp.outfieldbackend.database.OutfieldContract;
+import com.outfieldapp.outfieldbackend.database.UpsertStatement;
 
 public class Phone extends Model {
 
@@ -49,6 +48,20 @@ public class Phone extends Model {
         return value;
     }
 
+    /**
+     * @return A copy of this phone, for {@link Contact#copy()}.
+     */
+    Phone copy() {
+        Phone copy = new Phone();
+        copy.rowId = rowId;
+        copy.contactId = contactId;
+        copy.phoneId = phoneId;
+        copy.label = label;
+        copy.value = value;
+        copy.destroy = destroy;
+        return copy;
+    }
+
     /* Database Access */
     @Override
     protected boolean insert() {
@@ -58,16 +71,8 @@ public class Phone extends Model {
             return false;
         }
 
-        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
-        db.beginTransaction();
-        try {
-            rowId = db.insertOrThrow(OutfieldContract.Phone.TABLE_NAME, null, getContentValues());
-            db.setTransactionSuccessful();
-        } catch (Exception e) {
-            Log.e(TAG, "Error during insert()", e);
-        } finally {
-            db.endTransaction();
-        }
+        rowId = OutfieldApp.getDatabase().getWriter()
+                .upsert(OutfieldContract.Phone.TABLE_NAME, OutfieldContract.Phone.COLUMNS, this);
         return rowId >= 0;
     }
 
@@ -78,17 +83,9 @@ public class Phone extends Model {
             return false;
         }
 
-        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
-
-        db.beginTransaction();
-        int rows = db.update(
-                OutfieldContract.Phone.TABLE_NAME,
-                getContentValues(),
-                OutfieldContract.Phone._ID + "=?",
-                new String[]{String.valueOf(rowId)}
-        );
-        db.endTransaction();
-        return rows > 0;
+        int rows = OutfieldApp.getDatabase().getWriter().update(
+                OutfieldContract.Phone.TABLE_NAME, OutfieldContract.Phone.COLUMNS, rowId, this);
+        return rows >= 0;
     }
 
     @Override
@@ -113,13 +110,11 @@ public class Phone extends Model {
     }
 
     @Override
-    protected ContentValues getContentValues() {
-        ContentValues values = new ContentValues();
-        if (phoneId != 0) values.put(OutfieldContract.Phone.PHONE_ID, phoneId);
-        if (contactId != 0) values.put(OutfieldContract.Phone.CONTACT_ID, contactId);
-        values.put(OutfieldContract.Phone.LABEL, label);
-        values.put(OutfieldContract.Phone.VALUE, value);
-        values.put(OutfieldContract.Phone.DESTROY, destroy);
-        return values;
+    public void bindValues(UpsertStatement statement) {
+        statement.bindId(phoneId);
+        statement.bindId(contactId);
+        statement.bindString(label);
+        statement.bindString(value);
+        statement.bindBoolean(destroy);
     }
 }
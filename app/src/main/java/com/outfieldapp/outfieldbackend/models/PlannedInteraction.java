@@ -1,6 +1,5 @@
 package com.outfieldapp.outfieldbackend.models;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
@@ -9,8 +8,10 @@ import com.google.gson.annotations.SerializedName;
 import com.outfieldapp.outfieldbackend.OutfieldApp;
 import com.outfieldapp.outfieldbackend.api.Constants.Keys;
 import com.outfieldapp.outfieldbackend.database.OutfieldContract;
+import com.outfieldapp.outfieldbackend.database.UpsertStatement;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 
 public class PlannedInteraction extends Model {
@@ -19,6 +20,8 @@ public class PlannedInteraction extends Model {
 
     private long rowId;
     private boolean dirty;
+    private transient long userId;
+    private transient EnumSet<LoadOptions.Relation> pending;
 
     @SerializedName(Keys.Interaction.ID)
     private long interactionId;
@@ -49,6 +52,9 @@ public class PlannedInteraction extends Model {
     public PlannedInteraction(Cursor cursor) {
         if (cursor != null) loadFromCursor(cursor);
     }
+    public PlannedInteraction(Cursor cursor, LoadOptions options) {
+        if (cursor != null) load(cursor, options);
+    }
 
     /* Getters */
     public long getId() { return interactionId; }
@@ -59,9 +65,12 @@ public class PlannedInteraction extends Model {
     public boolean isDirty() { return dirty; }
     public boolean isDestroy() { return destroy; }
     public float getDuration() { return interactionDetails.duration; }
-    public List<Comment> getComments() { return comments; }
-    public User getUser() { return user; }
-    public Contact getContact() { return (!contacts.isEmpty()) ? contacts.get(0) : null; }
+    public List<Comment> getComments() { resolve(LoadOptions.Relation.COMMENTS); return comments; }
+    public User getUser() { resolve(LoadOptions.Relation.USER); return user; }
+    public Contact getContact() {
+        resolve(LoadOptions.Relation.CONTACT);
+        return (!contacts.isEmpty()) ? contacts.get(0) : null;
+    }
 
     /* Setters */
     public void setInteractionType(Type type) { interactionType = type.toString(); }
@@ -70,8 +79,17 @@ public class PlannedInteraction extends Model {
     public void setDate(String date) { this.date = date; }
     public void setDirty(boolean dirty) { this.dirty = dirty; }
     public void setDestroy(boolean destroy) { this.destroy = destroy; }
-    public void setContactId(long id) { contactIds.set(0, id); }
-    public void setUser(User user) { this.user = user; }
+    public void setContactId(long id) {
+        if (pending != null) pending.remove(LoadOptions.Relation.CONTACT);
+        contacts.clear();
+        contactIds.clear();
+        contactIds.add(id);
+    }
+    public void setUser(User user) {
+        if (pending != null) pending.remove(LoadOptions.Relation.USER);
+        this.user = user;
+        userId = user != null ? user.getId() : 0;
+    }
 
     /* Database Access */
     /**
@@ -107,12 +125,15 @@ public class PlannedInteraction extends Model {
 
     /**
      * Calls {@link #insert()} method for this PlannedInteraction object and all submodels. If a
-     * PlannedInteraction with the same {@link #interactionId} already exists in the database, that
-     * PlannedInteraction and its submodels will be deleted and replaced.
+     * PlannedInteraction with the same {@link #interactionId} already exists in the database, it
+     * is updated in place, and its submodels that are no longer on it are deleted.
      * @return True if save was successful.
      */
     public boolean save() {
-        // Insert interaction
+        // Load deferred submodels so they are written back
+        resolveAll();
+
+        // Insert or update interaction
         insert();
 
         // Insert user
@@ -123,7 +144,12 @@ public class PlannedInteraction extends Model {
             getContact().save();
         }
 
-        // Insert comments
+        // Remove comments no longer on the interaction, then write the rest in place
+        long[] commentIds = new long[comments.size()];
+        for (int i = 0; i < commentIds.length; i++) commentIds[i] = comments.get(i).getId();
+        OutfieldApp.getDatabase().getWriter().deleteChildrenExcept(
+                OutfieldContract.Comment.TABLE_NAME, OutfieldContract.Comment.INTERACTION_ID,
+                interactionId, OutfieldContract.Comment.COMMENT_ID, commentIds);
         for (Comment comment : comments) {
             comment.setInteractionId(interactionId);
             comment.save();
@@ -139,31 +165,10 @@ public class PlannedInteraction extends Model {
             return false;
         }
 
-        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
-        db.beginTransaction();
-        try {
-            // Insert values, get row id
-            rowId = db.insertOrThrow(OutfieldContract.PlannedInteraction.TABLE_NAME, null, getContentValues());
-
-            // If contact does not have an id, generate negative id from row id and update
-            if (interactionId == 0) {
-                interactionId = rowId * -1;
-                ContentValues values = new ContentValues();
-                values.put(OutfieldContract.PlannedInteraction.INTERACTION_ID, interactionId);
-                db.update(
-                        OutfieldContract.Interaction.TABLE_NAME,
-                        values,
-                        OutfieldContract.Interaction._ID + "=?",
-                        new String[]{String.valueOf(rowId)}
-                );
-            }
-
-            db.setTransactionSuccessful();
-        } catch (Exception e) {
-            Log.e(TAG, "Error during insert()", e);
-        } finally {
-            db.endTransaction();
-        }
+        // Insert values, get row id. A missing id is assigned from the row id by the same insert.
+        rowId = OutfieldApp.getDatabase().getWriter().upsertWithLocalId(
+                OutfieldContract.PlannedInteraction.TABLE_NAME, OutfieldContract.PlannedInteraction.COLUMNS, this);
+        if (rowId > 0 && interactionId == 0) interactionId = rowId * -1;
         return rowId >= 0;
     }
 
@@ -172,113 +177,150 @@ public class PlannedInteraction extends Model {
             Log.e(TAG, "Error: You must insert before updating");
             return false;
         }
-        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
-        db.beginTransaction();
-        int rows = db.update(
+        int rows = OutfieldApp.getDatabase().getWriter().update(
                 OutfieldContract.PlannedInteraction.TABLE_NAME,
-                getContentValues(),
-                OutfieldContract.PlannedInteraction._ID + "=?",
-                new String[]{String.valueOf(rowId)}
-        );
-        db.setTransactionSuccessful();
-        db.endTransaction();
-        return rows > 0;
+                OutfieldContract.PlannedInteraction.COLUMNS, rowId, this);
+        return rows >= 0;
     }
 
     @Override
     protected void loadFromCursor(Cursor cursor) {
+        load(cursor, LoadOptions.ALL);
+    }
+
+    /**
+     * Loads this interaction's columns from the cursor along with the relations in the options.
+     * Relations left out are loaded the first time they are used.
+     * @param cursor A cursor to the planned interaction table, which may contain only some of its
+     *               columns.
+     * @param options The relations to load now.
+     */
+    void load(Cursor cursor, LoadOptions options) {
         try {
-            int rowIndex = cursor.getColumnIndexOrThrow(OutfieldContract.PlannedInteraction._ID);
-            int interactionIdIndex = cursor.getColumnIndexOrThrow(OutfieldContract.PlannedInteraction.INTERACTION_ID);
-            int userIdIndex = cursor.getColumnIndexOrThrow(OutfieldContract.PlannedInteraction.USER_ID);
-            int contactIdIndex = cursor.getColumnIndexOrThrow(OutfieldContract.PlannedInteraction.CONTACT_ID);
-            int typeIndex = cursor.getColumnIndexOrThrow(OutfieldContract.PlannedInteraction.INTERACTION_TYPE);
-            int notesIndex = cursor.getColumnIndexOrThrow(OutfieldContract.PlannedInteraction.NOTES);
-            int shareUrlIndex = cursor.getColumnIndexOrThrow(OutfieldContract.PlannedInteraction.SHARE_URL);
-            int dateIndex = cursor.getColumnIndexOrThrow(OutfieldContract.PlannedInteraction.DATE);
-            int dirtyIndex = cursor.getColumnIndexOrThrow(OutfieldContract.PlannedInteraction.DIRTY);
-            int destroyIndex = cursor.getColumnIndexOrThrow(OutfieldContract.PlannedInteraction.DESTROY);
-            int durationIndex = cursor.getColumnIndexOrThrow(OutfieldContract.PlannedInteraction.DURATION);
-
-            // Load interaction values
-            rowId = cursor.getLong(rowIndex);
-            interactionId = cursor.getLong(interactionIdIndex);
-            interactionType = cursor.getString(typeIndex);
-            notes = cursor.getString(notesIndex);
-            shareUrl = cursor.getString(shareUrlIndex);
-            date = cursor.getString(dateIndex);
-            dirty = cursor.getInt(dirtyIndex) > 0;
-            destroy = cursor.getInt(destroyIndex) > 0;
+            int rowIndex = cursor.getColumnIndex(OutfieldContract.PlannedInteraction._ID);
+            int interactionIdIndex = cursor.getColumnIndex(OutfieldContract.PlannedInteraction.INTERACTION_ID);
+            int userIdIndex = cursor.getColumnIndex(OutfieldContract.PlannedInteraction.USER_ID);
+            int contactIdIndex = cursor.getColumnIndex(OutfieldContract.PlannedInteraction.CONTACT_ID);
+            int typeIndex = cursor.getColumnIndex(OutfieldContract.PlannedInteraction.INTERACTION_TYPE);
+            int notesIndex = cursor.getColumnIndex(OutfieldContract.PlannedInteraction.NOTES);
+            int shareUrlIndex = cursor.getColumnIndex(OutfieldContract.PlannedInteraction.SHARE_URL);
+            int dateIndex = cursor.getColumnIndex(OutfieldContract.PlannedInteraction.DATE);
+            int dirtyIndex = cursor.getColumnIndex(OutfieldContract.PlannedInteraction.DIRTY);
+            int destroyIndex = cursor.getColumnIndex(OutfieldContract.PlannedInteraction.DESTROY);
+            int durationIndex = cursor.getColumnIndex(OutfieldContract.PlannedInteraction.DURATION);
+
+            // Load interaction values, leaving columns missing from the projection at defaults
+            if (rowIndex >= 0) rowId = cursor.getLong(rowIndex);
+            if (interactionIdIndex >= 0) interactionId = cursor.getLong(interactionIdIndex);
+            if (typeIndex >= 0) interactionType = cursor.getString(typeIndex);
+            if (notesIndex >= 0) notes = cursor.getString(notesIndex);
+            if (shareUrlIndex >= 0) shareUrl = cursor.getString(shareUrlIndex);
+            if (dateIndex >= 0) date = cursor.getString(dateIndex);
+            if (dirtyIndex >= 0) dirty = cursor.getInt(dirtyIndex) > 0;
+            if (destroyIndex >= 0) destroy = cursor.getInt(destroyIndex) > 0;
 
             // Load interaction detail values
-            interactionDetails.duration = cursor.getFloat(durationIndex);
-
-            // Load user
-            long userId = cursor.getLong(userIdIndex);
-            if (userId != 0) user = User.getUserWithId(userId);
+            if (durationIndex >= 0) interactionDetails.duration = cursor.getFloat(durationIndex);
+
+            // Load user and contact ids
+            user = null;
+            userId = userIdIndex >= 0 ? cursor.getLong(userIdIndex) : 0;
+            contacts.clear();
+            contactIds.clear();
+            long contactId = contactIdIndex >= 0 ? cursor.getLong(contactIdIndex) : 0;
+            if (contactId != 0) contactIds.add(contactId);
+            comments.clear();
 
-            // Load contact
-            long contactId = cursor.getLong(contactIdIndex);
-            if (contactId != 0) {
-                contactIds.set(0, contactId);
-                contacts.set(0, Contact.getContactWithId(contactId));
+            pending = options.getDeferred();
+            for (LoadOptions.Relation relation : options.getRelations()) {
+                loadRelation(relation);
             }
+        } catch (Exception e) {
+            Log.e(TAG, "Error during load()", e);
+        }
+    }
 
-            SQLiteDatabase db = OutfieldApp.getDatabase().getReadableDatabase();
+    /**
+     * Loads a relation deferred by {@link #load(Cursor, LoadOptions)}.
+     */
+    private void resolve(LoadOptions.Relation relation) {
+        if (pending != null && pending.remove(relation)) loadRelation(relation);
+    }
 
-            // Load comments
-            comments.clear();
-            Cursor commentCursor = db.query(
-                    OutfieldContract.Comment.TABLE_NAME,
-                    null,
-                    OutfieldContract.Comment.INTERACTION_ID + "=?",
-                    new String[]{String.valueOf(interactionId)},
-                    null,
-                    null,
-                    OutfieldContract.Comment.CREATED_AT
-            );
+    private void resolveAll() {
+        if (pending == null) return;
+        EnumSet<LoadOptions.Relation> relations = pending;
+        pending = null;
+        for (LoadOptions.Relation relation : relations) {
+            loadRelation(relation);
+        }
+    }
 
-            while (commentCursor != null && commentCursor.moveToNext()) {
-                comments.add(new Comment(commentCursor));
+    private void loadRelation(LoadOptions.Relation relation) {
+        try {
+            switch (relation) {
+                case USER:
+                    // Load user
+                    if (userId != 0) user = User.getUserWithId(userId);
+                    break;
+                case CONTACT:
+                    // Load contact
+                    contacts.clear();
+                    if (!contactIds.isEmpty()) {
+                        Contact contact = Contact.getContactWithId(contactIds.get(0));
+                        if (contact != null) contacts.add(contact);
+                    }
+                    break;
+                case COMMENTS:
+                    // Load comments
+                    comments.clear();
+                    SQLiteDatabase db = OutfieldApp.getDatabase().getReadableDatabase();
+                    Cursor commentCursor = db.query(
+                            OutfieldContract.Comment.TABLE_NAME,
+                            null,
+                            OutfieldContract.Comment.INTERACTION_ID + "=?",
+                            new String[]{String.valueOf(interactionId)},
+                            null,
+                            null,
+                            OutfieldContract.Comment.CREATED_AT
+                    );
+
+                    while (commentCursor != null && commentCursor.moveToNext()) {
+                        comments.add(new Comment(commentCursor));
+                    }
+
+                    if (commentCursor != null) commentCursor.close();
+                    break;
             }
-
-            if (commentCursor != null) commentCursor.close();
-
         } catch (Exception e) {
-                Log.e(TAG, "Error during loadFromCursor()", e);
+            Log.e(TAG, "Error during loadRelation()", e);
         }
     }
 
     @Override
-    protected ContentValues getContentValues() {
-        ContentValues values = new ContentValues();
-
-        // Put interaction values
-        if (interactionId != 0) values.put(OutfieldContract.PlannedInteraction.INTERACTION_ID, interactionId);
-        values.put(OutfieldContract.PlannedInteraction.INTERACTION_TYPE, interactionType);
-        values.put(OutfieldContract.PlannedInteraction.NOTES, notes);
-        values.put(OutfieldContract.PlannedInteraction.SHARE_URL, shareUrl);
-        values.put(OutfieldContract.PlannedInteraction.DATE, date);
-        values.put(OutfieldContract.PlannedInteraction.DIRTY, dirty);
-        values.put(OutfieldContract.PlannedInteraction.DESTROY, destroy);
-        values.put(OutfieldContract.PlannedInteraction.DURATION, getDuration());
-
-        // Put contact values
-        if (!contacts.isEmpty() && contacts.get(0).getId() != 0) {
-            values.put(OutfieldContract.PlannedInteraction.CONTACT_ID, contacts.get(0).getId());
-        }
+    public void bindValues(UpsertStatement statement) {
+        resolveAll();
 
-        // Put user values
-        if (user != null && user.getId() != 0) {
-            values.put(OutfieldContract.PlannedInteraction.USER_ID, user.getId());
+        // Bind interaction values
+        statement.bindId(interactionId);
+        if (!contacts.isEmpty() && contacts.get(0).getId() != 0) {
+            statement.bindId(contacts.get(0).getId());
+        } else {
+            statement.bindId(!contactIds.isEmpty() ? contactIds.get(0) : 0);
         }
-
-        // Put comment values
+        statement.bindId(user != null && user.getId() != 0 ? user.getId() : userId);
+        statement.bindString(interactionType);
+        statement.bindString(notes);
+        statement.bindString(shareUrl);
+        statement.bindDouble(getDuration());
         if (!comments.isEmpty()) {
-            values.put(OutfieldContract.PlannedInteraction.COMMENT_COUNT, comments.size());
+            statement.bindLong(comments.size());
+        } else {
+            statement.bindNull();
         }
-
-        return values;
+        statement.bindString(date);
+        statement.bindBoolean(dirty);
+        statement.bindBoolean(destroy);
     }
 
     public enum Type {
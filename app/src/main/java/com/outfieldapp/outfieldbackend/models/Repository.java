@@ -0,0 +1,116 @@
+package com.outfieldapp.outfieldbackend.models;
+
+import com.outfieldapp.outfieldbackend.database.Timeline;
+
+import java.util.List;
+
+/**
+ * Paged reads of the local database for screens that show long lists, such as the activity feed
+ * and the contact list. Each method returns a {@link PagedList} that reads its pages with keyset
+ * queries through the tables' indexes and builds each page with the models' cursor constructors
+ * or batch loaders, so a screen never runs an unbounded query or holds the whole table in memory.
+ * <p>
+ * Feeds are ordered newest first by creation time, see {@link Timeline}. Contacts are ordered by
+ * name, ignoring case.
+ */
+public final class Repository {
+
+    public static final String TAG = Repository.class.getSimpleName();
+
+    private Repository() {}
+
+    /**
+     * Pages through interactions created within a time range, newest first, each loaded with its
+     * related models by an {@link InteractionLoader}.
+     * @param since Earliest creation time to include, in epoch milliseconds.
+     * @param until Creation time to stop before, in epoch milliseconds, or {@link Timeline#NO_END}.
+     * @param pageSize Interactions per page, such as {@link PagedList#DEFAULT_PAGE_SIZE}.
+     */
+    public static PagedList<Interaction> getInteractions(final long since, final long until,
+                                                         int pageSize) {
+        return new PagedList<>(new PagedList.Source<Interaction, Timeline.Position>() {
+            @Override
+            public List<Interaction> load(Timeline.Position after, int limit) {
+                // A new loader per page, so its identity maps are freed with the page
+                return new InteractionLoader().getInteractionsBetween(since, until, after, limit);
+            }
+
+            @Override
+            public Timeline.Position keyOf(Interaction interaction) {
+                return new Timeline.Position(interaction.getCreatedAt(), interaction.getRowId());
+            }
+        }, pageSize, PagedList.DEFAULT_MAX_PAGES);
+    }
+
+    /**
+     * Pages through comments created within a time range across every interaction, newest first.
+     * @see #getInteractions(long, long, int)
+     */
+    public static PagedList<Comment> getComments(final long since, final long until, int pageSize) {
+        return new PagedList<>(new PagedList.Source<Comment, Timeline.Position>() {
+            @Override
+            public List<Comment> load(Timeline.Position after, int limit) {
+                return Comment.getCommentsBetween(since, until, after, limit);
+            }
+
+            @Override
+            public Timeline.Position keyOf(Comment comment) {
+                return new Timeline.Position(comment.getCreatedAt(), comment.getRowId());
+            }
+        }, pageSize, PagedList.DEFAULT_MAX_PAGES);
+    }
+
+    /**
+     * Pages through notifications created within a time range, newest first.
+     * @see #getInteractions(long, long, int)
+     */
+    public static PagedList<Notification> getNotifications(final long since, final long until,
+                                                           int pageSize) {
+        return new PagedList<>(new PagedList.Source<Notification, Timeline.Position>() {
+            @Override
+            public List<Notification> load(Timeline.Position after, int limit) {
+                return Notification.getNotificationsBetween(since, until, after, limit);
+            }
+
+            @Override
+            public Timeline.Position keyOf(Notification notification) {
+                return new Timeline.Position(notification.getCreatedAt(),
+                        notification.getRowId());
+            }
+        }, pageSize, PagedList.DEFAULT_MAX_PAGES);
+    }
+
+    /**
+     * Pages through contacts in name order, ignoring case, each loaded with its submodels by
+     * {@link ContactLoader}.
+     * @param pageSize Contacts per page, such as {@link PagedList#DEFAULT_PAGE_SIZE}.
+     */
+    public static PagedList<Contact> getContacts(int pageSize) {
+        return new PagedList<>(new PagedList.Source<Contact, NamePosition>() {
+            @Override
+            public List<Contact> load(NamePosition after, int limit) {
+                return after != null
+                        ? ContactLoader.getContactsByName(after.name, after.rowId, limit)
+                        : ContactLoader.getContactsByName(null, 0, limit);
+            }
+
+            @Override
+            public NamePosition keyOf(Contact contact) {
+                return new NamePosition(contact.getName(), contact.getRowId());
+            }
+        }, pageSize, PagedList.DEFAULT_MAX_PAGES);
+    }
+
+    /**
+     * The last contact of a page, without the contact's submodels.
+     */
+    private static class NamePosition {
+        final String name;
+        final long rowId;
+
+        NamePosition(String name, long rowId) {
+            this.name = name;
+            this.rowId = rowId;
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package com.outfieldapp.outfieldbackend.models;
 
-import android.content.ContentValues;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
@@ -11,13 +10,28 @@ import com.outfieldapp.outfieldbackend.OutfieldApp;
 import com.outfieldapp.outfieldbackend.api.Constants;
 import com.outfieldapp.outfieldbackend.api.Constants.Keys;
 import com.outfieldapp.outfieldbackend.database.OutfieldContract;
+import com.outfieldapp.outfieldbackend.database.UpsertStatement;
 
 public class User extends Model {
 
     public static final String TAG = User.class.getSimpleName();
+    public static final int CACHE_SIZE = 100;
+
+    private static final ModelCache<User> cache = new ModelCache<User>("User", CACHE_SIZE) {
+        @Override
+        protected User copy(User user) {
+            return user.copy();
+        }
+
+        @Override
+        protected int sizeOf(User user) {
+            return user.getImage() != null ? 2 : 1;
+        }
+    };
 
     private long rowId;
     private boolean dirty;
+    private transient boolean imagePending;
 
     @SerializedName(Keys.User.ID)
     private long userId;
@@ -39,6 +53,9 @@ public class User extends Model {
     public User(Cursor cursor) {
         if (cursor != null) loadFromCursor(cursor);
     }
+    public User(Cursor cursor, LoadOptions options) {
+        if (cursor != null) load(cursor, options);
+    }
 
     /* Getters */
     public long getId() { return userId; }
@@ -47,15 +64,37 @@ public class User extends Model {
     public String getToken() { return authToken; }
     public boolean isActive() { return active; }
     public boolean isDirty() { return dirty; }
-    public Image getImage() { return image; }
+    public Image getImage() { resolveImage(); return image; }
     public String getOrgName() { return organization.name; }
     public String getTimeZone() { return organization.timeZone; }
     public boolean hasTeamActivity() { return organization.hasTeamActivity; }
 
     /* Setters */
-    public void setImage(Image image) { this.image = image; }
+    public void setImage(Image image) { imagePending = false; this.image = image; }
     public void setDirty(boolean dirty) { this.dirty = dirty; }
 
+    /**
+     * @return A copy of this user and its image, so a cached user is never shared. A deferred
+     * image stays deferred.
+     */
+    User copy() {
+        User copy = new User();
+        copy.rowId = rowId;
+        copy.dirty = dirty;
+        copy.imagePending = imagePending;
+        copy.userId = userId;
+        copy.name = name;
+        copy.email = email;
+        copy.authToken = authToken;
+        copy.active = active;
+        copy.image = image != null ? image.copy() : null;
+        copy.organization.organizationId = organization.organizationId;
+        copy.organization.name = organization.name;
+        copy.organization.timeZone = organization.timeZone;
+        copy.organization.hasTeamActivity = organization.hasTeamActivity;
+        return copy;
+    }
+
     /* Database Access */
     /**
      * Searches Users database table for a row with matching {@link #userId} and uses
@@ -65,6 +104,10 @@ public class User extends Model {
      */
     public static User getUserWithId(long userId) {
         if (userId > 0) {
+            User cached = cache.get(userId);
+            if (cached != null) return cached;
+
+            long generation = cache.getGeneration();
             SQLiteDatabase db = OutfieldApp.getDatabase().getReadableDatabase();
             Cursor userCursor = db.query(
                     OutfieldContract.User.TABLE_NAME,
@@ -80,6 +123,7 @@ public class User extends Model {
             if (userCursor != null && userCursor.moveToFirst()) {
                 User user = new User(userCursor);
                 userCursor.close();
+                cache.putIfCurrent(userId, user, generation);
                 return user;
             }
         }
@@ -87,6 +131,13 @@ public class User extends Model {
         return null;
     }
 
+    /**
+     * @return The cache used by {@link #getUserWithId(long)}, for reading its counters.
+     */
+    public static ModelCache<User> getCache() {
+        return cache;
+    }
+
     public static User getCurrentUser() {
         SharedPreferences prefs = OutfieldApp.getSharedPrefs();
         long userId = prefs.getLong(Constants.Prefs.CURRENT_USER_ID, -1);
@@ -98,55 +149,72 @@ public class User extends Model {
 
     /**
      * Calls {@link #insert()} method for this user and all submodels. If a user with the
-     * same {@link #userId} already exists in the database, that user and its submodels will
-     * be deleted and replaced.
+     * same {@link #userId} already exists in the database, it is updated in place, and an image
+     * that is no longer on this user is deleted.
      * @return True if save was successful.
      */
     public boolean save() {
-        // Insert user values
+        // Load deferred image so it is written back
+        resolveImage();
+
+        // Insert or update user values
         insert();
 
-        // Insert image values
+        // Remove a replaced image, then write the current one in place
+        OutfieldApp.getDatabase().getWriter().deleteChildrenExcept(
+                OutfieldContract.Image.TABLE_NAME, OutfieldContract.Image.USER_ID, userId,
+                OutfieldContract.Image.IMAGE_ID,
+                image != null ? new long[]{image.getId()} : new long[0]);
         if (image != null) {
             image.setUserId(userId);
             image.insert();
         }
 
+        cache.invalidate(userId);
         return true;
     }
 
     @Override
     protected boolean insert() {
-        SQLiteDatabase db = OutfieldApp.getDatabase().getWritableDatabase();
-        db.beginTransaction();
-        try {
-            // Insert values, get row id
-            rowId = db.insertOrThrow(OutfieldContract.User.TABLE_NAME, null, getContentValues());
-            db.setTransactionSuccessful();
-        } catch (Exception e) {
-            Log.e(TAG, "Error during insert()", e);
-        } finally {
-            db.endTransaction();
-        }
+        rowId = OutfieldApp.getDatabase().getWriter()
+                .upsert(OutfieldContract.User.TABLE_NAME, OutfieldContract.User.COLUMNS, this);
+        cache.invalidate(userId);
         return rowId >= 0;
     }
 
     @Override
     protected void loadFromCursor(Cursor cursor) {
-        try {
-            int rowIndex = cursor.getColumnIndexOrThrow(OutfieldContract.User._ID);
-            int userIdIndex = cursor.getColumnIndexOrThrow(OutfieldContract.User.USER_ID);
-            int nameIndex = cursor.getColumnIndexOrThrow(OutfieldContract.User.NAME);
-            int emailIndex = cursor.getColumnIndexOrThrow(OutfieldContract.User.EMAIL);
-            int dirtyIndex = cursor.getColumnIndexOrThrow(OutfieldContract.User.DIRTY);
-
-            // Load user values
-            rowId = cursor.getLong(rowIndex);
-            userId = cursor.getLong(userIdIndex);
-            name = cursor.getString(nameIndex);
-            email = cursor.getString(emailIndex);
-            dirty = cursor.getInt(dirtyIndex) > 0;
+        load(cursor, LoadOptions.ALL);
+    }
 
+    /**
+     * Loads this user's columns from the cursor, and the user's image if the options include
+     * {@link LoadOptions.Relation#IMAGES}. Otherwise the image is loaded on first use.
+     * @param cursor A cursor to the user table, which may contain only some of its columns.
+     * @param options The relations to load now.
+     */
+    void load(Cursor cursor, LoadOptions options) {
+        // Load user values
+        loadFields(cursor);
+
+        if (options.includes(LoadOptions.Relation.IMAGES)) {
+            loadImage();
+        } else {
+            imagePending = true;
+        }
+    }
+
+    /**
+     * Loads the image deferred by {@link #load(Cursor, LoadOptions)}.
+     */
+    private void resolveImage() {
+        if (!imagePending) return;
+        imagePending = false;
+        loadImage();
+    }
+
+    private void loadImage() {
+        try {
             // Load image
             SQLiteDatabase db = OutfieldApp.getDatabase().getReadableDatabase();
             Cursor imageCursor = db.query(
@@ -166,23 +234,48 @@ public class User extends Model {
             }
 
         } catch (Exception e) {
-            Log.e(TAG, "Error during loadFromCursor()", e);
+            Log.e(TAG, "Error during loadImage()", e);
         }
     }
 
-    @Override
-    protected ContentValues getContentValues() {
-        ContentValues values = new ContentValues();
-        if (userId != 0) values.put(OutfieldContract.User.USER_ID, userId);
-        values.put(OutfieldContract.User.NAME, name);
-        values.put(OutfieldContract.User.EMAIL, email);
+    /**
+     * Loads this user's own columns from the cursor's current row without loading the image.
+     * @param cursor A cursor to the user table, which may contain only some of its columns.
+     */
+    void loadFields(Cursor cursor) {
+        try {
+            int rowIndex = cursor.getColumnIndex(OutfieldContract.User._ID);
+            int userIdIndex = cursor.getColumnIndex(OutfieldContract.User.USER_ID);
+            int nameIndex = cursor.getColumnIndex(OutfieldContract.User.NAME);
+            int emailIndex = cursor.getColumnIndex(OutfieldContract.User.EMAIL);
+            int dirtyIndex = cursor.getColumnIndex(OutfieldContract.User.DIRTY);
 
-        if (image != null) {
-            values.put(OutfieldContract.User.IMAGE_URL, image.getOriginalUrlString());
-            values.put(OutfieldContract.User.THUMBNAIL_URL, image.getThumbnailUrlString());
+            // Columns left out of the cursor's projection keep their defaults
+            if (rowIndex >= 0) rowId = cursor.getLong(rowIndex);
+            if (userIdIndex >= 0) userId = cursor.getLong(userIdIndex);
+            if (nameIndex >= 0) name = cursor.getString(nameIndex);
+            if (emailIndex >= 0) email = cursor.getString(emailIndex);
+            if (dirtyIndex >= 0) dirty = cursor.getInt(dirtyIndex) > 0;
+            image = null;
+            imagePending = false;
+        } catch (Exception e) {
+            Log.e(TAG, "Error during loadFields()", e);
         }
+    }
 
-        return values;
+    @Override
+    public void bindValues(UpsertStatement statement) {
+        resolveImage();
+        statement.bindId(userId);
+        statement.bindString(name);
+        statement.bindString(email);
+        if (image != null) {
+            statement.bindString(image.getOriginalUrlString());
+            statement.bindString(image.getThumbnailUrlString());
+        } else {
+            statement.bindNull();
+            statement.bindNull();
+        }
     }
 
     /**
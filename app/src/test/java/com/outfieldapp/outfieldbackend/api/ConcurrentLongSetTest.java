@@ -0,0 +1,98 @@
+package com.outfieldapp.outfieldbackend.api;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentLongSetTest {
+
+    @Test
+    public void matchesHashSet() throws Exception {
+        Random random = new Random(42);
+        ConcurrentLongSet set = new ConcurrentLongSet();
+        Set<Long> expected = new HashSet<>();
+
+        // A narrow range makes long probe runs that wrap around the table, and frequent removes
+        // exercise the backward shift
+        for (int i = 0; i < 200000; i++) {
+            long value = random.nextInt(200) - 100;
+            if (i % 3 == 0) value <<= 32;
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(expected.add(value), set.add(value));
+                    break;
+                case 1:
+                    assertEquals(expected.remove(value), set.remove(value));
+                    break;
+                default:
+                    assertEquals(expected.contains(value), set.contains(value));
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (long value : expected) {
+            assertTrue(set.contains(value));
+        }
+    }
+
+    @Test
+    public void removesEveryValue() throws Exception {
+        ConcurrentLongSet set = new ConcurrentLongSet();
+        for (long value = -1000; value <= 1000; value++) {
+            assertTrue(set.add(value));
+        }
+        for (long value = -1000; value <= 1000; value += 2) {
+            assertTrue(set.remove(value));
+        }
+        for (long value = -1000; value <= 1000; value++) {
+            assertEquals(value % 2 != 0, set.contains(value));
+        }
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(1));
+    }
+
+    @Test
+    public void claimsEachValueOnce() throws Exception {
+        final int threads = 8;
+        final int values = 100000;
+        final ConcurrentLongSet set = new ConcurrentLongSet();
+        final AtomicIntegerArray claims = new AtomicIntegerArray(values);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * values / threads;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    // Each thread starts at a different value, so claims overlap throughout
+                    for (int i = 0; i < values; i++) {
+                        int value = (offset + i) % values;
+                        if (set.add(value)) claims.incrementAndGet(value);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(values, set.size());
+        for (int value = 0; value < values; value++) {
+            assertEquals(1, claims.get(value));
+        }
+    }
+}